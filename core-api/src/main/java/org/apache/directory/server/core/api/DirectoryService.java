@@ -41,6 +41,7 @@ import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.DirectoryMetrics;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -495,6 +496,12 @@ public interface DirectoryService extends ServerEntryFactory
     OperationManager getOperationManager();
 
 
+    /**
+     * @return The latency and activity metrics of this service
+     */
+    DirectoryMetrics getMetrics();
+
+
     /**
      * @return The maximum allowed size for an incoming PDU
      */
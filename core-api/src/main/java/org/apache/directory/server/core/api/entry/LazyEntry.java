@@ -0,0 +1,965 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+
+
+/**
+ * An Entry backed by its serialized form, which decodes its attributes only when they
+ * are accessed. Each attribute is stored in the byte array as written by
+ * {@link Attribute#writeExternal(ObjectOutput)}, and located using an offset table.
+ * <br>
+ * Reading an attribute only decodes this attribute, and removing an attribute does not
+ * decode it. Any other modification, iterating over the attributes, or any operation
+ * which needs the whole entry, decodes all of them : from then on, the entry behaves
+ * as a {@link DefaultEntry}. The attribute types can be listed without decoding anything,
+ * using {@link #getAttributeTypes()}.
+ * <br>
+ * The entries stored in the entry cache are read by many threads, so reading a LazyEntry
+ * does not take any lock. Each serialized attribute is decoded once and shared by the entry
+ * and all its clones, which get their own copy of it when they first read it. As for a
+ * DefaultEntry, modifying an entry while other threads read it is not supported.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LazyEntry implements Entry
+{
+    /** The marker of a serialized attribute removed from the entry */
+    private static final Attribute REMOVED = new DefaultAttribute( "removed" );
+
+    /** The serialized attributes, shared with the clones */
+    private final SerializedAttributes serialized;
+
+    /** The entry's own copy of each serialized attribute, created when it is first read */
+    private final AtomicReferenceArray<Attribute> attributes;
+
+    /** The entry's DN, until the entry is decoded */
+    private volatile Dn dn;
+
+    /** The entry with all its attributes decoded, once an operation has needed it */
+    private final AtomicReference<Entry> decoded = new AtomicReference<>();
+
+    /**
+     * The serialized attributes of an entry, decoded at most once. This is never modified
+     * once created, except for the decoded attributes which are published atomically, and
+     * which are never given to an entry : the entries use copies of them.
+     */
+    private static final class SerializedAttributes
+    {
+        /** The schemaManager used to decode the attributes */
+        private final SchemaManager schemaManager;
+
+        /** The serialized attributes */
+        private final byte[] bytes;
+
+        /** The attribute types OID */
+        private final String[] oids;
+
+        /** The position of the serialized attributes in the byte array */
+        private final int[] offsets;
+
+        /** The length of the serialized attributes */
+        private final int[] lengths;
+
+        /** The position of each attribute in the arrays, per OID */
+        private final Map<String, Integer> indexes;
+
+        /** The decoded attributes */
+        private final AtomicReferenceArray<Attribute> values;
+
+
+        private SerializedAttributes( SchemaManager schemaManager, byte[] bytes, String[] oids, int[] offsets,
+            int[] lengths )
+        {
+            this.schemaManager = schemaManager;
+            this.bytes = bytes;
+            this.oids = oids;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            indexes = new HashMap<>( oids.length * 2 );
+            values = new AtomicReferenceArray<>( oids.length );
+
+            for ( int i = 0; i < oids.length; i++ )
+            {
+                indexes.put( oids[i], i );
+            }
+        }
+
+
+        /**
+         * @return The position of an attribute, or -1 if it is not serialized
+         */
+        private int indexOf( AttributeType attributeType )
+        {
+            if ( attributeType == null )
+            {
+                return -1;
+            }
+
+            Integer index = indexes.get( attributeType.getOid() );
+
+            return index == null ? -1 : index;
+        }
+
+
+        /**
+         * Decodes an attribute, if not already done. Two threads may both decode the
+         * same attribute the first time it is read, and only one of the results is kept.
+         */
+        private Attribute get( int index, Dn dn )
+        {
+            Attribute attribute = values.get( index );
+
+            if ( attribute != null )
+            {
+                return attribute;
+            }
+
+            try
+            {
+                ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream( bytes, offsets[index], lengths[index] ) );
+                attribute = new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( oids[index] ) );
+                attribute.readExternal( in );
+            }
+            catch ( IOException | ClassNotFoundException | LdapException e )
+            {
+                throw new IllegalStateException( "Cannot decode the attribute " + oids[index] + " of the entry "
+                    + dn, e );
+            }
+
+            values.compareAndSet( index, null, attribute );
+
+            return values.get( index );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of LazyEntry.
+     *
+     * @param schemaManager The SchemaManager
+     * @param dn The entry DN
+     * @param bytes The byte array containing the serialized attributes
+     * @param oids The OID of the serialized attributes
+     * @param offsets The position of each serialized attribute in the byte array
+     * @param lengths The length of each serialized attribute
+     */
+    public LazyEntry( SchemaManager schemaManager, Dn dn, byte[] bytes, String[] oids, int[] offsets, int[] lengths )
+    {
+        serialized = new SerializedAttributes( schemaManager, bytes, oids, offsets, lengths );
+        attributes = new AtomicReferenceArray<>( oids.length );
+        this.dn = dn;
+    }
+
+
+    private LazyEntry( SerializedAttributes serialized, Dn dn, AtomicReferenceArray<Attribute> attributes )
+    {
+        this.serialized = serialized;
+        this.dn = dn;
+        this.attributes = attributes;
+    }
+
+
+    /**
+     * @return The number of attributes this entry has not read yet
+     */
+    public int getUndecodedSize()
+    {
+        if ( decoded.get() != null )
+        {
+            return 0;
+        }
+
+        int undecoded = 0;
+
+        for ( int i = 0; i < attributes.length(); i++ )
+        {
+            if ( attributes.get( i ) == null )
+            {
+                undecoded++;
+            }
+        }
+
+        return undecoded;
+    }
+
+
+    /**
+     * Gives the types of the entry's attributes, without decoding them
+     *
+     * @return The AttributeTypes of the entry's attributes
+     */
+    public List<AttributeType> getAttributeTypes()
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            List<AttributeType> attributeTypes = new ArrayList<>( entry.size() );
+
+            for ( Attribute attribute : entry )
+            {
+                attributeTypes.add( attribute.getAttributeType() );
+            }
+
+            return attributeTypes;
+        }
+
+        List<AttributeType> attributeTypes = new ArrayList<>( attributes.length() );
+
+        for ( int i = 0; i < attributes.length(); i++ )
+        {
+            if ( attributes.get( i ) != REMOVED )
+            {
+                try
+                {
+                    attributeTypes.add( serialized.schemaManager.lookupAttributeTypeRegistry( serialized.oids[i] ) );
+                }
+                catch ( LdapException le )
+                {
+                    throw new IllegalStateException( le.getMessage(), le );
+                }
+            }
+        }
+
+        return attributeTypes;
+    }
+
+
+    /**
+     * @return The entry's copy of a serialized attribute, or REMOVED
+     */
+    private Attribute attribute( int index )
+    {
+        Attribute attribute = attributes.get( index );
+
+        if ( attribute == null )
+        {
+            attributes.compareAndSet( index, null, serialized.get( index, dn ).clone() );
+            attribute = attributes.get( index );
+        }
+
+        return attribute;
+    }
+
+
+    /**
+     * @return The entry with all its attributes decoded. The attributes already read
+     * are kept as they are.
+     */
+    private Entry getDecodedEntry()
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry;
+        }
+
+        try
+        {
+            entry = new DefaultEntry( serialized.schemaManager, dn );
+
+            for ( int i = 0; i < attributes.length(); i++ )
+            {
+                Attribute attribute = attribute( i );
+
+                if ( attribute != REMOVED )
+                {
+                    entry.put( attribute );
+                }
+            }
+        }
+        catch ( LdapException le )
+        {
+            throw new IllegalStateException( "Cannot decode the entry " + dn, le );
+        }
+
+        decoded.compareAndSet( null, entry );
+
+        return decoded.get();
+    }
+
+
+    public Entry add( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        return getDecodedEntry().add( attributeType, values );
+    }
+
+
+    public Entry add( AttributeType attributeType, String... values ) throws LdapException
+    {
+        return getDecodedEntry().add( attributeType, values );
+    }
+
+
+    public Entry add( AttributeType attributeType, Value... values ) throws LdapException
+    {
+        return getDecodedEntry().add( attributeType, values );
+    }
+
+
+    public Entry add( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        return getDecodedEntry().add( upId, attributeType, values );
+    }
+
+
+    public Entry add( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        return getDecodedEntry().add( upId, attributeType, values );
+    }
+
+
+    public Entry add( String upId, AttributeType attributeType, Value... values ) throws LdapException
+    {
+        return getDecodedEntry().add( upId, attributeType, values );
+    }
+
+
+    public boolean contains( AttributeType attributeType, byte[]... values )
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry.contains( attributeType, values );
+        }
+
+        Attribute attribute = get( attributeType );
+
+        return ( attribute != null ) && attribute.contains( values );
+    }
+
+
+    public boolean contains( AttributeType attributeType, String... values )
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry.contains( attributeType, values );
+        }
+
+        Attribute attribute = get( attributeType );
+
+        return ( attribute != null ) && attribute.contains( values );
+    }
+
+
+    public boolean contains( AttributeType attributeType, Value... values )
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry.contains( attributeType, values );
+        }
+
+        Attribute attribute = get( attributeType );
+
+        return ( attribute != null ) && attribute.contains( values );
+    }
+
+
+    public boolean containsAttribute( AttributeType attributeType )
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry.containsAttribute( attributeType );
+        }
+
+        int index = serialized.indexOf( attributeType );
+
+        return ( index >= 0 ) && ( attributes.get( index ) != REMOVED );
+    }
+
+
+    public Attribute get( AttributeType attributeType )
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry.get( attributeType );
+        }
+
+        int index = serialized.indexOf( attributeType );
+
+        if ( index < 0 )
+        {
+            return null;
+        }
+
+        Attribute attribute = attribute( index );
+
+        return attribute == REMOVED ? null : attribute;
+    }
+
+
+    public Collection<Attribute> getAttributes()
+    {
+        return getDecodedEntry().getAttributes();
+    }
+
+
+    public boolean hasObjectClass( Attribute... objectClasses )
+    {
+        return getDecodedEntry().hasObjectClass( objectClasses );
+    }
+
+
+    public Attribute put( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        return getDecodedEntry().put( attributeType, values );
+    }
+
+
+    public Attribute put( AttributeType attributeType, String... values ) throws LdapException
+    {
+        return getDecodedEntry().put( attributeType, values );
+    }
+
+
+    public Attribute put( AttributeType attributeType, Value... values ) throws LdapException
+    {
+        return getDecodedEntry().put( attributeType, values );
+    }
+
+
+    public Attribute put( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        return getDecodedEntry().put( upId, attributeType, values );
+    }
+
+
+    public Attribute put( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        return getDecodedEntry().put( upId, attributeType, values );
+    }
+
+
+    public Attribute put( String upId, AttributeType attributeType, Value... values ) throws LdapException
+    {
+        return getDecodedEntry().put( upId, attributeType, values );
+    }
+
+
+    public boolean remove( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        return getDecodedEntry().remove( attributeType, values );
+    }
+
+
+    public boolean remove( AttributeType attributeType, String... values ) throws LdapException
+    {
+        return getDecodedEntry().remove( attributeType, values );
+    }
+
+
+    public boolean remove( AttributeType attributeType, Value... values ) throws LdapException
+    {
+        return getDecodedEntry().remove( attributeType, values );
+    }
+
+
+    public List<Attribute> remove( Attribute... attributes ) throws LdapException
+    {
+        return getDecodedEntry().remove( attributes );
+    }
+
+
+    /**
+     * Removes some attributes. The serialized attributes are not decoded.
+     */
+    public void removeAttributes( AttributeType... attributeTypes )
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            entry.removeAttributes( attributeTypes );
+
+            return;
+        }
+
+        if ( attributeTypes == null )
+        {
+            return;
+        }
+
+        for ( AttributeType attributeType : attributeTypes )
+        {
+            int index = serialized.indexOf( attributeType );
+
+            if ( index >= 0 )
+            {
+                attributes.set( index, REMOVED );
+            }
+        }
+    }
+
+
+    public Entry add( Attribute... attributes ) throws LdapException
+    {
+        return getDecodedEntry().add( attributes );
+    }
+
+
+    public Entry add( String upId, String... values ) throws LdapException
+    {
+        return getDecodedEntry().add( upId, values );
+    }
+
+
+    public Entry add( String upId, byte[]... values ) throws LdapException
+    {
+        return getDecodedEntry().add( upId, values );
+    }
+
+
+    public Entry add( String upId, Value... values ) throws LdapException
+    {
+        return getDecodedEntry().add( upId, values );
+    }
+
+
+    /**
+     * Removes all the attributes. The serialized attributes are not decoded.
+     */
+    public void clear()
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            entry.clear();
+
+            return;
+        }
+
+        for ( int i = 0; i < attributes.length(); i++ )
+        {
+            attributes.set( i, REMOVED );
+        }
+    }
+
+
+    public boolean contains( Attribute... attributes )
+    {
+        return getDecodedEntry().contains( attributes );
+    }
+
+
+    public boolean contains( String upId, byte[]... values )
+    {
+        AttributeType attributeType = serialized.schemaManager.getAttributeType( upId );
+
+        if ( ( attributeType == null ) || ( decoded.get() != null ) )
+        {
+            return getDecodedEntry().contains( upId, values );
+        }
+
+        return contains( attributeType, values );
+    }
+
+
+    public boolean contains( String upId, String... values )
+    {
+        AttributeType attributeType = serialized.schemaManager.getAttributeType( upId );
+
+        if ( ( attributeType == null ) || ( decoded.get() != null ) )
+        {
+            return getDecodedEntry().contains( upId, values );
+        }
+
+        return contains( attributeType, values );
+    }
+
+
+    public boolean contains( String upId, Value... values )
+    {
+        AttributeType attributeType = serialized.schemaManager.getAttributeType( upId );
+
+        if ( ( attributeType == null ) || ( decoded.get() != null ) )
+        {
+            return getDecodedEntry().contains( upId, values );
+        }
+
+        return contains( attributeType, values );
+    }
+
+
+    public boolean containsAttribute( String... attributes )
+    {
+        if ( ( attributes == null ) || ( decoded.get() != null ) )
+        {
+            return getDecodedEntry().containsAttribute( attributes );
+        }
+
+        for ( String attribute : attributes )
+        {
+            AttributeType attributeType = serialized.schemaManager.getAttributeType( attribute );
+
+            if ( attributeType == null )
+            {
+                return getDecodedEntry().containsAttribute( attributes );
+            }
+
+            if ( !containsAttribute( attributeType ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    public Attribute get( String alias )
+    {
+        AttributeType attributeType = serialized.schemaManager.getAttributeType( alias );
+
+        if ( ( attributeType == null ) || ( decoded.get() != null ) )
+        {
+            return getDecodedEntry().get( alias );
+        }
+
+        return get( attributeType );
+    }
+
+
+    public Dn getDn()
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry.getDn();
+        }
+
+        return dn;
+    }
+
+
+    public boolean hasObjectClass( String... objectClasses )
+    {
+        if ( decoded.get() != null )
+        {
+            return getDecodedEntry().hasObjectClass( objectClasses );
+        }
+
+        if ( ( objectClasses == null ) || ( objectClasses.length == 0 ) || ( objectClasses[0] == null ) )
+        {
+            return false;
+        }
+
+        Attribute objectClass = get( serialized.schemaManager.getAttributeType( SchemaConstants.OBJECT_CLASS_AT_OID ) );
+
+        return ( objectClass != null ) && objectClass.contains( objectClasses );
+    }
+
+
+    public boolean isSchemaAware()
+    {
+        return true;
+    }
+
+
+    public Iterator<Attribute> iterator()
+    {
+        return getDecodedEntry().iterator();
+    }
+
+
+    public List<Attribute> put( Attribute... attributes ) throws LdapException
+    {
+        return getDecodedEntry().put( attributes );
+    }
+
+
+    public Attribute put( String upId, byte[]... values )
+    {
+        return getDecodedEntry().put( upId, values );
+    }
+
+
+    public Attribute put( String upId, String... values )
+    {
+        return getDecodedEntry().put( upId, values );
+    }
+
+
+    public Attribute put( String upId, Value... values )
+    {
+        return getDecodedEntry().put( upId, values );
+    }
+
+
+    public boolean remove( String upId, byte[]... values ) throws LdapException
+    {
+        return getDecodedEntry().remove( upId, values );
+    }
+
+
+    public boolean remove( String upId, String... values ) throws LdapException
+    {
+        return getDecodedEntry().remove( upId, values );
+    }
+
+
+    public boolean remove( String upId, Value... values ) throws LdapException
+    {
+        return getDecodedEntry().remove( upId, values );
+    }
+
+
+    /**
+     * Removes some attributes. The serialized attributes are not decoded.
+     */
+    public void removeAttributes( String... attributes )
+    {
+        if ( ( attributes == null ) || ( decoded.get() != null ) )
+        {
+            getDecodedEntry().removeAttributes( attributes );
+
+            return;
+        }
+
+        AttributeType[] attributeTypes = new AttributeType[attributes.length];
+
+        for ( int i = 0; i < attributes.length; i++ )
+        {
+            attributeTypes[i] = serialized.schemaManager.getAttributeType( attributes[i] );
+
+            if ( attributeTypes[i] == null )
+            {
+                getDecodedEntry().removeAttributes( attributes );
+
+                return;
+            }
+        }
+
+        removeAttributes( attributeTypes );
+    }
+
+
+    public void setDn( Dn dn )
+    {
+        Entry entry = decoded.get();
+
+        if ( entry == null )
+        {
+            this.dn = dn;
+
+            // The entry may have been decoded in the meantime
+            entry = decoded.get();
+        }
+
+        if ( entry != null )
+        {
+            entry.setDn( dn );
+        }
+    }
+
+
+    public void setDn( String dn ) throws LdapInvalidDnException
+    {
+        setDn( new Dn( serialized.schemaManager, dn ) );
+    }
+
+
+    public int size()
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry.size();
+        }
+
+        int size = 0;
+
+        for ( int i = 0; i < attributes.length(); i++ )
+        {
+            if ( attributes.get( i ) != REMOVED )
+            {
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+
+    public Entry toClientEntry() throws LdapException
+    {
+        return getDecodedEntry().toClientEntry();
+    }
+
+
+    /**
+     * @see java.io.Externalizable#readExternal(ObjectInput)
+     */
+    public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException
+    {
+        Entry entry = new DefaultEntry( serialized.schemaManager );
+        entry.readExternal( in );
+        decoded.set( entry );
+    }
+
+
+    /**
+     * @see java.io.Externalizable#writeExternal(ObjectOutput)
+     */
+    public void writeExternal( ObjectOutput out ) throws IOException
+    {
+        getDecodedEntry().writeExternal( out );
+    }
+
+
+    /**
+     * Clones the entry. The serialized attributes are shared with the clone, and the
+     * attributes this entry has already read are cloned.
+     */
+    public Entry clone()
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry.clone();
+        }
+
+        AtomicReferenceArray<Attribute> clonedAttributes = new AtomicReferenceArray<>( attributes.length() );
+
+        for ( int i = 0; i < attributes.length(); i++ )
+        {
+            Attribute attribute = attributes.get( i );
+
+            if ( ( attribute != null ) && ( attribute != REMOVED ) )
+            {
+                attribute = attribute.clone();
+            }
+
+            clonedAttributes.set( i, attribute );
+        }
+
+        return new LazyEntry( serialized, dn, clonedAttributes );
+    }
+
+
+    public Entry shallowClone()
+    {
+        Entry entry = decoded.get();
+
+        if ( entry != null )
+        {
+            return entry.shallowClone();
+        }
+
+        AtomicReferenceArray<Attribute> clonedAttributes = new AtomicReferenceArray<>( attributes.length() );
+
+        for ( int i = 0; i < attributes.length(); i++ )
+        {
+            clonedAttributes.set( i, attributes.get( i ) );
+        }
+
+        return new LazyEntry( serialized, dn, clonedAttributes );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return getDecodedEntry().hashCode();
+    }
+
+
+    /**
+     * @see Object#equals(Object);
+     */
+    @Override
+    public boolean equals( Object obj )
+    {
+        // Short circuit
+        if ( this == obj )
+        {
+            return true;
+        }
+
+        if ( obj instanceof LazyEntry )
+        {
+            return getDecodedEntry().equals( ( ( LazyEntry ) obj ).getDecodedEntry() );
+        }
+
+        return getDecodedEntry().equals( obj );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString( String tabs )
+    {
+        return getDecodedEntry().toString( tabs );
+    }
+}
@@ -741,6 +741,31 @@ public final class ServerEntryUtils
     }
 
 
+    /**
+     * Gives the types of the entry's attributes. The attributes of a {@link LazyEntry}
+     * are not decoded.
+     * 
+     * @param entry The entry
+     * @return The AttributeTypes of the entry's attributes
+     */
+    private static List<AttributeType> getAttributeTypes( Entry entry )
+    {
+        if ( entry instanceof LazyEntry )
+        {
+            return ( ( LazyEntry ) entry ).getAttributeTypes();
+        }
+
+        List<AttributeType> attributeTypes = new ArrayList<>( entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            attributeTypes.add( attribute.getAttributeType() );
+        }
+
+        return attributeTypes;
+    }
+
+
     /**
      * Filters an entry accordingly to the requested Attribute list.
      * 
@@ -770,17 +795,15 @@ public final class ServerEntryUtils
         // First, remove all the attributes if we have the NoAttribute flag set to true
         if ( operationContext.isNoAttributes() )
         {
-            for ( Attribute attribute : originalEntry )
+            for ( AttributeType attributeType : getAttributeTypes( originalEntry ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
                 // Bypass the ref attribute, unless the ManageDSAIT control is present
                 if ( operationContext.isReferralThrown() && attributeType.equals( refType ) )
                 {
                     continue;
                 }
 
-                entry.remove( entry.get( attributeType ) );
+                entry.removeAttributes( attributeType );
             }
 
             entry.removeAttributes( entryDnType );
@@ -792,10 +815,8 @@ public final class ServerEntryUtils
         // the USER attributes, plus the Operational attributes in the returning list 
         if ( operationContext.isAllUserAttributes() )
         {
-            for ( Attribute attribute : originalEntry )
+            for ( AttributeType attributeType : getAttributeTypes( originalEntry ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
                 // Bypass the ref attribute, unless the ManageDSAIT control is present
                 if ( operationContext.isReferralThrown() && attributeType.equals( refType ) )
                 {
@@ -832,10 +853,8 @@ public final class ServerEntryUtils
         // the OPERATIONAL attributes, plus the User attributes in the returning list 
         if ( operationContext.isAllOperationalAttributes() )
         {
-            for ( Attribute attribute : originalEntry )
+            for ( AttributeType attributeType : getAttributeTypes( originalEntry ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
                 if ( attributeType.isUser() )
                 {
                     if ( !operationContext.contains( schemaManager, attributeType ) )
@@ -868,10 +887,8 @@ public final class ServerEntryUtils
         // Last, not least, check if the attributes are in the returning list
         if ( operationContext.getReturningAttributes() != null )
         {
-            for ( Attribute attribute : originalEntry )
+            for ( AttributeType attributeType : getAttributeTypes( originalEntry ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
                 // Bypass the ref attribute, unless the ManageDSAIT control is present
                 if ( operationContext.isReferralThrown() && attributeType.equals( refType ) )
                 {
@@ -316,6 +316,33 @@ public abstract class BaseInterceptor implements Interceptor
     }
 
 
+    /**
+     * @return The time the call to the next interceptor starts at, or 0 if the interceptor
+     * metrics are not recorded
+     */
+    private long startMetrics()
+    {
+        if ( directoryService == null )
+        {
+            return 0L;
+        }
+
+        return directoryService.getMetrics().interceptorStarted();
+    }
+
+
+    /**
+     * Records the time spent in the next interceptor, and in the interceptors after it.
+     */
+    private void recordMetrics( Interceptor interceptor, long start )
+    {
+        if ( start != 0L )
+        {
+            directoryService.getMetrics().interceptorCompleted( interceptor.getName(), start );
+        }
+    }
+
+
     // ------------------------------------------------------------------------
     // Interceptor's Invoke Method
     // ------------------------------------------------------------------------
@@ -338,7 +365,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( addContext );
 
-        interceptor.add( addContext );
+        long start = startMetrics();
+
+        try
+        {
+            interceptor.add( addContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -361,7 +397,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( bindContext );
 
-        interceptor.bind( bindContext );
+        long start = startMetrics();
+
+        try
+        {
+            interceptor.bind( bindContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -383,7 +428,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( compareContext );
 
-        return interceptor.compare( compareContext );
+        long start = startMetrics();
+
+        try
+        {
+            return interceptor.compare( compareContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -406,7 +460,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( deleteContext );
 
-        interceptor.delete( deleteContext );
+        long start = startMetrics();
+
+        try
+        {
+            interceptor.delete( deleteContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -431,7 +494,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( getRootDseContext );
 
-        return interceptor.getRootDse( getRootDseContext );
+        long start = startMetrics();
+
+        try
+        {
+            return interceptor.getRootDse( getRootDseContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -456,7 +528,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( hasEntryContext );
 
-        return interceptor.hasEntry( hasEntryContext );
+        long start = startMetrics();
+
+        try
+        {
+            return interceptor.hasEntry( hasEntryContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -480,7 +561,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( lookupContext );
 
-        return interceptor.lookup( lookupContext );
+        long start = startMetrics();
+
+        try
+        {
+            return interceptor.lookup( lookupContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -503,7 +593,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( modifyContext );
 
-        interceptor.modify( modifyContext );
+        long start = startMetrics();
+
+        try
+        {
+            interceptor.modify( modifyContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -526,7 +625,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( moveContext );
 
-        interceptor.move( moveContext );
+        long start = startMetrics();
+
+        try
+        {
+            interceptor.move( moveContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -546,7 +654,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( moveAndRenameContext );
 
-        interceptor.moveAndRename( moveAndRenameContext );
+        long start = startMetrics();
+
+        try
+        {
+            interceptor.moveAndRename( moveAndRenameContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -569,7 +686,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( renameContext );
 
-        interceptor.rename( renameContext );
+        long start = startMetrics();
+
+        try
+        {
+            interceptor.rename( renameContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -593,7 +719,16 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( searchContext );
 
-        return interceptor.search( searchContext );
+        long start = startMetrics();
+
+        try
+        {
+            return interceptor.search( searchContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 
 
@@ -616,6 +751,15 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( unbindContext );
 
-        interceptor.unbind( unbindContext );
+        long start = startMetrics();
+
+        try
+        {
+            interceptor.unbind( unbindContext );
+        }
+        finally
+        {
+            recordMetrics( interceptor, start );
+        }
     }
 }
@@ -0,0 +1,524 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.server.core.api.OperationEnum;
+
+
+/**
+ * The latency and activity metrics of a DirectoryService :
+ * <ul>
+ *   <li>a latency histogram per operation, per partition and per interceptor. The latency
+ *   of an interceptor includes the latency of the interceptors after it in the chain. The
+ *   interceptor histograms are recorded on every call between two interceptors, so they
+ *   are only recorded once enabled with {@link #setInterceptorsEnabled(boolean)}</li>
+ *   <li>the number of operations being processed, per operation</li>
+ *   <li>the number of operations completed with each result code</li>
+ *   <li>the replication lag of each consumer, and the compression achieved on the
+ *   batches of changes sent to it</li>
+ * </ul>
+ * Once a histogram has been created, recording a latency does not allocate anything.
+ * The metrics are exposed through JMX, and may be read in the ou=monitor partition, if the
+ * {@link MonitorPartition} has been added to the server.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DirectoryMetrics implements DirectoryMetricsMXBean
+{
+    /** The prefix of the operation histograms names */
+    public static final String OPERATION_PREFIX = "operation.";
+
+    /** The prefix of the partition histograms names */
+    public static final String PARTITION_PREFIX = "partition.";
+
+    /** The prefix of the interceptor histograms names */
+    public static final String INTERCEPTOR_PREFIX = "interceptor.";
+
+    /** The prefix of the replication lag histograms names */
+    public static final String REPLICATION_PREFIX = "replication.";
+
+    /** The operation latency histograms */
+    private final Map<OperationEnum, LatencyHistogram> operations = new EnumMap<>( OperationEnum.class );
+
+    /** The number of operations being processed */
+    private final Map<OperationEnum, AtomicInteger> inFlight = new EnumMap<>( OperationEnum.class );
+
+    /** The number of operations completed with each result code */
+    private final Map<ResultCodeEnum, AtomicLong> resultCodes = new EnumMap<>( ResultCodeEnum.class );
+
+    /** The partition latency histograms, per partition ID */
+    private final ConcurrentMap<String, LatencyHistogram> partitions = new ConcurrentHashMap<>();
+
+    /** The interceptor latency histograms, per interceptor name */
+    private final ConcurrentMap<String, LatencyHistogram> interceptors = new ConcurrentHashMap<>();
+
+    /** The replication lag histograms, per consumer */
+    private final ConcurrentMap<String, LatencyHistogram> replicationLags = new ConcurrentHashMap<>();
+
+    /** The uncompressed and sent sizes of the replication batches, per consumer */
+    private final ConcurrentMap<String, AtomicLong[]> replicationBytes = new ConcurrentHashMap<>();
+
+    /** Tells if the metrics are recorded */
+    private volatile boolean enabled = true;
+
+    /** Tells if the interceptor histograms are recorded */
+    private volatile boolean interceptorsEnabled = false;
+
+
+    /**
+     * Creates a new instance of DirectoryMetrics. The maps keyed by an enum are filled
+     * once for all, so that they can be read without synchronization.
+     */
+    public DirectoryMetrics()
+    {
+        for ( OperationEnum operation : OperationEnum.getOperations() )
+        {
+            operations.put( operation, new LatencyHistogram() );
+            inFlight.put( operation, new AtomicInteger() );
+        }
+
+        for ( ResultCodeEnum resultCode : ResultCodeEnum.values() )
+        {
+            resultCodes.put( resultCode, new AtomicLong() );
+        }
+    }
+
+
+    /**
+     * Records the start of an operation.
+     *
+     * @param operation The operation
+     * @return The start time, to give back to {@link #operationCompleted(OperationEnum, long, ResultCodeEnum)}
+     */
+    public long operationStarted( OperationEnum operation )
+    {
+        if ( !enabled )
+        {
+            return 0L;
+        }
+
+        inFlight.get( operation ).incrementAndGet();
+
+        return System.nanoTime();
+    }
+
+
+    /**
+     * Records the end of an operation.
+     *
+     * @param operation The operation
+     * @param start The start time, as returned by {@link #operationStarted(OperationEnum)}
+     * @param resultCode The operation result
+     */
+    public void operationCompleted( OperationEnum operation, long start, ResultCodeEnum resultCode )
+    {
+        if ( start == 0L )
+        {
+            // The operation started while the metrics were disabled
+            return;
+        }
+
+        operations.get( operation ).record( System.nanoTime() - start );
+        inFlight.get( operation ).decrementAndGet();
+        resultCodes.get( resultCode ).incrementAndGet();
+    }
+
+
+    /**
+     * @return The current time, or 0 if the metrics are disabled
+     */
+    public long start()
+    {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+
+    /**
+     * Records the time spent in a partition.
+     *
+     * @param partitionId The partition ID
+     * @param start The start time, as returned by {@link #start()}
+     */
+    public void partitionCompleted( String partitionId, long start )
+    {
+        if ( start != 0L )
+        {
+            getHistogram( partitions, partitionId ).record( System.nanoTime() - start );
+        }
+    }
+
+
+    /**
+     * @return The current time, or 0 if the interceptor histograms are not recorded
+     */
+    public long interceptorStarted()
+    {
+        return ( enabled && interceptorsEnabled ) ? System.nanoTime() : 0L;
+    }
+
+
+    /**
+     * Records the time spent in an interceptor, and in the interceptors after it.
+     *
+     * @param interceptorName The interceptor name
+     * @param start The start time, as returned by {@link #interceptorStarted()}
+     */
+    public void interceptorCompleted( String interceptorName, long start )
+    {
+        if ( start != 0L )
+        {
+            getHistogram( interceptors, interceptorName ).record( System.nanoTime() - start );
+        }
+    }
+
+
+    /**
+     * Records the delay between a change and its transmission to a replication consumer.
+     *
+     * @param consumer The consumer name
+     * @param lag The delay, in nanoseconds
+     */
+    public void replicationSent( String consumer, long lag )
+    {
+        if ( enabled )
+        {
+            getHistogram( replicationLags, consumer + ".lag" ).record( lag );
+        }
+    }
+
+
+    /**
+     * Records the size of a compressed batch of changes sent to a replication consumer.
+     *
+     * @param consumer The consumer name
+     * @param rawBytes The size of the batch before compression
+     * @param sentBytes The size of the compressed batch
+     */
+    public void replicationBatchSent( String consumer, long rawBytes, long sentBytes )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        AtomicLong[] sizes = replicationBytes.get( consumer );
+
+        if ( sizes == null )
+        {
+            sizes = new AtomicLong[]
+                { new AtomicLong(), new AtomicLong() };
+            AtomicLong[] existing = replicationBytes.putIfAbsent( consumer, sizes );
+
+            if ( existing != null )
+            {
+                sizes = existing;
+            }
+        }
+
+        sizes[0].addAndGet( rawBytes );
+        sizes[1].addAndGet( sentBytes );
+    }
+
+
+    private static LatencyHistogram getHistogram( ConcurrentMap<String, LatencyHistogram> histograms, String name )
+    {
+        LatencyHistogram histogram = histograms.get( name );
+
+        if ( histogram == null )
+        {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = histograms.putIfAbsent( name, histogram );
+
+            if ( existing != null )
+            {
+                histogram = existing;
+            }
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * @return All the latency histograms, sorted by name
+     */
+    public Map<String, LatencyHistogram> getHistograms()
+    {
+        Map<String, LatencyHistogram> histograms = new TreeMap<>();
+
+        for ( Map.Entry<OperationEnum, LatencyHistogram> operation : operations.entrySet() )
+        {
+            histograms.put( OPERATION_PREFIX + operation.getKey().getMethodName(), operation.getValue() );
+        }
+
+        for ( Map.Entry<String, LatencyHistogram> partition : partitions.entrySet() )
+        {
+            histograms.put( PARTITION_PREFIX + partition.getKey(), partition.getValue() );
+        }
+
+        for ( Map.Entry<String, LatencyHistogram> interceptor : interceptors.entrySet() )
+        {
+            histograms.put( INTERCEPTOR_PREFIX + interceptor.getKey(), interceptor.getValue() );
+        }
+
+        for ( Map.Entry<String, LatencyHistogram> lag : replicationLags.entrySet() )
+        {
+            histograms.put( REPLICATION_PREFIX + lag.getKey(), lag.getValue() );
+        }
+
+        return histograms;
+    }
+
+
+    /**
+     * @param name The histogram name
+     * @return The histogram, or null if there is no histogram with this name
+     */
+    public LatencyHistogram getHistogram( String name )
+    {
+        return getHistograms().get( name );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getHistogramNames()
+    {
+        return getHistograms().keySet().toArray( new String[0] );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCount( String name )
+    {
+        LatencyHistogram histogram = getHistogram( name );
+
+        return histogram == null ? 0L : histogram.getCount();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLatency( String name, double percentile )
+    {
+        LatencyHistogram histogram = getHistogram( name );
+
+        return histogram == null ? 0L : toMicros( histogram.getValueAtPercentile( percentile ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxLatency( String name )
+    {
+        LatencyHistogram histogram = getHistogram( name );
+
+        return histogram == null ? 0L : toMicros( histogram.getMax() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getLatencies()
+    {
+        Map<String, Long> latencies = new TreeMap<>();
+
+        for ( Map.Entry<String, LatencyHistogram> histogram : getHistograms().entrySet() )
+        {
+            LatencyHistogram values = histogram.getValue();
+
+            if ( values.getCount() > 0L )
+            {
+                latencies.put( histogram.getKey() + ".p50", toMicros( values.getValueAtPercentile( 50d ) ) );
+                latencies.put( histogram.getKey() + ".p99", toMicros( values.getValueAtPercentile( 99d ) ) );
+                latencies.put( histogram.getKey() + ".p999", toMicros( values.getValueAtPercentile( 99.9d ) ) );
+            }
+        }
+
+        return latencies;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Integer> getInFlight()
+    {
+        Map<String, Integer> counts = new TreeMap<>();
+
+        for ( Map.Entry<OperationEnum, AtomicInteger> operation : inFlight.entrySet() )
+        {
+            counts.put( operation.getKey().getMethodName(), operation.getValue().get() );
+        }
+
+        return counts;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getResultCodes()
+    {
+        Map<String, Long> counts = new TreeMap<>();
+
+        for ( Map.Entry<ResultCodeEnum, AtomicLong> resultCode : resultCodes.entrySet() )
+        {
+            long count = resultCode.getValue().get();
+
+            if ( count > 0L )
+            {
+                counts.put( resultCode.getKey().name(), count );
+            }
+        }
+
+        return counts;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getReplicationBytes()
+    {
+        Map<String, Long> sizes = new TreeMap<>();
+
+        for ( Map.Entry<String, AtomicLong[]> consumer : replicationBytes.entrySet() )
+        {
+            sizes.put( consumer.getKey() + ".raw", consumer.getValue()[0].get() );
+            sizes.put( consumer.getKey() + ".sent", consumer.getValue()[1].get() );
+        }
+
+        return sizes;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getReplicationCompressionRatios()
+    {
+        Map<String, Double> ratios = new TreeMap<>();
+
+        for ( Map.Entry<String, AtomicLong[]> consumer : replicationBytes.entrySet() )
+        {
+            long sent = consumer.getValue()[1].get();
+
+            if ( sent > 0L )
+            {
+                ratios.put( consumer.getKey(), ( double ) consumer.getValue()[0].get() / sent );
+            }
+        }
+
+        return ratios;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isInterceptorsEnabled()
+    {
+        return interceptorsEnabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setInterceptorsEnabled( boolean interceptorsEnabled )
+    {
+        this.interceptorsEnabled = interceptorsEnabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset()
+    {
+        for ( LatencyHistogram histogram : getHistograms().values() )
+        {
+            histogram.reset();
+        }
+
+        for ( AtomicLong count : resultCodes.values() )
+        {
+            count.set( 0L );
+        }
+
+        replicationBytes.clear();
+    }
+
+
+    private static long toMicros( long nanos )
+    {
+        return TimeUnit.NANOSECONDS.toMicros( nanos );
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.Map;
+
+
+/**
+ * The JMX view of the {@link DirectoryMetrics}. The latencies are given in microseconds.
+ * The histograms are named after what they measure : "operation.&lt;operation&gt;",
+ * "partition.&lt;partition id&gt;", "interceptor.&lt;interceptor name&gt;" and
+ * "replication.&lt;consumer&gt;.lag".
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface DirectoryMetricsMXBean
+{
+    /**
+     * @return The names of the latency histograms
+     */
+    String[] getHistogramNames();
+
+
+    /**
+     * @param name The histogram name
+     * @return The number of values recorded in this histogram
+     */
+    long getCount( String name );
+
+
+    /**
+     * @param name The histogram name
+     * @param percentile The percentile, between 0 and 100
+     * @return The latency at this percentile, in microseconds
+     */
+    long getLatency( String name, double percentile );
+
+
+    /**
+     * @param name The histogram name
+     * @return The largest latency, in microseconds
+     */
+    long getMaxLatency( String name );
+
+
+    /**
+     * @return The p50, p99 and p999 latencies of each histogram, in microseconds, as
+     * "&lt;histogram name&gt;.p50" -&gt; latency
+     */
+    Map<String, Long> getLatencies();
+
+
+    /**
+     * @return The number of operations being processed, per operation
+     */
+    Map<String, Integer> getInFlight();
+
+
+    /**
+     * @return The number of operations completed with each result code
+     */
+    Map<String, Long> getResultCodes();
+
+
+    /**
+     * @return The size of the replication batches before compression ("&lt;consumer&gt;.raw")
+     * and once compressed ("&lt;consumer&gt;.sent"), in bytes
+     */
+    Map<String, Long> getReplicationBytes();
+
+
+    /**
+     * @return The compression ratio achieved on the replication batches, per consumer
+     */
+    Map<String, Double> getReplicationCompressionRatios();
+
+
+    /**
+     * @return true if the metrics are recorded
+     */
+    boolean isEnabled();
+
+
+    /**
+     * @param enabled Tells if the metrics are recorded
+     */
+    void setEnabled( boolean enabled );
+
+
+    /**
+     * @return true if the interceptor histograms are recorded
+     */
+    boolean isInterceptorsEnabled();
+
+
+    /**
+     * @param interceptorsEnabled Tells if the interceptor histograms are recorded. They are
+     * disabled by default, as they are recorded on every call between two interceptors
+     */
+    void setInterceptorsEnabled( boolean interceptorsEnabled );
+
+
+    /**
+     * Forgets all the recorded values.
+     */
+    void reset();
+}
@@ -0,0 +1,219 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A concurrent histogram of latencies, in nanoseconds, with a bounded relative error, in
+ * the spirit of HdrHistogram. The values are counted in log-linear buckets : the values
+ * under 64 have their own bucket, and above, each power of 2 is split into 32 buckets,
+ * so that a value is known with a precision of about 3%.
+ * <br>
+ * Recording a value does not allocate anything, and does not take any lock : it can be
+ * done on every operation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class LatencyHistogram
+{
+    /** The number of bits used to split a power of 2 */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** The number of buckets per power of 2 */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The values below this one have their own bucket */
+    private static final long LINEAR_LIMIT = 1L << ( SUB_BUCKET_BITS + 1 );
+
+    /** The number of buckets needed to count any positive long */
+    private static final int BUCKET_COUNT = index( Long.MAX_VALUE ) + 1;
+
+    /** The number of values in each bucket */
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+
+    /** The number of recorded values */
+    private final AtomicLong count = new AtomicLong();
+
+    /** The sum of the recorded values */
+    private final AtomicLong total = new AtomicLong();
+
+    /** The largest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Records a value.
+     *
+     * @param value The value, in nanoseconds. Negative values are recorded as 0
+     */
+    public void record( long value )
+    {
+        if ( value < 0L )
+        {
+            value = 0L;
+        }
+
+        counts.incrementAndGet( index( value ) );
+        count.incrementAndGet();
+        total.addAndGet( value );
+
+        long currentMax = max.get();
+
+        while ( ( value > currentMax ) && !max.compareAndSet( currentMax, value ) )
+        {
+            currentMax = max.get();
+        }
+    }
+
+
+    /**
+     * @return The number of recorded values
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+
+    /**
+     * @return The largest recorded value
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+
+    /**
+     * @return The mean of the recorded values, or 0 if no value has been recorded
+     */
+    public long getMean()
+    {
+        long nbValues = count.get();
+
+        return nbValues == 0L ? 0L : total.get() / nbValues;
+    }
+
+
+    /**
+     * Gets the value below which a given percentage of the recorded values are. The
+     * returned value is the middle of the bucket containing the percentile, and never
+     * more than the largest recorded value.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The value at this percentile, or 0 if no value has been recorded
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        if ( ( percentile < 0d ) || ( percentile > 100d ) )
+        {
+            throw new IllegalArgumentException( "The percentile must be between 0 and 100 : " + percentile );
+        }
+
+        long nbValues = count.get();
+
+        if ( nbValues == 0L )
+        {
+            return 0L;
+        }
+
+        long rank = Math.max( 1L, ( long ) Math.ceil( percentile * nbValues / 100d ) );
+        long seen = 0L;
+
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            seen += counts.get( i );
+
+            if ( seen >= rank )
+            {
+                return Math.min( valueAt( i ), max.get() );
+            }
+        }
+
+        // The count has been updated after the buckets we have read
+        return max.get();
+    }
+
+
+    /**
+     * Forgets all the recorded values. The values recorded while resetting may be
+     * partially lost.
+     */
+    public void reset()
+    {
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            counts.set( i, 0L );
+        }
+
+        count.set( 0L );
+        total.set( 0L );
+        max.set( 0L );
+    }
+
+
+    /**
+     * Computes the index of the bucket a value is counted in.
+     */
+    private static int index( long value )
+    {
+        if ( value < LINEAR_LIMIT )
+        {
+            return ( int ) value;
+        }
+
+        // The number of low bits ignored for this value, so that SUB_BUCKET_BITS + 1 bits are kept
+        int shift = 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS;
+
+        return ( int ) ( shift * SUB_BUCKET_COUNT + ( value >>> shift ) );
+    }
+
+
+    /**
+     * Computes the value in the middle of a bucket.
+     */
+    private static long valueAt( int index )
+    {
+        if ( index < LINEAR_LIMIT )
+        {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = ( long ) ( index - shift * SUB_BUCKET_COUNT ) << shift;
+
+        return lowest + ( ( 1L << shift ) >>> 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "LatencyHistogram[count=" + getCount() + ", p50=" + getValueAtPercentile( 50d ) + ", p99="
+            + getValueAtPercentile( 99d ) + ", p999=" + getValueAtPercentile( 99.9d ) + ", max=" + getMax() + "]";
+    }
+}
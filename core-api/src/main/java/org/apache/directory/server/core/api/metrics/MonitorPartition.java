@@ -0,0 +1,430 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.AbstractPartition;
+import org.apache.directory.server.core.api.partition.Subordinates;
+
+
+/**
+ * A read-only partition exposing the {@link DirectoryMetrics} of a DirectoryService under
+ * ou=monitor. Its entries are computed each time they are read :
+ * <pre>
+ * ou=monitor
+ *   cn=inFlight,ou=monitor             the operations being processed
+ *   cn=resultCodes,ou=monitor          the operations completed with each result code
+ *   cn=replication,ou=monitor          the compression of the changes sent to the consumers
+ *   ou=latencies,ou=monitor
+ *     cn=operation.add,ou=latencies,ou=monitor
+ *     cn=partition.example,ou=latencies,ou=monitor
+ *     cn=interceptor.aciAuthorizationInterceptor,ou=latencies,ou=monitor
+ *     ...
+ * </pre>
+ * As the core schema has no attribute for counters, the values are stored in the
+ * description attribute, as "p99=1250" (latencies are in microseconds).
+ * <br>
+ * This partition is not added by default, it has to be added to the DirectoryService :
+ * <pre>
+ * directoryService.addPartition( new MonitorPartition( directoryService.getSchemaManager(),
+ *     directoryService.getMetrics() ) );
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorPartition extends AbstractPartition
+{
+    /** The partition ID */
+    public static final String MONITOR_ID = "monitor";
+
+    /** The partition suffix */
+    public static final String MONITOR_DN = "ou=monitor";
+
+    /** The ObjectClass of the entries holding counters */
+    private static final String APPLICATION_PROCESS_OC = "applicationProcess";
+
+    /** The metrics being exposed */
+    private final DirectoryMetrics metrics;
+
+    /** The entries Dn */
+    private Dn inFlightDn;
+    private Dn resultCodesDn;
+    private Dn replicationDn;
+    private Dn latenciesDn;
+
+    /** The evaluator used to select the entries */
+    private Evaluator evaluator;
+
+
+    /**
+     * Creates a new instance of MonitorPartition.
+     *
+     * @param schemaManager The SchemaManager
+     * @param metrics The metrics to expose
+     * @throws LdapException If the suffix can't be parsed
+     */
+    public MonitorPartition( SchemaManager schemaManager, DirectoryMetrics metrics ) throws LdapException
+    {
+        this.metrics = metrics;
+        this.schemaManager = schemaManager;
+        id = MONITOR_ID;
+        suffixDn = new Dn( schemaManager, MONITOR_DN );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doInit() throws LdapException
+    {
+        inFlightDn = suffixDn.add( new Rdn( schemaManager, "cn=inFlight" ) );
+        resultCodesDn = suffixDn.add( new Rdn( schemaManager, "cn=resultCodes" ) );
+        replicationDn = suffixDn.add( new Rdn( schemaManager, "cn=replication" ) );
+        latenciesDn = suffixDn.add( new Rdn( schemaManager, "ou=latencies" ) );
+        evaluator = new ExpressionEvaluator( schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doDestroy()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doRepair()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sync()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * Computes the partition entries, in DIT order.
+     */
+    private Map<Dn, Entry> getEntries() throws LdapException
+    {
+        Map<Dn, Entry> entries = new LinkedHashMap<>();
+
+        entries.put( suffixDn, new DefaultEntry( schemaManager, suffixDn,
+            SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC,
+            SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.ORGANIZATIONAL_UNIT_OC,
+            SchemaConstants.OU_AT, "monitor" ) );
+
+        Entry inFlight = newCounterEntry( inFlightDn, "inFlight" );
+
+        for ( Map.Entry<String, Integer> count : metrics.getInFlight().entrySet() )
+        {
+            inFlight.add( SchemaConstants.DESCRIPTION_AT, count.getKey() + "=" + count.getValue() );
+        }
+
+        entries.put( inFlightDn, inFlight );
+
+        Entry resultCodes = newCounterEntry( resultCodesDn, "resultCodes" );
+
+        for ( Map.Entry<String, Long> count : metrics.getResultCodes().entrySet() )
+        {
+            resultCodes.add( SchemaConstants.DESCRIPTION_AT, count.getKey() + "=" + count.getValue() );
+        }
+
+        entries.put( resultCodesDn, resultCodes );
+
+        Entry replication = newCounterEntry( replicationDn, "replication" );
+
+        for ( Map.Entry<String, Long> count : metrics.getReplicationBytes().entrySet() )
+        {
+            replication.add( SchemaConstants.DESCRIPTION_AT, count.getKey() + "=" + count.getValue() );
+        }
+
+        for ( Map.Entry<String, Double> ratio : metrics.getReplicationCompressionRatios().entrySet() )
+        {
+            replication.add( SchemaConstants.DESCRIPTION_AT, ratio.getKey() + ".ratio="
+                + String.format( "%.2f", ratio.getValue() ) );
+        }
+
+        entries.put( replicationDn, replication );
+
+        entries.put( latenciesDn, new DefaultEntry( schemaManager, latenciesDn,
+            SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC,
+            SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.ORGANIZATIONAL_UNIT_OC,
+            SchemaConstants.OU_AT, "latencies" ) );
+
+        for ( Map.Entry<String, LatencyHistogram> histogram : metrics.getHistograms().entrySet() )
+        {
+            Dn dn = latenciesDn.add( new Rdn( schemaManager,
+                SchemaConstants.CN_AT + '=' + Rdn.escapeValue( histogram.getKey() ) ) );
+            Entry entry = newCounterEntry( dn, histogram.getKey() );
+            LatencyHistogram values = histogram.getValue();
+
+            entry.add( SchemaConstants.DESCRIPTION_AT,
+                "count=" + values.getCount(),
+                "mean=" + values.getMean() / 1000L,
+                "p50=" + values.getValueAtPercentile( 50d ) / 1000L,
+                "p99=" + values.getValueAtPercentile( 99d ) / 1000L,
+                "p999=" + values.getValueAtPercentile( 99.9d ) / 1000L,
+                "max=" + values.getMax() / 1000L );
+
+            entries.put( dn, entry );
+        }
+
+        return entries;
+    }
+
+
+    private Entry newCounterEntry( Dn dn, String name ) throws LdapException
+    {
+        return new DefaultEntry( schemaManager, dn,
+            SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC,
+            SchemaConstants.OBJECT_CLASS_AT, APPLICATION_PROCESS_OC,
+            SchemaConstants.CN_AT, name );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+    {
+        Dn base = searchContext.getDn();
+        Map<Dn, Entry> entries = getEntries();
+
+        if ( !entries.containsKey( base ) )
+        {
+            throw new LdapNoSuchObjectException( "The entry " + base + " does not exist" );
+        }
+
+        List<Entry> selected = new ArrayList<>();
+
+        for ( Entry entry : entries.values() )
+        {
+            if ( isInScope( base, searchContext.getScope(), entry.getDn() )
+                && evaluator.evaluate( searchContext.getFilter(), base, entry ) )
+            {
+                selected.add( entry );
+            }
+        }
+
+        return new EntryFilteringCursorImpl( new ListCursor<Entry>( selected ), searchContext, schemaManager );
+    }
+
+
+    private static boolean isInScope( Dn base, SearchScope scope, Dn dn )
+    {
+        switch ( scope )
+        {
+            case OBJECT:
+                return dn.equals( base );
+
+            case ONELEVEL:
+                return !dn.isEmpty() && dn.getParent().equals( base );
+
+            default:
+                return dn.equals( base ) || dn.isDescendantOf( base );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        Entry entry = getEntries().get( lookupContext.getDn() );
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        return new ClonedServerEntry( entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+    {
+        return getEntries().containsKey( hasEntryContext.getDn() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Subordinates getSubordinates( Entry entry ) throws LdapException
+    {
+        Subordinates subordinates = new Subordinates();
+        long nbChildren = 0L;
+
+        for ( Dn dn : getEntries().keySet() )
+        {
+            if ( !dn.isEmpty() && dn.getParent().equals( entry.getDn() ) )
+            {
+                nbChildren++;
+            }
+        }
+
+        subordinates.setNbChildren( nbChildren );
+        subordinates.setNbSubordinates( nbChildren );
+
+        return subordinates;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unbind( UnbindOperationContext unbindContext )
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveContextCsn()
+    {
+        // Nothing to do
+    }
+
+
+    private static LdapUnwillingToPerformException readOnly()
+    {
+        return new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+            "The " + MONITOR_DN + " partition is read-only" );
+    }
+}
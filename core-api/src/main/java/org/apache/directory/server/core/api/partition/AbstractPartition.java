@@ -293,6 +293,26 @@ public abstract class AbstractPartition implements Partition
     }
 
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionReadTxn beginReadTransaction()
+    {
+        return new DefaultPartitionReadTxn();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionWriteTxn beginWriteTransaction()
+    {
+        return new DefaultPartitionWriteTxn();
+    }
+
+
     /**
      * {@inheritDoc}
      */
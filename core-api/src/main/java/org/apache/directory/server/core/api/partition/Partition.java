@@ -156,6 +156,26 @@ public interface Partition
     void sync() throws Exception;
 
 
+    /**
+     * Starts a read transaction on this partition. A read transaction never waits
+     * for an operation running on another partition. A backend without snapshots
+     * may make it wait while a write updates its indexes on the same partition.
+     *
+     * @return The started read transaction
+     */
+    PartitionReadTxn beginReadTransaction();
+
+
+    /**
+     * Starts a write transaction on this partition. The write operations are
+     * serialized per partition by the OperationManager : a write done on a partition
+     * does not block the writes done on any other partition.
+     *
+     * @return The started write transaction
+     */
+    PartitionWriteTxn beginWriteTransaction();
+
+
     /**
      * Deletes a leaf entry from this ContextPartition: non-leaf entries cannot be
      * deleted until this operation has been applied to their children.
@@ -44,6 +44,7 @@ import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.DirectoryMetrics;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -65,6 +66,9 @@ public class MockDirectoryService implements DirectoryService
     /** The schemaManager */
     SchemaManager schemaManager;
 
+    /** The metrics */
+    DirectoryMetrics metrics = new DirectoryMetrics();
+
 
     public MockDirectoryService()
     {
@@ -372,6 +376,12 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public DirectoryMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+
     public CoreSession getSession() throws LdapException
     {
         return null;
@@ -0,0 +1,129 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the LatencyHistogram class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testEmptyHistogram()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0L, histogram.getMean() );
+        assertEquals( 0L, histogram.getValueAtPercentile( 99d ) );
+    }
+
+
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for ( long value = 0L; value < 64L; value++ )
+        {
+            histogram.record( value );
+        }
+
+        assertEquals( 64L, histogram.getCount() );
+        assertEquals( 31L, histogram.getValueAtPercentile( 50d ) );
+        assertEquals( 63L, histogram.getValueAtPercentile( 100d ) );
+        assertEquals( 63L, histogram.getMax() );
+    }
+
+
+    @Test
+    public void testPercentilesPrecision()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 1 to 100 000 microseconds
+        for ( long value = 1L; value <= 100000L; value++ )
+        {
+            histogram.record( value * 1000L );
+        }
+
+        assertNear( 50000000L, histogram.getValueAtPercentile( 50d ) );
+        assertNear( 99000000L, histogram.getValueAtPercentile( 99d ) );
+        assertNear( 99900000L, histogram.getValueAtPercentile( 99.9d ) );
+        assertEquals( 100000000L, histogram.getMax() );
+        assertEquals( 50000500L, histogram.getMean() );
+    }
+
+
+    @Test
+    public void testTailIsVisible()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for ( int i = 0; i < 990; i++ )
+        {
+            histogram.record( 1000L );
+        }
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            histogram.record( 1000000000L );
+        }
+
+        assertNear( 1000L, histogram.getValueAtPercentile( 99d ) );
+        assertNear( 1000000000L, histogram.getValueAtPercentile( 99.9d ) );
+    }
+
+
+    @Test
+    public void testReset()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record( 12345L );
+        histogram.record( Long.MAX_VALUE );
+        histogram.reset();
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0L, histogram.getMax() );
+        assertEquals( 0L, histogram.getValueAtPercentile( 50d ) );
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile()
+    {
+        new LatencyHistogram().getValueAtPercentile( 101d );
+    }
+
+
+    private static void assertNear( long expected, long actual )
+    {
+        assertTrue( "expected " + expected + " but was " + actual,
+            Math.abs( expected - actual ) <= expected / 32 );
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.core.api.partition;
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the DefaultPartitionWriteTxn and DefaultPartitionReadTxn classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultPartitionWriteTxnTest
+{
+    @Test
+    public void testWriteTxnCommit() throws Exception
+    {
+        PartitionWriteTxn txn = new DefaultPartitionWriteTxn();
+
+        assertFalse( txn.isClosed() );
+
+        txn.commit();
+        assertTrue( txn.isClosed() );
+
+        // A second completion is harmless
+        txn.abort();
+        assertTrue( txn.isClosed() );
+    }
+
+
+    @Test
+    public void testWriteTxnAbort() throws Exception
+    {
+        PartitionWriteTxn txn = new DefaultPartitionWriteTxn();
+
+        txn.abort();
+        assertTrue( txn.isClosed() );
+
+        txn.close();
+        assertTrue( txn.isClosed() );
+    }
+
+
+    @Test
+    public void testReadTxnDoesNotWaitForWriter() throws Exception
+    {
+        PartitionWriteTxn writeTxn = new DefaultPartitionWriteTxn();
+        PartitionReadTxn readTxn = new DefaultPartitionReadTxn();
+
+        assertFalse( readTxn.isClosed() );
+        readTxn.close();
+        assertTrue( readTxn.isClosed() );
+
+        writeTxn.abort();
+        assertTrue( writeTxn.isClosed() );
+    }
+}
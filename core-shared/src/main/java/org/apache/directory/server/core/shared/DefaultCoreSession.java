@@ -20,7 +20,6 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.text.ParseException;
@@ -29,9 +28,11 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
-import jdbm.recman.BaseRecordManager;
-
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncInfoValue.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponseImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
@@ -1166,6 +1167,10 @@ public class DefaultCoreSession implements CoreSession
 
         SortResponse sortRespCtrl = null;
 
+        // Check if we received a Virtual List View control
+        VirtualListViewRequest vlvControl = ( VirtualListViewRequest ) searchRequest.getControls().get(
+            VirtualListViewRequest.OID );
+
         ResultResponse done = searchRequest.getResultResponse();
 
         LdapResult ldapResult = done.getLdapResult();
@@ -1183,15 +1188,45 @@ public class DefaultCoreSession implements CoreSession
             }
         }
 
+        // A Virtual List View needs the results to be sorted
+        if ( ( vlvControl != null )
+            && ( ( sortRespCtrl == null ) || ( sortRespCtrl.getSortResult() != SortResultCode.SUCCESS ) ) )
+        {
+            VirtualListViewResponse vlvRespCtrl = new VirtualListViewResponseImpl();
+
+            if ( sortControl == null )
+            {
+                ldapResult.setDiagnosticMessage( "A Virtual List View requires a Server Side Sort control" );
+                vlvRespCtrl.setVirtualListViewResult( VirtualListViewResultCode.SORTCONTROLMISSING );
+            }
+            else
+            {
+                vlvRespCtrl.setVirtualListViewResult( VirtualListViewResultCode.UNWILLINGTOPERFORM );
+            }
+
+            ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+            done.addControl( vlvRespCtrl );
+
+            if ( sortRespCtrl != null )
+            {
+                done.addControl( sortRespCtrl );
+            }
+
+            return new EmptyCursor<>();
+        }
+
         Cursor<Entry> cursor = null;
 
         try
         {
             cursor = operationManager.search( searchContext );
 
-            if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
+            // The partition may have read the Virtual List View window from an index, already sorted
+            if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS )
+                && !searchContext.hasResponseControl( VirtualListViewResponse.OID ) )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                cursor = sortResults( cursor, sortControl, vlvControl, done, searchRequest.getSizeLimit(),
+                    getDirectoryService().getSchemaManager() );
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
@@ -1271,82 +1306,73 @@ public class DefaultCoreSession implements CoreSession
     {
         SortResponse resp = new SortResponseControlImpl();
 
-        List<SortKey> keys = sortControl.getSortKeys();
-
-        // only ONE key is supported by the server for now
-        if ( keys.size() > 1 )
+        for ( SortKey sk : sortControl.getSortKeys() )
         {
-            ldapResult.setDiagnosticMessage( "Cannot sort results based on more than one attribute" );
-            resp.setSortResult( SortResultCode.UNWILLINGTOPERFORM );
-            return resp;
-        }
-
-        SortKey sk = keys.get( 0 );
+            AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
 
-        AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
-
-        if ( at == null )
-        {
-            ldapResult.setDiagnosticMessage( "No attribute with the name " + sk.getAttributeTypeDesc()
-                + " exists in the server's schema" );
-            resp.setSortResult( SortResultCode.NOSUCHATTRIBUTE );
-            resp.setAttributeName( sk.getAttributeTypeDesc() );
-            return resp;
-        }
-
-        String mrOid = sk.getMatchingRuleId();
-
-        if ( mrOid != null )
-        {
-            MatchingRule mr = at.getOrdering();
-
-            if ( ( mr != null ) && ( !mrOid.equals( mr.getOid() ) ) )
+            if ( at == null )
             {
-                ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid
-                    + " is not applicable for the attribute " + sk.getAttributeTypeDesc() );
-                resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                ldapResult.setDiagnosticMessage( "No attribute with the name " + sk.getAttributeTypeDesc()
+                    + " exists in the server's schema" );
+                resp.setSortResult( SortResultCode.NOSUCHATTRIBUTE );
                 resp.setAttributeName( sk.getAttributeTypeDesc() );
                 return resp;
             }
 
-            try
+            String mrOid = sk.getMatchingRuleId();
+
+            if ( mrOid != null )
             {
-                schemaManager.lookupComparatorRegistry( mrOid );
+                MatchingRule mr = at.getOrdering();
+
+                if ( ( mr != null ) && ( !mrOid.equals( mr.getOid() ) ) )
+                {
+                    ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid
+                        + " is not applicable for the attribute " + sk.getAttributeTypeDesc() );
+                    resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                    resp.setAttributeName( sk.getAttributeTypeDesc() );
+                    return resp;
+                }
+
+                try
+                {
+                    schemaManager.lookupComparatorRegistry( mrOid );
+                }
+                catch ( LdapException e )
+                {
+                    ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid + " is not supported" );
+                    resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                    resp.setAttributeName( sk.getAttributeTypeDesc() );
+                    return resp;
+                }
             }
-            catch ( LdapException e )
+            else
             {
-                ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid + " is not supported" );
-                resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
-                resp.setAttributeName( sk.getAttributeTypeDesc() );
-                return resp;
-            }
-        }
-        else
-        {
-            MatchingRule mr = at.getOrdering();
+                MatchingRule mr = at.getOrdering();
 
-            if ( mr == null )
-            {
-                mr = at.getEquality();
-            }
+                if ( mr == null )
+                {
+                    mr = at.getEquality();
+                }
 
-            ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
-                + sk.getAttributeTypeDesc() );
-            resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
-            resp.setAttributeName( sk.getAttributeTypeDesc() );
+                ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
+                    + sk.getAttributeTypeDesc() );
+                resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                resp.setAttributeName( sk.getAttributeTypeDesc() );
 
-            if ( mr == null )
-            {
-                return resp;
-            }
+                if ( mr == null )
+                {
+                    return resp;
+                }
 
-            try
-            {
-                schemaManager.lookupComparatorRegistry( mr.getOid() );
-            }
-            catch ( LdapException e )
-            {
-                return resp;
+                try
+                {
+                    schemaManager.lookupComparatorRegistry( mr.getOid() );
+                }
+                catch ( LdapException e )
+                {
+                    return resp;
+                }
             }
         }
 
@@ -1357,10 +1383,16 @@ public class DefaultCoreSession implements CoreSession
 
 
     /**
-     * Sorts the entries based on the given sortkey and returns the cursor
+     * Sorts the entries based on the given sort keys and returns the cursor. When a size
+     * limit is given, only the first sizeLimit + 1 sorted entries are kept : the extra entry
+     * tells the caller that the size limit is exceeded. When a Virtual List View is requested,
+     * only the entries of the requested window are returned.
      * 
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
+     * @param vlvControl the Virtual List View control, if any
+     * @param done the search result, receiving the Virtual List View response control
+     * @param sizeLimit the search size limit, 0 if there is none
      * @param schemaManager schema manager
      * @return a cursor containing sorted entries
      * @throws CursorException
@@ -1368,68 +1400,39 @@ public class DefaultCoreSession implements CoreSession
      * @throws IOException
      * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control,
+        VirtualListViewRequest vlvControl, ResultResponse done, long sizeLimit, SchemaManager schemaManager )
         throws CursorException, LdapException, IOException
     {
-        unsortedEntries.beforeFirst();
-
-        Entry first = null;
+        List<SortedEntryComparator> comparators = new ArrayList<>();
 
-        if ( unsortedEntries.next() )
+        for ( SortKey sk : control.getSortKeys() )
         {
-            first = unsortedEntries.get();
-        }
-
-        if ( !unsortedEntries.next() )
-        {
-            unsortedEntries.beforeFirst();
+            AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
 
-            return unsortedEntries;
+            comparators.add( new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
+                schemaManager ) );
         }
 
-        SortKey sk = control.getSortKeys().get( 0 );
-
-        AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
-
-        SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
-            schemaManager );
-
-        SortedEntrySerializer keySerializer = new SortedEntrySerializer();
         SortedEntrySerializer.setSchemaManager( schemaManager );
-        
-        File file = null;
-        
-        try 
-        {
-            file = File.createTempFile( "replica", ".sorted-data" );    // see DIRSERVER-2007
-        } 
-        catch ( IOException e ) 
-        {
-            // see DIRSERVER-2091
-            LOG.error( "Error creating temp file in directory {} for sorting: {}",  
-                System.getProperty( "java.io.tmpdir" ),  e.getMessage(), e );
-            throw e;
-        }
 
-        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
-
-        jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
-        
+        if ( vlvControl == null )
+        {
+            EntrySorter sorter = new EntrySorter( comparators, sizeLimit, EntrySorter.DEFAULT_MAX_IN_MEMORY );
 
-        btree.insert( first, "", false );
+            return sorter.sort( unsortedEntries );
+        }
 
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
+        // The window position depends on all the entries
+        EntrySorter sorter = new EntrySorter( comparators, 0L, EntrySorter.DEFAULT_MAX_IN_MEMORY );
+        VirtualListViewResponse vlvRespCtrl = new VirtualListViewResponseImpl();
 
-        while ( unsortedEntries.next() )
-        {
-            Entry entry = unsortedEntries.get();
-            btree.insert( entry, "", false );
-        }
+        Cursor<Entry> window = SortedEntryWindow.select( sorter.sort( unsortedEntries ), comparators.get( 0 ),
+            vlvControl, vlvRespCtrl );
 
-        unsortedEntries.close();
+        done.addControl( vlvRespCtrl );
 
-        return new SortedEntryCursor( btree, recMan, file );
+        return window;
     }
 
 
@@ -0,0 +1,471 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries returned by a search, as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>.
+ * <ul>
+ *   <li>When the number of returned entries is limited (size limit), only the best
+ *   <i>limit + 1</i> entries are kept in a bounded heap, and the others are discarded as soon
+ *   as they are read. The extra entry tells the caller that the size limit is exceeded.</li>
+ *   <li>When all the entries fit in memory, they are sorted in memory.</li>
+ *   <li>Otherwise, the entries are sorted by chunks which are written sequentially as runs
+ *   in temporary files, and the runs are then merged into a single sorted file, which is
+ *   read by a {@link SortedEntryCursor}.</li>
+ * </ul>
+ * The sort values of each entry are computed once, when the entry is read.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EntrySorter
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The default number of entries sorted in memory before they are written in a run */
+    static final int DEFAULT_MAX_IN_MEMORY = 10000;
+
+    /** The comparators, one per sort key, in the order of the sort keys */
+    private final SortedEntryComparator[] comparators;
+
+    /** The maximum number of entries to keep, 0 if there is no limit. It's one more than the size limit */
+    private final long limit;
+
+    /** The maximum number of entries kept in memory */
+    private final int maxInMemory;
+
+    /** The serializer used to write the entries in the temporary files */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+    /** The comparator used to order the entries */
+    private final Comparator<SortableEntry> order = new Comparator<SortableEntry>()
+    {
+        @Override
+        public int compare( SortableEntry entry1, SortableEntry entry2 )
+        {
+            for ( int i = 0; i < comparators.length; i++ )
+            {
+                int c = comparators[i].compareValues( entry1.values[i], entry2.values[i] );
+
+                if ( c != 0 )
+                {
+                    return c;
+                }
+            }
+
+            // Keep the search order for the entries having the same sort values
+            return Long.compare( entry1.sequence, entry2.sequence );
+        }
+    };
+
+    /** The number of entries read so far */
+    private long sequence;
+
+
+    /**
+     * An entry, and the values it's sorted on
+     */
+    private static class SortableEntry
+    {
+        private final Entry entry;
+        private final Object[] values;
+        private final long sequence;
+
+
+        private SortableEntry( Entry entry, Object[] values, long sequence )
+        {
+            this.entry = entry;
+            this.values = values;
+            this.sequence = sequence;
+        }
+    }
+
+
+    /**
+     * A sorted run, stored in a temporary file
+     */
+    private class Run
+    {
+        private final File file;
+        private DataInputStream in;
+        private SortableEntry head;
+
+
+        private Run( File file )
+        {
+            this.file = file;
+        }
+
+
+        /**
+         * Reads the next entry of the run, and returns false if there is none
+         */
+        private boolean advance() throws IOException
+        {
+            if ( in == null )
+            {
+                in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+            }
+
+            long entrySequence;
+
+            try
+            {
+                entrySequence = in.readLong();
+            }
+            catch ( EOFException eofe )
+            {
+                head = null;
+
+                return false;
+            }
+
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully( bytes );
+            Entry entry = ( Entry ) serializer.deserialize( bytes );
+            head = new SortableEntry( entry, getValues( entry ), entrySequence );
+
+            return true;
+        }
+
+
+        private void delete()
+        {
+            if ( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.warn( "Failed to close the sort run file {}", file, ioe );
+                }
+            }
+
+            if ( !file.delete() )
+            {
+                LOG.warn( "Failed to delete the sort run file {}", file );
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of EntrySorter.
+     *
+     * @param comparators The comparators, one per sort key
+     * @param limit The maximum number of entries to return, 0 if there is no limit. One more entry
+     * is kept, so that the caller can tell if the limit has been exceeded
+     * @param maxInMemory The maximum number of entries sorted in memory
+     */
+    EntrySorter( List<SortedEntryComparator> comparators, long limit, int maxInMemory )
+    {
+        this.comparators = comparators.toArray( new SortedEntryComparator[comparators.size()] );
+        this.limit = ( limit > 0 ) ? limit + 1 : 0;
+        this.maxInMemory = Math.max( 1, maxInMemory );
+    }
+
+
+    /**
+     * Reads all the entries of the given cursor, closes it, and returns a cursor on the sorted entries
+     *
+     * @param unsortedEntries The cursor containing the entries to sort
+     * @return A cursor on the sorted entries
+     * @throws CursorException If the entries can't be read
+     * @throws LdapException If the entries can't be read
+     * @throws IOException If the temporary files can't be written
+     */
+    Cursor<Entry> sort( Cursor<Entry> unsortedEntries ) throws CursorException, LdapException, IOException
+    {
+        unsortedEntries.beforeFirst();
+
+        try
+        {
+            if ( ( limit > 0 ) && ( limit <= maxInMemory ) )
+            {
+                return sortTopEntries( unsortedEntries );
+            }
+            else
+            {
+                return sortAllEntries( unsortedEntries );
+            }
+        }
+        finally
+        {
+            unsortedEntries.close();
+        }
+    }
+
+
+    /**
+     * Keeps the first 'limit + 1' entries in a heap whose head is the greatest retained entry,
+     * so that an entry which can't be part of the result is discarded with a single comparison.
+     */
+    private Cursor<Entry> sortTopEntries( Cursor<Entry> unsortedEntries ) throws CursorException, LdapException
+    {
+        PriorityQueue<SortableEntry> heap = new PriorityQueue<>( ( int ) limit + 1,
+            Collections.reverseOrder( order ) );
+
+        while ( unsortedEntries.next() )
+        {
+            SortableEntry entry = wrap( unsortedEntries.get() );
+
+            if ( heap.size() < limit )
+            {
+                heap.add( entry );
+            }
+            else if ( order.compare( entry, heap.peek() ) < 0 )
+            {
+                heap.poll();
+                heap.add( entry );
+            }
+        }
+
+        List<SortableEntry> retained = new ArrayList<>( heap );
+        Collections.sort( retained, order );
+
+        return toCursor( retained );
+    }
+
+
+    /**
+     * Sorts the entries in memory if they fit, otherwise writes sorted runs and merges them
+     */
+    private Cursor<Entry> sortAllEntries( Cursor<Entry> unsortedEntries ) throws CursorException, LdapException,
+        IOException
+    {
+        List<SortableEntry> buffer = new ArrayList<>();
+        List<Run> runs = new ArrayList<>();
+
+        try
+        {
+            while ( unsortedEntries.next() )
+            {
+                if ( buffer.size() == maxInMemory )
+                {
+                    runs.add( writeRun( buffer ) );
+                    buffer.clear();
+                }
+
+                buffer.add( wrap( unsortedEntries.get() ) );
+            }
+
+            Collections.sort( buffer, order );
+
+            if ( runs.isEmpty() )
+            {
+                if ( ( limit > 0 ) && ( buffer.size() > limit ) )
+                {
+                    buffer = buffer.subList( 0, ( int ) limit );
+                }
+
+                return toCursor( buffer );
+            }
+
+            if ( !buffer.isEmpty() )
+            {
+                runs.add( writeRun( buffer ) );
+                buffer.clear();
+            }
+
+            return merge( runs );
+        }
+        finally
+        {
+            for ( Run run : runs )
+            {
+                run.delete();
+            }
+        }
+    }
+
+
+    /**
+     * Sorts the buffered entries and writes them sequentially in a new run file
+     */
+    private Run writeRun( List<SortableEntry> buffer ) throws IOException
+    {
+        Collections.sort( buffer, order );
+
+        File file = createTempFile( ".sort-run" );
+        Run run = new Run( file );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+        {
+            for ( SortableEntry entry : buffer )
+            {
+                byte[] bytes = serializer.serialize( entry.entry );
+                out.writeLong( entry.sequence );
+                out.writeInt( bytes.length );
+                out.write( bytes );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            run.delete();
+            throw ioe;
+        }
+
+        LOG.debug( "Wrote a sort run of {} entries in {}", buffer.size(), file );
+
+        return run;
+    }
+
+
+    /**
+     * Merges the runs into a single sorted file, and returns a cursor on this file
+     */
+    private Cursor<Entry> merge( List<Run> runs ) throws IOException
+    {
+        PriorityQueue<Run> heads = new PriorityQueue<>( runs.size(), new Comparator<Run>()
+        {
+            @Override
+            public int compare( Run run1, Run run2 )
+            {
+                return order.compare( run1.head, run2.head );
+            }
+        } );
+
+        for ( Run run : runs )
+        {
+            if ( run.advance() )
+            {
+                heads.add( run );
+            }
+        }
+
+        File file = createTempFile( ".sorted-data" );
+        long[] offsets = new long[1024];
+        int size = 0;
+        long offset = 0L;
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+        {
+            while ( !heads.isEmpty() && ( ( limit == 0 ) || ( size < limit ) ) )
+            {
+                Run run = heads.poll();
+                byte[] bytes = serializer.serialize( run.head.entry );
+
+                if ( size == offsets.length )
+                {
+                    offsets = Arrays.copyOf( offsets, size * 2 );
+                }
+
+                offsets[size++] = offset;
+                out.writeInt( bytes.length );
+                out.write( bytes );
+                offset += 4 + bytes.length;
+
+                if ( run.advance() )
+                {
+                    heads.add( run );
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            if ( !file.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted entry data file {}", file );
+            }
+
+            throw ioe;
+        }
+
+        LOG.debug( "Merged {} sort runs into {}, {} entries", runs.size(), file, size );
+
+        return new SortedEntryCursor( file, offsets, size, serializer );
+    }
+
+
+    private SortableEntry wrap( Entry entry )
+    {
+        return new SortableEntry( entry, getValues( entry ), sequence++ );
+    }
+
+
+    private Object[] getValues( Entry entry )
+    {
+        Object[] values = new Object[comparators.length];
+
+        for ( int i = 0; i < comparators.length; i++ )
+        {
+            values[i] = comparators[i].getSortValue( entry );
+        }
+
+        return values;
+    }
+
+
+    private Cursor<Entry> toCursor( List<SortableEntry> sorted )
+    {
+        List<Entry> entries = new ArrayList<>( sorted.size() );
+
+        for ( SortableEntry entry : sorted )
+        {
+            entries.add( entry.entry );
+        }
+
+        return new ListCursor<>( entries );
+    }
+
+
+    private File createTempFile( String suffix ) throws IOException
+    {
+        try
+        {
+            return File.createTempFile( "replica", suffix ); // see DIRSERVER-2007
+        }
+        catch ( IOException e )
+        {
+            // see DIRSERVER-2091
+            LOG.error( "Error creating temp file in directory {} for sorting: {}",
+                System.getProperty( "java.io.tmpdir" ), e.getMessage(), e );
+            throw e;
+        }
+    }
+}
@@ -22,7 +22,6 @@ package org.apache.directory.server.core.shared;
 
 import java.io.Serializable;
 import java.util.Comparator;
-import java.util.TreeSet;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -34,6 +33,7 @@ import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.ParsedDnComparator;
+import org.apache.directory.api.util.Strings;
 
 /**
  * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>
@@ -110,100 +110,112 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
     }
 
 
-    @Override
-    public int compare( Entry entry1, Entry entry2 )
+    /**
+     * Gets the value used to sort an entry : the smallest value of the sort attribute,
+     * or null if the entry does not have this attribute. It's computed once per entry,
+     * so that the comparisons don't have to normalize and sort the values again.
+     *
+     * @param entry The entry
+     * @return The value to compare, or null
+     */
+    @SuppressWarnings("unchecked")
+    Object getSortValue( Entry entry )
     {
-        Attribute at1 = entry1.get( type );
-
-        Attribute at2 = entry2.get( type );
-
-        // as per section 2.2 of the spec null values are considered larger
-        if ( at1 == null )
+        // Special case : entryDn
+        if ( comparator instanceof ParsedDnComparator )
         {
-            return reverse ? -1 : 1;
-        }
-        else if ( at2 == null )
-        {
-            return reverse ? 1 : -1;
+            return entry.getDn();
         }
 
-        Object o1;
-        Object o2;
+        Attribute attribute = entry.get( type );
 
-        if ( multivalued )
+        if ( attribute == null )
         {
-            TreeSet ts = new TreeSet( comparator );
+            return null;
+        }
 
-            o1 = sortAndGetFirst( at1, ts );
+        Object least = null;
 
-            ts.clear();
-            o2 = sortAndGetFirst( at2, ts );
-        }
-        else
+        for ( Value value : attribute )
         {
-            Value v1 = at1.get();
-            Value v2 = at2.get();
+            Object sortValue = hr ? value.getNormalized() : value.getBytes();
 
-            if ( hr )
-            {
-                o1 = v1.getValue();
-                o2 = v2.getValue();
-            }
-            else
+            if ( ( least == null ) || ( ( multivalued ) && ( comparator.compare( sortValue, least ) < 0 ) ) )
             {
-                o1 = v1.getBytes();
-                o2 = v2.getBytes();
+                least = sortValue;
             }
         }
 
-        int c;
+        return least;
+    }
 
-        try
+
+    /**
+     * Gets the value to compare with the sort values for a VLV assertion value
+     *
+     * @param assertionValue The assertion value, as sent by the client
+     * @return The value to compare
+     */
+    Object getAssertionValue( byte[] assertionValue )
+    {
+        if ( !hr )
         {
-            if ( reverse )
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o2 ), o1 );
-            }
-            else
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o1 ), o2 );
-            }
-    
-            if ( c == 0 )
-            {
-                return 1;
-            }
+            return assertionValue;
+        }
+
+        String assertion = Strings.utf8ToString( assertionValue );
 
-            return c;
+        if ( comparator instanceof ParsedDnComparator )
+        {
+            return assertion;
+        }
+
+        try
+        {
+            return new Value( type, assertion ).getNormalized();
         }
         catch ( LdapException le )
         {
-            return 0;
+            // Not a valid value, compare it as is
+            return assertion;
         }
     }
 
 
     /**
-     * sorts the values of an attribute and picks the least value
-     * 
-     * @param at the attribute
-     * @param ts the TreeSet for sorting 
-     * @return the least value among the values of the attribute
+     * Compares two values returned by {@link #getSortValue(Entry)}
+     *
+     * @param value1 The first value
+     * @param value2 The second value
+     * @return The comparison result, taking the sort order into account
      */
-    private Object sortAndGetFirst( Attribute at, TreeSet ts )
+    @SuppressWarnings("unchecked")
+    int compareValues( Object value1, Object value2 )
     {
-        for ( Value v : at )
+        // as per section 2.2 of the spec null values are considered larger
+        if ( value1 == null )
         {
-            if ( hr )
+            if ( value2 == null )
             {
-                ts.add( v.getNormalized() );
-            }
-            else
-            {
-                ts.add( v.getBytes() );
+                return 0;
             }
+
+            return reverse ? -1 : 1;
+        }
+        else if ( value2 == null )
+        {
+            return reverse ? 1 : -1;
         }
 
-        return ts.first();
+        int c = comparator.compare( value1, value2 );
+
+        return reverse ? -c : c;
+    }
+
+
+    @Override
+    public int compare( Entry entry1, Entry entry2 )
+    {
+        return compareValues( getSortValue( entry1 ), getSortValue( entry2 ) );
     }
-}
\ No newline at end of file
+}
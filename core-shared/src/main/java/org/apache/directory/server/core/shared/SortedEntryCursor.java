@@ -22,13 +22,8 @@ package org.apache.directory.server.core.shared;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.List;
-import java.util.NoSuchElementException;
-
-import jdbm.RecordManager;
-import jdbm.btree.BTree;
-import jdbm.helper.Tuple;
-import jdbm.helper.TupleBrowser;
 
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -43,42 +38,63 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Cursor for sorted entries.
- * 
- * Note: This currently uses JDBM, but will be migrated to use Mavibot
- *       when ready.
+ * Cursor for sorted entries which did not fit in memory. The entries are read
+ * from the file produced by the final merge of the {@link EntrySorter}, where they
+ * are stored as length prefixed serialized entries, in sort order. The offsets
+ * of the records are kept in memory, so that the cursor can move in both directions.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFilteringCursor
 {
-
     private static final Logger LOG = LoggerFactory.getLogger( SortedEntryCursor.class );
-    
-    private TupleBrowser browser;
 
-    private final Tuple tuple = new Tuple();
+    /** The file containing the sorted entries */
+    private File dataFile;
 
-    private RecordManager recMan;
+    /** The file, opened for reading */
+    private RandomAccessFile data;
 
-    private File dataFile;
-    
-    private BTree<Entry, String> btree;
-    
+    /** The offset of each entry in the file */
+    private final long[] offsets;
+
+    /** The number of entries in the file */
+    private final int size;
+
+    /** The serializer used to read the entries */
+    private final SortedEntrySerializer serializer;
+
+    /** The current position : -1 is before the first entry, size is after the last one */
+    private int position = -1;
+
+    /** The entry at the current position */
+    private Entry current;
 
-    public SortedEntryCursor( BTree<Entry, String> btree, RecordManager recMan, File dataFile ) throws IOException
+
+    /**
+     * Creates a new instance of SortedEntryCursor.
+     *
+     * @param dataFile The file containing the sorted entries
+     * @param offsets The offsets of the entries in the file
+     * @param size The number of entries
+     * @param serializer The serializer used to read the entries
+     * @throws IOException If the file can't be opened
+     */
+    public SortedEntryCursor( File dataFile, long[] offsets, int size, SortedEntrySerializer serializer )
+        throws IOException
     {
-        this.recMan = recMan;
         this.dataFile = dataFile;
-        this.btree = btree;
-        browser = btree.browse();
+        this.offsets = offsets;
+        this.size = size;
+        this.serializer = serializer;
+        data = new RandomAccessFile( dataFile, "r" );
     }
 
 
     @Override
     public boolean available()
     {
-        return tuple.getKey() != null;
+        return current != null;
     }
 
 
@@ -99,31 +115,16 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public void beforeFirst() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse();
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
+        current = null;
+        position = -1;
     }
 
 
     @Override
     public void afterLast() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse( null );
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-
+        current = null;
+        position = size;
     }
 
 
@@ -146,30 +147,16 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public boolean previous() throws LdapException, CursorException
     {
-        try
+        if ( position > 0 )
         {
+            position--;
+            current = read( position );
 
-            if ( browser == null )
-            {
-                browser = btree.browse( null );
-            }
-            
-            if ( browser.getPrevious( tuple ) )
-            {
-                return true;
-            }
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-        catch ( NoSuchElementException e )
-        {
-            // ignore this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasPrev())
+            return true;
         }
 
-        clearValue();
+        beforeFirst();
+
         return false;
     }
 
@@ -177,29 +164,16 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public boolean next() throws LdapException, CursorException
     {
-        try
-        {
-            if ( browser == null )
-            {
-                browser = btree.browse();
-            }
-            
-            if ( browser.getNext( tuple ) )
-            {
-                return true;
-            }
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-        catch ( NoSuchElementException e )
+        if ( position < size - 1 )
         {
-            // ignore, this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasNext())
+            position++;
+            current = read( position );
+
+            return true;
         }
 
-        clearValue();
+        afterLast();
+
         return false;
     }
 
@@ -207,12 +181,12 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public Entry get() throws CursorException
     {
-        if ( tuple.getKey() == null )
+        if ( current == null )
         {
             throw new InvalidCursorPositionException();
         }
 
-        return ( Entry ) tuple.getKey();
+        return current;
     }
 
 
@@ -252,29 +226,49 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
         return null;
     }
 
-    
-    private void clearValue()
+
+    /**
+     * Reads the entry stored at a given position in the file
+     */
+    private Entry read( int index ) throws CursorException
     {
-        tuple.setKey( null );
-        tuple.setValue( null );
+        try
+        {
+            data.seek( offsets[index] );
+            byte[] bytes = new byte[data.readInt()];
+            data.readFully( bytes );
+
+            return ( Entry ) serializer.deserialize( bytes );
+        }
+        catch ( IOException e )
+        {
+            throw new CursorException( e );
+        }
     }
 
-    
+
     private void deleteFile()
     {
-        if ( recMan == null )
+        if ( data == null )
         {
             return;
         }
 
         try
         {
-            recMan.close();
-            dataFile.delete();
+            data.close();
         }
         catch ( IOException e )
         {
-            LOG.warn( "Failed to delete the sorted entry data file {}", dataFile, e );
+            LOG.warn( "Failed to close the sorted entry data file {}", dataFile, e );
+        }
+
+        data = null;
+        current = null;
+
+        if ( !dataFile.delete() )
+        {
+            LOG.warn( "Failed to delete the sorted entry data file {}", dataFile );
         }
     }
 }
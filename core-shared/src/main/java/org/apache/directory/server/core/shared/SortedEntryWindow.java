@@ -0,0 +1,161 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+
+
+/**
+ * Selects the Virtual List View window in sorted search results, when the partition could
+ * not read it from an index. The sorted entries are read once to count them and to find
+ * the target, and a second time to keep the entries of the window.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class SortedEntryWindow
+{
+    private SortedEntryWindow()
+    {
+    }
+
+
+    /**
+     * Selects the window requested by a VLV control, and updates the VLV response control.
+     * The sorted entries cursor is closed.
+     *
+     * @param sortedEntries The sorted entries
+     * @param comparator The comparator of the first sort key
+     * @param vlvRequest The VLV request control
+     * @param vlvResponse The VLV response control
+     * @return A cursor on the entries of the window
+     * @throws CursorException If the entries can't be read
+     * @throws LdapException If the entries can't be read
+     * @throws IOException If the sorted entries cursor can't be closed
+     */
+    static Cursor<Entry> select( Cursor<Entry> sortedEntries, SortedEntryComparator comparator,
+        VirtualListViewRequest vlvRequest, VirtualListViewResponse vlvResponse ) throws CursorException,
+        LdapException, IOException
+    {
+        try
+        {
+            if ( vlvRequest.hasOffset() && ( ( vlvRequest.getOffset() < 1 ) || ( vlvRequest.getContentCount() < 0 ) ) )
+            {
+                vlvResponse.setVirtualListViewResult( VirtualListViewResultCode.OFFSETRANGEERROR );
+
+                return new EmptyCursor<>();
+            }
+
+            Object assertion = null;
+
+            if ( !vlvRequest.hasOffset() )
+            {
+                assertion = comparator.getAssertionValue( vlvRequest.getAssertionValue() );
+            }
+
+            // Count the entries, and find the first one greater or equal to the assertion value
+            long count = 0L;
+            long target = 0L;
+
+            sortedEntries.beforeFirst();
+
+            while ( sortedEntries.next() )
+            {
+                count++;
+
+                if ( ( assertion != null ) && ( target == 0L )
+                    && ( comparator.compareValues( comparator.getSortValue( sortedEntries.get() ), assertion ) >= 0 ) )
+                {
+                    target = count;
+                }
+            }
+
+            if ( vlvRequest.hasOffset() )
+            {
+                target = getTargetPosition( vlvRequest.getOffset(), vlvRequest.getContentCount(), count );
+            }
+            else if ( target == 0L )
+            {
+                target = count + 1L;
+            }
+
+            long first = Math.max( 1L, target - Math.max( 0, vlvRequest.getBeforeCount() ) );
+            long last = Math.min( count, target + Math.max( 0, vlvRequest.getAfterCount() ) );
+
+            List<Entry> window = new ArrayList<>();
+            long position = 0L;
+
+            sortedEntries.beforeFirst();
+
+            while ( ( position < last ) && sortedEntries.next() )
+            {
+                position++;
+
+                if ( position >= first )
+                {
+                    window.add( sortedEntries.get() );
+                }
+            }
+
+            vlvResponse.setTargetPosition( ( int ) Math.min( target, Integer.MAX_VALUE ) );
+            vlvResponse.setContentCount( ( int ) Math.min( count, Integer.MAX_VALUE ) );
+            vlvResponse.setVirtualListViewResult( VirtualListViewResultCode.SUCCESS );
+
+            return new ListCursor<>( window );
+        }
+        finally
+        {
+            sortedEntries.close();
+        }
+    }
+
+
+    /**
+     * Computes the position of the target from an offset, as per the VLV specification :
+     * the first and last offsets of the client's list are mapped to the first and last entries
+     * of the server's list.
+     */
+    private static long getTargetPosition( long offset, long clientCount, long count )
+    {
+        if ( ( clientCount == 0L ) || ( offset > clientCount ) )
+        {
+            return Math.min( offset, count + 1L );
+        }
+
+        if ( clientCount == 1L )
+        {
+            return 1L;
+        }
+
+        return 1L + ( offset - 1L ) * Math.max( 0L, count - 1L ) / ( clientCount - 1L );
+    }
+}
@@ -61,6 +61,7 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.CursorList;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -74,6 +75,7 @@ import org.apache.directory.server.core.api.interceptor.context.LookupOperationC
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
@@ -358,7 +360,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void add( AddOperationContext addContext ) throws LdapException
     {
         Partition partition = getPartition( addContext.getDn() );
-        partition.add( addContext );
+        execute( partition, OperationEnum.ADD, addContext );
     }
 
 
@@ -410,7 +412,8 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         Partition partition = getPartition( deleteContext.getDn() );
-        return partition.delete( deleteContext );
+
+        return ( Entry ) execute( partition, OperationEnum.DELETE, deleteContext );
     }
 
 
@@ -434,7 +437,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
         Partition partition = getPartition( dn );
 
-        return partition.hasEntry( hasEntryContext );
+        return ( Boolean ) execute( partition, OperationEnum.HAS_ENTRY, hasEntryContext );
     }
 
 
@@ -458,7 +461,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
-        Entry entry = partition.lookup( lookupContext );
+        Entry entry = ( Entry ) execute( partition, OperationEnum.LOOKUP, lookupContext );
 
         if ( entry == null )
         {
@@ -483,8 +486,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( modifyContext.getDn() );
-
-        partition.modify( modifyContext );
+        execute( partition, OperationEnum.MODIFY, modifyContext );
 
         if ( modifyContext.isPushToEvtInterceptor() )
         {
@@ -501,8 +503,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         // Get the current partition
         Partition partition = getPartition( moveContext.getDn() );
-
-        partition.move( moveContext );
+        execute( partition, OperationEnum.MOVE, moveContext );
     }
 
 
@@ -513,7 +514,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Partition partition = getPartition( moveAndRenameContext.getDn() );
-        partition.moveAndRename( moveAndRenameContext );
+        execute( partition, OperationEnum.MOVE_AND_RENAME, moveAndRenameContext );
     }
 
 
@@ -524,7 +525,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
         Partition partition = getPartition( renameContext.getDn() );
-        partition.rename( renameContext );
+        execute( partition, OperationEnum.RENAME, renameContext );
     }
 
 
@@ -632,7 +633,71 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         // Normal case : do a search on the specific partition
         Partition backend = getPartition( baseDn );
 
-        return backend.search( searchContext );
+        return ( EntryFilteringCursor ) execute( backend, OperationEnum.SEARCH, searchContext );
+    }
+
+
+    /**
+     * Calls a partition, recording the time spent in it in the DirectoryService metrics.
+     *
+     * @param partition The partition
+     * @param operation The operation
+     * @param opContext The operation context
+     * @return The operation result, or null if the operation has none
+     * @throws LdapException If the operation failed
+     */
+    private Object execute( Partition partition, OperationEnum operation, OperationContext opContext )
+        throws LdapException
+    {
+        long start = ( directoryService == null ) ? 0L : directoryService.getMetrics().start();
+
+        try
+        {
+            switch ( operation )
+            {
+                case ADD:
+                    partition.add( ( AddOperationContext ) opContext );
+                    return null;
+
+                case DELETE:
+                    return partition.delete( ( DeleteOperationContext ) opContext );
+
+                case HAS_ENTRY:
+                    return partition.hasEntry( ( HasEntryOperationContext ) opContext );
+
+                case LOOKUP:
+                    return partition.lookup( ( LookupOperationContext ) opContext );
+
+                case MODIFY:
+                    partition.modify( ( ModifyOperationContext ) opContext );
+                    return null;
+
+                case MOVE:
+                    partition.move( ( MoveOperationContext ) opContext );
+                    return null;
+
+                case MOVE_AND_RENAME:
+                    partition.moveAndRename( ( MoveAndRenameOperationContext ) opContext );
+                    return null;
+
+                case RENAME:
+                    partition.rename( ( RenameOperationContext ) opContext );
+                    return null;
+
+                case SEARCH:
+                    return partition.search( ( SearchOperationContext ) opContext );
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected operation " + operation );
+            }
+        }
+        finally
+        {
+            if ( start != 0L )
+            {
+                directoryService.getMetrics().partitionCompleted( partition.getId(), start );
+            }
+        }
     }
 
 
@@ -0,0 +1,221 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the EntrySorter, in memory, with a top-K heap, and with sorted runs merged from disk.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySorterTest
+{
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+    }
+
+
+    private static Entry entry( int id, String sn ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=user" + id + ",ou=system",
+            "objectClass: person",
+            "cn: user" + id,
+            "sn: " + sn );
+    }
+
+
+    /**
+     * Creates entries with a sn going from 'sn00' to 'snXX', in a random order
+     */
+    private static List<Entry> shuffledEntries( int nbEntries ) throws Exception
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            entries.add( entry( i, String.format( "sn%02d", i ) ) );
+        }
+
+        Collections.shuffle( entries, new Random( 42L ) );
+
+        return entries;
+    }
+
+
+    private static List<SortedEntryComparator> comparators( String... keys ) throws Exception
+    {
+        List<SortedEntryComparator> comparators = new ArrayList<SortedEntryComparator>();
+
+        for ( String key : keys )
+        {
+            boolean reverse = key.startsWith( "-" );
+            String attributeType = reverse ? key.substring( 1 ) : key;
+
+            comparators.add( new SortedEntryComparator( schemaManager.getAttributeType( attributeType ), null,
+                reverse, schemaManager ) );
+        }
+
+        return comparators;
+    }
+
+
+    private static List<String> sort( EntrySorter sorter, List<Entry> entries, String attributeType )
+        throws Exception
+    {
+        Cursor<Entry> cursor = sorter.sort( new ListCursor<Entry>( new ArrayList<Entry>( entries ) ) );
+        List<String> values = new ArrayList<String>();
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                values.add( cursor.get().get( attributeType ).getString() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return values;
+    }
+
+
+    private static List<String> expectedSns( int nbEntries )
+    {
+        List<String> sns = new ArrayList<String>();
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            sns.add( String.format( "sn%02d", i ) );
+        }
+
+        return sns;
+    }
+
+
+    @Test
+    public void testMultiKeySort() throws Exception
+    {
+        List<Entry> entries = Arrays.asList(
+            entry( 1, "b" ),
+            entry( 2, "a" ),
+            entry( 3, "b" ),
+            entry( 4, "a" ),
+            entry( 5, "c" ) );
+
+        // Sorted by sn, then by reverse cn
+        EntrySorter sorter = new EntrySorter( comparators( "sn", "-cn" ), 0L, EntrySorter.DEFAULT_MAX_IN_MEMORY );
+
+        assertEquals( Arrays.asList( "user4", "user2", "user3", "user1", "user5" ), sort( sorter, entries, "cn" ) );
+    }
+
+
+    @Test
+    public void testTopEntriesKeepOneMoreThanTheLimit() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparators( "sn" ), 5L, EntrySorter.DEFAULT_MAX_IN_MEMORY );
+
+        // The extra entry tells the size limit has been exceeded
+        assertEquals( expectedSns( 6 ), sort( sorter, shuffledEntries( 50 ), "sn" ) );
+    }
+
+
+    @Test
+    public void testTopEntriesBelowTheLimit() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparators( "sn" ), 10L, EntrySorter.DEFAULT_MAX_IN_MEMORY );
+
+        assertEquals( expectedSns( 10 ), sort( sorter, shuffledEntries( 10 ), "sn" ) );
+    }
+
+
+    @Test
+    public void testSpillAndMerge() throws Exception
+    {
+        // 47 entries sorted in memory by chunks of 5 : 10 runs
+        EntrySorter sorter = new EntrySorter( comparators( "sn" ), 0L, 5 );
+
+        assertEquals( expectedSns( 47 ), sort( sorter, shuffledEntries( 47 ), "sn" ) );
+    }
+
+
+    @Test
+    public void testSpillAndMergeWithLimit() throws Exception
+    {
+        // The limit does not fit in memory, the entries are merged from the runs
+        EntrySorter sorter = new EntrySorter( comparators( "sn" ), 12L, 5 );
+
+        assertEquals( expectedSns( 13 ), sort( sorter, shuffledEntries( 47 ), "sn" ) );
+    }
+
+
+    @Test
+    public void testSpillAndMergeKeepsTheReadOrderForEqualValues() throws Exception
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            entries.add( entry( i, ( i % 2 == 0 ) ? "even" : "odd" ) );
+        }
+
+        EntrySorter sorter = new EntrySorter( comparators( "sn" ), 0L, 3 );
+        List<String> cns = sort( sorter, entries, "cn" );
+
+        List<String> expected = new ArrayList<String>();
+
+        for ( int i = 0; i < 20; i += 2 )
+        {
+            expected.add( "user" + i );
+        }
+
+        for ( int i = 1; i < 20; i += 2 )
+        {
+            expected.add( "user" + i );
+        }
+
+        assertEquals( expected, cns );
+    }
+}
@@ -26,6 +26,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
@@ -41,6 +42,10 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.apache.directory.api.ldap.codec.api.LdapApiService;
 import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
@@ -99,6 +104,7 @@ import org.apache.directory.server.core.api.interceptor.context.HasEntryOperatio
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.DirectoryMetrics;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -169,6 +175,12 @@ public class DefaultDirectoryService implements DirectoryService
      */
     private OperationManager operationManager = new DefaultOperationManager( this );
 
+    /** The latency and activity metrics */
+    private final DirectoryMetrics metrics = new DirectoryMetrics();
+
+    /** The name the metrics are registered with in JMX */
+    private ObjectName metricsName;
+
     /** the distinguished name of the administrative user */
     private Dn adminDn;
 
@@ -1229,6 +1241,16 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DirectoryMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+
     /**
      * @throws Exception if the LDAP server cannot be started
      */
@@ -1269,6 +1291,7 @@ public class DefaultDirectoryService implements DirectoryService
 
         initialize();
         showSecurityWarnings();
+        registerMetrics();
 
         started = true;
 
@@ -1349,6 +1372,8 @@ public class DefaultDirectoryService implements DirectoryService
         LOG.debug( "--- Deleting the cache service" );
         cacheService.destroy();
 
+        unregisterMetrics();
+
         LOG.debug( "---Deleting the DnCache" );
         dnFactory = null;
 
@@ -1792,6 +1817,51 @@ public class DefaultDirectoryService implements DirectoryService
      *
      * @throws Exception if there are problems along the way
      */
+    /**
+     * Registers the metrics in the platform MBean server, so that they can be read with
+     * any JMX client.
+     */
+    private void registerMetrics()
+    {
+        try
+        {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName( "org.apache.directory.server:type=Metrics,instance="
+                + ObjectName.quote( instanceId ) );
+
+            if ( !mbeanServer.isRegistered( name ) )
+            {
+                mbeanServer.registerMBean( metrics, name );
+                metricsName = name;
+            }
+        }
+        catch ( JMException | SecurityException e )
+        {
+            LOG.warn( "Failed to register the metrics of the directory service {} in JMX", instanceId, e );
+        }
+    }
+
+
+    private void unregisterMetrics()
+    {
+        if ( metricsName == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( metricsName );
+        }
+        catch ( JMException | SecurityException e )
+        {
+            LOG.warn( "Failed to unregister the metrics of the directory service {} from JMX", instanceId, e );
+        }
+
+        metricsName = null;
+    }
+
+
     private void initialize() throws Exception
     {
         if ( LOG.isDebugEnabled() )
@@ -20,9 +20,16 @@
 package org.apache.directory.server.core;
 
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
@@ -34,6 +41,7 @@ import org.apache.directory.api.ldap.model.exception.LdapAffectMultipleDsaExcept
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.exception.LdapPartialResultException;
 import org.apache.directory.api.ldap.model.exception.LdapReferralException;
 import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
@@ -45,10 +53,12 @@ import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.context.AbstractOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
@@ -63,6 +73,13 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.DirectoryMetrics;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.api.schema.SchemaPartition;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -92,8 +109,53 @@ public class DefaultOperationManager implements OperationManager
     /** The directory service instance */
     private final DirectoryService directoryService;
 
-    /** A lock used to protect against concurrent operations */
-    private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+    /**
+     * A global lock, taken in shared mode by every operation, and exclusively when
+     * the whole server must be quiesced : schema updates and shutdown. The operations
+     * done on a partition are otherwise protected by this partition's transactions.
+     */
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+
+    /** The locks serializing the write operations, per partition ID */
+    private final ConcurrentMap<String, ReentrantLock> partitionLocks = new ConcurrentHashMap<String, ReentrantLock>();
+
+    /** The partition locks held by the current thread, the last acquired first */
+    private static final ThreadLocal<Deque<HeldPartitionLock>> HELD_PARTITION_LOCKS =
+        new ThreadLocal<Deque<HeldPartitionLock>>()
+        {
+            @Override
+            protected Deque<HeldPartitionLock> initialValue()
+            {
+                return new ArrayDeque<HeldPartitionLock>();
+            }
+        };
+
+    /** The time a nested write waits for a partition lock it can't safely wait for, in ms */
+    private static final long NESTED_WRITE_LOCK_TIMEOUT = 10000L;
+
+
+    /**
+     * A partition lock held by a thread, with the global lock mode taken along
+     */
+    private static final class HeldPartitionLock
+    {
+        /** The locked partition ID */
+        private final String partitionId;
+
+        /** The partition lock */
+        private final ReentrantLock lock;
+
+        /** Tells if the global lock has been taken in write mode */
+        private final boolean exclusive;
+
+
+        private HeldPartitionLock( String partitionId, ReentrantLock lock, boolean exclusive )
+        {
+            this.partitionId = partitionId;
+            this.lock = lock;
+            this.exclusive = exclusive;
+        }
+    }
 
 
     public DefaultOperationManager( DirectoryService directoryService )
@@ -147,6 +209,331 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Gets the Partition an operation is targeting. If the Dn is not handled
+     * by any partition (typically the RootDSE), the nexus is returned.
+     *
+     * @param dn The operation Dn
+     * @return The Partition in charge of this Dn
+     */
+    private Partition getPartition( Dn dn )
+    {
+        PartitionNexus nexus = directoryService.getPartitionNexus();
+
+        if ( ( dn == null ) || dn.isEmpty() )
+        {
+            return nexus;
+        }
+
+        try
+        {
+            return nexus.getPartition( dn );
+        }
+        catch ( LdapException le )
+        {
+            return nexus;
+        }
+    }
+
+
+    /**
+     * Starts a write transaction on the given partition.
+     * <br>
+     * The write operations on a partition are serialized by a per partition lock. An
+     * operation may start a nested write on another partition (a trigger, a stored
+     * procedure...), so the thread then holds several of these locks. To avoid any
+     * deadlock, a thread only waits for a partition lock if this partition comes after
+     * all the partitions it already holds, in the partition ID order. Otherwise, it only
+     * waits for a bounded time, and the nested operation fails if the lock can't be
+     * obtained.
+     * <br>
+     * A modification of the schema partition impacts every other partition, so it is
+     * done under the global write lock. A nested schema modification can't upgrade the
+     * global read lock its thread already holds though : it is then serialized by the
+     * schema partition lock only.
+     *
+     * @param partition The partition to update
+     * @param opContext The operation context the transaction is stored into
+     * @return The started transaction
+     * @throws LdapException If the partition lock can't be obtained
+     */
+    private PartitionWriteTxn beginWriteTransaction( Partition partition, AbstractOperationContext opContext )
+        throws LdapException
+    {
+        boolean exclusive = ( partition instanceof SchemaPartition ) && ( rwLock.getReadHoldCount() == 0 );
+
+        if ( exclusive )
+        {
+            lockWrite();
+        }
+        else
+        {
+            lockRead();
+        }
+
+        HeldPartitionLock heldLock = null;
+
+        try
+        {
+            heldLock = lockPartition( partition, exclusive );
+
+            PartitionWriteTxn transaction = partition.beginWriteTransaction();
+            opContext.setTransaction( transaction );
+
+            return transaction;
+        }
+        catch ( LdapException | RuntimeException e )
+        {
+            if ( heldLock != null )
+            {
+                unlockPartition();
+            }
+            else
+            {
+                releaseGlobalLock( exclusive );
+            }
+
+            throw e;
+        }
+    }
+
+
+    /**
+     * Acquires the operation lock of a partition for the current thread, following the
+     * partition ID order.
+     *
+     * @param partition The partition to lock
+     * @param exclusive Tells if the global lock has been taken in write mode
+     * @return The held lock, pushed on the current thread's stack
+     * @throws LdapException If the lock can't be obtained without risking a deadlock
+     */
+    private HeldPartitionLock lockPartition( Partition partition, boolean exclusive ) throws LdapException
+    {
+        String partitionId = getLockId( partition );
+        ReentrantLock lock = partitionLocks.get( partitionId );
+
+        if ( lock == null )
+        {
+            ReentrantLock newLock = new ReentrantLock( true );
+            lock = partitionLocks.putIfAbsent( partitionId, newLock );
+
+            if ( lock == null )
+            {
+                lock = newLock;
+            }
+        }
+
+        Deque<HeldPartitionLock> heldLocks = HELD_PARTITION_LOCKS.get();
+        String highestLockId = getHighestLockId( heldLocks );
+
+        if ( lock.isHeldByCurrentThread() || ( highestLockId == null )
+            || ( partitionId.compareTo( highestLockId ) > 0 ) )
+        {
+            // Re-entrant, or in order : we can't be part of a cycle
+            lock.lock();
+        }
+        else
+        {
+            // A nested write going backward in the partition order
+            boolean locked = false;
+
+            try
+            {
+                locked = lock.tryLock( NESTED_WRITE_LOCK_TIMEOUT, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if ( !locked )
+            {
+                String message = "Cannot lock the partition " + partitionId + " for a nested write, the thread "
+                    + "already holds the lock of partition " + highestLockId;
+                OPERATION_LOG.error( message );
+
+                throw new LdapOtherException( message );
+            }
+        }
+
+        HeldPartitionLock heldLock = new HeldPartitionLock( partitionId, lock, exclusive );
+        heldLocks.push( heldLock );
+
+        return heldLock;
+    }
+
+
+    /**
+     * Releases the last partition lock acquired by the current thread, and the global
+     * lock taken with it. The write operations are nested, so the locks are released
+     * in the reverse order.
+     */
+    private void unlockPartition()
+    {
+        Deque<HeldPartitionLock> heldLocks = HELD_PARTITION_LOCKS.get();
+        HeldPartitionLock heldLock = heldLocks.pop();
+
+        if ( heldLocks.isEmpty() )
+        {
+            HELD_PARTITION_LOCKS.remove();
+        }
+
+        try
+        {
+            heldLock.lock.unlock();
+        }
+        finally
+        {
+            releaseGlobalLock( heldLock.exclusive );
+        }
+    }
+
+
+    /**
+     * @return The ID used to order the partition locks
+     */
+    private static String getLockId( Partition partition )
+    {
+        String id = partition.getId();
+
+        return ( id == null ) ? "" : id;
+    }
+
+
+    /**
+     * @return The highest partition ID among the given held locks, or null if there is none
+     */
+    private static String getHighestLockId( Deque<HeldPartitionLock> heldLocks )
+    {
+        String highest = null;
+
+        for ( HeldPartitionLock heldLock : heldLocks )
+        {
+            if ( ( highest == null ) || ( heldLock.partitionId.compareTo( highest ) > 0 ) )
+            {
+                highest = heldLock.partitionId;
+            }
+        }
+
+        return highest;
+    }
+
+
+    /**
+     * Commits a transaction
+     *
+     * @param transaction The transaction to commit
+     * @throws LdapException If the commit failed
+     */
+    private void commit( PartitionTxn transaction ) throws LdapException
+    {
+        try
+        {
+            transaction.commit();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Terminates a write transaction : if it has not been committed, it is aborted.
+     *
+     * @param partition The updated partition
+     * @param transaction The transaction to terminate
+     */
+    private void endWriteTransaction( Partition partition, PartitionWriteTxn transaction )
+    {
+        try
+        {
+            if ( !transaction.isClosed() )
+            {
+                transaction.abort();
+            }
+        }
+        catch ( IOException ioe )
+        {
+            OPERATION_LOG.error( "Failed to abort a transaction on partition {} : {}", partition.getId(),
+                ioe.getMessage() );
+        }
+        finally
+        {
+            unlockPartition();
+        }
+    }
+
+
+    /**
+     * Releases the global lock taken when a write transaction has been started
+     *
+     * @param exclusive Tells if the global lock has been taken in write mode
+     */
+    private void releaseGlobalLock( boolean exclusive )
+    {
+        if ( exclusive )
+        {
+            unlockWrite();
+        }
+        else
+        {
+            unlockRead();
+        }
+    }
+
+
+    /**
+     * Starts a read transaction on the given partition. It does not wait for the write
+     * operations running on the same partition : the backend only makes the reader wait
+     * while a writer updates its indexes, if it can't read from a snapshot. The whole
+     * server is locked during a schema update though.
+     *
+     * @param partition The partition to read
+     * @param opContext The operation context the transaction is stored into
+     * @return The started transaction
+     */
+    private PartitionReadTxn beginReadTransaction( Partition partition, AbstractOperationContext opContext )
+    {
+        lockRead();
+
+        try
+        {
+            PartitionReadTxn transaction = partition.beginReadTransaction();
+            opContext.setTransaction( transaction );
+
+            return transaction;
+        }
+        catch ( RuntimeException re )
+        {
+            unlockRead();
+            throw re;
+        }
+    }
+
+
+    /**
+     * Terminates a read transaction.
+     *
+     * @param transaction The transaction to terminate
+     */
+    private void endReadTransaction( PartitionReadTxn transaction )
+    {
+        try
+        {
+            transaction.commit();
+        }
+        catch ( IOException ioe )
+        {
+            OPERATION_LOG.error( "Failed to close a read transaction : {}", ioe.getMessage() );
+        }
+        finally
+        {
+            unlockRead();
+        }
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -335,10 +722,113 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Processes an operation, recording its latency and its result code in the
+     * DirectoryService metrics.
+     *
+     * @param operation The operation
+     * @param opContext The operation context
+     * @return The operation result, or null if the operation has none
+     * @throws LdapException If the operation failed
+     */
+    private Object execute( OperationEnum operation, OperationContext opContext ) throws LdapException
+    {
+        DirectoryMetrics metrics = directoryService.getMetrics();
+        long start = metrics.operationStarted( operation );
+        ResultCodeEnum resultCode = ResultCodeEnum.OTHER;
+
+        try
+        {
+            Object result = process( operation, opContext );
+            resultCode = ResultCodeEnum.SUCCESS;
+
+            return result;
+        }
+        catch ( LdapException le )
+        {
+            resultCode = ResultCodeEnum.getResultCode( le );
+            throw le;
+        }
+        finally
+        {
+            metrics.operationCompleted( operation, start, resultCode );
+        }
+    }
+
+
+    /**
+     * Dispatches an operation to the method processing it.
+     */
+    private Object process( OperationEnum operation, OperationContext opContext ) throws LdapException
+    {
+        switch ( operation )
+        {
+            case ADD:
+                doAdd( ( AddOperationContext ) opContext );
+                return null;
+
+            case BIND:
+                doBind( ( BindOperationContext ) opContext );
+                return null;
+
+            case COMPARE:
+                return doCompare( ( CompareOperationContext ) opContext );
+
+            case DELETE:
+                doDelete( ( DeleteOperationContext ) opContext );
+                return null;
+
+            case GET_ROOT_DSE:
+                return doGetRootDse( ( GetRootDseOperationContext ) opContext );
+
+            case HAS_ENTRY:
+                return doHasEntry( ( HasEntryOperationContext ) opContext );
+
+            case LOOKUP:
+                return doLookup( ( LookupOperationContext ) opContext );
+
+            case MODIFY:
+                doModify( ( ModifyOperationContext ) opContext );
+                return null;
+
+            case MOVE:
+                doMove( ( MoveOperationContext ) opContext );
+                return null;
+
+            case MOVE_AND_RENAME:
+                doMoveAndRename( ( MoveAndRenameOperationContext ) opContext );
+                return null;
+
+            case RENAME:
+                doRename( ( RenameOperationContext ) opContext );
+                return null;
+
+            case SEARCH:
+                return doSearch( ( SearchOperationContext ) opContext );
+
+            case UNBIND:
+                doUnbind( ( UnbindOperationContext ) opContext );
+                return null;
+
+            default:
+                throw new IllegalArgumentException( "Unexpected operation " + operation );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
     public void add( AddOperationContext addContext ) throws LdapException
+    {
+        execute( OperationEnum.ADD, addContext );
+    }
+
+
+    /**
+     * Processes the add operation, once its metrics are being recorded.
+     */
+    private void doAdd( AddOperationContext addContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -396,15 +886,17 @@ public class DefaultOperationManager implements OperationManager
         // Call the Add method
         Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
 
-        lockWrite();
+        Partition partition = getPartition( dn );
+        PartitionWriteTxn transaction = beginWriteTransaction( partition, addContext );
 
         try
         {
             head.add( addContext );
+            commit( transaction );
         }
         finally
         {
-            unlockWrite();
+            endWriteTransaction( partition, transaction );
         }
 
         if ( IS_DEBUG )
@@ -423,6 +915,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public void bind( BindOperationContext bindContext ) throws LdapException
+    {
+        execute( OperationEnum.BIND, bindContext );
+    }
+
+
+    /**
+     * Processes the bind operation, once its metrics are being recorded.
+     */
+    private void doBind( BindOperationContext bindContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -450,7 +951,7 @@ public class DefaultOperationManager implements OperationManager
             bindContext.setDn( dn );
         }
 
-        lockRead();
+        PartitionReadTxn transaction = beginReadTransaction( getPartition( dn ), bindContext );
 
         try
         {
@@ -458,7 +959,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            endReadTransaction( transaction );
         }
 
         if ( IS_DEBUG )
@@ -477,6 +978,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public boolean compare( CompareOperationContext compareContext ) throws LdapException
+    {
+        return ( Boolean ) execute( OperationEnum.COMPARE, compareContext );
+    }
+
+
+    /**
+     * Processes the compare operation, once its metrics are being recorded.
+     */
+    private boolean doCompare( CompareOperationContext compareContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -556,7 +1066,7 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
+        PartitionReadTxn transaction = beginReadTransaction( getPartition( dn ), compareContext );
 
         try
         {
@@ -564,7 +1074,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            endReadTransaction( transaction );
         }
 
         if ( IS_DEBUG )
@@ -585,6 +1095,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public void delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        execute( OperationEnum.DELETE, deleteContext );
+    }
+
+
+    /**
+     * Processes the delete operation, once its metrics are being recorded.
+     */
+    private void doDelete( DeleteOperationContext deleteContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -658,7 +1177,8 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        Partition partition = getPartition( dn );
+        PartitionWriteTxn transaction = beginWriteTransaction( partition, deleteContext );
 
         try
         {
@@ -668,10 +1188,11 @@ public class DefaultOperationManager implements OperationManager
             Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
 
             head.delete( deleteContext );
+            commit( transaction );
         }
         finally
         {
-            unlockWrite();
+            endWriteTransaction( partition, transaction );
         }
 
         if ( IS_DEBUG )
@@ -690,6 +1211,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public Entry getRootDse( GetRootDseOperationContext getRootDseContext ) throws LdapException
+    {
+        return ( Entry ) execute( OperationEnum.GET_ROOT_DSE, getRootDseContext );
+    }
+
+
+    /**
+     * Processes the getRootDse operation, once its metrics are being recorded.
+     */
+    private Entry doGetRootDse( GetRootDseOperationContext getRootDseContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -727,6 +1257,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+    {
+        return ( Boolean ) execute( OperationEnum.HAS_ENTRY, hasEntryContext );
+    }
+
+
+    /**
+     * Processes the hasEntry operation, once its metrics are being recorded.
+     */
+    private boolean doHasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -746,8 +1285,6 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
-
         // Normalize the addContext Dn
         Dn dn = hasEntryContext.getDn();
         
@@ -757,13 +1294,15 @@ public class DefaultOperationManager implements OperationManager
             hasEntryContext.setDn( dn );
         }
 
+        PartitionReadTxn transaction = beginReadTransaction( getPartition( dn ), hasEntryContext );
+
         try
         {
             result = head.hasEntry( hasEntryContext );
         }
         finally
         {
-            unlockRead();
+            endReadTransaction( transaction );
         }
 
         if ( IS_DEBUG )
@@ -784,6 +1323,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        return ( Entry ) execute( OperationEnum.LOOKUP, lookupContext );
+    }
+
+
+    /**
+     * Processes the lookup operation, once its metrics are being recorded.
+     */
+    private Entry doLookup( LookupOperationContext lookupContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -812,7 +1360,7 @@ public class DefaultOperationManager implements OperationManager
             lookupContext.setDn( dn );
         }
 
-        lockRead();
+        PartitionReadTxn transaction = beginReadTransaction( getPartition( dn ), lookupContext );
 
         try
         {
@@ -820,7 +1368,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            endReadTransaction( transaction );
         }
 
         if ( IS_DEBUG )
@@ -841,6 +1389,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        execute( OperationEnum.MODIFY, modifyContext );
+    }
+
+
+    /**
+     * Processes the modify operation, once its metrics are being recorded.
+     */
+    private void doModify( ModifyOperationContext modifyContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -922,7 +1479,8 @@ public class DefaultOperationManager implements OperationManager
             referralManager.unlock();
         }
 
-        lockWrite();
+        Partition partition = getPartition( dn );
+        PartitionWriteTxn transaction = beginWriteTransaction( partition, modifyContext );
 
         try
         {
@@ -933,10 +1491,11 @@ public class DefaultOperationManager implements OperationManager
             Interceptor head = directoryService.getInterceptor( modifyContext.getNextInterceptor() );
 
             head.modify( modifyContext );
+            commit( transaction );
         }
         finally
         {
-            unlockWrite();
+            endWriteTransaction( partition, transaction );
         }
 
         if ( IS_DEBUG )
@@ -955,6 +1514,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        execute( OperationEnum.MOVE, moveContext );
+    }
+
+
+    /**
+     * Processes the move operation, once its metrics are being recorded.
+     */
+    private void doMove( MoveOperationContext moveContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -1050,7 +1618,8 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
+        Partition partition = getPartition( dn );
+        PartitionWriteTxn transaction = beginWriteTransaction( partition, moveContext );
 
         try
         {
@@ -1062,10 +1631,11 @@ public class DefaultOperationManager implements OperationManager
             Interceptor head = directoryService.getInterceptor( moveContext.getNextInterceptor() );
 
             head.move( moveContext );
+            commit( transaction );
         }
         finally
         {
-            unlockWrite();
+            endWriteTransaction( partition, transaction );
         }
 
         if ( IS_DEBUG )
@@ -1084,6 +1654,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        execute( OperationEnum.MOVE_AND_RENAME, moveAndRenameContext );
+    }
+
+
+    /**
+     * Processes the moveAndRename operation, once its metrics are being recorded.
+     */
+    private void doMoveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -1180,7 +1759,8 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
+        Partition partition = getPartition( dn );
+        PartitionWriteTxn transaction = beginWriteTransaction( partition, moveAndRenameContext );
 
         try
         {
@@ -1191,10 +1771,11 @@ public class DefaultOperationManager implements OperationManager
             Interceptor head = directoryService.getInterceptor( moveAndRenameContext.getNextInterceptor() );
 
             head.moveAndRename( moveAndRenameContext );
+            commit( transaction );
         }
         finally
         {
-            unlockWrite();
+            endWriteTransaction( partition, transaction );
         }
 
         if ( IS_DEBUG )
@@ -1213,6 +1794,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        execute( OperationEnum.RENAME, renameContext );
+    }
+
+
+    /**
+     * Processes the rename operation, once its metrics are being recorded.
+     */
+    private void doRename( RenameOperationContext renameContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -1306,7 +1896,8 @@ public class DefaultOperationManager implements OperationManager
         // Call the rename method
         // populate the context with the old entry
 
-        lockWrite();
+        Partition partition = getPartition( dn );
+        PartitionWriteTxn transaction = beginWriteTransaction( partition, renameContext );
 
         try
         {
@@ -1319,10 +1910,11 @@ public class DefaultOperationManager implements OperationManager
             Interceptor head = directoryService.getInterceptor( renameContext.getNextInterceptor() );
 
             head.rename( renameContext );
+            commit( transaction );
         }
         finally
         {
-            unlockWrite();
+            endWriteTransaction( partition, transaction );
         }
 
         if ( IS_DEBUG )
@@ -1341,6 +1933,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+    {
+        return ( EntryFilteringCursor ) execute( OperationEnum.SEARCH, searchContext );
+    }
+
+
+    /**
+     * Processes the search operation, once its metrics are being recorded.
+     */
+    private EntryFilteringCursor doSearch( SearchOperationContext searchContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -1421,7 +2022,7 @@ public class DefaultOperationManager implements OperationManager
 
         EntryFilteringCursor cursor = null;
 
-        lockRead();
+        PartitionReadTxn transaction = beginReadTransaction( getPartition( dn ), searchContext );
 
         try
         {
@@ -1429,7 +2030,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            endReadTransaction( transaction );
         }
 
         if ( IS_DEBUG )
@@ -1450,6 +2051,15 @@ public class DefaultOperationManager implements OperationManager
      * {@inheritDoc}
      */
     public void unbind( UnbindOperationContext unbindContext ) throws LdapException
+    {
+        execute( OperationEnum.UNBIND, unbindContext );
+    }
+
+
+    /**
+     * Processes the unbind operation, once its metrics are being recorded.
+     */
+    private void doUnbind( UnbindOperationContext unbindContext ) throws LdapException
     {
         if ( IS_DEBUG )
         {
@@ -20,10 +20,16 @@
 package org.apache.directory.server.core.event;
 
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -48,21 +54,42 @@ class DefaultEventService implements EventService
     /** The list of RegistrationEntries being registered */
     private List<RegistrationEntry> registrations = new CopyOnWriteArrayList<>();
 
+    /** The index on the registrations, rebuilt each time a listener is added or removed */
+    private volatile RegistrationIndex registrationIndex = RegistrationIndex.EMPTY;
+
     /** The DirectoryService instance */
     private DirectoryService directoryService;
 
     /** A normalizer used for filters */
     private FilterNormalizingVisitor filterNormalizer;
 
+    /** The notification queues of the asynchronous listeners */
+    private Map<DirectoryListener, ListenerQueue> queues = new ConcurrentHashMap<>();
+
+    /** The executor delivering the notifications to the asynchronous listeners */
+    private Executor executor;
+
+    /** The maximum number of pending notifications per asynchronous listener */
+    private int queueCapacity;
+
+    /** What to do when the queue of an asynchronous listener is full */
+    private NotificationOverflowPolicy overflowPolicy;
+
 
     /**
      * Create an instance of EventService
      * @param directoryService The associated DirectoryService
-     * @param registrations The list of Registrations
+     * @param executor The executor delivering the notifications to the asynchronous listeners
+     * @param queueCapacity The maximum number of pending notifications per asynchronous listener
+     * @param overflowPolicy What to do when the queue of an asynchronous listener is full
      */
-    DefaultEventService( DirectoryService directoryService )
+    DefaultEventService( DirectoryService directoryService, Executor executor, int queueCapacity,
+        NotificationOverflowPolicy overflowPolicy )
     {
         this.directoryService = directoryService;
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
         SchemaManager schemaManager = directoryService.getSchemaManager();
         NameComponentNormalizer ncn = new ConcreteNameComponentNormalizer( schemaManager );
         filterNormalizer = new FilterNormalizingVisitor( ncn, schemaManager );
@@ -73,7 +100,7 @@ class DefaultEventService implements EventService
      * {@inheritDoc}
      */
     @Override
-    public void addListener( DirectoryListener listener, NotificationCriteria criteria ) throws Exception
+    public synchronized void addListener( DirectoryListener listener, NotificationCriteria criteria ) throws Exception
     {
         if ( !criteria.getBase().isSchemaAware() )
         {
@@ -82,7 +109,14 @@ class DefaultEventService implements EventService
 
         ExprNode result = ( ExprNode ) criteria.getFilter().accept( filterNormalizer );
         criteria.setFilter( result );
+
+        if ( !listener.isSynchronous() && !queues.containsKey( listener ) )
+        {
+            queues.put( listener, new ListenerQueue( listener, this, executor, queueCapacity, overflowPolicy ) );
+        }
+
         registrations.add( new RegistrationEntry( listener, criteria ) );
+        registrationIndex = new RegistrationIndex( new ArrayList<RegistrationEntry>( registrations ) );
     }
 
 
@@ -90,7 +124,7 @@ class DefaultEventService implements EventService
      * {@inheritDoc}
      */
     @Override
-    public void removeListener( DirectoryListener listener )
+    public synchronized void removeListener( DirectoryListener listener )
     {
         for ( RegistrationEntry entry : registrations )
         {
@@ -99,6 +133,15 @@ class DefaultEventService implements EventService
                 registrations.remove( entry );
             }
         }
+
+        ListenerQueue queue = queues.remove( listener );
+
+        if ( queue != null )
+        {
+            queue.close();
+        }
+
+        registrationIndex = new RegistrationIndex( new ArrayList<RegistrationEntry>( registrations ) );
     }
 
 
@@ -110,4 +153,46 @@ class DefaultEventService implements EventService
     {
         return Collections.unmodifiableList( registrations );
     }
+
+
+    /**
+     * Gets the registrations whose scope contains an entry, and whose filter may select it,
+     * using the registrations index. The candidates filter still has to be evaluated.
+     *
+     * @param name The entry Dn
+     * @param entry The entry
+     * @return The candidate registrations, in registration order
+     */
+    List<RegistrationEntry> getCandidateRegistrations( Dn name, Entry entry )
+    {
+        return registrationIndex.getCandidates( name, entry );
+    }
+
+
+    /**
+     * Gets the notification queue of an asynchronous listener.
+     *
+     * @param listener The listener
+     * @return The listener queue, or null if the listener has been removed
+     */
+    ListenerQueue getQueue( DirectoryListener listener )
+    {
+        return queues.get( listener );
+    }
+
+
+    /**
+     * @return A snapshot of the notification queue of each asynchronous listener
+     */
+    Map<DirectoryListener, ListenerStatistics> getListenerStatistics()
+    {
+        Map<DirectoryListener, ListenerStatistics> statistics = new HashMap<>();
+
+        for ( Map.Entry<DirectoryListener, ListenerQueue> queue : queues.entrySet() )
+        {
+            statistics.put( queue.getKey(), queue.getValue().getStatistics() );
+        }
+
+        return statistics;
+    }
 }
@@ -20,16 +20,13 @@
 package org.apache.directory.server.core.event;
 
 
-import static org.apache.directory.api.ldap.model.message.SearchScope.OBJECT;
-import static org.apache.directory.api.ldap.model.message.SearchScope.ONELEVEL;
-import static org.apache.directory.api.ldap.model.message.SearchScope.SUBTREE;
-
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -37,7 +34,6 @@ import java.util.concurrent.TimeUnit;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -72,9 +68,30 @@ public class EventInterceptor extends BaseInterceptor
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( EventInterceptor.class );
 
+    /** The default maximum number of pending notifications per asynchronous listener */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /** The default number of threads delivering the notifications */
+    public static final int DEFAULT_NOTIFICATION_THREADS = 10;
+
     private Evaluator evaluator;
     private ExecutorService executor;
 
+    /** The maximum number of pending notifications per asynchronous listener */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /** The default policy applied when the queue of an asynchronous listener is full */
+    public static final NotificationOverflowPolicy DEFAULT_OVERFLOW_POLICY = NotificationOverflowPolicy.DISCONNECT;
+
+    /** What to do when the queue of an asynchronous listener is full */
+    private NotificationOverflowPolicy overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+
+    /** The number of threads delivering the notifications */
+    private int notificationThreads = DEFAULT_NOTIFICATION_THREADS;
+
+    /** The event service, indexing the registrations */
+    private DefaultEventService eventService;
+
 
     /**
      * Creates a new instance of a EventInterceptor.
@@ -87,7 +104,9 @@ public class EventInterceptor extends BaseInterceptor
 
     /**
      * Initialize the event interceptor. It creates a pool of executor which will be used
-     * to call the listeners in separate threads.
+     * to call the asynchronous listeners in separate threads. As each listener has its own
+     * bounded queue, and at most one task at a time in the executor, the executor queue
+     * does not have to be bounded.
      */
     @Override
     public void init( DirectoryService directoryService ) throws LdapException
@@ -96,8 +115,6 @@ public class EventInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         evaluator = new ExpressionEvaluator( schemaManager );
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ) );
-        
         ThreadFactory threadFactory = new ThreadFactory() 
         {
             @Override
@@ -110,137 +127,47 @@ public class EventInterceptor extends BaseInterceptor
             }
         };
         
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ),
-            threadFactory );
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor( notificationThreads, notificationThreads, 1000,
+            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory );
+        threadPool.allowCoreThreadTimeOut( true );
+        executor = threadPool;
 
-        this.directoryService.setEventService( new DefaultEventService( directoryService ) );
+        eventService = new DefaultEventService( directoryService, executor, queueCapacity, overflowPolicy );
+        this.directoryService.setEventService( eventService );
         LOG.info( "Initialization complete." );
     }
 
 
     /**
-     * Call the listener passing it the context.
+     * Call the listener passing it the context. The asynchronous listeners are called
+     * from their notification queue, so that we don't wait for them.
      */
-    private void fire( final OperationContext opContext, EventType type, final DirectoryListener listener )
+    private void fire( final OperationContext opContext, final EventType type, final DirectoryListener listener )
     {
-        switch ( type )
+        if ( listener.isSynchronous() )
         {
-            case ADD:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryAdded( ( AddOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryAdded( ( AddOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case DELETE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case MODIFY:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryModified( ( ModifyOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryModified( ( ModifyOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case MOVE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryMoved( ( MoveOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryMoved( ( MoveOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
+            ListenerQueue.deliver( listener, type, opContext );
 
-            case RENAME:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryRenamed( ( RenameOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryRenamed( ( RenameOperationContext ) opContext );
-                        }
-                    } );
-                }
+            return;
+        }
 
-                break;
+        ListenerQueue queue = eventService.getQueue( listener );
 
-            case MOVE_AND_RENAME:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
-                }
-                else
+        if ( queue != null )
+        {
+            queue.offer( type, opContext );
+        }
+        else if ( directoryService.getEventService() != eventService )
+        {
+            // The listener has been registered in another event service, it has no queue
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
                 {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
-                        }
-                    } );
+                    ListenerQueue.deliver( listener, type, opContext );
                 }
-
-                break;
-
-            default:
-                throw new IllegalArgumentException( "Unexpected event type " + type );
+            } );
         }
     }
 
@@ -423,12 +350,22 @@ public class EventInterceptor extends BaseInterceptor
 
 
     /**
-     * Find a list of registrationEntries given an entry and a name. We check against
-     * the criteria for each registrationEntry
+     * Find a list of registrationEntries given an entry and a name. The candidate registrations
+     * are found in the registrations index when possible, then we check against the criteria
+     * for each of them
      */
     private List<RegistrationEntry> getSelectingRegistrations( Dn name, Entry entry ) throws LdapException
     {
-        List<RegistrationEntry> registrations = directoryService.getEventService().getRegistrationEntries();
+        List<RegistrationEntry> registrations;
+
+        if ( ( entry != null ) && ( directoryService.getEventService() == eventService ) )
+        {
+            registrations = eventService.getCandidateRegistrations( name, entry );
+        }
+        else
+        {
+            registrations = directoryService.getEventService().getRegistrationEntries();
+        }
 
         if ( registrations.isEmpty() )
         {
@@ -441,27 +378,8 @@ public class EventInterceptor extends BaseInterceptor
         {
             NotificationCriteria criteria = registration.getCriteria();
 
-            Dn base = criteria.getBase();
-
-            SearchScope scope = criteria.getScope();
-            
-            boolean inscope = false;
-            
-            // fix for DIRSERVER-1502
-            if ( ( scope == OBJECT ) && name.equals( base ) )
-            {
-                inscope = true;
-            }
-            else if ( ( scope == ONELEVEL ) && name.getParent().equals( base ) )
-            {
-                inscope = true;
-            }
-            else if ( ( scope == SUBTREE ) && ( name.isDescendantOf( base ) || name.equals( base ) ) )
-            {
-                inscope = true;
-            } 
-            
-            if ( inscope && evaluator.evaluate( criteria.getFilter(), base, entry ) )
+            if ( RegistrationIndex.isInScope( criteria, name )
+                && evaluator.evaluate( criteria.getFilter(), criteria.getBase(), entry ) )
             {
                 selecting.add( registration );
             }
@@ -471,6 +389,103 @@ public class EventInterceptor extends BaseInterceptor
     }
 
     
+    /**
+     * @return The maximum number of pending notifications per asynchronous listener
+     */
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+
+    /**
+     * Sets the maximum number of pending notifications per asynchronous listener. It must
+     * be set before the interceptor is initialized.
+     *
+     * @param queueCapacity The maximum number of pending notifications
+     */
+    public void setQueueCapacity( int queueCapacity )
+    {
+        if ( queueCapacity <= 0 )
+        {
+            throw new IllegalArgumentException( "The queue capacity must be positive : " + queueCapacity );
+        }
+
+        this.queueCapacity = queueCapacity;
+    }
+
+
+    /**
+     * @return What to do when the queue of an asynchronous listener is full
+     */
+    public NotificationOverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+
+    /**
+     * Sets what to do when the queue of an asynchronous listener is full. It must be set
+     * before the interceptor is initialized. The default, DISCONNECT, never loses a
+     * notification silently : a persistent search ends with an adminLimitExceeded error.
+     *
+     * @param overflowPolicy The overflow policy
+     */
+    public void setOverflowPolicy( NotificationOverflowPolicy overflowPolicy )
+    {
+        if ( overflowPolicy == null )
+        {
+            throw new IllegalArgumentException( "The overflow policy must not be null" );
+        }
+
+        this.overflowPolicy = overflowPolicy;
+    }
+
+
+    /**
+     * @return The number of threads delivering the notifications
+     */
+    public int getNotificationThreads()
+    {
+        return notificationThreads;
+    }
+
+
+    /**
+     * Sets the number of threads delivering the notifications to the asynchronous listeners.
+     * It must be set before the interceptor is initialized.
+     *
+     * @param notificationThreads The number of threads
+     */
+    public void setNotificationThreads( int notificationThreads )
+    {
+        if ( notificationThreads <= 0 )
+        {
+            throw new IllegalArgumentException( "The number of notification threads must be positive : "
+                + notificationThreads );
+        }
+
+        this.notificationThreads = notificationThreads;
+    }
+
+
+    /**
+     * Gets the state of the notification queue of each asynchronous listener : the pending
+     * and dropped notifications, and how late the notifications are delivered.
+     *
+     * @return A snapshot of the listeners queue
+     */
+    public Map<DirectoryListener, ListenerStatistics> getListenerStatistics()
+    {
+        if ( eventService == null )
+        {
+            return Collections.emptyMap();
+        }
+
+        return eventService.getListenerStatistics();
+    }
+
+
     /**
      * {@inheritDoc}
      */
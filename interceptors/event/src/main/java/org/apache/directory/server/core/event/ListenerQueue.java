@@ -0,0 +1,358 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The bounded queue of the notifications waiting to be delivered to an asynchronous
+ * listener. The notifications are stored in a ring buffer, and delivered in order by
+ * a single task at a time running in the notification executor, so that a write
+ * operation never waits for a listener : when the buffer is full, the
+ * {@link NotificationOverflowPolicy} is applied.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ListenerQueue implements Runnable
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ListenerQueue.class );
+
+    /** The listener */
+    private final DirectoryListener listener;
+
+    /** The event service the listener is registered in */
+    private final DefaultEventService eventService;
+
+    /** The executor delivering the notifications */
+    private final Executor executor;
+
+    /** What to do when the queue is full */
+    private final NotificationOverflowPolicy overflowPolicy;
+
+    /** The ring buffer : the event types, the operation contexts and the time they were queued at */
+    private final EventType[] types;
+    private final OperationContext[] contexts;
+    private final long[] queuedAt;
+
+    /** The position of the oldest notification in the buffer */
+    private int head;
+
+    /** The number of notifications in the buffer */
+    private int size;
+
+    /** Tells if a task is delivering the notifications */
+    private boolean scheduled;
+
+    /** Tells if the listener has been removed */
+    private boolean closed;
+
+    /** Tells if the listener has been removed because the queue was full */
+    private boolean disconnected;
+
+    /** The statistics */
+    private long delivered;
+    private long dropped;
+    private long coalesced;
+    private long maxLag;
+
+
+    /**
+     * Creates a new instance of ListenerQueue.
+     *
+     * @param listener The listener
+     * @param eventService The event service the listener is registered in
+     * @param executor The executor delivering the notifications
+     * @param capacity The maximum number of pending notifications
+     * @param overflowPolicy What to do when the queue is full
+     */
+    ListenerQueue( DirectoryListener listener, DefaultEventService eventService, Executor executor, int capacity,
+        NotificationOverflowPolicy overflowPolicy )
+    {
+        this.listener = listener;
+        this.eventService = eventService;
+        this.executor = executor;
+        this.overflowPolicy = overflowPolicy;
+        types = new EventType[capacity];
+        contexts = new OperationContext[capacity];
+        queuedAt = new long[capacity];
+    }
+
+
+    /**
+     * Queues a notification, and makes sure a task will deliver it. This method never waits
+     * for the listener.
+     *
+     * @param type The event type
+     * @param opContext The operation context
+     */
+    void offer( EventType type, OperationContext opContext )
+    {
+        boolean schedule = false;
+        boolean disconnect = false;
+
+        synchronized ( this )
+        {
+            if ( closed )
+            {
+                return;
+            }
+
+            if ( size < types.length )
+            {
+                int tail = ( head + size ) % types.length;
+                types[tail] = type;
+                contexts[tail] = opContext;
+                queuedAt[tail] = System.currentTimeMillis();
+                size++;
+
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            else if ( ( overflowPolicy == NotificationOverflowPolicy.COALESCE ) && coalesce( type, opContext ) )
+            {
+                coalesced++;
+            }
+            else if ( overflowPolicy == NotificationOverflowPolicy.DISCONNECT )
+            {
+                dropped += size + 1;
+                closed = true;
+                disconnected = true;
+                disconnect = true;
+                clear();
+            }
+            else
+            {
+                dropped++;
+
+                if ( dropped == 1 )
+                {
+                    LOG.warn( "The notification queue of the listener {} is full, notifications are being dropped",
+                        listener );
+                }
+            }
+        }
+
+        if ( disconnect )
+        {
+            LOG.warn( "The notification queue of the listener {} is full, the listener is being disconnected",
+                listener );
+            eventService.removeListener( listener );
+
+            if ( listener instanceof DisconnectableListener )
+            {
+                ( ( DisconnectableListener ) listener ).disconnected();
+            }
+        }
+        else if ( schedule )
+        {
+            schedule();
+        }
+    }
+
+
+    /**
+     * Replaces the pending modification of the same entry, if the last pending notification on
+     * this entry is a modification. The modification items of the replaced context are lost,
+     * only the modified entry of the new context reflects them.
+     */
+    private boolean coalesce( EventType type, OperationContext opContext )
+    {
+        if ( type != EventType.MODIFY )
+        {
+            return false;
+        }
+
+        for ( int i = size - 1; i >= 0; i-- )
+        {
+            int pos = ( head + i ) % types.length;
+
+            if ( contexts[pos].getDn().equals( opContext.getDn() ) )
+            {
+                if ( types[pos] == EventType.MODIFY )
+                {
+                    contexts[pos] = opContext;
+
+                    return true;
+                }
+
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Discards the pending notifications and stops the delivery, once the listener
+     * has been removed.
+     */
+    synchronized void close()
+    {
+        closed = true;
+        clear();
+    }
+
+
+    private void clear()
+    {
+        Arrays.fill( types, null );
+        Arrays.fill( contexts, null );
+        head = 0;
+        size = 0;
+    }
+
+
+    private void schedule()
+    {
+        try
+        {
+            executor.execute( this );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The executor has been shut down
+            synchronized ( this )
+            {
+                scheduled = false;
+            }
+        }
+    }
+
+
+    /**
+     * Delivers the pending notifications, a batch at a time so that a busy listener
+     * does not hold a thread of the executor for ever.
+     */
+    @Override
+    public void run()
+    {
+        for ( int i = 0; i < types.length; i++ )
+        {
+            EventType type;
+            OperationContext opContext;
+
+            synchronized ( this )
+            {
+                if ( size == 0 )
+                {
+                    scheduled = false;
+
+                    return;
+                }
+
+                type = types[head];
+                opContext = contexts[head];
+                maxLag = Math.max( maxLag, System.currentTimeMillis() - queuedAt[head] );
+                types[head] = null;
+                contexts[head] = null;
+                head = ( head + 1 ) % types.length;
+                size--;
+            }
+
+            try
+            {
+                deliver( listener, type, opContext );
+            }
+            catch ( RuntimeException re )
+            {
+                LOG.warn( "The listener {} failed to process a {} notification", listener, type, re );
+            }
+
+            synchronized ( this )
+            {
+                delivered++;
+            }
+        }
+
+        // Give the other listeners a chance before delivering the next batch
+        schedule();
+    }
+
+
+    /**
+     * @return A snapshot of the queue statistics
+     */
+    synchronized ListenerStatistics getStatistics()
+    {
+        long lag = size == 0 ? 0L : System.currentTimeMillis() - queuedAt[head];
+
+        return new ListenerStatistics( types.length, size, delivered, dropped, coalesced, lag, maxLag, disconnected );
+    }
+
+
+    /**
+     * Calls the listener method corresponding to an event type.
+     *
+     * @param listener The listener
+     * @param type The event type
+     * @param opContext The operation context
+     */
+    static void deliver( DirectoryListener listener, EventType type, OperationContext opContext )
+    {
+        switch ( type )
+        {
+            case ADD:
+                listener.entryAdded( ( AddOperationContext ) opContext );
+                break;
+
+            case DELETE:
+                listener.entryDeleted( ( DeleteOperationContext ) opContext );
+                break;
+
+            case MODIFY:
+                listener.entryModified( ( ModifyOperationContext ) opContext );
+                break;
+
+            case MOVE:
+                listener.entryMoved( ( MoveOperationContext ) opContext );
+                break;
+
+            case RENAME:
+                listener.entryRenamed( ( RenameOperationContext ) opContext );
+                break;
+
+            case MOVE_AND_RENAME:
+                listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
+                break;
+
+            default:
+                throw new IllegalArgumentException( "Unexpected event type " + type );
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+/**
+ * A snapshot of the notification queue of an asynchronous listener.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class ListenerStatistics
+{
+    /** The queue capacity */
+    private final int capacity;
+
+    /** The number of notifications waiting in the queue */
+    private final int pending;
+
+    /** The number of notifications delivered to the listener */
+    private final long delivered;
+
+    /** The number of notifications dropped because the queue was full */
+    private final long dropped;
+
+    /** The number of notifications merged into a pending one because the queue was full */
+    private final long coalesced;
+
+    /** The time the oldest pending notification has been waiting, in milliseconds */
+    private final long lag;
+
+    /** The longest time a notification has been waiting before being delivered, in milliseconds */
+    private final long maxLag;
+
+    /** Tells if the listener has been disconnected */
+    private final boolean disconnected;
+
+
+    /**
+     * Creates a new instance of ListenerStatistics.
+     */
+    ListenerStatistics( int capacity, int pending, long delivered, long dropped, long coalesced, long lag,
+        long maxLag, boolean disconnected )
+    {
+        this.capacity = capacity;
+        this.pending = pending;
+        this.delivered = delivered;
+        this.dropped = dropped;
+        this.coalesced = coalesced;
+        this.lag = lag;
+        this.maxLag = maxLag;
+        this.disconnected = disconnected;
+    }
+
+
+    /**
+     * @return The queue capacity
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    /**
+     * @return The number of notifications waiting in the queue
+     */
+    public int getPending()
+    {
+        return pending;
+    }
+
+
+    /**
+     * @return The number of notifications delivered to the listener
+     */
+    public long getDelivered()
+    {
+        return delivered;
+    }
+
+
+    /**
+     * @return The number of notifications dropped because the queue was full
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+
+
+    /**
+     * @return The number of notifications merged into a pending one because the queue was full
+     */
+    public long getCoalesced()
+    {
+        return coalesced;
+    }
+
+
+    /**
+     * @return true if the listener has lost some notifications
+     */
+    public boolean isOverflowed()
+    {
+        return dropped > 0;
+    }
+
+
+    /**
+     * @return The time the oldest pending notification has been waiting, in milliseconds
+     */
+    public long getLag()
+    {
+        return lag;
+    }
+
+
+    /**
+     * @return The longest time a notification has been waiting before being delivered, in milliseconds
+     */
+    public long getMaxLag()
+    {
+        return maxLag;
+    }
+
+
+    /**
+     * @return true if the listener has been disconnected because its queue was full
+     */
+    public boolean isDisconnected()
+    {
+        return disconnected;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "ListenerStatistics[pending=" + pending + "/" + capacity + ", delivered=" + delivered + ", dropped="
+            + dropped + ", coalesced=" + coalesced + ", lag=" + lag + "ms, maxLag=" + maxLag + "ms"
+            + ( disconnected ? ", disconnected" : "" ) + "]";
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+/**
+ * What to do when a notification can't be queued for an asynchronous listener, because
+ * its queue is full.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum NotificationOverflowPolicy
+{
+    /** The notification is dropped, and the listener is flagged as having lost notifications */
+    DROP,
+
+    /**
+     * A modification replaces the pending modification of the same entry, if any. Otherwise
+     * the notification is dropped, as with DROP.
+     * <br>
+     * The listener then only gets the last modification : the modified entry is up to date,
+     * but the modification items of the replaced notification are lost. This policy must only
+     * be used when the listeners read the whole modified entry, not when they rely on
+     * {@link org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext#getModItems()}
+     */
+    COALESCE,
+
+    /**
+     * The listener is removed from the event service and its pending notifications are
+     * discarded. A {@link org.apache.directory.server.core.api.event.DisconnectableListener}
+     * is told about it. This is the default policy
+     */
+    DISCONNECT
+}
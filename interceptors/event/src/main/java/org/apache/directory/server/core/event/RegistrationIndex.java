@@ -0,0 +1,382 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+
+
+/**
+ * An index on the listener registrations, used to find the registrations which may select
+ * an entry without evaluating the scope and the filter of each of them. Each registration
+ * is indexed once :
+ * <ul>
+ *   <li>if its filter requires an attribute to have a given value, by this attribute and
+ *   value</li>
+ *   <li>otherwise, if its filter requires an attribute to be present, by this attribute</li>
+ *   <li>otherwise by its base Dn, the index being walked from the modified entry Dn up to
+ *   the root</li>
+ * </ul>
+ * The registrations found in the index still have to be evaluated. The index is immutable :
+ * a new index is built when a listener is added or removed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class RegistrationIndex
+{
+    /** An index without registration */
+    static final RegistrationIndex EMPTY = new RegistrationIndex( Collections.<RegistrationEntry> emptyList() );
+
+    /** The kinds of predicate a registration can be indexed on, from the least to the most selective */
+    private static final int NO_PREDICATE = 0;
+    private static final int PRESENCE = 1;
+    private static final int OBJECT_CLASS_EQUALITY = 2;
+    private static final int EQUALITY = 3;
+
+    /** Orders the registrations as they were registered */
+    private static final Comparator<IndexedRegistration> REGISTRATION_ORDER = new Comparator<IndexedRegistration>()
+    {
+        @Override
+        public int compare( IndexedRegistration registration1, IndexedRegistration registration2 )
+        {
+            return Integer.compare( registration1.order, registration2.order );
+        }
+    };
+
+    /** The registrations requiring an attribute value : attribute OID -> normalized value -> registrations */
+    private final Map<String, Map<String, List<IndexedRegistration>>> equalityIndex = new HashMap<>();
+
+    /** The registrations requiring an attribute : attribute OID -> registrations */
+    private final Map<String, List<IndexedRegistration>> presenceIndex = new HashMap<>();
+
+    /** The other registrations : base Dn normalized name -> registrations */
+    private final Map<String, List<IndexedRegistration>> baseIndex = new HashMap<>();
+
+
+    /**
+     * A registration, and its position in the registrations list
+     */
+    private static final class IndexedRegistration
+    {
+        private final RegistrationEntry registration;
+        private final int order;
+
+
+        private IndexedRegistration( RegistrationEntry registration, int order )
+        {
+            this.registration = registration;
+            this.order = order;
+        }
+    }
+
+
+    /**
+     * The predicate a registration is indexed on
+     */
+    private static final class Predicate
+    {
+        private final int kind;
+        private final String oid;
+        private final String value;
+
+
+        private Predicate( int kind, String oid, String value )
+        {
+            this.kind = kind;
+            this.oid = oid;
+            this.value = value;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of RegistrationIndex.
+     *
+     * @param registrations The registrations, in registration order
+     */
+    RegistrationIndex( List<RegistrationEntry> registrations )
+    {
+        int order = 0;
+
+        for ( RegistrationEntry registration : registrations )
+        {
+            IndexedRegistration indexed = new IndexedRegistration( registration, order++ );
+            Predicate predicate = getPredicate( registration.getCriteria().getFilter() );
+
+            switch ( predicate.kind )
+            {
+                case EQUALITY:
+                case OBJECT_CLASS_EQUALITY:
+                    Map<String, List<IndexedRegistration>> values = equalityIndex.get( predicate.oid );
+
+                    if ( values == null )
+                    {
+                        values = new HashMap<>();
+                        equalityIndex.put( predicate.oid, values );
+                    }
+
+                    add( values, predicate.value, indexed );
+                    break;
+
+                case PRESENCE:
+                    add( presenceIndex, predicate.oid, indexed );
+                    break;
+
+                default:
+                    add( baseIndex, registration.getCriteria().getBase().getNormName(), indexed );
+                    break;
+            }
+        }
+    }
+
+
+    /**
+     * Gets the registrations whose scope contains an entry, and whose filter may select
+     * it. Their filter still has to be evaluated.
+     *
+     * @param name The entry Dn
+     * @param entry The entry
+     * @return The candidate registrations, in registration order
+     */
+    List<RegistrationEntry> getCandidates( Dn name, Entry entry )
+    {
+        List<IndexedRegistration> candidates = new ArrayList<>();
+
+        // The registrations indexed by their base : walk up from the entry
+        if ( !baseIndex.isEmpty() )
+        {
+            Dn dn = name;
+
+            while ( true )
+            {
+                addInScope( candidates, baseIndex.get( dn.getNormName() ), name );
+
+                if ( dn.isEmpty() )
+                {
+                    break;
+                }
+
+                dn = dn.getParent();
+            }
+        }
+
+        // The registrations indexed by an attribute of the entry
+        if ( ( entry != null ) && ( !presenceIndex.isEmpty() || !equalityIndex.isEmpty() ) )
+        {
+            for ( Attribute attribute : entry )
+            {
+                AttributeType attributeType = attribute.getAttributeType();
+
+                if ( attributeType == null )
+                {
+                    continue;
+                }
+
+                addInScope( candidates, presenceIndex.get( attributeType.getOid() ), name );
+
+                Map<String, List<IndexedRegistration>> values = equalityIndex.get( attributeType.getOid() );
+
+                if ( values != null )
+                {
+                    for ( Value value : attribute )
+                    {
+                        if ( value.isHumanReadable() )
+                        {
+                            addInScope( candidates, values.get( value.getNormalized() ), name );
+                        }
+                    }
+                }
+            }
+        }
+
+        if ( candidates.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        Collections.sort( candidates, REGISTRATION_ORDER );
+
+        List<RegistrationEntry> selecting = new ArrayList<>( candidates.size() );
+
+        for ( IndexedRegistration candidate : candidates )
+        {
+            selecting.add( candidate.registration );
+        }
+
+        return selecting;
+    }
+
+
+    /**
+     * Tells if an entry is in the scope of a registration
+     *
+     * @param criteria The registration criteria
+     * @param name The entry Dn
+     * @return true if the entry is in the scope
+     */
+    static boolean isInScope( NotificationCriteria criteria, Dn name )
+    {
+        Dn base = criteria.getBase();
+        SearchScope scope = criteria.getScope();
+
+        // fix for DIRSERVER-1502
+        switch ( scope )
+        {
+            case OBJECT:
+                return name.equals( base );
+
+            case ONELEVEL:
+                return name.getParent().equals( base );
+
+            case SUBTREE:
+                return name.isDescendantOf( base ) || name.equals( base );
+
+            default:
+                return false;
+        }
+    }
+
+
+    private static void addInScope( List<IndexedRegistration> candidates, List<IndexedRegistration> registrations,
+        Dn name )
+    {
+        if ( registrations == null )
+        {
+            return;
+        }
+
+        for ( IndexedRegistration registration : registrations )
+        {
+            if ( isInScope( registration.registration.getCriteria(), name ) )
+            {
+                candidates.add( registration );
+            }
+        }
+    }
+
+
+    private static <K> void add( Map<K, List<IndexedRegistration>> index, K key, IndexedRegistration registration )
+    {
+        List<IndexedRegistration> list = index.get( key );
+
+        if ( list == null )
+        {
+            list = new ArrayList<>();
+            index.put( key, list );
+        }
+
+        list.add( registration );
+    }
+
+
+    /**
+     * Selects the most selective predicate required by a filter : the filter itself, or one of
+     * the children of an AND filter.
+     */
+    private static Predicate getPredicate( ExprNode filter )
+    {
+        Predicate selected = getLeafPredicate( filter );
+
+        if ( filter instanceof AndNode )
+        {
+            for ( ExprNode child : ( ( AndNode ) filter ).getChildren() )
+            {
+                Predicate predicate = getLeafPredicate( child );
+
+                if ( predicate.kind > selected.kind )
+                {
+                    selected = predicate;
+                }
+            }
+        }
+
+        return selected;
+    }
+
+
+    /**
+     * Gets the predicate required by a leaf filter : the attribute value for an equality filter,
+     * the attribute presence for the other assertions on an attribute.
+     */
+    private static Predicate getLeafPredicate( ExprNode node )
+    {
+        AttributeType attributeType = null;
+
+        if ( node instanceof EqualityNode )
+        {
+            EqualityNode<?> equalityNode = ( EqualityNode<?> ) node;
+            attributeType = equalityNode.getAttributeType();
+            Value value = equalityNode.getValue();
+
+            if ( ( attributeType != null ) && attributeType.getSyntax().isHumanReadable() && ( value != null )
+                && value.isHumanReadable() && ( value.getNormalized() != null ) )
+            {
+                int kind = SchemaConstants.OBJECT_CLASS_AT_OID.equals( attributeType.getOid() )
+                    ? OBJECT_CLASS_EQUALITY : EQUALITY;
+
+                return new Predicate( kind, attributeType.getOid(), value.getNormalized() );
+            }
+        }
+        else if ( node instanceof PresenceNode )
+        {
+            attributeType = ( ( PresenceNode ) node ).getAttributeType();
+        }
+        else if ( ( node instanceof GreaterEqNode ) || ( node instanceof LessEqNode )
+            || ( node instanceof ApproximateNode ) )
+        {
+            attributeType = ( ( SimpleNode<?> ) node ).getAttributeType();
+        }
+        else if ( node instanceof SubstringNode )
+        {
+            attributeType = ( ( SubstringNode ) node ).getAttributeType();
+        }
+
+        if ( attributeType != null )
+        {
+            return new Predicate( PRESENCE, attributeType.getOid(), null );
+        }
+
+        return new Predicate( NO_PREDICATE, null, null );
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the ListenerQueue : the delivery order, the overflow policies and the statistics.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ListenerQueueTest
+{
+    /** An executor keeping the tasks until they are explicitly run */
+    private static class ManualExecutor implements Executor
+    {
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+
+        @Override
+        public void execute( Runnable task )
+        {
+            tasks.add( task );
+        }
+
+
+        private void runAll()
+        {
+            while ( !tasks.isEmpty() )
+            {
+                tasks.poll().run();
+            }
+        }
+    }
+
+    /** A listener recording the notifications it gets */
+    private static class RecordingListener extends DirectoryListenerAdapter implements DisconnectableListener
+    {
+        private final List<OperationContext> notified = new ArrayList<OperationContext>();
+        private boolean disconnected;
+
+
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            notified.add( addContext );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            notified.add( deleteContext );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            notified.add( modifyContext );
+        }
+
+
+        @Override
+        public void disconnected()
+        {
+            disconnected = true;
+        }
+    }
+
+    private ManualExecutor executor;
+    private DefaultEventService eventService;
+    private RecordingListener listener;
+
+
+    @Before
+    public void setUp()
+    {
+        executor = new ManualExecutor();
+        eventService = new DefaultEventService( new MockDirectoryService(), executor, 10,
+            EventInterceptor.DEFAULT_OVERFLOW_POLICY );
+        listener = new RecordingListener();
+    }
+
+
+    private ListenerQueue createQueue( int capacity, NotificationOverflowPolicy policy )
+    {
+        return new ListenerQueue( listener, eventService, executor, capacity, policy );
+    }
+
+
+    private static ModifyOperationContext modify( String dn ) throws Exception
+    {
+        return new ModifyOperationContext( null, new Dn( dn ), null );
+    }
+
+
+    private static AddOperationContext add( String dn ) throws Exception
+    {
+        return new AddOperationContext( null, new Dn( dn ) );
+    }
+
+
+    @Test
+    public void testDefaultPolicyIsDisconnect()
+    {
+        assertEquals( NotificationOverflowPolicy.DISCONNECT, new EventInterceptor().getOverflowPolicy() );
+    }
+
+
+    @Test
+    public void testNotificationsAreDeliveredInOrder() throws Exception
+    {
+        ListenerQueue queue = createQueue( 10, NotificationOverflowPolicy.DISCONNECT );
+        List<OperationContext> expected = new ArrayList<OperationContext>();
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            ModifyOperationContext modifyContext = modify( "cn=user" + i + ",ou=system" );
+            expected.add( modifyContext );
+            queue.offer( EventType.MODIFY, modifyContext );
+        }
+
+        // Nothing is delivered by the writer thread, and a single task is scheduled
+        assertTrue( listener.notified.isEmpty() );
+        assertEquals( 1, executor.tasks.size() );
+        assertEquals( 5, queue.getStatistics().getPending() );
+
+        executor.runAll();
+
+        assertEquals( expected, listener.notified );
+
+        ListenerStatistics statistics = queue.getStatistics();
+        assertEquals( 10, statistics.getCapacity() );
+        assertEquals( 0, statistics.getPending() );
+        assertEquals( 5L, statistics.getDelivered() );
+        assertEquals( 0L, statistics.getDropped() );
+        assertEquals( 0L, statistics.getLag() );
+        assertTrue( statistics.getMaxLag() >= 0L );
+        assertFalse( statistics.isOverflowed() );
+        assertFalse( statistics.isDisconnected() );
+    }
+
+
+    @Test
+    public void testDeliveryByBatches() throws Exception
+    {
+        ListenerQueue queue = createQueue( 2, NotificationOverflowPolicy.DISCONNECT );
+
+        queue.offer( EventType.ADD, add( "cn=user1,ou=system" ) );
+        queue.offer( EventType.ADD, add( "cn=user2,ou=system" ) );
+        executor.tasks.poll().run();
+
+        // The task has delivered a full batch, and rescheduled itself
+        assertEquals( 2, listener.notified.size() );
+        assertEquals( 1, executor.tasks.size() );
+
+        queue.offer( EventType.ADD, add( "cn=user3,ou=system" ) );
+        executor.runAll();
+
+        assertEquals( 3, listener.notified.size() );
+        assertEquals( 3L, queue.getStatistics().getDelivered() );
+    }
+
+
+    @Test
+    public void testDropPolicy() throws Exception
+    {
+        ListenerQueue queue = createQueue( 2, NotificationOverflowPolicy.DROP );
+        AddOperationContext add1 = add( "cn=user1,ou=system" );
+        AddOperationContext add2 = add( "cn=user2,ou=system" );
+
+        queue.offer( EventType.ADD, add1 );
+        queue.offer( EventType.ADD, add2 );
+        queue.offer( EventType.ADD, add( "cn=user3,ou=system" ) );
+        queue.offer( EventType.MODIFY, modify( "cn=user1,ou=system" ) );
+
+        ListenerStatistics statistics = queue.getStatistics();
+        assertEquals( 2, statistics.getPending() );
+        assertEquals( 2L, statistics.getDropped() );
+        assertTrue( statistics.isOverflowed() );
+        assertFalse( statistics.isDisconnected() );
+
+        executor.runAll();
+
+        assertEquals( 2, listener.notified.size() );
+        assertSame( add1, listener.notified.get( 0 ) );
+        assertSame( add2, listener.notified.get( 1 ) );
+        assertFalse( listener.disconnected );
+    }
+
+
+    @Test
+    public void testCoalescePolicy() throws Exception
+    {
+        ListenerQueue queue = createQueue( 2, NotificationOverflowPolicy.COALESCE );
+        ModifyOperationContext modify1 = modify( "cn=user1,ou=system" );
+        ModifyOperationContext modify2 = modify( "cn=user2,ou=system" );
+        ModifyOperationContext modify3 = modify( "cn=user1,ou=system" );
+
+        queue.offer( EventType.MODIFY, modify1 );
+        queue.offer( EventType.MODIFY, modify2 );
+
+        // Replaces the pending modification of the same entry
+        queue.offer( EventType.MODIFY, modify3 );
+
+        // Nothing to coalesce with : dropped
+        queue.offer( EventType.MODIFY, modify( "cn=user3,ou=system" ) );
+        queue.offer( EventType.ADD, add( "cn=user2,ou=system" ) );
+
+        ListenerStatistics statistics = queue.getStatistics();
+        assertEquals( 2, statistics.getPending() );
+        assertEquals( 1L, statistics.getCoalesced() );
+        assertEquals( 2L, statistics.getDropped() );
+
+        executor.runAll();
+
+        assertEquals( 2, listener.notified.size() );
+        assertSame( modify3, listener.notified.get( 0 ) );
+        assertSame( modify2, listener.notified.get( 1 ) );
+    }
+
+
+    @Test
+    public void testCoalesceDoesNotJumpOverAnotherOperation() throws Exception
+    {
+        ListenerQueue queue = createQueue( 2, NotificationOverflowPolicy.COALESCE );
+
+        queue.offer( EventType.MODIFY, modify( "cn=user1,ou=system" ) );
+        queue.offer( EventType.DELETE, new DeleteOperationContext( null, new Dn( "cn=user1,ou=system" ) ) );
+
+        // The last pending notification on this entry is a delete
+        queue.offer( EventType.MODIFY, modify( "cn=user1,ou=system" ) );
+
+        ListenerStatistics statistics = queue.getStatistics();
+        assertEquals( 0L, statistics.getCoalesced() );
+        assertEquals( 1L, statistics.getDropped() );
+    }
+
+
+    @Test
+    public void testDisconnectPolicy() throws Exception
+    {
+        ListenerQueue queue = createQueue( 2, NotificationOverflowPolicy.DISCONNECT );
+
+        queue.offer( EventType.ADD, add( "cn=user1,ou=system" ) );
+        queue.offer( EventType.ADD, add( "cn=user2,ou=system" ) );
+        queue.offer( EventType.ADD, add( "cn=user3,ou=system" ) );
+
+        assertTrue( listener.disconnected );
+
+        ListenerStatistics statistics = queue.getStatistics();
+        assertTrue( statistics.isDisconnected() );
+        assertEquals( 0, statistics.getPending() );
+        assertEquals( 3L, statistics.getDropped() );
+
+        // The pending notifications have been discarded, the next ones are ignored
+        queue.offer( EventType.ADD, add( "cn=user4,ou=system" ) );
+        executor.runAll();
+
+        assertTrue( listener.notified.isEmpty() );
+        assertEquals( 3L, queue.getStatistics().getDropped() );
+    }
+
+
+    @Test
+    public void testCloseDiscardsThePendingNotifications() throws Exception
+    {
+        ListenerQueue queue = createQueue( 10, NotificationOverflowPolicy.DISCONNECT );
+
+        queue.offer( EventType.ADD, add( "cn=user1,ou=system" ) );
+        queue.close();
+        queue.offer( EventType.ADD, add( "cn=user2,ou=system" ) );
+        executor.runAll();
+
+        assertTrue( listener.notified.isEmpty() );
+        assertEquals( 0, queue.getStatistics().getPending() );
+        assertFalse( listener.disconnected );
+    }
+
+
+    @Test
+    public void testLag() throws Exception
+    {
+        ListenerQueue queue = createQueue( 10, NotificationOverflowPolicy.DISCONNECT );
+
+        queue.offer( EventType.ADD, add( "cn=user1,ou=system" ) );
+        Thread.sleep( 30L );
+
+        assertTrue( queue.getStatistics().getLag() >= 20L );
+
+        executor.runAll();
+
+        ListenerStatistics statistics = queue.getStatistics();
+        assertEquals( 0L, statistics.getLag() );
+        assertTrue( statistics.getMaxLag() >= 20L );
+    }
+
+
+    @Test
+    public void testAListenerFailureDoesNotStopTheDelivery() throws Exception
+    {
+        listener = new RecordingListener()
+        {
+            @Override
+            public void entryDeleted( DeleteOperationContext deleteContext )
+            {
+                throw new IllegalStateException( "Expected failure" );
+            }
+        };
+
+        ListenerQueue queue = createQueue( 10, NotificationOverflowPolicy.DISCONNECT );
+        queue.offer( EventType.DELETE, new DeleteOperationContext( null, new Dn( "cn=user1,ou=system" ) ) );
+        queue.offer( EventType.ADD, add( "cn=user2,ou=system" ) );
+        executor.runAll();
+
+        assertEquals( 1, listener.notified.size() );
+        assertEquals( 2L, queue.getStatistics().getDelivered() );
+    }
+}
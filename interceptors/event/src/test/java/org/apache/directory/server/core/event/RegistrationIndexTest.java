@@ -0,0 +1,371 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the RegistrationIndex : the registrations selecting an entry must be the same, and in
+ * the same order, as the ones found by evaluating all the registrations.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RegistrationIndexTest
+{
+    /** the SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** the evaluator used to check the registrations filter */
+    private static Evaluator evaluator;
+
+    /** The entries the registrations are checked against */
+    private static List<Entry> entries;
+
+    /** The registrations, in registration order */
+    private List<RegistrationEntry> registrations;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        evaluator = new ExpressionEvaluator( schemaManager );
+
+        entries = new ArrayList<Entry>();
+
+        entries.add( new DefaultEntry( schemaManager,
+            "cn=jdoe,ou=people,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: JDoe",
+            "sn: Doe",
+            "description: a person" ) );
+
+        entries.add( new DefaultEntry( schemaManager,
+            "cn=jsmith,ou=people,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: jsmith",
+            "sn: Smith",
+            "telephoneNumber: 1234" ) );
+
+        entries.add( new DefaultEntry( schemaManager,
+            "ou=people,ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people" ) );
+
+        entries.add( new DefaultEntry( schemaManager,
+            "cn=admins,ou=groups,ou=system",
+            "objectClass: top",
+            "objectClass: groupOfNames",
+            "cn: admins",
+            "member: cn=jdoe,ou=people,ou=system" ) );
+    }
+
+
+    @Before
+    public void setUp()
+    {
+        registrations = new ArrayList<RegistrationEntry>();
+    }
+
+
+    /**
+     * Registers a listener
+     */
+    private RegistrationEntry register( String base, SearchScope scope, String filter ) throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setBase( new Dn( schemaManager, base ) );
+        criteria.setScope( scope );
+        criteria.setFilter( filter );
+
+        RegistrationEntry registration = new RegistrationEntry( new DirectoryListenerAdapter(), criteria );
+        registrations.add( registration );
+
+        return registration;
+    }
+
+
+    private RegistrationEntry register( String filter ) throws Exception
+    {
+        return register( "ou=system", SearchScope.SUBTREE, filter );
+    }
+
+
+    /**
+     * Evaluates the registrations, as done without the index
+     */
+    private static List<RegistrationEntry> select( List<RegistrationEntry> registrations, Entry entry )
+        throws Exception
+    {
+        List<RegistrationEntry> selecting = new ArrayList<RegistrationEntry>();
+
+        for ( RegistrationEntry registration : registrations )
+        {
+            NotificationCriteria criteria = registration.getCriteria();
+
+            if ( RegistrationIndex.isInScope( criteria, entry.getDn() )
+                && evaluator.evaluate( criteria.getFilter(), criteria.getBase(), entry ) )
+            {
+                selecting.add( registration );
+            }
+        }
+
+        return selecting;
+    }
+
+
+    /**
+     * Checks that, for each entry, the candidates found in the index select the same
+     * registrations as the full scan, in the same order.
+     *
+     * @return The index
+     */
+    private RegistrationIndex assertSameSelection() throws Exception
+    {
+        RegistrationIndex index = new RegistrationIndex( registrations );
+
+        for ( Entry entry : entries )
+        {
+            List<RegistrationEntry> candidates = index.getCandidates( entry.getDn(), entry );
+
+            assertEquals( entry.getDn().toString(), select( registrations, entry ), select( candidates, entry ) );
+        }
+
+        return index;
+    }
+
+
+    private static Entry entry( String dn )
+    {
+        for ( Entry entry : entries )
+        {
+            if ( entry.getDn().getName().equals( dn ) )
+            {
+                return entry;
+            }
+        }
+
+        throw new IllegalArgumentException( dn );
+    }
+
+
+    private static List<RegistrationEntry> candidates( RegistrationIndex index, String dn )
+    {
+        Entry entry = entry( dn );
+
+        return index.getCandidates( entry.getDn(), entry );
+    }
+
+
+    @Test
+    public void testEmptyIndex() throws Exception
+    {
+        Entry entry = entry( "cn=jdoe,ou=people,ou=system" );
+
+        assertTrue( RegistrationIndex.EMPTY.getCandidates( entry.getDn(), entry ).isEmpty() );
+        assertTrue( assertSameSelection().getCandidates( entry.getDn(), entry ).isEmpty() );
+    }
+
+
+    @Test
+    public void testEquality() throws Exception
+    {
+        RegistrationEntry jdoe = register( "(cn=jdoe)" );
+        RegistrationEntry upperCase = register( "(cn=JDOE)" );
+        RegistrationEntry other = register( "(cn=other)" );
+        RegistrationEntry doe = register( "(sn=Doe)" );
+
+        RegistrationIndex index = assertSameSelection();
+
+        // The values are compared normalized, and the other values are not candidates
+        List<RegistrationEntry> candidates = candidates( index, "cn=jdoe,ou=people,ou=system" );
+        assertTrue( candidates.contains( jdoe ) );
+        assertTrue( candidates.contains( upperCase ) );
+        assertTrue( candidates.contains( doe ) );
+        assertFalse( candidates.contains( other ) );
+
+        assertTrue( candidates( index, "cn=jsmith,ou=people,ou=system" ).isEmpty() );
+    }
+
+
+    @Test
+    public void testPresence() throws Exception
+    {
+        RegistrationEntry description = register( "(description=*)" );
+        RegistrationEntry phone = register( "(telephoneNumber=*)" );
+        register( "(cn=j*)" );
+        register( "(sn>=M)" );
+        register( "(sn<=M)" );
+        register( "(sn~=doe)" );
+
+        RegistrationIndex index = assertSameSelection();
+
+        // The registrations on a missing attribute are not candidates
+        List<RegistrationEntry> candidates = candidates( index, "cn=jdoe,ou=people,ou=system" );
+        assertTrue( candidates.contains( description ) );
+        assertFalse( candidates.contains( phone ) );
+
+        assertTrue( candidates( index, "ou=people,ou=system" ).isEmpty() );
+    }
+
+
+    @Test
+    public void testObjectClass() throws Exception
+    {
+        RegistrationEntry person = register( "(objectClass=person)" );
+        RegistrationEntry unit = register( "(objectClass=organizationalUnit)" );
+        RegistrationEntry all = register( "(objectClass=*)" );
+        register( "(objectClass=groupOfNames)" );
+
+        RegistrationIndex index = assertSameSelection();
+
+        List<RegistrationEntry> candidates = candidates( index, "cn=jdoe,ou=people,ou=system" );
+        assertTrue( candidates.contains( person ) );
+        assertTrue( candidates.contains( all ) );
+        assertFalse( candidates.contains( unit ) );
+    }
+
+
+    @Test
+    public void testBaseDnWalk() throws Exception
+    {
+        // Filters without any required attribute are indexed on their base
+        String filter = "(|(cn=nobody)(!(cn=nobody)))";
+
+        RegistrationEntry root = register( "", SearchScope.SUBTREE, filter );
+        RegistrationEntry system = register( "ou=system", SearchScope.SUBTREE, filter );
+        RegistrationEntry people = register( "ou=people,ou=system", SearchScope.ONELEVEL, filter );
+        RegistrationEntry peopleObject = register( "ou=people,ou=system", SearchScope.OBJECT, filter );
+        RegistrationEntry jdoe = register( "cn=jdoe,ou=people,ou=system", SearchScope.OBJECT, filter );
+        RegistrationEntry groups = register( "ou=groups,ou=system", SearchScope.SUBTREE, filter );
+        RegistrationEntry systemLevel = register( "ou=system", SearchScope.ONELEVEL, filter );
+
+        RegistrationIndex index = assertSameSelection();
+
+        List<RegistrationEntry> candidates = candidates( index, "cn=jdoe,ou=people,ou=system" );
+        assertEquals( 4, candidates.size() );
+        assertTrue( candidates.contains( root ) );
+        assertTrue( candidates.contains( system ) );
+        assertTrue( candidates.contains( people ) );
+        assertTrue( candidates.contains( jdoe ) );
+        assertFalse( candidates.contains( peopleObject ) );
+        assertFalse( candidates.contains( groups ) );
+        assertFalse( candidates.contains( systemLevel ) );
+
+        candidates = candidates( index, "ou=people,ou=system" );
+        assertEquals( 4, candidates.size() );
+        assertTrue( candidates.contains( peopleObject ) );
+        assertTrue( candidates.contains( systemLevel ) );
+    }
+
+
+    @Test
+    public void testAndSelection() throws Exception
+    {
+        // Indexed on the cn value rather than on the objectClass
+        RegistrationEntry jdoe = register( "(&(objectClass=person)(cn=jdoe))" );
+
+        // Indexed on the sn value rather than on the cn presence
+        RegistrationEntry doe = register( "(&(cn=j*)(sn=Doe))" );
+
+        // Indexed on the objectClass rather than on the description presence
+        RegistrationEntry person = register( "(&(description=*)(objectClass=person))" );
+
+        // The other value is never a candidate
+        RegistrationEntry other = register( "(&(objectClass=person)(cn=other))" );
+
+        // Nested filters are not used to index the registration
+        register( "(&(|(cn=jdoe)(cn=jsmith))(sn=*))" );
+        register( "(&(!(cn=jdoe))(objectClass=person))" );
+
+        RegistrationIndex index = assertSameSelection();
+
+        List<RegistrationEntry> candidates = candidates( index, "cn=jdoe,ou=people,ou=system" );
+        assertTrue( candidates.contains( jdoe ) );
+        assertTrue( candidates.contains( doe ) );
+        assertTrue( candidates.contains( person ) );
+        assertFalse( candidates.contains( other ) );
+
+        candidates = candidates( index, "cn=jsmith,ou=people,ou=system" );
+        assertFalse( candidates.contains( jdoe ) );
+        assertFalse( candidates.contains( doe ) );
+        assertTrue( candidates.contains( person ) );
+    }
+
+
+    @Test
+    public void testRegistrationOrder() throws Exception
+    {
+        // Registrations indexed in all the indexes, interleaved
+        register( "ou=system", SearchScope.SUBTREE, "(!(cn=nobody))" );
+        register( "(sn=Doe)" );
+        register( "(objectClass=person)" );
+        register( "(cn=*)" );
+        register( "cn=jdoe,ou=people,ou=system", SearchScope.OBJECT, "(|(sn=Doe)(sn=Smith))" );
+        register( "(cn=jdoe)" );
+        register( "(objectClass=*)" );
+        register( "ou=people,ou=system", SearchScope.ONELEVEL, "(objectClass=person)" );
+        register( "", SearchScope.SUBTREE, "(!(cn=nobody))" );
+        register( "(description=*)" );
+
+        RegistrationIndex index = assertSameSelection();
+
+        // All the registrations select this entry, in registration order
+        assertEquals( registrations, candidates( index, "cn=jdoe,ou=people,ou=system" ) );
+    }
+}
@@ -20,13 +20,14 @@
 package org.apache.directory.server.core.logger;
 
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.EnumMap;
+import java.util.Map;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -42,6 +43,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,8 +52,8 @@ import org.slf4j.LoggerFactory;
  * An interceptor used to log times to process each operation.
  * 
  * The way it works is that it gathers the time to process an operation
- * into a global counter, which is logged every 1000 operations (when
- * using the OPERATION_STATS logger). It's also possible to get the time for
+ * into a latency histogram, whose percentiles are logged every 1000 operations
+ * (when using the OPERATION_STATS logger). It's also possible to get the time for
  * each single operation if activating the OPERATION_TIME logger.
  * 
  * Thos two loggers must be set to DEBUG.
@@ -70,57 +72,8 @@ public class TimerInterceptor extends BaseInterceptor
     private static final boolean IS_DEBUG_STATS = OPERATION_STATS.isDebugEnabled();
     private static final boolean IS_DEBUG_TIME = OPERATION_TIME.isDebugEnabled();
 
-    /** Stats for the add operation */
-    private static AtomicLong totalAdd = new AtomicLong( 0 );
-    private static AtomicInteger nbAddCalls = new AtomicInteger( 0 );
-
-    /** Stats for the bind operation */
-    private static AtomicLong totalBind = new AtomicLong( 0 );
-    private static AtomicInteger nbBindCalls = new AtomicInteger( 0 );
-
-    /** Stats for the compare operation */
-    private static AtomicLong totalCompare = new AtomicLong( 0 );
-    private static AtomicInteger nbCompareCalls = new AtomicInteger( 0 );
-
-    /** Stats for the delete operation */
-    private static AtomicLong totalDelete = new AtomicLong( 0 );
-    private static AtomicInteger nbDeleteCalls = new AtomicInteger( 0 );
-
-    /** Stats for the GetRootDse operation */
-    private static AtomicLong totalGetRootDse = new AtomicLong( 0 );
-    private static AtomicInteger nbGetRootDseCalls = new AtomicInteger( 0 );
-
-    /** Stats for the HasEntry operation */
-    private static AtomicLong totalHasEntry = new AtomicLong( 0 );
-    private static AtomicInteger nbHasEntryCalls = new AtomicInteger( 0 );
-
-    /** Stats for the lookup operation */
-    private static AtomicLong totalLookup = new AtomicLong( 0 );
-    private static AtomicInteger nbLookupCalls = new AtomicInteger( 0 );
-
-    /** Stats for the modify operation */
-    private static AtomicLong totalModify = new AtomicLong( 0 );
-    private static AtomicInteger nbModifyCalls = new AtomicInteger( 0 );
-
-    /** Stats for the move operation */
-    private static AtomicLong totalMove = new AtomicLong( 0 );
-    private static AtomicInteger nbMoveCalls = new AtomicInteger( 0 );
-
-    /** Stats for the moveAndRename operation */
-    private static AtomicLong totalMoveAndRename = new AtomicLong( 0 );
-    private static AtomicInteger nbMoveAndRenameCalls = new AtomicInteger( 0 );
-
-    /** Stats for the rename operation */
-    private static AtomicLong totalRename = new AtomicLong( 0 );
-    private static AtomicInteger nbRenameCalls = new AtomicInteger( 0 );
-
-    /** Stats for the search operation */
-    private static AtomicLong totalSearch = new AtomicLong( 0 );
-    private static AtomicInteger nbSearchCalls = new AtomicInteger( 0 );
-
-    /** Stats for the unbind operation */
-    private static AtomicLong totalUnbind = new AtomicLong( 0 );
-    private static AtomicInteger nbUnbindCalls = new AtomicInteger( 0 );
+    /** The latencies of each operation */
+    private final Map<OperationEnum, LatencyHistogram> latencies = new EnumMap<>( OperationEnum.class );
 
 
     /**
@@ -132,6 +85,11 @@ public class TimerInterceptor extends BaseInterceptor
     public TimerInterceptor( String name )
     {
         super( name );
+
+        for ( OperationEnum operation : OperationEnum.getOperations() )
+        {
+            latencies.put( operation, new LatencyHistogram() );
+        }
     }
 
 
@@ -153,6 +111,37 @@ public void destroy()
     }
 
 
+    /**
+     * Records the time an operation took, and logs the latencies of this operation every
+     * 1000 calls when the OPERATION_STATS logger is enabled.
+     */
+    private void record( OperationEnum operation, long delta )
+    {
+        LatencyHistogram histogram = latencies.get( operation );
+        histogram.record( delta );
+
+        if ( IS_DEBUG_STATS && ( histogram.getCount() % 1000 == 0 ) )
+        {
+            OPERATION_STATS.debug( "{} : {} latencies (microseconds) : mean = {}, p50 = {}, p99 = {}, p999 = {}, "
+                + "max = {}, nb calls = {}", getName(), operation.getMethodName(), histogram.getMean() / 1000,
+                histogram.getValueAtPercentile( 50d ) / 1000, histogram.getValueAtPercentile( 99d ) / 1000,
+                histogram.getValueAtPercentile( 99.9d ) / 1000, histogram.getMax() / 1000, histogram.getCount() );
+        }
+    }
+
+
+    /**
+     * Gets the latencies of an operation, in nanoseconds, measured by this interceptor.
+     *
+     * @param operation The operation
+     * @return The operation latencies
+     */
+    public LatencyHistogram getLatencies( OperationEnum operation )
+    {
+        return latencies.get( operation );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -163,18 +152,7 @@ public void destroy()
         next( addContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbAddCalls.incrementAndGet();
-            totalAdd.getAndAdd( delta );
-
-            if ( nbAddCalls.get() % 1000 == 0 )
-            {
-                long average = totalAdd.get() / ( nbAddCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average add = {} microseconds, nb adds = {}", average,
-                    nbAddCalls.get() );
-            }
-        }
+        record( OperationEnum.ADD, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -193,18 +171,7 @@ public void destroy()
         next( bindContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbBindCalls.incrementAndGet();
-            totalBind.getAndAdd( delta );
-
-            if ( nbBindCalls.get() % 1000 == 0 )
-            {
-                long average = totalBind.get() / ( nbBindCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average bind = {} microseconds, nb binds = {}", average,
-                    nbBindCalls.get() );
-            }
-        }
+        record( OperationEnum.BIND, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -223,18 +190,7 @@ public void destroy()
         boolean compare = next( compareContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbCompareCalls.incrementAndGet();
-            totalCompare.getAndAdd( delta );
-
-            if ( nbCompareCalls.get() % 1000 == 0 )
-            {
-                long average = totalCompare.get() / ( nbCompareCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average compare = {} microseconds, nb compares = {}", average,
-                    nbCompareCalls.get() );
-            }
-        }
+        record( OperationEnum.COMPARE, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -255,18 +211,7 @@ public void destroy()
         next( deleteContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbDeleteCalls.incrementAndGet();
-            totalDelete.getAndAdd( delta );
-
-            if ( nbDeleteCalls.get() % 1000 == 0 )
-            {
-                long average = totalDelete.get() / ( nbDeleteCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average delete = {} microseconds, nb deletes = {}", average,
-                    nbDeleteCalls.get() );
-            }
-        }
+        record( OperationEnum.DELETE, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -285,18 +230,7 @@ public void destroy()
         Entry rootDse = next( getRootDseContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbGetRootDseCalls.incrementAndGet();
-            totalGetRootDse.getAndAdd( delta );
-
-            if ( nbGetRootDseCalls.get() % 1000 == 0 )
-            {
-                long average = totalGetRootDse.get() / ( nbGetRootDseCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average getRootDSE = {} microseconds, nb getRootDSEs = {}",
-                    average, nbGetRootDseCalls.get() );
-            }
-        }
+        record( OperationEnum.GET_ROOT_DSE, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -317,18 +251,7 @@ public void destroy()
         boolean hasEntry = next( hasEntryContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbHasEntryCalls.incrementAndGet();
-            totalHasEntry.getAndAdd( delta );
-
-            if ( nbHasEntryCalls.get() % 1000 == 0 )
-            {
-                long average = totalHasEntry.get() / ( nbHasEntryCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average hasEntry = {} microseconds, nb hasEntrys = {}", average,
-                    nbHasEntryCalls.get() );
-            }
-        }
+        record( OperationEnum.HAS_ENTRY, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -349,18 +272,7 @@ public void destroy()
         Entry entry = next( lookupContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbLookupCalls.incrementAndGet();
-            totalLookup.getAndAdd( delta );
-
-            if ( nbLookupCalls.get() % 1000 == 0 )
-            {
-                long average = totalLookup.get() / ( nbLookupCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average lookup = {} microseconds, nb lookups = {}", average,
-                    nbLookupCalls.get() );
-            }
-        }
+        record( OperationEnum.LOOKUP, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -381,18 +293,7 @@ public void destroy()
         next( modifyContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbModifyCalls.incrementAndGet();
-            totalModify.getAndAdd( delta );
-
-            if ( nbModifyCalls.get() % 1000 == 0 )
-            {
-                long average = totalModify.get() / ( nbModifyCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average modify = {} microseconds, nb modifys = {}", average,
-                    nbModifyCalls.get() );
-            }
-        }
+        record( OperationEnum.MODIFY, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -411,18 +312,7 @@ public void destroy()
         next( moveContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbMoveCalls.incrementAndGet();
-            totalMove.getAndAdd( delta );
-
-            if ( nbMoveCalls.get() % 1000 == 0 )
-            {
-                long average = totalMove.get() / ( nbMoveCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average move = {} microseconds, nb moves = {}", average,
-                    nbMoveCalls.get() );
-            }
-        }
+        record( OperationEnum.MOVE, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -441,19 +331,7 @@ public void destroy()
         next( moveAndRenameContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbMoveAndRenameCalls.incrementAndGet();
-            totalMoveAndRename.getAndAdd( delta );
-
-            if ( nbMoveAndRenameCalls.get() % 1000 == 0 )
-            {
-                long average = totalMoveAndRename.get() / ( nbMoveAndRenameCalls.get() * 1000 );
-                OPERATION_STATS.debug(
-                    getName() + " : Average moveAndRename = {} microseconds, nb moveAndRenames = {}", average,
-                    nbMoveAndRenameCalls.get() );
-            }
-        }
+        record( OperationEnum.MOVE_AND_RENAME, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -472,18 +350,7 @@ public void destroy()
         next( renameContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbRenameCalls.incrementAndGet();
-            totalRename.getAndAdd( delta );
-
-            if ( nbRenameCalls.get() % 1000 == 0 )
-            {
-                long average = totalRename.get() / ( nbRenameCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average rename = {} microseconds, nb renames = {}", average,
-                    nbRenameCalls.get() );
-            }
-        }
+        record( OperationEnum.RENAME, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -502,18 +369,7 @@ public void destroy()
         EntryFilteringCursor cursor = next( searchContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbSearchCalls.incrementAndGet();
-            totalSearch.getAndAdd( delta );
-
-            if ( nbSearchCalls.get() % 1000 == 0 )
-            {
-                long average = totalSearch.get() / ( nbSearchCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average search = {} microseconds, nb searches = {}", average,
-                    nbSearchCalls.get() );
-            }
-        }
+        record( OperationEnum.SEARCH, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -534,18 +390,7 @@ public void destroy()
         next( unbindContext );
         long delta = System.nanoTime() - t0;
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbUnbindCalls.incrementAndGet();
-            totalUnbind.getAndAdd( delta );
-
-            if ( nbUnbindCalls.get() % 1000 == 0 )
-            {
-                long average = totalUnbind.get() / ( nbUnbindCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average unbind = {} microseconds, nb unbinds = {}", average,
-                    nbUnbindCalls.get() );
-            }
-        }
+        record( OperationEnum.UNBIND, delta );
 
         if ( IS_DEBUG_TIME )
         {
@@ -22,6 +22,7 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
@@ -39,6 +40,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.LazyEntry;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,15 +70,41 @@ public class EntrySerializer implements Serializer
     /** The schemaManager reference */
     private transient SchemaManager schemaManager;
 
+    /**
+     * The first byte of an entry serialized with an attribute offset table. The entries
+     * serialized by the previous versions start with the ObjectOutputStream magic number, 0xACED
+     */
+    private static final byte INDEXED_FORMAT = 0x02;
+
+
+    /** Tells if the entries are written with an attribute offset table */
+    private final boolean indexedFormat;
+
 
     /**
-     * Creates a new instance of ServerEntrySerializer.
+     * Creates a new instance of ServerEntrySerializer, writing the entries in the
+     * format read by all the previous versions.
      *
      * @param schemaManager The reference to the global schemaManager
      */
     public EntrySerializer( SchemaManager schemaManager )
+    {
+        this( schemaManager, false );
+    }
+
+
+    /**
+     * Creates a new instance of ServerEntrySerializer. Both formats are always read,
+     * whatever the format the entries are written in.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     * @param indexedFormat If the entries are written with an attribute offset table,
+     * so that their attributes are decoded only when they are read
+     */
+    public EntrySerializer( SchemaManager schemaManager, boolean indexedFormat )
     {
         this.schemaManager = schemaManager;
+        this.indexedFormat = indexedFormat;
     }
 
 
@@ -88,7 +116,8 @@ public class EntrySerializer implements Serializer
      * (<code>ServerAttribute.write(), Value.write()</code>) is that we need
      * access to the registries to read back the values.
      * <p>
-     * The structure used to store the entry is the following :
+     * Unless the indexed format has been requested, the structure used to store the
+     * entry is the following :
      * <ul>
      *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
      *   <li><b>[Rdn]</b> : The entry's Rdn.</li>
@@ -101,11 +130,45 @@ public class EntrySerializer implements Serializer
      *     </ul>
      *   </li>
      * </ul>
+     * <p>
+     * In the indexed format, the attributes are serialized separately, and located by
+     * an offset table, so that they can be decoded only when they are read. The structure
+     * used to store the entry is the following :
+     * <ul>
+     *   <li><b>[a byte]</b> : 0x02, the indexed format marker</li>
+     *   <li><b>[an int]</b> : the header length</li>
+     *   <li><b>[header]</b> :
+     *     <ul>
+     *       <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
+     *       <li><b>[Rdn]</b> : The entry's Rdn.</li>
+     *       <li><b>[numberAttr]</b> : the bumber of attributes. Can be 0</li>
+     *       <li>For each Attribute :
+     *         <ul>
+     *           <li><b>[attribute's oid]</b> : The attribute's OID to get back
+     *           the attributeType on deserialization</li>
+     *           <li><b>[an int]</b> : The serialized attribute length</li>
+     *         </ul>
+     *       </li>
+     *     </ul>
+     *   </li>
+     *   <li>For each Attribute, <b>[Attribute]</b> The attribute</li>
+     * </ul>
      */
     public byte[] serialize( Object object ) throws IOException
     {
         Entry entry = ( Entry ) object;
 
+        if ( IS_DEBUG )
+        {
+            LOG.debug( ">------------------------------------------------" );
+            LOG.debug( "Serialize " + entry );
+        }
+
+        if ( indexedFormat )
+        {
+            return serializeIndexed( entry );
+        }
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ObjectOutput out = new ObjectOutputStream( baos );
 
@@ -150,18 +213,81 @@ public class EntrySerializer implements Serializer
         // Note : we don't store the ObjectClassAttribute. It has already
         // been stored as an attribute.
 
-        if ( IS_DEBUG )
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Serializes an entry with an attribute offset table
+     */
+    private byte[] serializeIndexed( Entry entry ) throws IOException
+    {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        ObjectOutput header = new ObjectOutputStream( headerBytes );
+
+        // First, the Dn
+        Dn dn = entry.getDn();
+
+        // Write the Rdn of the Dn
+        if ( dn.isEmpty() )
         {
-            LOG.debug( ">------------------------------------------------" );
-            LOG.debug( "Serialize " + entry );
+            header.writeByte( 0 );
+        }
+        else
+        {
+            header.writeByte( 1 );
+            Rdn rdn = dn.getRdn();
+            rdn.writeExternal( header );
+        }
+
+        // Then the attributes.
+        header.writeInt( entry.getAttributes().size() );
+
+        ByteArrayOutputStream attributesBytes = new ByteArrayOutputStream();
+
+        // Iterate through the keys. We store the Attribute
+        // here, to be able to restore it in the readExternal :
+        // we need access to the registries, which are not available
+        // in the ServerAttribute class.
+        for ( Attribute attribute : entry.getAttributes() )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            // Write the oid to be able to restore the AttributeType when deserializing
+            // the attribute
+            String oid = attributeType.getOid();
+
+            header.writeUTF( oid );
+
+            // Write the attribute in its own stream, so that it can be read alone
+            ByteArrayOutputStream attributeBytes = new ByteArrayOutputStream();
+            ObjectOutput out = new ObjectOutputStream( attributeBytes );
+            attribute.writeExternal( out );
+            out.flush();
+
+            header.writeInt( attributeBytes.size() );
+            attributeBytes.writeTo( attributesBytes );
         }
 
+        header.flush();
+
+        // Note : we don't store the ObjectClassAttribute. It has already
+        // been stored as an attribute.
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( 5 + headerBytes.size() + attributesBytes.size() );
+        DataOutputStream out = new DataOutputStream( baos );
+        out.writeByte( INDEXED_FORMAT );
+        out.writeInt( headerBytes.size() );
+        headerBytes.writeTo( out );
+        attributesBytes.writeTo( out );
+        out.flush();
+
         return baos.toByteArray();
     }
 
 
     /**
-     *  Deserialize a Entry.
+     *  Deserialize a Entry. The attributes of the entries serialized with an offset table
+     *  are only decoded when they are accessed.
      *  
      *  @param bytes the byte array containing the serialized entry
      *  @return An instance of a Entry object 
@@ -169,6 +295,11 @@ public class EntrySerializer implements Serializer
      */
     public Object deserialize( byte[] bytes ) throws IOException
     {
+        if ( ( bytes.length > 0 ) && ( bytes[0] == INDEXED_FORMAT ) )
+        {
+            return deserializeIndexed( bytes );
+        }
+
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
 
         try
@@ -235,4 +366,57 @@ public class EntrySerializer implements Serializer
             throw new IOException( cnfe.getLocalizedMessage() );
         }
     }
+
+
+    /**
+     * Reads the header of an entry serialized with an offset table, and creates a
+     * LazyEntry which will decode the attributes when needed.
+     */
+    private Entry deserializeIndexed( byte[] bytes ) throws IOException
+    {
+        int headerLength = ( ( bytes[1] & 0xFF ) << 24 ) | ( ( bytes[2] & 0xFF ) << 16 )
+            | ( ( bytes[3] & 0xFF ) << 8 ) | ( bytes[4] & 0xFF );
+
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes, 5, headerLength ) );
+
+        try
+        {
+            Dn dn = Dn.EMPTY_DN;
+
+            // Read the Dn, if any
+            byte hasDn = in.readByte();
+
+            if ( hasDn == 1 )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+                dn = new Dn( schemaManager, rdn );
+            }
+
+            // Read the number of attributes
+            int nbAttributes = in.readInt();
+            String[] oids = new String[nbAttributes];
+            int[] offsets = new int[nbAttributes];
+            int[] lengths = new int[nbAttributes];
+            int offset = 5 + headerLength;
+
+            // Read the attributes location
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                oids[i] = in.readUTF();
+                lengths[i] = in.readInt();
+                offsets[i] = offset;
+                offset += lengths[i];
+            }
+
+            return new LazyEntry( schemaManager, dn, bytes, oids, offsets, lengths );
+        }
+        catch ( ClassNotFoundException | LdapException e )
+        {
+            LOG.error( I18n.err( I18n.ERR_134, e.getLocalizedMessage() ) );
+            IOException ioe = new IOException( e.getLocalizedMessage() );
+            ioe.initCause( e );
+            throw ioe;
+        }
+    }
 }
@@ -386,6 +386,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     {
         // The pair to be added must exists
         forward.put( attrVal, id );
+        keyAdded( attrVal );
 
         if ( withReverse )
         {
@@ -403,6 +404,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         if ( forward.has( attrVal, id ) )
         {
             forward.remove( attrVal, id );
+            keyDropped( attrVal );
 
             if ( withReverse )
             {
@@ -429,6 +431,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                 {
                     // Remove the Key -> entryId from the index
                     forward.remove( values.get().getValue(), entryId );
+                    keyDropped( values.get().getValue() );
                 }
 
                 values.close();
@@ -438,6 +441,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                 K key = reverse.get( entryId );
 
                 forward.remove( key );
+                keyDropped( key );
             }
 
             // Remove the id -> key from the reverse index
@@ -46,9 +46,24 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
      * @throws Exception if there is an error opening the Db file.
      */
     public JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager ) throws Exception
+    {
+        this( recMan, schemaManager, false );
+    }
+
+
+    /**
+     * Creates the master table using JDBM B+Trees for the backing store.
+     *
+     * @param recMan the JDBM record manager
+     * @param schemaManager the schema manager
+     * @param indexedEntryFormat if the entries are written with an attribute offset table
+     * @throws Exception if there is an error opening the Db file.
+     */
+    public JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager, boolean indexedEntryFormat )
+        throws Exception
     {
         super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE,
-            new EntrySerializer( schemaManager ) );
+            new EntrySerializer( schemaManager, indexedEntryFormat ) );
 
         UuidComparator.INSTANCE.setSchemaManager( schemaManager );
     }
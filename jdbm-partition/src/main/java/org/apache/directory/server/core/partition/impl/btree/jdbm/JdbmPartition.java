@@ -65,14 +65,15 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.OffHeapEntryCache;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
-import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
 import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
 import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
+import org.apache.directory.server.xdbm.search.impl.StatisticsOptimizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -106,6 +107,12 @@ public class JdbmPartition extends AbstractBTreePartition
     /** the entry cache */
     private Cache entryCache;
 
+    /** the off-heap entry cache, used instead of the entry cache when configured */
+    private OffHeapEntryCache offHeapEntryCache;
+
+    /** tells if the entries are written in the master table with an attribute offset table */
+    private boolean indexedEntryFormat = false;
+
 
     /**
      * Creates a store based on JDBM B+Trees.
@@ -125,6 +132,34 @@ public class JdbmPartition extends AbstractBTreePartition
             LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
         }
     }
+
+
+    /**
+     * @return true if the entries are written in the master table with an attribute offset table
+     */
+    public boolean isIndexedEntryFormat()
+    {
+        return indexedEntryFormat;
+    }
+
+
+    /**
+     * Writes the entries in the master table with an attribute offset table, so that
+     * their attributes are decoded only when they are read. This is disabled by default.
+     * <br>
+     * The entries are read whatever the format they have been written in, so this can be
+     * enabled on an existing partition : the entries are converted as they are modified,
+     * or all at once by re-importing the partition. The previous versions of the server
+     * can't read the entries written in this format, so going back to such a version
+     * requires disabling it and re-importing the partition first.
+     *
+     * @param indexedEntryFormat true to write the entries with an attribute offset table
+     */
+    public void setIndexedEntryFormat( boolean indexedEntryFormat )
+    {
+        checkInitialized( "indexedEntryFormat" );
+        this.indexedEntryFormat = indexedEntryFormat;
+    }
     
     
     /**
@@ -380,7 +415,7 @@ public class JdbmPartition extends AbstractBTreePartition
             }
             else
             {
-                setOptimizer( new DefaultOptimizer<Entry>( this ) );
+                setOptimizer( new StatisticsOptimizer<Entry>( this ) );
             }
 
             EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
@@ -455,7 +490,7 @@ public class JdbmPartition extends AbstractBTreePartition
             recMan = new CacheRecordManager( base, new MRU( recCacheSize ) );
 
             // Create the master table (the table containing all the entries)
-            master = new JdbmMasterTable( recMan, schemaManager );
+            master = new JdbmMasterTable( recMan, schemaManager, indexedEntryFormat );
 
             if ( !indexToBuild.isEmpty() )
             {
@@ -464,7 +499,27 @@ public class JdbmPartition extends AbstractBTreePartition
 
             deleteUnusedIndexFiles( allIndices, allIndexDbFiles );
 
-            if ( cacheService != null )
+            if ( entryCacheOffHeapSize > 0L )
+            {
+                // The cached entries are never read by another version : they always
+                // use the indexed format
+                final EntrySerializer serializer = new EntrySerializer( schemaManager, true );
+
+                offHeapEntryCache = new OffHeapEntryCache( entryCacheOffHeapSize, new OffHeapEntryCache.EntryCodec()
+                {
+                    public byte[] encode( Entry entry ) throws IOException
+                    {
+                        return serializer.serialize( entry );
+                    }
+
+
+                    public Entry decode( byte[] bytes ) throws IOException
+                    {
+                        return ( Entry ) serializer.deserialize( bytes );
+                    }
+                } );
+            }
+            else if ( cacheService != null )
             {
                 entryCache = cacheService.getCache( getId() );
 
@@ -572,6 +627,9 @@ public class JdbmPartition extends AbstractBTreePartition
         {
             idx.sync();
         }
+
+        // Save the index statistics
+        updateIndexStatistics();
         
         // Sync the master table
         ( ( JdbmMasterTable ) master ).sync();
@@ -767,6 +825,11 @@ public class JdbmPartition extends AbstractBTreePartition
             {
                 entryCache.removeAll();
             }
+
+            if ( offHeapEntryCache != null )
+            {
+                offHeapEntryCache.clear();
+            }
         }
 
         if ( errors.size() > 0 )
@@ -813,6 +876,13 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public void updateCache( OperationContext opCtx )
     {
+        if ( offHeapEntryCache != null )
+        {
+            updateOffHeapCache( opCtx );
+
+            return;
+        }
+
         if ( entryCache == null )
         {
             return;
@@ -858,6 +928,21 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public Entry lookupCache( String id )
     {
+        if ( offHeapEntryCache != null )
+        {
+            try
+            {
+                return offHeapEntryCache.get( id );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to read the entry {} from the off-heap cache", id, ioe );
+                offHeapEntryCache.remove( id );
+
+                return null;
+            }
+        }
+
         if ( entryCache == null )
         {
             return null;
@@ -877,7 +962,7 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public void addToCache( String id, Entry entry )
     {
-        if ( entryCache == null )
+        if ( ( entryCache == null ) && ( offHeapEntryCache == null ) )
         {
             return;
         }
@@ -889,7 +974,67 @@ public class JdbmPartition extends AbstractBTreePartition
             addedEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
         }
 
+        if ( offHeapEntryCache != null )
+        {
+            try
+            {
+                offHeapEntryCache.put( id, addedEntry );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to add the entry {} to the off-heap cache", id, ioe );
+            }
+
+            return;
+        }
+
         entryCache.put( new Element( id, addedEntry ) );
     }
 
+
+    /**
+     * Updates the off-heap cache after a write operation. The cached entries only contain
+     * their RDN, so a rename or a move only invalidates the entry itself, not its children.
+     */
+    private void updateOffHeapCache( OperationContext opCtx )
+    {
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                offHeapEntryCache.put( id, entry );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext )
+                || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext )
+                || ( opCtx instanceof DeleteOperationContext ) )
+            {
+                Entry entry = opCtx.getEntry();
+
+                if ( ( entry != null ) && ( entry.get( SchemaConstants.ENTRY_UUID_AT ) != null ) )
+                {
+                    offHeapEntryCache.remove( entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+                }
+                else
+                {
+                    offHeapEntryCache.clear();
+                }
+            }
+        }
+        catch ( LdapException | IOException e )
+        {
+            LOG.warn( "Failed to update the off-heap entry cache", e );
+            offHeapEntryCache.clear();
+        }
+    }
+
 }
@@ -21,12 +21,15 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -42,6 +45,7 @@ import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.entry.LazyEntry;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -287,4 +291,128 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    @Test
+    public void testLazyAttributeDecoding() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test",
+            "description: a description",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager, true );
+
+        byte[] data = ses.serialize( entry );
+
+        LazyEntry result = ( LazyEntry ) ses.deserialize( data );
+
+        // Nothing is decoded until an attribute is read
+        assertEquals( 5, result.size() );
+        assertEquals( 5, result.getUndecodedSize() );
+        assertTrue( result.containsAttribute( "sn" ) );
+        assertEquals( 5, result.getUndecodedSize() );
+
+        assertEquals( entry.get( "cn" ), result.get( "cn" ) );
+        assertEquals( 4, result.getUndecodedSize() );
+
+        // Removing an attribute does not decode it
+        result.removeAttributes( "description" );
+        assertEquals( 3, result.getUndecodedSize() );
+        assertFalse( result.containsAttribute( "description" ) );
+
+        // A clone shares the undecoded attributes, but not the decoded ones
+        Entry clone = result.clone();
+        clone.removeAttributes( "cn" );
+        assertTrue( result.containsAttribute( "cn" ) );
+
+        entry.removeAttributes( "description" );
+        assertEquals( result, entry );
+        assertEquals( 0, result.getUndecodedSize() );
+    }
+
+
+    @Test
+    public void testEntryFormats() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test" );
+
+        EntrySerializer legacy = new EntrySerializer( schemaManager );
+        EntrySerializer indexed = new EntrySerializer( schemaManager, true );
+
+        // The previous format is written unless the indexed one is requested
+        Entry result = ( Entry ) legacy.deserialize( legacy.serialize( entry ) );
+        assertFalse( result instanceof LazyEntry );
+        assertEquals( entry, result );
+
+        // Both formats are read by both serializers
+        assertEquals( entry, indexed.deserialize( legacy.serialize( entry ) ) );
+        assertEquals( entry, legacy.deserialize( indexed.serialize( entry ) ) );
+    }
+
+
+    @Test
+    public void testLazyEntryConcurrentReads() throws Exception
+    {
+        final Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test",
+            "description: a description" );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager, true );
+        final Entry shared = ( Entry ) ses.deserialize( ses.serialize( entry ) );
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        Thread[] readers = new Thread[8];
+
+        for ( int i = 0; i < readers.length; i++ )
+        {
+            readers[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int j = 0; j < 100; j++ )
+                        {
+                            // Each clone gets its own copy of the shared attributes
+                            Entry clone = shared.clone();
+                            clone.get( "description" ).clear();
+
+                            assertTrue( shared.hasObjectClass( "person" ) );
+                            assertEquals( entry.get( "cn" ), shared.get( "cn" ) );
+                            assertEquals( entry.get( "description" ), shared.get( "description" ) );
+                            assertEquals( entry.get( "sn" ), clone.get( "sn" ) );
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        failures.add( t );
+                    }
+                }
+            };
+
+            readers[i].start();
+        }
+
+        for ( Thread reader : readers )
+        {
+            reader.join();
+        }
+
+        assertTrue( failures.toString(), failures.isEmpty() );
+        assertEquals( entry, shared );
+    }
 }
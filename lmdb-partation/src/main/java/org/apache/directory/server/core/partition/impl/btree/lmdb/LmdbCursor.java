@@ -0,0 +1,460 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Cursor over the Tuples of a LMDB table. If the table allows duplicate values,
+ * we will browse each value and return a Tuple for each one of them. When a key
+ * is given, only the values of this key are browsed.
+ * <br>
+ * The cursor reads a consistent snapshot of the table : it uses the partition
+ * transaction if any, otherwise its own read transaction, which is closed with
+ * the cursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LmdbCursor<K, V> extends AbstractCursor<Tuple<K, V>>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** The possible positions of the cursor */
+    private enum Position
+    {
+        /** Before the first element */
+        BEFORE_FIRST,
+
+        /** After the last element */
+        AFTER_LAST,
+
+        /** The LMDB cursor is on the element which will be returned by next() */
+        BEFORE,
+
+        /** On an available element */
+        ON
+    }
+
+    /** The table we are building a cursor over */
+    private final LmdbTable<K, V> table;
+
+    /** The stored key the cursor is restricted to, if any */
+    private final ByteBuffer fixedKey;
+
+    /** The LMDB transaction */
+    private final Txn<ByteBuffer> txn;
+
+    /** Tells if the transaction has to be closed with the cursor */
+    private final boolean ownedTxn;
+
+    /** The LMDB cursor */
+    private final org.lmdbjava.Cursor<ByteBuffer> browser;
+
+    /** The current position */
+    private Position position = Position.BEFORE_FIRST;
+
+    /** The tuple which will be returned */
+    private Tuple<K, V> returnedTuple;
+
+
+    /**
+     * Creates a Cursor over the tuples of a LMDB table.
+     *
+     * @param table the LMDB Table to build a Cursor over
+     * @param transaction The partition transaction, if any
+     * @param fixedKey The stored key the cursor is restricted to, or null
+     */
+    LmdbCursor( LmdbTable<K, V> table, PartitionTxn transaction, byte[] fixedKey )
+    {
+        LOG_CURSOR.debug( "Creating LmdbCursor {}", this );
+        this.table = table;
+        this.fixedKey = fixedKey == null ? null : LmdbEnvironment.toBuffer( fixedKey );
+
+        LmdbEnvironment environment = table.getEnvironment();
+        txn = environment.acquire( transaction, true );
+        ownedTxn = !environment.isShared( transaction, txn );
+        browser = table.getDb().openCursor( txn );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return position == Position.ON;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "before()" );
+
+        try
+        {
+            seek( element, false );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new CursorException( e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "after()" );
+
+        try
+        {
+            seek( element, true );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new CursorException( e );
+        }
+    }
+
+
+    /**
+     * Moves the LMDB cursor on the first element greater than, or equal to the given
+     * element. When the value is null, all the values of the key are considered.
+     */
+    private void seek( Tuple<K, V> element, boolean after ) throws IOException
+    {
+        returnedTuple = null;
+        K key = element.getKey();
+        V value = element.getValue();
+        ByteBuffer keyBuffer = fixedKey;
+
+        if ( keyBuffer == null )
+        {
+            keyBuffer = LmdbEnvironment.toBuffer( table.encodeKey( key ) );
+        }
+
+        boolean found;
+
+        if ( table.isDupsEnabled() && ( value != null ) )
+        {
+            ByteBuffer valueBuffer = LmdbEnvironment.toBuffer( table.encodeValue( key, value ) );
+            found = browser.get( keyBuffer, valueBuffer, SeekOp.MDB_GET_BOTH_RANGE );
+
+            if ( found )
+            {
+                if ( after && browser.val().equals( valueBuffer ) )
+                {
+                    found = moveNext();
+                }
+            }
+            else if ( fixedKey == null )
+            {
+                // All the values of this key are lower, or the key does not exist
+                found = browser.get( keyBuffer, GetOp.MDB_SET_KEY ) ? browser.seek( SeekOp.MDB_NEXT_NODUP )
+                    : browser.get( keyBuffer, GetOp.MDB_SET_RANGE );
+            }
+        }
+        else if ( fixedKey != null )
+        {
+            // Only the values of the fixed key are browsed
+            found = !after && browser.get( keyBuffer, GetOp.MDB_SET_KEY );
+        }
+        else
+        {
+            found = browser.get( keyBuffer, GetOp.MDB_SET_RANGE );
+
+            if ( found && after && browser.key().equals( keyBuffer ) )
+            {
+                found = browser.seek( table.isDupsEnabled() ? SeekOp.MDB_NEXT_NODUP : SeekOp.MDB_NEXT );
+            }
+        }
+
+        position = found ? Position.BEFORE : Position.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+        returnedTuple = null;
+        position = Position.BEFORE_FIRST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed( "afterLast()" );
+        returnedTuple = null;
+        position = Position.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case BEFORE_FIRST:
+                    return false;
+
+                case AFTER_LAST:
+                    found = moveLast();
+                    break;
+
+                default:
+                    found = movePrevious();
+                    break;
+            }
+
+            return fetch( found, Position.BEFORE_FIRST );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new CursorException( e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case AFTER_LAST:
+                    return false;
+
+                case BEFORE_FIRST:
+                    found = moveFirst();
+                    break;
+
+                case BEFORE:
+                    // Already positioned on the element to return
+                    found = true;
+                    break;
+
+                default:
+                    found = moveNext();
+                    break;
+            }
+
+            return fetch( found, Position.AFTER_LAST );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new CursorException( e );
+        }
+    }
+
+
+    private boolean moveFirst()
+    {
+        if ( fixedKey != null )
+        {
+            return browser.get( fixedKey, GetOp.MDB_SET_KEY );
+        }
+
+        return browser.first();
+    }
+
+
+    private boolean moveLast()
+    {
+        if ( fixedKey != null )
+        {
+            return browser.get( fixedKey, GetOp.MDB_SET_KEY )
+                && ( !table.isDupsEnabled() || browser.seek( SeekOp.MDB_LAST_DUP ) );
+        }
+
+        return browser.last();
+    }
+
+
+    private boolean moveNext()
+    {
+        if ( fixedKey != null )
+        {
+            return table.isDupsEnabled() && browser.seek( SeekOp.MDB_NEXT_DUP );
+        }
+
+        return browser.next();
+    }
+
+
+    private boolean movePrevious()
+    {
+        if ( fixedKey != null )
+        {
+            return table.isDupsEnabled() && browser.seek( SeekOp.MDB_PREV_DUP );
+        }
+
+        return browser.prev();
+    }
+
+
+    /**
+     * Reads the element the LMDB cursor is on : the buffers are only valid until the next move.
+     */
+    private boolean fetch( boolean found, Position outOfBounds ) throws IOException
+    {
+        if ( !found )
+        {
+            returnedTuple = null;
+            position = outOfBounds;
+
+            return false;
+        }
+
+        ByteBuffer value = browser.val();
+        returnedTuple = new Tuple<>( table.decodeKey( browser.key(), value ), table.decodeValue( value ) );
+        position = Position.ON;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<K, V> get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        if ( position == Position.ON )
+        {
+            return returnedTuple;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        super.close();
+        closeBrowser();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        super.close( cause );
+        closeBrowser();
+    }
+
+
+    /**
+     * Close the LMDB cursor, and the transaction if it's owned by the cursor
+     */
+    private void closeBrowser()
+    {
+        browser.close();
+
+        if ( ownedTxn )
+        {
+            txn.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+
+
+/**
+ * A special index which stores DN objects.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbDnIndex extends LmdbIndex<Dn>
+{
+    /**
+     * Creates a new instance of LmdbDnIndex.
+     *
+     * @param oid The attributeType OID
+     */
+    public LmdbDnIndex( String oid )
+    {
+        super( oid, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void initTables( SchemaManager schemaManager )
+    {
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+        LmdbDnSerializer dnSerializer = new LmdbDnSerializer( schemaManager );
+
+        /*
+         * The forward key/value map stores attribute values to master table
+         * primary keys.  A value for an attribute can occur several times in
+         * different entries so the forward map can have more than one value.
+         */
+        String forwardTableName = attributeType.getOid() + FORWARD_TABLE;
+        forward = new LmdbTable<Dn, String>( environment, forwardTableName, dnSerializer,
+            LmdbSerializer.STRING, null, UuidComparator.INSTANCE, true );
+
+        String reverseTableName = attributeType.getOid() + REVERSE_TABLE;
+        reverse = new LmdbTable<String, Dn>( environment, reverseTableName, LmdbSerializer.STRING,
+            dnSerializer, UuidComparator.INSTANCE, null, !attributeType.isSingleValued() );
+    }
+}
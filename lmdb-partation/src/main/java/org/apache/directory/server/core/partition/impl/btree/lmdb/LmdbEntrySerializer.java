@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.LazyEntry;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Serialize and deserialize the entries stored in the master table. As for the other
+ * partitions, we don't serialize the entry's Dn, we just serialize its Rdn.
+ * <br>
+ * Each attribute is serialized separately, and located by an offset table, so that
+ * the deserialized entries are {@link LazyEntry} instances, decoding their attributes
+ * only when they are read. The structure used to store the entry is the following :
+ * <ul>
+ *   <li><b>[an int]</b> : the header length</li>
+ *   <li><b>[header]</b> :
+ *     <ul>
+ *       <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
+ *       <li><b>[Rdn]</b> : The entry's Rdn.</li>
+ *       <li><b>[numberAttr]</b> : the number of attributes. Can be 0</li>
+ *       <li>For each Attribute, <b>[attribute's oid]</b> and <b>[an int]</b>, the
+ *       serialized attribute length</li>
+ *     </ul>
+ *   </li>
+ *   <li>For each Attribute, <b>[Attribute]</b> The attribute</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbEntrySerializer extends LmdbSerializer<Entry>
+{
+    /** the logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbEntrySerializer.class );
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * Creates a new instance of LmdbEntrySerializer.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public LmdbEntrySerializer( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] serialize( Entry entry ) throws IOException
+    {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        ObjectOutput header = new ObjectOutputStream( headerBytes );
+
+        Dn dn = entry.getDn();
+
+        if ( ( dn == null ) || dn.isEmpty() )
+        {
+            header.writeByte( 0 );
+        }
+        else
+        {
+            header.writeByte( 1 );
+            dn.getRdn().writeExternal( header );
+        }
+
+        header.writeInt( entry.size() );
+
+        ByteArrayOutputStream attributesBytes = new ByteArrayOutputStream();
+
+        for ( Attribute attribute : entry )
+        {
+            header.writeUTF( attribute.getAttributeType().getOid() );
+
+            // Each attribute has its own stream, so that it can be read alone
+            ByteArrayOutputStream attributeBytes = new ByteArrayOutputStream();
+            ObjectOutput out = new ObjectOutputStream( attributeBytes );
+            attribute.writeExternal( out );
+            out.flush();
+
+            header.writeInt( attributeBytes.size() );
+            attributeBytes.writeTo( attributesBytes );
+        }
+
+        header.flush();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( 4 + headerBytes.size() + attributesBytes.size() );
+        DataOutputStream out = new DataOutputStream( baos );
+        out.writeInt( headerBytes.size() );
+        headerBytes.writeTo( out );
+        attributesBytes.writeTo( out );
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry deserialize( byte[] bytes ) throws IOException
+    {
+        int headerLength = ( ( bytes[0] & 0xFF ) << 24 ) | ( ( bytes[1] & 0xFF ) << 16 )
+            | ( ( bytes[2] & 0xFF ) << 8 ) | ( bytes[3] & 0xFF );
+
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes, 4, headerLength ) );
+
+        try
+        {
+            Dn dn = Dn.EMPTY_DN;
+
+            if ( in.readByte() == 1 )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+                dn = new Dn( schemaManager, rdn );
+            }
+
+            int nbAttributes = in.readInt();
+            String[] oids = new String[nbAttributes];
+            int[] offsets = new int[nbAttributes];
+            int[] lengths = new int[nbAttributes];
+            int offset = 4 + headerLength;
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                oids[i] = in.readUTF();
+                lengths[i] = in.readInt();
+                offsets[i] = offset;
+                offset += lengths[i];
+            }
+
+            return new LazyEntry( schemaManager, dn, bytes, oids, offsets, lengths );
+        }
+        catch ( ClassNotFoundException | LdapException e )
+        {
+            LOG.error( I18n.err( I18n.ERR_134, e.getLocalizedMessage() ) );
+            throw new IOException( e.getLocalizedMessage(), e );
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.DbiFlags;
+import org.lmdbjava.Env;
+import org.lmdbjava.EnvFlags;
+import org.lmdbjava.Txn;
+
+
+/**
+ * The LMDB environment shared by the master table and the indexes of a partition. All the
+ * databases are stored in the same memory-mapped file, and LMDB gives a single writer and
+ * many readers access to it : the readers see a consistent snapshot, and are never blocked.
+ * <br>
+ * A partition transaction is bound to the thread which created it, so that the index
+ * operations, which don't get a transaction, use the same LMDB transaction. When no
+ * transaction is bound, each operation uses its own short-lived LMDB transaction.
+ * <br>
+ * A search cursor outlives the operation which created it : it owns its own read
+ * transaction, which it attaches to the thread reading it for the duration of each
+ * move, and which it closes with the cursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbEnvironment implements Closeable
+{
+    /** The default maximum size of the database, 10Gb. It's only reserved address space */
+    public static final long DEFAULT_MAP_SIZE = 10L * 1024L * 1024L * 1024L;
+
+    /** The default maximum number of databases : two per index, plus the master table */
+    public static final int DEFAULT_MAX_DBS = 256;
+
+    /** The marker put before the digest of a key too long to be stored as is */
+    private static final byte REDUCED_KEY_MARKER = ( byte ) 0xFF;
+
+    /** The digest length */
+    private static final int DIGEST_LENGTH = 20;
+
+    /** The LMDB environment */
+    private final Env<ByteBuffer> env;
+
+    /** The maximum size of a key, and of a value in a database with duplicates */
+    private final int maxKeySize;
+
+    /** The transaction bound to each thread, if any */
+    private final ThreadLocal<Txn<ByteBuffer>> boundTxn = new ThreadLocal<>();
+
+
+    /**
+     * Opens the LMDB environment stored in a directory
+     *
+     * @param directory The directory containing the data file
+     * @param mapSize The maximum size of the database
+     * @param maxDbs The maximum number of databases
+     */
+    public LmdbEnvironment( File directory, long mapSize, int maxDbs )
+    {
+        // The read transactions are not tied to the thread which created them,
+        // as a cursor may be read by another thread than the one which opened it
+        env = Env.create().setMapSize( mapSize ).setMaxDbs( maxDbs ).open( directory, EnvFlags.MDB_NOTLS );
+        maxKeySize = env.getMaxKeySize();
+    }
+
+
+    /**
+     * Opens a database, creating it if needed
+     *
+     * @param name The database name
+     * @param dupsEnabled If the database allows many values for a key
+     * @return The database
+     */
+    public Dbi<ByteBuffer> openDbi( String name, boolean dupsEnabled )
+    {
+        if ( dupsEnabled )
+        {
+            return env.openDbi( name, DbiFlags.MDB_CREATE, DbiFlags.MDB_DUPSORT );
+        }
+        else
+        {
+            return env.openDbi( name, DbiFlags.MDB_CREATE );
+        }
+    }
+
+
+    /**
+     * Starts a LMDB transaction, and binds it to the current thread
+     *
+     * @param readOnly If the transaction is read-only
+     * @return The LMDB transaction, or null if a transaction is already bound to the thread
+     */
+    Txn<ByteBuffer> bind( boolean readOnly )
+    {
+        if ( boundTxn.get() != null )
+        {
+            if ( !readOnly && boundTxn.get().isReadOnly() )
+            {
+                throw new IllegalStateException( "A read transaction is already started by this thread" );
+            }
+
+            return null;
+        }
+
+        Txn<ByteBuffer> txn = readOnly ? env.txnRead() : env.txnWrite();
+        boundTxn.set( txn );
+
+        return txn;
+    }
+
+
+    /**
+     * Unbinds a LMDB transaction from the current thread
+     *
+     * @param txn The LMDB transaction
+     */
+    void unbind( Txn<ByteBuffer> txn )
+    {
+        if ( boundTxn.get() == txn )
+        {
+            boundTxn.remove();
+        }
+    }
+
+
+    /**
+     * Temporarily binds a LMDB transaction to the current thread, in place of the one
+     * already bound, if any. The previous transaction has to be restored with
+     * {@link #detach(Txn)}.
+     *
+     * @param txn The LMDB transaction to bind
+     * @return The previously bound transaction, or null
+     */
+    Txn<ByteBuffer> attach( Txn<ByteBuffer> txn )
+    {
+        Txn<ByteBuffer> previous = boundTxn.get();
+        boundTxn.set( txn );
+
+        return previous;
+    }
+
+
+    /**
+     * Restores the transaction bound to the current thread before {@link #attach(Txn)}
+     * was called.
+     *
+     * @param previous The previously bound transaction, or null
+     */
+    void detach( Txn<ByteBuffer> previous )
+    {
+        if ( previous == null )
+        {
+            boundTxn.remove();
+        }
+        else
+        {
+            boundTxn.set( previous );
+        }
+    }
+
+
+    /**
+     * @return The transaction bound to the current thread, if any
+     */
+    Txn<ByteBuffer> getBoundTxn()
+    {
+        return boundTxn.get();
+    }
+
+
+    /**
+     * Gives the LMDB transaction to use for an operation : the partition transaction's one,
+     * the one bound to the current thread, or a new one.
+     *
+     * @param transaction The partition transaction, if any
+     * @param readOnly If the operation only reads
+     * @return The LMDB transaction. It has to be released with {@link #release(PartitionTxn, Txn, boolean)}
+     */
+    Txn<ByteBuffer> acquire( PartitionTxn transaction, boolean readOnly )
+    {
+        Txn<ByteBuffer> txn = getTxn( transaction );
+
+        if ( txn == null )
+        {
+            txn = boundTxn.get();
+        }
+
+        if ( txn != null )
+        {
+            if ( !readOnly && txn.isReadOnly() )
+            {
+                throw new IllegalStateException( "Cannot write in a read transaction" );
+            }
+
+            return txn;
+        }
+
+        return readOnly ? env.txnRead() : env.txnWrite();
+    }
+
+
+    /**
+     * Releases a transaction given by {@link #acquire(PartitionTxn, boolean)}. It's committed
+     * and closed if it was started for this operation only.
+     *
+     * @param transaction The partition transaction, if any
+     * @param txn The LMDB transaction
+     * @param commit If the transaction has to be committed
+     */
+    void release( PartitionTxn transaction, Txn<ByteBuffer> txn, boolean commit )
+    {
+        if ( isShared( transaction, txn ) )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( commit && !txn.isReadOnly() )
+            {
+                txn.commit();
+            }
+        }
+        finally
+        {
+            txn.close();
+        }
+    }
+
+
+    /**
+     * Tells if a LMDB transaction is the partition transaction's one, or the one bound to
+     * the current thread : it's then committed or aborted by its owner.
+     *
+     * @param transaction The partition transaction, if any
+     * @param txn The LMDB transaction
+     * @return <tt>true</tt> if the transaction is not owned by the operation
+     */
+    boolean isShared( PartitionTxn transaction, Txn<ByteBuffer> txn )
+    {
+        return ( txn == getTxn( transaction ) ) || ( txn == boundTxn.get() );
+    }
+
+
+    private static Txn<ByteBuffer> getTxn( PartitionTxn transaction )
+    {
+        if ( transaction instanceof LmdbPartitionTxn )
+        {
+            return ( ( LmdbPartitionTxn ) transaction ).getTxn();
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return A new LMDB read transaction, not bound to any thread
+     */
+    Txn<ByteBuffer> txnRead()
+    {
+        return env.txnRead();
+    }
+
+
+    /**
+     * Copies some bytes in a direct buffer, as requested by LMDB
+     *
+     * @param bytes The bytes
+     * @return The direct buffer
+     */
+    static ByteBuffer toBuffer( byte[] bytes )
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect( bytes.length );
+        buffer.put( bytes ).flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Copies the content of a buffer read from LMDB. The buffer is only valid until the
+     * end of the transaction.
+     *
+     * @param buffer The buffer
+     * @return The bytes
+     */
+    static byte[] toBytes( ByteBuffer buffer )
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get( bytes );
+
+        return bytes;
+    }
+
+
+    /**
+     * Reduces the keys which are too long to be stored in LMDB : they are replaced by their
+     * prefix, followed by a marker and the digest of the whole key. The equality of the keys
+     * is kept, but the order of the keys having the same prefix is not.
+     *
+     * @param key The serialized key
+     * @return The key to store
+     */
+    byte[] reduce( byte[] key )
+    {
+        if ( key.length <= maxKeySize )
+        {
+            return key;
+        }
+
+        int prefixLength = maxKeySize - DIGEST_LENGTH - 1;
+
+        // Don't cut an UTF-8 character
+        while ( ( prefixLength > 0 ) && ( ( key[prefixLength] & 0xC0 ) == 0x80 ) )
+        {
+            prefixLength--;
+        }
+
+        try
+        {
+            byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( key );
+            byte[] reduced = new byte[prefixLength + 1 + DIGEST_LENGTH];
+            System.arraycopy( key, 0, reduced, 0, prefixLength );
+            reduced[prefixLength] = REDUCED_KEY_MARKER;
+            System.arraycopy( digest, 0, reduced, prefixLength + 1, DIGEST_LENGTH );
+
+            return reduced;
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            throw new IllegalStateException( nsae );
+        }
+    }
+
+
+    /**
+     * Gives back the prefix of a reduced key. The whole key can't be restored.
+     *
+     * @param key The stored key
+     * @return The serialized key, or its prefix if it was reduced
+     */
+    byte[] expand( byte[] key )
+    {
+        if ( isReduced( key ) )
+        {
+            int markerPos = key.length - DIGEST_LENGTH - 1;
+            byte[] prefix = new byte[markerPos];
+            System.arraycopy( key, 0, prefix, 0, markerPos );
+
+            return prefix;
+        }
+
+        return key;
+    }
+
+
+    /**
+     * Tells if a stored key has been reduced.
+     *
+     * @param key The stored key
+     * @return <tt>true</tt> if the key is a prefix followed by a digest
+     */
+    boolean isReduced( byte[] key )
+    {
+        int markerPos = key.length - DIGEST_LENGTH - 1;
+
+        // The prefix may have been shortened to keep the last UTF-8 character whole
+        return ( key.length > maxKeySize - DIGEST_LENGTH - 4 ) && ( markerPos >= 0 )
+            && ( key[markerPos] == REDUCED_KEY_MARKER );
+    }
+
+
+    /**
+     * Flushes the data on disk
+     */
+    public void sync()
+    {
+        env.sync( true );
+    }
+
+
+    /**
+     * Closes the environment
+     */
+    @Override
+    public void close()
+    {
+        env.close();
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
+import org.apache.directory.server.xdbm.EmptyIndexCursor;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A LMDB based index implementation. It creates an Index for a give AttributeType.
+ * <br>
+ * The Index methods don't get a transaction : they use the partition transaction bound
+ * to the current thread, if any.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbIndex<K> extends AbstractIndex<K, String>
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbIndex.class.getSimpleName() );
+
+    /**  the key used for the forward table name */
+    public static final String FORWARD_TABLE = "_forward";
+
+    /**  the key used for the reverse table name */
+    public static final String REVERSE_TABLE = "_reverse";
+
+    /**
+     * the forward table where the key is the value of the indexed attribute and
+     * the value is the entry id of the entry containing an attribute with
+     * that value
+     */
+    protected LmdbTable<K, String> forward;
+
+    /**
+     * the reverse table where the key is the entry id of the entry containing a
+     * value for the indexed attribute, and the value is the value of the indexed
+     * attribute
+     */
+    protected LmdbTable<String, K> reverse;
+
+    /** a custom working directory path when specified in configuration */
+    protected File wkDirPath;
+
+    /** The LMDB environment */
+    protected LmdbEnvironment environment;
+
+
+    // ------------------------------------------------------------------------
+    // C O N S T R U C T O R S
+    // ----------------------------------------------------------------------
+    /**
+     * Creates a LmdbIndex instance for a give AttributeId
+     */
+    public LmdbIndex( String attributeId, boolean withReverse )
+    {
+        super( attributeId, withReverse );
+
+        initialized = false;
+    }
+
+
+    /**
+     * Initialize the index for an Attribute, with a specific working directory (may be null).
+     *
+     * @param schemaManager The schemaManager to use to get back the Attribute
+     * @param attributeType The attributeType this index is created for
+     * @throws IOException If the initialization failed
+     */
+    public void init( SchemaManager schemaManager, AttributeType attributeType ) throws IOException
+    {
+        LOG.debug( "Initializing an Index for attribute '{}'", attributeType.getName() );
+
+        // check if the environment reference is null, if yes, then throw an IllegalStateException
+        if ( environment == null )
+        {
+            throw new IllegalStateException( "No LMDB environment reference was set in the index " + getAttributeId() );
+        }
+
+        this.attributeType = attributeType;
+
+        if ( attributeId == null )
+        {
+            setAttributeId( attributeType.getName() );
+        }
+
+        if ( this.wkDirPath == null )
+        {
+            NullPointerException e = new NullPointerException( "The index working directory has not be set" );
+            throw e;
+        }
+
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            throw new IOException( I18n.err( I18n.ERR_574, attributeType.getName() ) );
+        }
+
+        try
+        {
+            initTables( schemaManager );
+        }
+        catch ( RuntimeException e )
+        {
+            // clean up
+            close();
+            throw new IOException( e.getMessage(), e );
+        }
+
+        String path = new File( this.wkDirPath, attributeType.getOid() ).getAbsolutePath();
+
+        // finally write a text file in the format <OID>-<attribute-name>.txt
+        try ( FileWriter fw = new FileWriter( new File( path + "-" + attributeType.getName() + ".txt" ) ) )
+        {
+            // write the AttributeType description
+            fw.write( attributeType.toString() );
+        }
+
+        initialized = true;
+    }
+
+
+    /**
+     * Initializes the forward and reverse tables used by this Index.
+     *
+     * @param schemaManager The server schemaManager
+     */
+    @SuppressWarnings("unchecked")
+    protected void initTables( SchemaManager schemaManager )
+    {
+        SerializableComparator<K> comp = new SerializableComparator<K>( attributeType.getEquality().getOid() );
+        comp.setSchemaManager( schemaManager );
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        /*
+         * The forward key/value map stores attribute values to master table
+         * primary keys.  A value for an attribute can occur several times in
+         * different entries so the forward map can have more than one value.
+         */
+        LmdbSerializer<K> forwardKeySerializer = null;
+
+        if ( !attributeType.getSyntax().isHumanReadable() )
+        {
+            forwardKeySerializer = ( LmdbSerializer<K> ) LmdbSerializer.BYTES;
+        }
+        else
+        {
+            forwardKeySerializer = ( LmdbSerializer<K> ) LmdbSerializer.STRING;
+        }
+
+        boolean forwardDups = true;
+
+        String oid = attributeType.getOid();
+
+        // disable duplicates for entryCSN and entryUUID attribute indices
+        if ( oid.equals( SchemaConstants.ENTRY_CSN_AT_OID ) || oid.equals( SchemaConstants.ENTRY_UUID_AT_OID ) )
+        {
+            forwardDups = false;
+        }
+
+        forward = new LmdbTable<K, String>( environment, oid + FORWARD_TABLE, forwardKeySerializer,
+            LmdbSerializer.STRING, comp, UuidComparator.INSTANCE, forwardDups );
+
+        /*
+         * Now the reverse map stores the primary key into the master table as
+         * the key and the values of attributes as the value.  If an attribute
+         * is single valued according to its specification based on a schema
+         * then duplicate keys should not be allowed within the reverse table.
+         */
+        if ( withReverse )
+        {
+            reverse = new LmdbTable<String, K>( environment, oid + REVERSE_TABLE, LmdbSerializer.STRING,
+                forwardKeySerializer, UuidComparator.INSTANCE, comp, !attributeType.isSingleValued() );
+        }
+    }
+
+
+    /**
+     * Sets the LMDB environment the tables are stored in
+     *
+     * @param environment the LMDB environment
+     */
+    public void setEnvironment( LmdbEnvironment environment )
+    {
+        this.environment = environment;
+    }
+
+
+    // ------------------------------------------------------------------------
+    // C O N F I G U R A T I O N   M E T H O D S
+    // ------------------------------------------------------------------------
+    /**
+     * Sets the working directory path to something other than the default.
+     *
+     * @param wkDirPath optional working directory path
+     */
+    public void setWkDirPath( URI wkDirPath )
+    {
+        protect( "wkDirPath" );
+        this.wkDirPath = new File( wkDirPath );
+    }
+
+
+    /**
+     * Gets the working directory path.
+     *
+     * @return optional working directory path
+     */
+    public URI getWkDirPath()
+    {
+        return wkDirPath != null ? wkDirPath.toURI() : null;
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Scan Count Methods
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    public long count() throws Exception
+    {
+        return forward.count( null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count( K attrVal ) throws Exception
+    {
+        return forward.count( null, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long greaterThanCount( K attrVal ) throws Exception
+    {
+        return forward.greaterThanCount( null, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long lessThanCount( K attrVal ) throws Exception
+    {
+        return forward.lessThanCount( null, attrVal );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Forward and Reverse Lookups
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    public String forwardLookup( K attrVal ) throws Exception
+    {
+        return forward.get( null, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public K reverseLookup( String id ) throws LdapException
+    {
+        if ( withReverse )
+        {
+            return reverse.get( null, id );
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Add/Drop Methods
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void add( K attrVal, String id ) throws Exception
+    {
+        forward.put( null, attrVal, id );
+        keyAdded( attrVal );
+
+        if ( withReverse )
+        {
+            reverse.put( null, id, attrVal );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void drop( K attrVal, String id ) throws Exception
+    {
+        // The pair to be removed must exists
+        if ( forward.has( null, attrVal, id ) )
+        {
+            forward.remove( null, attrVal, id );
+            keyDropped( attrVal );
+
+            if ( withReverse )
+            {
+                reverse.remove( null, id, attrVal );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void drop( String entryId ) throws Exception
+    {
+        if ( withReverse )
+        {
+            // The values are read as stored, as the ones which were too long can't be deserialized
+            for ( byte[] stored : reverse.getStoredValues( null, entryId ) )
+            {
+                K key = reverse.decodeValue( ByteBuffer.wrap( stored ) );
+
+                if ( reverse.isDupsEnabled() && environment.isReduced( stored ) )
+                {
+                    forward.removeStored( null, stored, entryId );
+                }
+                else
+                {
+                    forward.remove( null, key, entryId );
+                }
+
+                keyDropped( key );
+            }
+
+            // Remove the id -> key from the reverse index
+            reverse.remove( null, entryId );
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Index Cursor Operations
+    // ------------------------------------------------------------------------
+    @SuppressWarnings("unchecked")
+    public Cursor<IndexEntry<K, String>> reverseCursor() throws Exception
+    {
+        if ( withReverse )
+        {
+            return new IndexCursorAdaptor<K>( ( Cursor ) reverse.cursor( null ), false );
+        }
+        else
+        {
+            return new EmptyIndexCursor<K>();
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public Cursor<IndexEntry<K, String>> forwardCursor() throws LdapException
+    {
+        return new IndexCursorAdaptor<K>( ( Cursor ) forward.cursor( null ), true );
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public Cursor<IndexEntry<K, String>> reverseCursor( String id ) throws Exception
+    {
+        if ( withReverse )
+        {
+            return new IndexCursorAdaptor<K>( ( Cursor ) reverse.cursor( null, id ), false );
+        }
+        else
+        {
+            return new EmptyIndexCursor<K>();
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public Cursor<IndexEntry<K, String>> forwardCursor( K key ) throws Exception
+    {
+        return new IndexCursorAdaptor<K>( ( Cursor ) forward.cursor( null, key ), true );
+    }
+
+
+    public Cursor<K> reverseValueCursor( String id ) throws Exception
+    {
+        if ( withReverse )
+        {
+            return reverse.valueCursor( null, id );
+        }
+        else
+        {
+            return new EmptyCursor<K>();
+        }
+    }
+
+
+    public Cursor<String> forwardValueCursor( K key ) throws Exception
+    {
+        return forward.valueCursor( null, key );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Value Assertion (a.k.a Index Lookup) Methods //
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    public boolean forward( K attrVal ) throws Exception
+    {
+        return forward.has( null, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean forward( K attrVal, String id ) throws LdapException
+    {
+        return forward.has( null, attrVal, id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean reverse( String id ) throws Exception
+    {
+        if ( withReverse )
+        {
+            return reverse.has( null, id );
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean reverse( String id, K attrVal ) throws Exception
+    {
+        return forward.has( null, attrVal, id );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Maintenance Methods
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void close() throws IOException
+    {
+        // The tables are closed with the LMDB environment
+        forward = null;
+        reverse = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void sync() throws IOException
+    {
+        // The whole environment is flushed by the partition
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDupsEnabled()
+    {
+        if ( withReverse )
+        {
+            return reverse.isDupsEnabled();
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "Index<" + attributeId + ">";
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+
+
+/**
+ * Serializes the ParentIdAndRdn keys of the Rdn index. The whole ParentIdAndRdn, including
+ * its number of children and descendants, is serialized, but the keys are ordered on their
+ * parent ID followed by their normalized Rdns only. A key without Rdn sorts before all the
+ * children of its parent.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbParentIdAndRdnSerializer extends LmdbSerializer<ParentIdAndRdn>
+{
+    /** The separator between the parent ID and the Rdns */
+    private static final byte SEPARATOR = 0x00;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] serialize( ParentIdAndRdn parentIdAndRdn ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+        parentIdAndRdn.writeExternal( out );
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ParentIdAndRdn deserialize( byte[] bytes ) throws IOException
+    {
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+        ParentIdAndRdn parentIdAndRdn = new ParentIdAndRdn();
+
+        try
+        {
+            parentIdAndRdn.readExternal( in );
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+
+        return parentIdAndRdn;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getSortKey( ParentIdAndRdn parentIdAndRdn ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write( Strings.getBytesUtf8( parentIdAndRdn.getParentId() ) );
+
+        Rdn[] rdns = parentIdAndRdn.getRdns();
+
+        if ( rdns != null )
+        {
+            for ( Rdn rdn : rdns )
+            {
+                baos.write( SEPARATOR );
+                baos.write( Strings.getBytesUtf8( rdn.getNormName() ) );
+            }
+        }
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasSortKey()
+    {
+        return true;
+    }
+}
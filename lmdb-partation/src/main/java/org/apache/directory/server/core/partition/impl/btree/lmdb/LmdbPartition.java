@@ -0,0 +1,647 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.exception.MultiException;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.OffHeapEntryCache;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
+import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
+import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
+import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
+import org.apache.directory.server.xdbm.search.impl.StatisticsOptimizer;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A partition storing its master table and its indexes in a LMDB memory-mapped file.
+ * <br>
+ * The entries are read straight from the mapped pages, and the readers never wait for
+ * the writer : a {@link PartitionReadTxn} is backed by a LMDB read transaction, which
+ * sees a consistent snapshot of the whole partition until it's closed. A
+ * {@link PartitionWriteTxn} is backed by the single LMDB write transaction.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartition extends AbstractBTreePartition
+{
+    /** static logger */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbPartition.class );
+
+    /** The LMDB environment */
+    private LmdbEnvironment environment;
+
+    /** The maximum size of the LMDB file */
+    private long mapSize = LmdbEnvironment.DEFAULT_MAP_SIZE;
+
+    /** The maximum number of LMDB databases */
+    private int maxDbs = LmdbEnvironment.DEFAULT_MAX_DBS;
+
+    /** the entry cache */
+    private Cache entryCache;
+
+    /** the off-heap entry cache, used instead of the entry cache when configured */
+    private OffHeapEntryCache offHeapEntryCache;
+
+
+    /**
+     * Creates a new instance of LmdbPartition.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param dnFactory The DN factory
+     */
+    public LmdbPartition( SchemaManager schemaManager, DnFactory dnFactory )
+    {
+        super( schemaManager, dnFactory );
+
+        // Initialize the cache size
+        if ( cacheSize < 0 )
+        {
+            cacheSize = DEFAULT_CACHE_SIZE;
+            LOG.debug( "Using the default entry cache size of {} for {} partition", cacheSize, id );
+        }
+        else
+        {
+            LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
+        }
+    }
+
+
+    /**
+     * @return The maximum size of the LMDB file, in bytes
+     */
+    public long getMapSize()
+    {
+        return mapSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the LMDB file. It's reserved in the address space, not on disk.
+     *
+     * @param mapSize The maximum size of the LMDB file, in bytes
+     */
+    public void setMapSize( long mapSize )
+    {
+        checkInitialized( "mapSize" );
+        this.mapSize = mapSize;
+    }
+
+
+    /**
+     * @return The maximum number of LMDB databases
+     */
+    public int getMaxDbs()
+    {
+        return maxDbs;
+    }
+
+
+    /**
+     * Sets the maximum number of LMDB databases : each index uses two of them.
+     *
+     * @param maxDbs The maximum number of LMDB databases
+     */
+    public void setMaxDbs( int maxDbs )
+    {
+        checkInitialized( "maxDbs" );
+        this.maxDbs = maxDbs;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doRepair() throws Exception
+    {
+        // Nothing to do : LMDB never leaves a partially written transaction
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doInit() throws Exception
+    {
+        if ( !initialized )
+        {
+            // setup optimizer and registries for parent
+            if ( !isOptimizerEnabled() )
+            {
+                setOptimizer( new NoOpOptimizer() );
+            }
+            else
+            {
+                setOptimizer( new StatisticsOptimizer<Entry>( this ) );
+            }
+
+            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
+            CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+
+            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+
+            // Create the underlying directories (only if needed)
+            File partitionDir = new File( getPartitionPath() );
+
+            if ( !partitionDir.exists() && !partitionDir.mkdirs() )
+            {
+                throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECORY, partitionDir ) );
+            }
+
+            environment = new LmdbEnvironment( partitionDir, mapSize, maxDbs );
+
+            // Initialize the indexes
+            super.doInit();
+
+            // Create the master table (the table containing all the entries)
+            master = new LmdbMasterTable( environment, schemaManager, "master" );
+
+            if ( entryCacheOffHeapSize > 0L )
+            {
+                final LmdbEntrySerializer serializer = new LmdbEntrySerializer( schemaManager );
+
+                offHeapEntryCache = new OffHeapEntryCache( entryCacheOffHeapSize, new OffHeapEntryCache.EntryCodec()
+                {
+                    public byte[] encode( Entry entry ) throws IOException
+                    {
+                        return serializer.serialize( entry );
+                    }
+
+
+                    public Entry decode( byte[] bytes ) throws IOException
+                    {
+                        return serializer.deserialize( bytes );
+                    }
+                } );
+            }
+            else if ( cacheService != null )
+            {
+                entryCache = cacheService.getCache( getId() );
+
+                int cacheSizeConfig = entryCache.getCacheConfiguration().getMaxElementsInMemory();
+
+                if ( cacheSizeConfig < cacheSize )
+                {
+                    entryCache.getCacheConfiguration().setMaxElementsInMemory( cacheSize );
+                }
+            }
+
+            // We are done !
+            initialized = true;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The LMDB readers read a snapshot, they never wait for a writer.
+     */
+    @Override
+    protected boolean hasSnapshotReads()
+    {
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionReadTxn beginReadTransaction()
+    {
+        return new LmdbPartitionReadTxn( environment );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionWriteTxn beginWriteTransaction()
+    {
+        // LMDB serializes the write transactions
+        return new LmdbPartitionWriteTxn( environment );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The returned cursor owns a LMDB read transaction, so the whole search reads the
+     * same snapshot, up to the cursor close. A search done inside a write transaction
+     * reads this transaction, as the cursor is then read before the write completes.
+     */
+    @Override
+    protected Cursor<Entry> searchEntries( SearchOperationContext searchContext ) throws Exception
+    {
+        Txn<ByteBuffer> boundTxn = environment.getBoundTxn();
+
+        if ( ( boundTxn != null ) && !boundTxn.isReadOnly() )
+        {
+            return super.searchEntries( searchContext );
+        }
+
+        Txn<ByteBuffer> txn = environment.txnRead();
+        Txn<ByteBuffer> previous = environment.attach( txn );
+        Cursor<Entry> cursor = null;
+
+        try
+        {
+            cursor = new LmdbSearchCursor( super.searchEntries( searchContext ), environment, txn );
+
+            return cursor;
+        }
+        finally
+        {
+            environment.detach( previous );
+
+            if ( cursor == null )
+            {
+                txn.close();
+            }
+        }
+    }
+
+
+    @Override
+    protected Index<?, String> convertAndInit( Index<?, String> index ) throws Exception
+    {
+        LmdbIndex<?> lmdbIndex;
+
+        if ( index instanceof LmdbRdnIndex )
+        {
+            lmdbIndex = ( LmdbRdnIndex ) index;
+        }
+        else if ( index instanceof LmdbDnIndex )
+        {
+            lmdbIndex = ( LmdbDnIndex ) index;
+        }
+        else if ( index instanceof LmdbIndex<?> )
+        {
+            lmdbIndex = ( LmdbIndex<?> ) index;
+
+            if ( lmdbIndex.getWkDirPath() == null )
+            {
+                lmdbIndex.setWkDirPath( partitionPath );
+            }
+        }
+        else
+        {
+            LOG.debug( "Supplied index {} is not a LmdbIndex.  "
+                + "Will create new LmdbIndex using copied configuration parameters.", index );
+            lmdbIndex = new LmdbIndex( index.getAttributeId(), true );
+            lmdbIndex.setCacheSize( index.getCacheSize() );
+            lmdbIndex.setWkDirPath( index.getWkDirPath() != null ? index.getWkDirPath() : partitionPath );
+        }
+
+        lmdbIndex.setEnvironment( environment );
+
+        lmdbIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
+
+        return lmdbIndex;
+    }
+
+
+    @Override
+    protected Index createSystemIndex( String indexOid, URI path, boolean withReverse ) throws Exception
+    {
+        LmdbIndex<?> lmdbIndex;
+
+        if ( indexOid.equals( ApacheSchemaConstants.APACHE_RDN_AT_OID ) )
+        {
+            lmdbIndex = new LmdbRdnIndex();
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_RDN_AT_OID );
+        }
+        else if ( indexOid.equals( ApacheSchemaConstants.APACHE_ALIAS_AT_OID ) )
+        {
+            lmdbIndex = new LmdbDnIndex( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+        }
+        else
+        {
+            lmdbIndex = new LmdbIndex( indexOid, withReverse );
+        }
+
+        lmdbIndex.setWkDirPath( path );
+
+        return lmdbIndex;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected synchronized void doDestroy() throws Exception
+    {
+        MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
+
+        if ( !initialized )
+        {
+            return;
+        }
+
+        try
+        {
+            super.doDestroy();
+        }
+        catch ( Exception e )
+        {
+            errors.addThrowable( e );
+        }
+
+        // This is specific to the LMDB store : close the environment
+        try
+        {
+            environment.close();
+            LOG.debug( "Closed LMDB environment for {} partition.", suffixDn );
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( I18n.err( I18n.ERR_127 ), t );
+            errors.addThrowable( t );
+        }
+        finally
+        {
+            if ( entryCache != null )
+            {
+                entryCache.removeAll();
+            }
+
+            if ( offHeapEntryCache != null )
+            {
+                offHeapEntryCache.clear();
+            }
+        }
+
+        if ( errors.size() > 0 )
+        {
+            throw errors;
+        }
+    }
+
+
+    @Override
+    public void sync() throws Exception
+    {
+        if ( !initialized )
+        {
+            return;
+        }
+
+        // Save the index statistics
+        updateIndexStatistics();
+
+        // All the tables are stored in the same file
+        environment.sync();
+    }
+
+
+    /**
+     * {@inheritDoc}}
+     */
+    public String getDefaultId()
+    {
+        return Partition.DEFAULT_ID;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRootId()
+    {
+        return Partition.ROOT_ID;
+    }
+
+
+    /**
+     * @return The LMDB environment
+     */
+    public LmdbEnvironment getEnvironment()
+    {
+        return environment;
+    }
+
+
+    public Entry lookupCache( String id )
+    {
+        if ( offHeapEntryCache != null )
+        {
+            try
+            {
+                return offHeapEntryCache.get( id );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to read the entry {} from the off-heap cache", id, ioe );
+                offHeapEntryCache.remove( id );
+
+                return null;
+            }
+        }
+
+        if ( entryCache == null )
+        {
+            return null;
+        }
+
+        Element el = entryCache.get( id );
+
+        if ( el != null )
+        {
+            return ( Entry ) el.getValue();
+        }
+
+        return null;
+    }
+
+
+    @Override
+    public void addToCache( String id, Entry entry )
+    {
+        if ( ( entryCache == null ) && ( offHeapEntryCache == null ) )
+        {
+            return;
+        }
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        if ( offHeapEntryCache != null )
+        {
+            try
+            {
+                offHeapEntryCache.put( id, entry );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to add the entry {} to the off-heap cache", id, ioe );
+            }
+
+            return;
+        }
+
+        entryCache.put( new Element( id, entry ) );
+    }
+
+
+    @Override
+    public void updateCache( OperationContext opCtx )
+    {
+        if ( offHeapEntryCache != null )
+        {
+            updateOffHeapCache( opCtx );
+
+            return;
+        }
+
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                // replace the entry
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                entryCache.replace( new Element( id, entry ) );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext ) || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext ) )
+            {
+                // clear the cache it is not worth updating all the children
+                entryCache.removeAll();
+            }
+            else if ( opCtx instanceof DeleteOperationContext )
+            {
+                // delete the entry
+                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
+                entryCache.remove( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+        }
+        catch ( LdapException e )
+        {
+            LOG.warn( "Failed to update entry cache", e );
+        }
+    }
+
+
+    /**
+     * Updates the off-heap cache after a write operation. The cached entries only contain
+     * their RDN, so a rename or a move only invalidates the entry itself, not its children.
+     */
+    private void updateOffHeapCache( OperationContext opCtx )
+    {
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                offHeapEntryCache.put( id, entry );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext ) || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext ) || ( opCtx instanceof DeleteOperationContext ) )
+            {
+                Entry entry = opCtx.getEntry();
+
+                if ( ( entry != null ) && ( entry.get( SchemaConstants.ENTRY_UUID_AT ) != null ) )
+                {
+                    offHeapEntryCache.remove( entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+                }
+                else
+                {
+                    offHeapEntryCache.clear();
+                }
+            }
+        }
+        catch ( LdapException | IOException e )
+        {
+            LOG.warn( "Failed to update the off-heap entry cache", e );
+            offHeapEntryCache.clear();
+        }
+    }
+
+
+    /**
+     * @return The set of system and user indexes
+     */
+    public Set<Index<?, String>> getAllIndices()
+    {
+        Set<Index<?, String>> all = new HashSet<Index<?, String>>( systemIndices.values() );
+        all.addAll( userIndices.values() );
+
+        return all;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+
+
+/**
+ * A {@link PartitionReadTxn} backed by a LMDB read transaction, which sees a consistent snapshot
+ * of the partition, without blocking nor being blocked by the writer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionReadTxn extends LmdbPartitionTxn implements PartitionReadTxn
+{
+    /**
+     * Creates a new LmdbPartitionReadTxn instance
+     *
+     * @param environment The LMDB environment
+     */
+    public LmdbPartitionReadTxn( LmdbEnvironment environment )
+    {
+        super( environment, true );
+    }
+}
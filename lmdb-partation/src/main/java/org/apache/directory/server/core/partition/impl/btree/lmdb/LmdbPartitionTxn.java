@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.Txn;
+
+
+/**
+ * A partition transaction backed by a LMDB transaction. The LMDB transaction is bound
+ * to the thread which started it, until it's committed or aborted. If the thread has
+ * already started a transaction, this one is used, and it's not committed nor aborted
+ * when this transaction completes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+abstract class LmdbPartitionTxn implements PartitionTxn
+{
+    /** The LMDB environment */
+    private final LmdbEnvironment environment;
+
+    /** The LMDB transaction */
+    private final Txn<ByteBuffer> txn;
+
+    /** Tells if the LMDB transaction has been started by this transaction */
+    private final boolean owner;
+
+    /** Tells if the transaction has been committed or aborted */
+    private volatile boolean closed = false;
+
+
+    protected LmdbPartitionTxn( LmdbEnvironment environment, boolean readOnly )
+    {
+        this.environment = environment;
+        Txn<ByteBuffer> started = environment.bind( readOnly );
+
+        if ( started != null )
+        {
+            txn = started;
+            owner = true;
+        }
+        else
+        {
+            txn = environment.getBoundTxn();
+            owner = false;
+        }
+    }
+
+
+    /**
+     * @return The LMDB transaction
+     */
+    Txn<ByteBuffer> getTxn()
+    {
+        return txn;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() throws IOException
+    {
+        complete( true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort() throws IOException
+    {
+        complete( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        complete( true );
+    }
+
+
+    private void complete( boolean commit ) throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        closed = true;
+
+        if ( !owner )
+        {
+            return;
+        }
+
+        environment.unbind( txn );
+
+        try
+        {
+            if ( txn.isReadOnly() )
+            {
+                txn.close();
+            }
+            else if ( commit )
+            {
+                txn.commit();
+            }
+            else
+            {
+                txn.abort();
+            }
+        }
+        catch ( LmdbException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+        finally
+        {
+            if ( !txn.isReadOnly() )
+            {
+                txn.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.ParentIdAndRdnComparator;
+
+
+/**
+ * A special index which stores Rdn objects. The keys are ordered on their parent ID, then
+ * on their Rdns, as the children of an entry are browsed from their parent ID.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbRdnIndex extends LmdbIndex<ParentIdAndRdn>
+{
+    public LmdbRdnIndex()
+    {
+        super( ApacheSchemaConstants.APACHE_RDN_AT_OID, true );
+        initialized = false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void initTables( SchemaManager schemaManager )
+    {
+        ParentIdAndRdnComparator<String> comp = new ParentIdAndRdnComparator<String>(
+            attributeType.getEquality().getOid() );
+        comp.setSchemaManager( schemaManager );
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        LmdbParentIdAndRdnSerializer parentIdAndRdnSerializer = new LmdbParentIdAndRdnSerializer();
+
+        String forwardTableName = attributeType.getOid() + FORWARD_TABLE;
+        forward = new LmdbTable<ParentIdAndRdn, String>( environment, forwardTableName, parentIdAndRdnSerializer,
+            LmdbSerializer.STRING, comp, UuidComparator.INSTANCE, false );
+
+        String reverseTableName = attributeType.getOid() + REVERSE_TABLE;
+        reverse = new LmdbTable<String, ParentIdAndRdn>( environment, reverseTableName, LmdbSerializer.STRING,
+            parentIdAndRdnSerializer, UuidComparator.INSTANCE, comp, false );
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.ClosureMonitor;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The cursor returned by a search on a LMDB partition. It owns the LMDB read transaction
+ * the search has been computed with, and binds it to the thread reading the cursor while
+ * the cursor moves, so that the index cursors and the master table lookups all read the
+ * same snapshot. The transaction is closed with the cursor.
+ * <br>
+ * Like any cursor, it must not be read by many threads at the same time.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LmdbSearchCursor extends AbstractCursor<Entry>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** The cursor returning the entries */
+    private final Cursor<Entry> wrapped;
+
+    /** The LMDB environment */
+    private final LmdbEnvironment environment;
+
+    /** The LMDB read transaction owned by this cursor */
+    private final Txn<ByteBuffer> txn;
+
+    /** Tells if the transaction has been closed */
+    private boolean txnClosed;
+
+
+    /**
+     * Creates a new instance of LmdbSearchCursor.
+     *
+     * @param wrapped The cursor returning the entries
+     * @param environment The LMDB environment
+     * @param txn The LMDB read transaction the cursor now owns
+     */
+    LmdbSearchCursor( Cursor<Entry> wrapped, LmdbEnvironment environment, Txn<ByteBuffer> txn )
+    {
+        LOG_CURSOR.debug( "Creating LmdbSearchCursor {}", this );
+        this.wrapped = wrapped;
+        this.environment = environment;
+        this.txn = txn;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return wrapped.available();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( Entry element ) throws LdapException, CursorException
+    {
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            wrapped.before( element );
+        }
+        finally
+        {
+            environment.detach( previous );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( Entry element ) throws LdapException, CursorException
+    {
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            wrapped.after( element );
+        }
+        finally
+        {
+            environment.detach( previous );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            wrapped.beforeFirst();
+        }
+        finally
+        {
+            environment.detach( previous );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            wrapped.afterLast();
+        }
+        finally
+        {
+            environment.detach( previous );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            return wrapped.first();
+        }
+        finally
+        {
+            environment.detach( previous );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            return wrapped.last();
+        }
+        finally
+        {
+            environment.detach( previous );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            return wrapped.previous();
+        }
+        finally
+        {
+            environment.detach( previous );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            return wrapped.next();
+        }
+        finally
+        {
+            environment.detach( previous );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get() throws CursorException
+    {
+        // The entry may be fetched from the master table
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            return wrapped.get();
+        }
+        finally
+        {
+            environment.detach( previous );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return wrapped.isClosed();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setClosureMonitor( ClosureMonitor monitor )
+    {
+        wrapped.setClosureMonitor( monitor );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbSearchCursor {}", this );
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            wrapped.close();
+        }
+        finally
+        {
+            environment.detach( previous );
+            closeTxn();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbSearchCursor {}", this );
+        Txn<ByteBuffer> previous = environment.attach( txn );
+
+        try
+        {
+            wrapped.close( cause );
+        }
+        finally
+        {
+            environment.detach( previous );
+            closeTxn();
+        }
+    }
+
+
+    /**
+     * Closes the read transaction, once the LMDB cursors reading it have been closed
+     */
+    private void closeTxn()
+    {
+        if ( !txnClosed )
+        {
+            txnClosed = true;
+            txn.close();
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "LmdbSearchCursor\n" );
+        sb.append( wrapped.toString( tabs + "    " ) );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
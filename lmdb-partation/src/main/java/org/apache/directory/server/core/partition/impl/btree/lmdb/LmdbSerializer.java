@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * Converts the keys and values stored in a LMDB database from and to bytes. LMDB orders
+ * the keys by comparing their bytes, so a key serializer must produce bytes which sort
+ * like the keys.
+ * <br>
+ * A serializer may also give a sort key which is only a part of the serialized key, when
+ * the key contains some data which must not be used to order it. In this case, the table
+ * stores the serialized key along with the value.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public abstract class LmdbSerializer<T>
+{
+    /** A serializer for the Strings, stored in UTF-8 */
+    public static final LmdbSerializer<String> STRING = new LmdbSerializer<String>()
+    {
+        public byte[] serialize( String value )
+        {
+            return Strings.getBytesUtf8( value );
+        }
+
+
+        public String deserialize( byte[] bytes )
+        {
+            return Strings.utf8ToString( bytes );
+        }
+    };
+
+    /** A serializer for the byte arrays, stored as is */
+    public static final LmdbSerializer<byte[]> BYTES = new LmdbSerializer<byte[]>()
+    {
+        public byte[] serialize( byte[] value )
+        {
+            return value;
+        }
+
+
+        public byte[] deserialize( byte[] bytes )
+        {
+            return bytes;
+        }
+    };
+
+
+    /**
+     * Serializes an element
+     *
+     * @param element The element to serialize
+     * @return The serialized element
+     * @throws IOException If the element can't be serialized
+     */
+    public abstract byte[] serialize( T element ) throws IOException;
+
+
+    /**
+     * Deserializes an element
+     *
+     * @param bytes The serialized element
+     * @return The element
+     * @throws IOException If the element can't be deserialized
+     */
+    public abstract T deserialize( byte[] bytes ) throws IOException;
+
+
+    /**
+     * Gives the bytes used to order a key, if they differ from the serialized key.
+     *
+     * @param key The key
+     * @return The sort key, or null if the serialized key is used
+     * @throws IOException If the sort key can't be built
+     */
+    public byte[] getSortKey( T key ) throws IOException
+    {
+        return null;
+    }
+
+
+    /**
+     * @return true if this serializer gives some sort keys which differ from the serialized keys
+     */
+    public boolean hasSortKey()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,820 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.Table;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+
+
+/**
+ * A Table implementation backed by a LMDB database. LMDB orders the keys, and the values
+ * of a key when duplicates are enabled, by comparing their serialized bytes.
+ * <br>
+ * The values read from LMDB point directly to the memory-mapped file : they are only
+ * deserialized when needed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTable<K, V> implements Table<K, V>
+{
+    /** The LMDB environment */
+    protected final LmdbEnvironment environment;
+
+    /** The LMDB database */
+    protected final Dbi<ByteBuffer> db;
+
+    /** the name of this table */
+    private final String name;
+
+    /** whether or not this table allows for duplicates */
+    private final boolean dupsEnabled;
+
+    /** The key and value serializers */
+    private final LmdbSerializer<K> keySerializer;
+    private final LmdbSerializer<V> valueSerializer;
+
+    /** The key and value comparators */
+    private final Comparator<K> keyComparator;
+    private final Comparator<V> valueComparator;
+
+    /** Tells if the serialized keys are stored in the values, the LMDB keys being the sort keys */
+    private final boolean keyInValue;
+
+
+    /**
+     * Creates a new instance of LmdbTable.
+     *
+     * @param environment The LMDB environment
+     * @param name The table name
+     * @param keySerializer The key serializer
+     * @param valueSerializer The value serializer
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator
+     * @param dupsEnabled If the table allows many values for a key
+     */
+    public LmdbTable( LmdbEnvironment environment, String name, LmdbSerializer<K> keySerializer,
+        LmdbSerializer<V> valueSerializer, Comparator<K> keyComparator, Comparator<V> valueComparator,
+        boolean dupsEnabled )
+    {
+        if ( dupsEnabled && keySerializer.hasSortKey() )
+        {
+            throw new IllegalArgumentException( "The keys of a table with duplicates must be their own sort keys" );
+        }
+
+        this.environment = environment;
+        this.name = name;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.keyComparator = keyComparator;
+        this.valueComparator = valueComparator;
+        this.dupsEnabled = dupsEnabled;
+        keyInValue = keySerializer.hasSortKey();
+
+        db = environment.openDbi( name, dupsEnabled );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Serialization
+    // ------------------------------------------------------------------------
+    /**
+     * @return The bytes stored as LMDB key for a key
+     */
+    byte[] encodeKey( K key ) throws IOException
+    {
+        byte[] bytes = keyInValue ? keySerializer.getSortKey( key ) : keySerializer.serialize( key );
+
+        return environment.reduce( bytes );
+    }
+
+
+    /**
+     * @return The bytes stored as LMDB value for a value
+     */
+    byte[] encodeValue( K key, V value ) throws IOException
+    {
+        byte[] bytes = valueSerializer.serialize( value );
+
+        if ( dupsEnabled )
+        {
+            // The values are keys of a sub-database : they have the same size limit
+            return environment.reduce( bytes );
+        }
+
+        if ( keyInValue )
+        {
+            byte[] keyBytes = keySerializer.serialize( key );
+            ByteBuffer buffer = ByteBuffer.allocate( 4 + keyBytes.length + bytes.length );
+            buffer.putInt( keyBytes.length ).put( keyBytes ).put( bytes );
+
+            return buffer.array();
+        }
+
+        return bytes;
+    }
+
+
+    /**
+     * Deserializes a key read from LMDB
+     */
+    K decodeKey( ByteBuffer key, ByteBuffer value ) throws IOException
+    {
+        if ( keyInValue )
+        {
+            ByteBuffer buffer = value.duplicate();
+            byte[] keyBytes = new byte[buffer.getInt()];
+            buffer.get( keyBytes );
+
+            return keySerializer.deserialize( keyBytes );
+        }
+
+        return keySerializer.deserialize( environment.expand( LmdbEnvironment.toBytes( key ) ) );
+    }
+
+
+    /**
+     * Deserializes a value read from LMDB
+     */
+    V decodeValue( ByteBuffer value ) throws IOException
+    {
+        ByteBuffer buffer = value.duplicate();
+
+        if ( keyInValue )
+        {
+            int keyLength = buffer.getInt();
+            buffer.position( buffer.position() + keyLength );
+        }
+
+        byte[] bytes = LmdbEnvironment.toBytes( buffer );
+
+        if ( dupsEnabled )
+        {
+            bytes = environment.expand( bytes );
+        }
+
+        return valueSerializer.deserialize( bytes );
+    }
+
+
+    /**
+     * Wraps the LMDB and serialization errors into a LdapException
+     */
+    private LdapException toLdapException( Exception e )
+    {
+        return new LdapOtherException( e.getMessage(), e );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Table interface
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<K> getKeyComparator()
+    {
+        return keyComparator;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Comparator<V> getValueComparator()
+    {
+        return valueComparator;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDupsEnabled()
+    {
+        return dupsEnabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try
+        {
+            return db.get( txn, LmdbEnvironment.toBuffer( encodeKey( key ) ) ) != null;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try
+        {
+            ByteBuffer keyBuffer = LmdbEnvironment.toBuffer( encodeKey( key ) );
+
+            if ( dupsEnabled )
+            {
+                ByteBuffer valueBuffer = LmdbEnvironment.toBuffer( encodeValue( key, value ) );
+
+                try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+                {
+                    return cursor.get( keyBuffer, valueBuffer, SeekOp.MDB_GET_BOTH );
+                }
+            }
+
+            ByteBuffer stored = db.get( txn, keyBuffer );
+
+            if ( stored == null )
+            {
+                return false;
+            }
+
+            V storedValue = decodeValue( stored );
+
+            if ( valueComparator != null )
+            {
+                return valueComparator.compare( storedValue, value ) == 0;
+            }
+
+            return storedValue.equals( value );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+        {
+            return cursor.get( LmdbEnvironment.toBuffer( encodeKey( key ) ), GetOp.MDB_SET_RANGE );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+        {
+            ByteBuffer keyBuffer = LmdbEnvironment.toBuffer( encodeKey( key ) );
+
+            if ( cursor.get( keyBuffer, GetOp.MDB_SET_RANGE ) )
+            {
+                // There is a key equal to, or greater than the given key
+                return cursor.key().equals( keyBuffer ) || cursor.prev();
+            }
+
+            // All the keys are lower
+            return cursor.last();
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( !dupsEnabled )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+        {
+            return cursor.get( LmdbEnvironment.toBuffer( encodeKey( key ) ),
+                LmdbEnvironment.toBuffer( encodeValue( key, val ) ), SeekOp.MDB_GET_BOTH_RANGE );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( !dupsEnabled )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+        {
+            ByteBuffer keyBuffer = LmdbEnvironment.toBuffer( encodeKey( key ) );
+            ByteBuffer valueBuffer = LmdbEnvironment.toBuffer( encodeValue( key, val ) );
+
+            if ( !cursor.get( keyBuffer, GetOp.MDB_SET_KEY ) )
+            {
+                return false;
+            }
+
+            if ( cursor.get( keyBuffer, valueBuffer, SeekOp.MDB_GET_BOTH_RANGE ) )
+            {
+                return cursor.val().equals( valueBuffer ) || cursor.seek( SeekOp.MDB_PREV_DUP );
+            }
+
+            // All the values of this key are lower
+            return true;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try
+        {
+            // With duplicates, LMDB returns the first value
+            ByteBuffer value = db.get( txn, LmdbEnvironment.toBuffer( encodeKey( key ) ) );
+
+            if ( value == null )
+            {
+                return null;
+            }
+
+            return decodeValue( value );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( PartitionWriteTxn writeTransaction, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_594 ) );
+        }
+
+        Txn<ByteBuffer> txn = environment.acquire( writeTransaction, false );
+        boolean done = false;
+
+        try
+        {
+            db.put( txn, LmdbEnvironment.toBuffer( encodeKey( key ) ),
+                LmdbEnvironment.toBuffer( encodeValue( key, value ) ) );
+            done = true;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( writeTransaction, txn, done );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionWriteTxn writeTransaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquire( writeTransaction, false );
+        boolean done = false;
+
+        try
+        {
+            // Removes all the values of the key
+            db.delete( txn, LmdbEnvironment.toBuffer( encodeKey( key ) ) );
+            done = true;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( writeTransaction, txn, done );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionWriteTxn writeTransaction, K key, V value ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        if ( !dupsEnabled )
+        {
+            if ( has( writeTransaction, key, value ) )
+            {
+                remove( writeTransaction, key );
+            }
+
+            return;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquire( writeTransaction, false );
+        boolean done = false;
+
+        try
+        {
+            db.delete( txn, LmdbEnvironment.toBuffer( encodeKey( key ) ),
+                LmdbEnvironment.toBuffer( encodeValue( key, value ) ) );
+            done = true;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( writeTransaction, txn, done );
+        }
+    }
+
+
+    /**
+     * Gives the values of a key, as they are stored. Their serialized form can't be
+     * deserialized when they were too long to be stored as is.
+     *
+     * @param transaction The transaction
+     * @param key The key
+     * @return The stored values of the key
+     * @throws LdapException If the values can't be read
+     */
+    List<byte[]> getStoredValues( PartitionTxn transaction, K key ) throws LdapException
+    {
+        List<byte[]> values = new ArrayList<>();
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+        {
+            boolean found = cursor.get( LmdbEnvironment.toBuffer( encodeKey( key ) ), GetOp.MDB_SET_KEY );
+
+            while ( found )
+            {
+                values.add( LmdbEnvironment.toBytes( cursor.val() ) );
+                found = dupsEnabled && cursor.seek( SeekOp.MDB_NEXT_DUP );
+            }
+
+            return values;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * Removes a value of a stored key. It's used when the key was too long to be stored as
+     * is, as it can't be deserialized.
+     *
+     * @param writeTransaction The transaction
+     * @param storedKey The stored key
+     * @param value The value to remove
+     * @throws LdapException If the value can't be removed
+     */
+    void removeStored( PartitionWriteTxn writeTransaction, byte[] storedKey, V value ) throws LdapException
+    {
+        Txn<ByteBuffer> txn = environment.acquire( writeTransaction, false );
+        boolean done = false;
+
+        try
+        {
+            if ( dupsEnabled )
+            {
+                db.delete( txn, LmdbEnvironment.toBuffer( storedKey ),
+                    LmdbEnvironment.toBuffer( encodeValue( null, value ) ) );
+            }
+            else
+            {
+                db.delete( txn, LmdbEnvironment.toBuffer( storedKey ) );
+            }
+
+            done = true;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( writeTransaction, txn, done );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn transaction ) throws LdapException
+    {
+        return new LmdbCursor<>( this, transaction, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn transaction, K key ) throws LdapException
+    {
+        try
+        {
+            return new LmdbCursor<>( this, transaction, encodeKey( key ) );
+        }
+        catch ( IOException ioe )
+        {
+            throw toLdapException( ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<V> valueCursor( PartitionTxn transaction, K key ) throws LdapException
+    {
+        return new LmdbValueCursor<>( cursor( transaction, key ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction ) throws LdapException
+    {
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try
+        {
+            // With duplicates, each value is counted
+            return db.stat( txn ).entries;
+        }
+        catch ( LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return 0L;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquire( transaction, true );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+        {
+            if ( !cursor.get( LmdbEnvironment.toBuffer( encodeKey( key ) ), GetOp.MDB_SET_KEY ) )
+            {
+                return 0L;
+            }
+
+            return dupsEnabled ? cursor.count() : 1L;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw toLdapException( e );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        // An upper bound is enough for the optimizer
+        return count( transaction );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        // An upper bound is enough for the optimizer
+        return count( transaction );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn transaction ) throws LdapException
+    {
+        // The database handle is closed with the environment
+    }
+
+
+    /**
+     * @return The LMDB environment
+     */
+    LmdbEnvironment getEnvironment()
+    {
+        return environment;
+    }
+
+
+    /**
+     * @return The LMDB database
+     */
+    Dbi<ByteBuffer> getDb()
+    {
+        return db;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "LmdbTable<" + name + ( dupsEnabled ? ", dups" : "" ) + ">";
+    }
+}
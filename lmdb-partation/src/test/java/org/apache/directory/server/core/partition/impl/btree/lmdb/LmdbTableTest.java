@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Test cases for LmdbTable.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTableTest
+{
+    private LmdbEnvironment environment;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+
+    @Before
+    public void createEnvironment() throws Exception
+    {
+        environment = new LmdbEnvironment( tmpDir.getRoot(), 64L * 1024L * 1024L, 16 );
+    }
+
+
+    @After
+    public void destroyEnvironment() throws Exception
+    {
+        if ( environment != null )
+        {
+            environment.close();
+        }
+    }
+
+
+    private LmdbTable<String, String> createTable( String name, boolean dupsEnabled )
+    {
+        return new LmdbTable<String, String>( environment, name, LmdbSerializer.STRING, LmdbSerializer.STRING,
+            null, null, dupsEnabled );
+    }
+
+
+    @Test
+    public void testPutGetRemove() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "noDups", false );
+
+        assertNull( table.get( null, "1" ) );
+        assertEquals( 0L, table.count( null ) );
+
+        table.put( null, "1", "one" );
+        table.put( null, "2", "two" );
+        table.put( null, "1", "uno" );
+
+        assertEquals( "uno", table.get( null, "1" ) );
+        assertTrue( table.has( null, "2", "two" ) );
+        assertFalse( table.has( null, "2", "one" ) );
+        assertTrue( table.hasGreaterOrEqual( null, "15" ) );
+        assertFalse( table.hasGreaterOrEqual( null, "3" ) );
+        assertTrue( table.hasLessOrEqual( null, "15" ) );
+        assertFalse( table.hasLessOrEqual( null, "0" ) );
+        assertEquals( 2L, table.count( null ) );
+
+        table.remove( null, "1" );
+
+        assertNull( table.get( null, "1" ) );
+        assertEquals( 1L, table.count( null ) );
+    }
+
+
+    @Test
+    public void testDuplicates() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "dups", true );
+
+        table.put( null, "a", "3" );
+        table.put( null, "a", "1" );
+        table.put( null, "a", "2" );
+        table.put( null, "b", "4" );
+
+        assertEquals( 3L, table.count( null, "a" ) );
+        assertEquals( 4L, table.count( null ) );
+        assertTrue( table.hasGreaterOrEqual( null, "a", "3" ) );
+        assertFalse( table.hasGreaterOrEqual( null, "a", "4" ) );
+        assertFalse( table.hasLessOrEqual( null, "a", "0" ) );
+
+        Cursor<Tuple<String, String>> cursor = table.cursor( null, "a" );
+        StringBuilder values = new StringBuilder();
+
+        while ( cursor.next() )
+        {
+            values.append( cursor.get().getValue() );
+        }
+
+        assertEquals( "123", values.toString() );
+
+        // Going backward from the end
+        assertTrue( cursor.last() );
+        assertEquals( "3", cursor.get().getValue() );
+        assertTrue( cursor.previous() );
+        assertEquals( "2", cursor.get().getValue() );
+        cursor.close();
+
+        cursor = table.cursor( null );
+        cursor.after( new Tuple<String, String>( "a", "2" ) );
+
+        assertTrue( cursor.next() );
+        assertEquals( "3", cursor.get().getValue() );
+        assertTrue( cursor.next() );
+        assertEquals( "b", cursor.get().getKey() );
+        assertFalse( cursor.next() );
+        cursor.close();
+
+        table.remove( null, "a", "2" );
+
+        assertFalse( table.has( null, "a", "2" ) );
+        assertEquals( 2L, table.count( null, "a" ) );
+    }
+
+
+    @Test
+    public void testLongKeys() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "longKeys", true );
+        StringBuilder sb = new StringBuilder();
+
+        for ( int i = 0; i < 2000; i++ )
+        {
+            sb.append( 'x' );
+        }
+
+        String key1 = sb.toString() + "1";
+        String key2 = sb.toString() + "2";
+
+        table.put( null, key1, "1" );
+        table.put( null, key2, "2" );
+
+        // The keys only share their prefix
+        assertEquals( "1", table.get( null, key1 ) );
+        assertEquals( "2", table.get( null, key2 ) );
+        assertTrue( table.has( null, key1, "1" ) );
+        assertFalse( table.has( null, key1, "2" ) );
+
+        table.remove( null, key1 );
+
+        assertFalse( table.has( null, key1 ) );
+        assertTrue( table.has( null, key2 ) );
+    }
+
+
+    @Test
+    public void testReadTransactionIsolation() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "isolation", false );
+
+        PartitionWriteTxn writeTxn = new LmdbPartitionWriteTxn( environment );
+        table.put( writeTxn, "1", "one" );
+        writeTxn.commit();
+
+        PartitionReadTxn readTxn = new LmdbPartitionReadTxn( environment );
+
+        // Another thread adds an entry while the read transaction is opened
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    createTable( "isolation", false ).put( null, "2", "two" );
+                }
+                catch ( Exception e )
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+        };
+
+        writer.start();
+        writer.join();
+
+        // The read transaction still sees the same snapshot
+        assertEquals( 1L, table.count( readTxn ) );
+        assertNull( table.get( readTxn, "2" ) );
+        readTxn.close();
+
+        assertEquals( "two", table.get( null, "2" ) );
+    }
+
+
+    /**
+     * A cursor reading a value of a table at each move, the way the search cursors fetch
+     * the entries from the master table
+     */
+    private static class TableReader extends AbstractCursor<Entry>
+    {
+        private final LmdbTable<String, String> table;
+        private final List<String> values = new ArrayList<String>();
+
+
+        private TableReader( LmdbTable<String, String> table )
+        {
+            this.table = table;
+        }
+
+
+        private boolean read() throws LdapException
+        {
+            values.add( table.get( null, "1" ) );
+
+            return true;
+        }
+
+
+        public boolean available()
+        {
+            return true;
+        }
+
+
+        public void before( Entry element )
+        {
+        }
+
+
+        public void after( Entry element )
+        {
+        }
+
+
+        public void beforeFirst()
+        {
+        }
+
+
+        public void afterLast()
+        {
+        }
+
+
+        public boolean first() throws LdapException
+        {
+            return read();
+        }
+
+
+        public boolean last() throws LdapException
+        {
+            return read();
+        }
+
+
+        public boolean previous() throws LdapException
+        {
+            return read();
+        }
+
+
+        public boolean next() throws LdapException
+        {
+            return read();
+        }
+
+
+        public Entry get()
+        {
+            return null;
+        }
+    }
+
+
+    @Test
+    public void testSearchCursorOwnsItsSnapshot() throws Exception
+    {
+        final LmdbTable<String, String> table = createTable( "search", false );
+        table.put( null, "1", "before" );
+
+        TableReader reader = new TableReader( table );
+        final LmdbSearchCursor cursor = new LmdbSearchCursor( reader, environment, environment.txnRead() );
+
+        // The entry is modified once the search has been started
+        table.put( null, "1", "after" );
+        assertEquals( "after", table.get( null, "1" ) );
+
+        assertTrue( cursor.next() );
+
+        // The cursor may be read by another thread than the one which created it
+        Thread other = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    cursor.next();
+                }
+                catch ( Exception e )
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+        };
+
+        other.start();
+        other.join();
+
+        assertEquals( Arrays.asList( "before", "before" ), reader.values );
+
+        // The transaction is only bound while the cursor moves
+        assertNull( environment.getBoundTxn() );
+
+        cursor.close();
+        assertTrue( cursor.isClosed() );
+        assertEquals( "after", table.get( null, "1" ) );
+    }
+}
@@ -332,6 +332,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
     {
         // The pair to be removed must exists
         forward.put( attrVal, id );
+        keyAdded( attrVal );
 
         if ( withReverse )
         {
@@ -349,6 +350,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         if ( forward.has( attrVal, id ) )
         {
             forward.remove( attrVal, id );
+            keyDropped( attrVal );
 
             if ( withReverse )
             {
@@ -375,6 +377,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                 {
                     // Remove the Key -> entryId from the index
                     forward.remove( values.get().getValue(), entryId );
+                    keyDropped( values.get().getValue() );
                 }
 
                 values.close();
@@ -384,6 +387,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                 K key = reverse.get( entryId );
 
                 forward.remove( key );
+                keyDropped( key );
             }
 
             // Remove the id -> key from the reverse index
@@ -55,13 +55,14 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.OffHeapEntryCache;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
-import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
 import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
 import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
+import org.apache.directory.server.xdbm.search.impl.StatisticsOptimizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -94,6 +95,9 @@ public class MavibotPartition extends AbstractBTreePartition
     /** the entry cache */
     private Cache entryCache;
 
+    /** the off-heap entry cache, used instead of the entry cache when configured */
+    private OffHeapEntryCache offHeapEntryCache;
+
 
     public MavibotPartition( SchemaManager schemaManager, DnFactory dnFactory )
     {
@@ -139,7 +143,7 @@ public class MavibotPartition extends AbstractBTreePartition
             }
             else
             {
-                setOptimizer( new DefaultOptimizer<Entry>( this ) );
+                setOptimizer( new StatisticsOptimizer<Entry>( this ) );
             }
 
             EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
@@ -221,7 +225,25 @@ public class MavibotPartition extends AbstractBTreePartition
                         deleteUnusedIndexFiles( allIndices, allIndexDbFiles );
             */
 
-            if ( cacheService != null )
+            if ( entryCacheOffHeapSize > 0L )
+            {
+                final MavibotEntrySerializer serializer = new MavibotEntrySerializer();
+
+                offHeapEntryCache = new OffHeapEntryCache( entryCacheOffHeapSize, new OffHeapEntryCache.EntryCodec()
+                {
+                    public byte[] encode( Entry entry ) throws IOException
+                    {
+                        return serializer.serialize( entry );
+                    }
+
+
+                    public Entry decode( byte[] bytes ) throws IOException
+                    {
+                        return serializer.fromBytes( bytes );
+                    }
+                } );
+            }
+            else if ( cacheService != null )
             {
                 entryCache = cacheService.getCache( getId() );
                 
@@ -316,6 +338,11 @@ public class MavibotPartition extends AbstractBTreePartition
             {
                 entryCache.removeAll();
             }
+
+            if ( offHeapEntryCache != null )
+            {
+                offHeapEntryCache.clear();
+            }
         }
 
         if ( errors.size() > 0 )
@@ -373,6 +400,9 @@ public class MavibotPartition extends AbstractBTreePartition
             idx.sync();
         }
 
+        // Save the index statistics
+        updateIndexStatistics();
+
         ( ( MavibotMasterTable ) master ).sync();
     }
 
@@ -458,6 +488,21 @@ public class MavibotPartition extends AbstractBTreePartition
 
     public Entry lookupCache( String id )
     {
+        if ( offHeapEntryCache != null )
+        {
+            try
+            {
+                return offHeapEntryCache.get( id );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to read the entry {} from the off-heap cache", id, ioe );
+                offHeapEntryCache.remove( id );
+
+                return null;
+            }
+        }
+
         if ( entryCache == null )
         {
             return null;
@@ -477,7 +522,7 @@ public class MavibotPartition extends AbstractBTreePartition
     @Override
     public void addToCache( String id, Entry entry )
     {
-        if ( entryCache == null )
+        if ( ( entryCache == null ) && ( offHeapEntryCache == null ) )
         {
             return;
         }
@@ -487,6 +532,20 @@ public class MavibotPartition extends AbstractBTreePartition
             entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
         }
 
+        if ( offHeapEntryCache != null )
+        {
+            try
+            {
+                offHeapEntryCache.put( id, entry );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to add the entry {} to the off-heap cache", id, ioe );
+            }
+
+            return;
+        }
+
         entryCache.put( new Element( id, entry ) );
     }
 
@@ -494,6 +553,13 @@ public class MavibotPartition extends AbstractBTreePartition
     @Override
     public void updateCache( OperationContext opCtx )
     {
+        if ( offHeapEntryCache != null )
+        {
+            updateOffHeapCache( opCtx );
+
+            return;
+        }
+
         if ( entryCache == null )
         {
             return;
@@ -534,6 +600,50 @@ public class MavibotPartition extends AbstractBTreePartition
         }
     }
 
+
+    /**
+     * Updates the off-heap cache after a write operation. The cached entries only contain
+     * their RDN, so a rename or a move only invalidates the entry itself, not its children.
+     */
+    private void updateOffHeapCache( OperationContext opCtx )
+    {
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                offHeapEntryCache.put( id, entry );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext ) || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext ) || ( opCtx instanceof DeleteOperationContext ) )
+            {
+                Entry entry = opCtx.getEntry();
+
+                if ( ( entry != null ) && ( entry.get( SchemaConstants.ENTRY_UUID_AT ) != null ) )
+                {
+                    offHeapEntryCache.remove( entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+                }
+                else
+                {
+                    offHeapEntryCache.clear();
+                }
+            }
+        }
+        catch ( LdapException | IOException e )
+        {
+            LOG.warn( "Failed to update the off-heap entry cache", e );
+            offHeapEntryCache.clear();
+        }
+    }
+
     
     /**
      * @return The set of system and user indexes
@@ -336,6 +336,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
     {
         // The pair to be removed must exists
         forward.put( attrVal, id );
+        keyAdded( attrVal );
 
         if ( withReverse )
         {
@@ -353,6 +354,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         if ( forward.has( attrVal, id ) )
         {
             forward.remove( attrVal, id );
+            keyDropped( attrVal );
 
             if ( withReverse )
             {
@@ -379,6 +381,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                 {
                     // Remove the Key -> entryId from the index
                     forward.remove( values.get().getValue(), entryId );
+                    keyDropped( values.get().getValue() );
                 }
 
                 values.close();
@@ -388,6 +391,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                 K key = reverse.get( entryId );
 
                 forward.remove( key );
+                keyDropped( key );
             }
 
             // Remove the id -> key from the reverse index
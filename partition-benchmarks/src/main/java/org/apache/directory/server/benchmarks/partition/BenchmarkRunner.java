@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.benchmarks.partition;
+
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the partition benchmarks with the GC profiler, so that the allocation rate per
+ * operation is reported along with the throughput. The standard JMH options are accepted,
+ * for instance :
+ * <pre>
+ * java -jar benchmarks.jar -p kind=JDBM -p entryCount=100000 PartitionSearchBenchmark
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class BenchmarkRunner
+{
+    private BenchmarkRunner()
+    {
+    }
+
+
+    public static void main( String[] args ) throws Exception
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions( args );
+        OptionsBuilder builder = new OptionsBuilder();
+
+        if ( commandLineOptions.getIncludes().isEmpty() )
+        {
+            builder.include( BenchmarkRunner.class.getPackage().getName() + ".*" );
+        }
+
+        Options options = builder
+            .addProfiler( GCProfiler.class )
+            .parent( commandLineOptions )
+            .build();
+
+        new Runner( options ).run();
+    }
+}
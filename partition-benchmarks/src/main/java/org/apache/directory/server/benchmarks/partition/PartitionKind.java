@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.benchmarks.partition;
+
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmIndex;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmPartition;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotIndex;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotPartition;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+
+
+/**
+ * The partition implementations which can be benchmarked.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum PartitionKind
+{
+    /** The in-memory AVL partition */
+    AVL
+    {
+        @Override
+        public AbstractBTreePartition createPartition( SchemaManager schemaManager, DnFactory dnFactory )
+        {
+            return new AvlPartition( schemaManager, dnFactory );
+        }
+
+
+        @Override
+        public Index<?, String> createIndex( String oid )
+        {
+            return new AvlIndex<String>( oid );
+        }
+    },
+
+    /** The JDBM partition */
+    JDBM
+    {
+        @Override
+        public AbstractBTreePartition createPartition( SchemaManager schemaManager, DnFactory dnFactory )
+        {
+            return new JdbmPartition( schemaManager, dnFactory );
+        }
+
+
+        @Override
+        public Index<?, String> createIndex( String oid )
+        {
+            return new JdbmIndex<String>( oid, false );
+        }
+    },
+
+    /** The Mavibot partition */
+    MAVIBOT
+    {
+        @Override
+        public AbstractBTreePartition createPartition( SchemaManager schemaManager, DnFactory dnFactory )
+        {
+            return new MavibotPartition( schemaManager, dnFactory );
+        }
+
+
+        @Override
+        public Index<?, String> createIndex( String oid )
+        {
+            return new MavibotIndex<String>( oid, false );
+        }
+    };
+
+    /**
+     * Creates a new, not initialized, partition
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param dnFactory The DN factory
+     * @return The partition
+     */
+    public abstract AbstractBTreePartition createPartition( SchemaManager schemaManager, DnFactory dnFactory );
+
+
+    /**
+     * Creates a user index for this partition kind
+     *
+     * @param oid The indexed AttributeType OID
+     * @return The index
+     */
+    public abstract Index<?, String> createIndex( String oid );
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.benchmarks.partition;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks the searches, from the filter parsing to the last returned entry. The filters
+ * are templates, where <i>%1$d</i> is replaced by a random user number and <i>%2$d</i> by
+ * a random department number. A one level search is done on a random organizational unit,
+ * a subtree search on the suffix.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PartitionSearchBenchmark
+{
+    /** The search scope */
+    @Param({ "ONELEVEL", "SUBTREE" })
+    public SearchScope scope;
+
+    /** The filter template */
+    @Param(
+        {
+            "(uid=user%1$d)",
+            "(&(objectClass=person)(departmentNumber=%2$d))",
+            "(|(uid=user%1$d)(sn=surname%1$d))",
+            "(cn=user%1$d*)",
+            "(&(objectClass=inetOrgPerson)(!(departmentNumber=%2$d)))",
+            "(employeeNumber=%1$d)"
+        })
+    public String filter;
+
+
+    /**
+     * Searches with the filter, and reads all the returned entries
+     *
+     * @return The number of returned entries
+     */
+    @Benchmark
+    public int search( PartitionState state, Blackhole blackhole ) throws Exception
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String filterString = String.format( filter, random.nextInt( state.entryCount ),
+            random.nextInt( PartitionState.DEPARTMENTS ) );
+
+        Dn baseDn = ( scope == SearchScope.ONELEVEL ) ? state.randomUnitDn() : state.suffixDn;
+
+        SearchOperationContext searchContext = new SearchOperationContext( null, baseDn, scope,
+            FilterParser.parse( state.getSchemaManager(), filterString ) );
+        searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        PartitionSearchResult searchResult = state.partition.getSearchEngine().computeResult(
+            state.getSchemaManager(), searchContext );
+        Cursor<Entry> cursor = new EntryCursorAdaptor( state.partition, searchResult );
+        int count = 0;
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                blackhole.consume( cursor.get() );
+                count++;
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.benchmarks.partition;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * A partition loaded with a generated tree, shared by all the benchmark threads. The tree
+ * has a suffix, <i>o=bench</i>, with a level of organizational units, each one holding
+ * up to {@link #ENTRIES_PER_UNIT} inetOrgPerson entries :
+ * <pre>
+ * o=bench
+ *   ou=unit0
+ *     cn=user0
+ *     ...
+ *   ou=unit1
+ *     ...
+ *   ou=added
+ * </pre>
+ * The entries added by the benchmarks go under <i>ou=added</i>.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+public class PartitionState
+{
+    /** The number of entries under each organizational unit */
+    public static final int ENTRIES_PER_UNIT = 1000;
+
+    /** The number of distinct departmentNumber values */
+    public static final int DEPARTMENTS = 50;
+
+    /** The number of DNs picked randomly when the tree is loaded, and used by the benchmarks */
+    public static final int SAMPLE_SIZE = 4096;
+
+    /** The schema, loaded once per JVM */
+    private static SchemaManager schemaManager;
+
+    /** The cache service, initialized once per JVM */
+    private static CacheService cacheService;
+
+    /** The DN factory */
+    private static DnFactory dnFactory;
+
+    /** The benchmarked partition kind */
+    @Param({ "AVL", "JDBM", "MAVIBOT" })
+    public PartitionKind kind;
+
+    /** The number of entries in the generated tree */
+    @Param({ "10000", "100000", "1000000" })
+    public int entryCount;
+
+    /** The partition */
+    public AbstractBTreePartition partition;
+
+    /** The suffix DN */
+    public Dn suffixDn;
+
+    /** The parent of the added entries */
+    public Dn addedDn;
+
+    /** The number of organizational units */
+    public int unitCount;
+
+    /** A random sample of distinct user entries DNs, updated by the modDN benchmarks */
+    public Dn[] sample;
+
+    /** The working directory */
+    private File workingDirectory;
+
+    /** The CSN factory */
+    private final CsnFactory csnFactory = new CsnFactory( 0 );
+
+    /** A sequence used to generate new names */
+    private final AtomicLong sequence = new AtomicLong();
+
+
+    /**
+     * Creates the partition, and loads the generated tree
+     *
+     * @throws Exception If the partition can't be loaded
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        workingDirectory = new File( System.getProperty( "java.io.tmpdir" ), "apacheds-bench-" + UUID.randomUUID() );
+
+        if ( !workingDirectory.mkdirs() )
+        {
+            throw new IOException( "Cannot create the directory " + workingDirectory );
+        }
+
+        loadSchema( workingDirectory );
+
+        partition = kind.createPartition( schemaManager, dnFactory );
+        partition.setId( "bench" );
+        partition.setSuffixDn( new Dn( schemaManager, "o=bench" ) );
+        partition.setPartitionPath( new File( workingDirectory, "bench" ).toURI() );
+        partition.setSyncOnWrite( false );
+        partition.setCacheService( cacheService );
+
+        partition.addIndex( kind.createIndex( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( kind.createIndex( SchemaConstants.CN_AT_OID ) );
+        partition.addIndex( kind.createIndex( SchemaConstants.SN_AT_OID ) );
+        partition.addIndex( kind.createIndex( SchemaConstants.UID_AT_OID ) );
+        partition.addIndex( kind.createIndex( schemaManager.getAttributeType( "mail" ).getOid() ) );
+        partition.addIndex( kind.createIndex( schemaManager.getAttributeType( "departmentNumber" ).getOid() ) );
+
+        partition.initialize();
+
+        loadTree();
+    }
+
+
+    /**
+     * Destroys the partition, and removes its files
+     *
+     * @throws Exception If the partition can't be destroyed
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        try
+        {
+            partition.destroy();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( workingDirectory );
+        }
+    }
+
+
+    private static synchronized void loadSchema( File workingDirectory ) throws Exception
+    {
+        if ( schemaManager != null )
+        {
+            return;
+        }
+
+        File schemaDirectory = new File( workingDirectory.getParentFile(), "apacheds-bench-schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( schemaDirectory );
+        extractor.extractOrCopy( true );
+
+        SchemaManager loaded = new DefaultSchemaManager( new LdifSchemaLoader( new File( schemaDirectory,
+            "schema" ) ) );
+
+        if ( !loaded.loadAllEnabled() )
+        {
+            throw new IllegalStateException( "Schema load failed : " + Exceptions.printErrors( loaded.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( loaded, cacheService.getCache( "dnCache" ) );
+        schemaManager = loaded;
+    }
+
+
+    /**
+     * Adds the suffix, the organizational units and the users
+     */
+    private void loadTree() throws Exception
+    {
+        suffixDn = partition.getSuffixDn();
+        add( new DefaultEntry( schemaManager, suffixDn,
+            "objectClass: top",
+            "objectClass: organization",
+            "o: bench" ) );
+
+        unitCount = ( entryCount + ENTRIES_PER_UNIT - 1 ) / ENTRIES_PER_UNIT;
+
+        for ( int unit = 0; unit < unitCount; unit++ )
+        {
+            add( createUnit( "unit" + unit ) );
+        }
+
+        addedDn = suffixDn.add( "ou=added" );
+        add( createUnit( "added" ) );
+
+        for ( int i = 0; i < entryCount; i++ )
+        {
+            add( createUser( userDn( i ), "user" + i, i ) );
+        }
+
+        // The sampled entries must be distinct : once renamed or moved, the old DN
+        // of an entry does not exist anymore. Shuffle the beginning of the entry numbers.
+        int[] numbers = new int[entryCount];
+
+        for ( int i = 0; i < entryCount; i++ )
+        {
+            numbers[i] = i;
+        }
+
+        sample = new Dn[Math.min( SAMPLE_SIZE, entryCount )];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for ( int i = 0; i < sample.length; i++ )
+        {
+            int j = i + random.nextInt( entryCount - i );
+            int number = numbers[j];
+            numbers[j] = numbers[i];
+            numbers[i] = number;
+            sample[i] = userDn( number );
+        }
+    }
+
+
+    private Entry createUnit( String name ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, suffixDn.add( "ou=" + name ),
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: " + name );
+    }
+
+
+    /**
+     * Creates a user entry
+     *
+     * @param dn The entry DN
+     * @param name The entry name, used for its cn and uid
+     * @param number The entry number, used for its other attributes
+     * @return The entry
+     * @throws Exception If the entry can't be created
+     */
+    public Entry createUser( Dn dn, String name, long number ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "cn: " + name,
+            "sn: surname" + number,
+            "uid: " + name,
+            "mail: " + name + "@bench.example.com",
+            "departmentNumber: " + ( number % DEPARTMENTS ),
+            "employeeNumber: " + number,
+            "description: The generated entry number " + number );
+    }
+
+
+    /**
+     * @return The DN of a generated user entry
+     */
+    public Dn userDn( int number ) throws Exception
+    {
+        return new Dn( schemaManager, "cn=user" + number, "ou=unit" + ( number / ENTRIES_PER_UNIT ), "o=bench" );
+    }
+
+
+    /**
+     * @return The DN of a random organizational unit
+     */
+    public Dn randomUnitDn() throws Exception
+    {
+        return new Dn( schemaManager, "ou=unit" + ThreadLocalRandom.current().nextInt( unitCount ), "o=bench" );
+    }
+
+
+    /**
+     * @return The index of a random DN of the sample
+     */
+    public int randomSampleIndex()
+    {
+        return ThreadLocalRandom.current().nextInt( sample.length );
+    }
+
+
+    /**
+     * @return A new unique number
+     */
+    public long nextSequence()
+    {
+        return sequence.incrementAndGet();
+    }
+
+
+    /**
+     * Adds an entry in the partition, with its entryUUID and entryCSN
+     *
+     * @param entry The entry to add
+     * @throws Exception If the entry can't be added
+     */
+    public void add( Entry entry ) throws Exception
+    {
+        entry.add( SchemaConstants.ENTRY_CSN_AT, csnFactory.newInstance().toString() );
+        entry.add( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+
+        partition.add( new AddOperationContext( null, entry ) );
+    }
+
+
+    /**
+     * @return The schemaManager
+     */
+    public SchemaManager getSchemaManager()
+    {
+        return schemaManager;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.benchmarks.partition;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the write operations. The modDN benchmarks update the sample of DNs, so a
+ * single thread is used.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(1)
+public class PartitionWriteBenchmark
+{
+    /**
+     * Adds a new entry under ou=added
+     */
+    @Benchmark
+    public void add( PartitionState state ) throws Exception
+    {
+        long number = state.nextSequence();
+        String name = "added" + number;
+        Dn dn = state.addedDn.add( "cn=" + name );
+
+        state.add( state.createUser( dn, name, number ) );
+    }
+
+
+    /**
+     * Replaces the description of a random entry
+     */
+    @Benchmark
+    public Entry modify( PartitionState state ) throws Exception
+    {
+        Dn dn = state.sample[state.randomSampleIndex()];
+        DefaultAttribute description = new DefaultAttribute(
+            state.getSchemaManager().getAttributeType( "description" ), "modified " + state.nextSequence() );
+
+        return state.partition.modify( dn,
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, description ) );
+    }
+
+
+    /**
+     * Renames a random entry
+     */
+    @Benchmark
+    public void rename( PartitionState state ) throws Exception
+    {
+        int index = state.randomSampleIndex();
+        Dn dn = state.sample[index];
+        Rdn newRdn = new Rdn( state.getSchemaManager(), "cn=renamed" + state.nextSequence() );
+
+        state.partition.rename( dn, newRdn, true, null );
+        state.sample[index] = dn.getParent().add( newRdn );
+    }
+
+
+    /**
+     * Moves a random entry under another organizational unit
+     */
+    @Benchmark
+    public void move( PartitionState state ) throws Exception
+    {
+        int index = state.randomSampleIndex();
+        Dn dn = state.sample[index];
+        Dn newParentDn = state.randomUnitDn();
+
+        if ( newParentDn.equals( dn.getParent() ) )
+        {
+            newParentDn = state.addedDn;
+        }
+
+        Dn newDn = newParentDn.add( dn.getRdn() );
+
+        state.partition.move( dn, newParentDn, newDn, null );
+        state.sample[index] = newDn;
+    }
+}
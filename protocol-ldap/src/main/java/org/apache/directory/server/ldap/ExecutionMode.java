@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap;
+
+
+/**
+ * The way the LdapServer executes the incoming requests. The requests can either be
+ * executed by a pool of platform threads, which size is the transport's number of
+ * threads, or each on its own virtual thread (it requires a Java 21 JVM, the server
+ * falls back to the thread pool otherwise).
+ * <br>
+ * The ordered modes execute the requests of a given session one after the other, in
+ * the order they have been received, the AbandonRequests excepted. Requests coming
+ * from different sessions are still executed concurrently.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum ExecutionMode
+{
+    /** A pool of platform threads, the requests of a session being executed concurrently */
+    THREAD_POOL(false, false),
+
+    /** A pool of platform threads, the requests of a session being executed in order */
+    ORDERED_THREAD_POOL(false, true),
+
+    /** One virtual thread per request, the requests of a session being executed concurrently */
+    VIRTUAL_THREADS(true, false),
+
+    /** One virtual thread per request, the requests of a session being executed in order */
+    ORDERED_VIRTUAL_THREADS(true, true);
+
+    /** Tells if the requests are executed on virtual threads */
+    private final boolean virtual;
+
+    /** Tells if the requests of a session are executed in order */
+    private final boolean ordered;
+
+
+    private ExecutionMode( boolean virtual, boolean ordered )
+    {
+        this.virtual = virtual;
+        this.ordered = ordered;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the requests are executed on virtual threads
+     */
+    public boolean isVirtual()
+    {
+        return virtual;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the requests of a session are executed in order
+     */
+    public boolean isOrdered()
+    {
+        return ordered;
+    }
+
+
+    /**
+     * Get the ExecutionMode from its name, ignoring the case.
+     *
+     * @param name The execution mode name
+     * @return The associated ExecutionMode, or null if the name is unknown
+     */
+    public static ExecutionMode getExecutionMode( String name )
+    {
+        if ( name == null )
+        {
+            return null;
+        }
+
+        for ( ExecutionMode mode : values() )
+        {
+            if ( mode.name().equalsIgnoreCase( name.trim() ) )
+            {
+                return mode;
+            }
+        }
+
+        return null;
+    }
+}
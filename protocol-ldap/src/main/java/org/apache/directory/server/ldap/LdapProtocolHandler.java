@@ -108,6 +108,12 @@ class LdapProtocolHandler extends DemuxingIoHandler
         // Get the associated LdapSession
         LdapSession ldapSession = ldapServer.getLdapSessionManager().removeLdapSession( session );
 
+        // Release the searches blocked on a full write queue
+        if ( ldapSession != null )
+        {
+            ldapSession.signalWritable();
+        }
+
         // Clean it up !
         cleanUpSession( ldapSession );
     }
@@ -132,6 +138,16 @@ class LdapProtocolHandler extends DemuxingIoHandler
         // Abandon all the requests
         ldapSession.abandonAllOutstandingRequests();
 
+        // Release the paged searches resources
+        try
+        {
+            ldapSession.closeAllPagedSearches();
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to close the paged searches of the {} session", ldapSession, e );
+        }
+
         if ( !ldapSession.getIoSession().isClosing() || ldapSession.getIoSession().isConnected() )
         {
             try
@@ -151,6 +167,15 @@ class LdapProtocolHandler extends DemuxingIoHandler
      */
     public void messageSent( IoSession session, Object message ) throws Exception
     {
+        // Some data has been flushed : wake up the searches waiting for the
+        // write queue to drain, if any
+        LdapSession ldapSession = ldapServer.getLdapSessionManager().getLdapSession( session );
+
+        if ( ldapSession != null )
+        {
+            ldapSession.signalWritable();
+        }
+
         // Do nothing : we have to ignore this message, otherwise we get an exception,
         // thanks to the way MINA 2 works ...
         if ( message instanceof IoBuffer )
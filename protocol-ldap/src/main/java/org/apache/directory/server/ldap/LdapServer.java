@@ -22,6 +22,7 @@ package org.apache.directory.server.ldap;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.KeyStore;
@@ -29,12 +30,19 @@ import java.security.Provider;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.KeyManagerFactory;
 
@@ -71,6 +79,7 @@ import org.apache.directory.server.core.security.CoreKeyStoreSpi;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.LdapResponseHandler;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchContextCache;
 import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
 import org.apache.directory.server.ldap.handlers.request.AbandonRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.AddRequestHandler;
@@ -150,6 +159,27 @@ public class LdapServer extends DirectoryBackedService
     /** The default maximum time limit. */
     private static final int MAX_TIME_LIMIT_DEFAULT = 10000;
 
+    /** The default number of scheduled write bytes above which a search is suspended (4MB) */
+    private static final long SEARCH_WRITE_HIGH_WATER_MARK_DEFAULT = 4L * 1024L * 1024L;
+
+    /** The default number of scheduled write bytes under which a suspended search is resumed (1MB) */
+    private static final long SEARCH_WRITE_LOW_WATER_MARK_DEFAULT = 1024L * 1024L;
+
+    /** The search results are not batched by default */
+    private static final int SEARCH_RESULT_BATCH_SIZE_DEFAULT = 0;
+
+    /** The default time a batch of search results waits for more entries (in ms) */
+    private static final long SEARCH_RESULT_BATCH_LINGER_DEFAULT = 1L;
+
+    /** The default maximum number of waiting requests per request class */
+    private static final int REQUEST_QUEUE_SIZE_DEFAULT = 1000;
+
+    /** The default maximum number of outstanding paged search contexts */
+    private static final int MAX_PAGED_SEARCH_CONTEXTS_DEFAULT = 10000;
+
+    /** The default maximum number of paged search contexts keeping their cursor open */
+    private static final int MAX_OPEN_PAGED_SEARCH_CURSORS_DEFAULT = 1000;
+
     /** The default service pid. */
     private static final String SERVICE_PID_DEFAULT = "org.apache.directory.server.ldap";
 
@@ -177,6 +207,55 @@ public class LdapServer extends DirectoryBackedService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** 
+     * The number of bytes waiting to be written on a session above which the
+     * searches are suspended. A null or negative value disables the flow control
+     */
+    private long searchWriteHighWaterMark = SEARCH_WRITE_HIGH_WATER_MARK_DEFAULT;
+
+    /** The number of bytes waiting to be written on a session under which the suspended searches are resumed */
+    private long searchWriteLowWaterMark = SEARCH_WRITE_LOW_WATER_MARK_DEFAULT;
+
+    /** 
+     * The number of bytes above which the batched search results are written. A
+     * null or negative value disables the batching, which is the default
+     */
+    private int searchResultBatchSize = SEARCH_RESULT_BATCH_SIZE_DEFAULT;
+
+    /** The maximum time a batch of search results waits for more entries, in milliseconds */
+    private long searchResultBatchLinger = SEARCH_RESULT_BATCH_LINGER_DEFAULT;
+
+    /** The filter packing the search results, shared by all the transports */
+    private SearchResultBatchingFilter searchResultBatchingFilter;
+
+    /** The way the incoming requests are executed */
+    private ExecutionMode executionMode = ExecutionMode.THREAD_POOL;
+
+    /** The maximum number of requests executed concurrently, 0 to disable the request scheduling */
+    private int maxConcurrentRequests;
+
+    /** The maximum number of requests executed concurrently for a given bound identity, 0 for no limit */
+    private int maxRequestsPerIdentity;
+
+    /** The maximum number of waiting requests per request class */
+    private int requestQueueSize = REQUEST_QUEUE_SIZE_DEFAULT;
+
+    /** The weight of each request class */
+    private Map<RequestClass, Integer> requestWeights = new EnumMap<RequestClass, Integer>( RequestClass.class );
+
+    /** The maximum number of outstanding paged search contexts, for all the sessions */
+    private int maxPagedSearchContexts = MAX_PAGED_SEARCH_CONTEXTS_DEFAULT;
+
+    /** The maximum number of paged search contexts keeping their cursor open between two pages */
+    private int maxOpenPagedSearchCursors = MAX_OPEN_PAGED_SEARCH_CURSORS_DEFAULT;
+
+    /** The outstanding paged search contexts */
+    private PagedSearchContextCache pagedSearchContextCache = new PagedSearchContextCache(
+        MAX_PAGED_SEARCH_CONTEXTS_DEFAULT, MAX_OPEN_PAGED_SEARCH_CURSORS_DEFAULT );
+
+    /** The executors created for the transports, shut down when the server is stopped */
+    private List<ExecutorService> requestExecutors = new ArrayList<ExecutorService>();
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -281,6 +360,12 @@ public class LdapServer extends DirectoryBackedService
         saslQopString = SaslQoP.AUTH.getValue() + ',' + SaslQoP.AUTH_INT.getValue() + ','
             + SaslQoP.AUTH_CONF.getValue();
 
+        // The binds are cheap and latency sensitive, the searches are the most expensive requests
+        requestWeights.put( RequestClass.BIND, 8 );
+        requestWeights.put( RequestClass.COMPARE, 4 );
+        requestWeights.put( RequestClass.WRITE, 2 );
+        requestWeights.put( RequestClass.SEARCH, 1 );
+
         saslRealms = new ArrayList<String>();
         saslRealms.add( "example.com" );
 
@@ -518,15 +603,29 @@ public class LdapServer extends DirectoryBackedService
                 chain = new DefaultIoFilterChainBuilder();
             }
 
+            // Inject the search results batching filter right before the codec, so that
+            // it gets the encoded PDUs
+            if ( searchResultBatchSize > 0 )
+            {
+                if ( searchResultBatchingFilter == null )
+                {
+                    searchResultBatchingFilter = new SearchResultBatchingFilter( searchResultBatchSize,
+                        searchResultBatchLinger );
+                }
+
+                ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "searchResultBatcher", searchResultBatchingFilter );
+            }
+
             // Inject the codec into the chain
             ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "codec", new ProtocolCodecFilter( this
                 .getProtocolCodecFactory() ) );
 
             // Now inject an ExecutorFilter for the write operations
             // We use the same number of thread than the number of IoProcessor
-            // (NOTE : this has to be double checked)
+            // (NOTE : this has to be double checked), unless the requests are
+            // executed on virtual threads
             ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+                createRequestExecutor( transport ), IoEventType.MESSAGE_RECEIVED ) );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -646,11 +745,116 @@ public class LdapServer extends DirectoryBackedService
             LOG.warn( "Failed to sent NoD.", e );
         }
 
+        if ( searchResultBatchingFilter != null )
+        {
+            searchResultBatchingFilter.dispose();
+            searchResultBatchingFilter = null;
+        }
+
+        for ( ExecutorService requestExecutor : requestExecutors )
+        {
+            requestExecutor.shutdown();
+        }
+
+        requestExecutors.clear();
+
         started = false;
         LOG.info( "Ldap service stopped." );
     }
 
 
+    /**
+     * Creates the Executor running the requests received on a transport, depending
+     * on the configured {@link ExecutionMode}.
+     *
+     * @param transport The transport the requests are received on
+     * @return The Executor to inject in the ExecutorFilter
+     */
+    Executor createRequestExecutor( Transport transport )
+    {
+        ExecutorService executor = null;
+
+        if ( executionMode.isVirtual() )
+        {
+            executor = newVirtualThreadExecutor();
+        }
+
+        if ( executor == null )
+        {
+            if ( executionMode.isOrdered() )
+            {
+                // The MINA thread pools only accept IoEvents, when the events are wrapped
+                // we need an executor accepting any task
+                executor = newThreadPool( transport.getNbThreads() );
+            }
+            else
+            {
+                executor = new UnorderedThreadPoolExecutor( transport.getNbThreads() );
+            }
+        }
+
+        requestExecutors.add( executor );
+
+        Executor requestExecutor = executor;
+
+        if ( executionMode.isOrdered() )
+        {
+            requestExecutor = new SessionOrderedExecutor( requestExecutor );
+        }
+
+        if ( maxConcurrentRequests > 0 )
+        {
+            requestExecutor = new RequestScheduler( this, requestExecutor );
+        }
+
+        return requestExecutor;
+    }
+
+
+    /**
+     * Creates a pool of platform threads executing any kind of task.
+     *
+     * @param nbThreads The number of threads
+     * @return The executor
+     */
+    private ExecutorService newThreadPool( int nbThreads )
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( nbThreads, nbThreads, 30L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>() );
+        executor.allowCoreThreadTimeOut( true );
+
+        return executor;
+    }
+
+
+    /**
+     * Creates an executor starting a new virtual thread for each task. The server is
+     * compiled for older JVMs, so the executor is created by reflection.
+     *
+     * @return The executor, or null if the JVM does not support virtual threads
+     */
+    private ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+
+            return ( ExecutorService ) factory.invoke( null );
+        }
+        catch ( NoSuchMethodException nsme )
+        {
+            LOG.warn( "Virtual threads are not supported by this JVM ({}), using a thread pool instead",
+                System.getProperty( "java.version" ) );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot create the virtual thread executor, using a thread pool instead", e );
+        }
+
+        return null;
+    }
+
+
     private void startNetwork( Transport transport, IoFilterChainBuilder chainBuilder ) throws Exception
     {
         if ( transport.getBackLog() < 0 )
@@ -1716,6 +1920,314 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return The number of scheduled write bytes above which a search stops
+     * fetching entries until the client has read some of the pending responses
+     */
+    public long getSearchWriteHighWaterMark()
+    {
+        return searchWriteHighWaterMark;
+    }
+
+
+    /**
+     * Set the number of bytes waiting to be written on a session above which
+     * the searches are suspended.
+     * @param searchWriteHighWaterMark A positive number of bytes. A negative or
+     * null value disables the search write flow control
+     */
+    public void setSearchWriteHighWaterMark( long searchWriteHighWaterMark )
+    {
+        this.searchWriteHighWaterMark = searchWriteHighWaterMark;
+    }
+
+
+    /**
+     * @return The way the incoming requests are executed
+     */
+    public ExecutionMode getExecutionMode()
+    {
+        return executionMode;
+    }
+
+
+    /**
+     * Set the way the incoming requests are executed. This parameter is taken into
+     * account when the server is started.
+     * @param executionMode The execution mode. A null value is transformed to
+     * {@link ExecutionMode#THREAD_POOL}
+     */
+    public void setExecutionMode( ExecutionMode executionMode )
+    {
+        if ( executionMode == null )
+        {
+            executionMode = ExecutionMode.THREAD_POOL;
+        }
+
+        this.executionMode = executionMode;
+    }
+
+
+    /**
+     * @return The cache keeping track of the outstanding paged search contexts
+     */
+    public PagedSearchContextCache getPagedSearchContextCache()
+    {
+        return pagedSearchContextCache;
+    }
+
+
+    /**
+     * @return The maximum number of outstanding paged search contexts
+     */
+    public int getMaxPagedSearchContexts()
+    {
+        return maxPagedSearchContexts;
+    }
+
+
+    /**
+     * Set the maximum number of outstanding paged search contexts, for all the
+     * sessions. When this limit is reached, the least recently used contexts are
+     * discarded, and the clients will get an error if they ask for the next page.
+     * @param maxPagedSearchContexts A positive number of contexts. A negative or
+     * null value is transformed to {@link Integer#MAX_VALUE}
+     */
+    public void setMaxPagedSearchContexts( int maxPagedSearchContexts )
+    {
+        if ( maxPagedSearchContexts <= 0 )
+        {
+            maxPagedSearchContexts = Integer.MAX_VALUE;
+        }
+
+        this.maxPagedSearchContexts = maxPagedSearchContexts;
+        pagedSearchContextCache.setMaxContexts( maxPagedSearchContexts );
+    }
+
+
+    /**
+     * @return The maximum number of paged search contexts keeping their cursor open
+     */
+    public int getMaxOpenPagedSearchCursors()
+    {
+        return maxOpenPagedSearchCursors;
+    }
+
+
+    /**
+     * Set the maximum number of paged search contexts keeping their cursor open
+     * between two pages. When this limit is reached, the cursors of the least
+     * recently used contexts are closed, and the searches are resumed from their
+     * last position when the next page is requested.
+     * @param maxOpenPagedSearchCursors A number of cursors. A negative value is
+     * transformed to 0, in which case the cursors are closed after each page
+     */
+    public void setMaxOpenPagedSearchCursors( int maxOpenPagedSearchCursors )
+    {
+        if ( maxOpenPagedSearchCursors < 0 )
+        {
+            maxOpenPagedSearchCursors = 0;
+        }
+
+        this.maxOpenPagedSearchCursors = maxOpenPagedSearchCursors;
+        pagedSearchContextCache.setMaxOpenCursors( maxOpenPagedSearchCursors );
+    }
+
+
+    /**
+     * @return The maximum number of requests executed concurrently. 0 means the
+     * requests are not scheduled
+     */
+    public int getMaxConcurrentRequests()
+    {
+        return maxConcurrentRequests;
+    }
+
+
+    /**
+     * Set the maximum number of requests executed concurrently on each transport. When
+     * this limit is reached, the incoming requests are queued per {@link RequestClass},
+     * and executed according to the request class weights. This parameter is taken
+     * into account when the server is started.
+     * @param maxConcurrentRequests A positive number of requests. A negative or null
+     * value disables the request scheduling
+     */
+    public void setMaxConcurrentRequests( int maxConcurrentRequests )
+    {
+        if ( maxConcurrentRequests < 0 )
+        {
+            maxConcurrentRequests = 0;
+        }
+
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+
+    /**
+     * @return The maximum number of requests executed concurrently for a bound identity.
+     * 0 means there is no limit
+     */
+    public int getMaxRequestsPerIdentity()
+    {
+        return maxRequestsPerIdentity;
+    }
+
+
+    /**
+     * Set the maximum number of requests executed concurrently for a bound identity,
+     * across all its sessions. The anonymous sessions are not limited. This parameter
+     * is only used when the request scheduling is enabled.
+     * @param maxRequestsPerIdentity A positive number of requests. A negative or null
+     * value means there is no limit
+     */
+    public void setMaxRequestsPerIdentity( int maxRequestsPerIdentity )
+    {
+        if ( maxRequestsPerIdentity < 0 )
+        {
+            maxRequestsPerIdentity = 0;
+        }
+
+        this.maxRequestsPerIdentity = maxRequestsPerIdentity;
+    }
+
+
+    /**
+     * @return The maximum number of waiting requests per request class
+     */
+    public int getRequestQueueSize()
+    {
+        return requestQueueSize;
+    }
+
+
+    /**
+     * Set the maximum number of waiting requests per request class. The requests
+     * received when the queue is full are rejected with a BUSY result code.
+     * @param requestQueueSize A number of requests. A negative value is transformed to 0,
+     * in which case the requests are rejected as soon as the concurrency limit is reached
+     */
+    public void setRequestQueueSize( int requestQueueSize )
+    {
+        if ( requestQueueSize < 0 )
+        {
+            requestQueueSize = 0;
+        }
+
+        this.requestQueueSize = requestQueueSize;
+    }
+
+
+    /**
+     * @param requestClass The request class
+     * @return The weight of the given request class
+     */
+    public int getRequestWeight( RequestClass requestClass )
+    {
+        return requestWeights.get( requestClass );
+    }
+
+
+    /**
+     * Set the weight of a request class. When some requests are waiting, a request
+     * class with a weight of 4 gets 4 times more requests executed than a request
+     * class with a weight of 1.
+     * @param requestClass The request class
+     * @param weight The request class weight. A value below 1 is transformed to 1
+     */
+    public void setRequestWeight( RequestClass requestClass, int weight )
+    {
+        if ( weight < 1 )
+        {
+            weight = 1;
+        }
+
+        requestWeights.put( requestClass, weight );
+    }
+
+
+    /**
+     * @return The number of bytes above which the batched search results are written.
+     * A null or negative value means the batching is disabled
+     */
+    public int getSearchResultBatchSize()
+    {
+        return searchResultBatchSize;
+    }
+
+
+    /**
+     * Set the number of bytes above which the batched search results are written.
+     * The SearchResultEntry and SearchResultReference PDUs are packed in a single
+     * buffer up to this size before being written on the socket. The batching is
+     * disabled by default, 32KB being a reasonable size when it's enabled. This
+     * parameter is taken into account when the server is started.
+     * @param searchResultBatchSize A positive number of bytes. A negative or null
+     * value disables the batching
+     */
+    public void setSearchResultBatchSize( int searchResultBatchSize )
+    {
+        this.searchResultBatchSize = searchResultBatchSize;
+    }
+
+
+    /**
+     * @return The maximum time a batch of search results waits for more entries, in milliseconds
+     */
+    public long getSearchResultBatchLinger()
+    {
+        return searchResultBatchLinger;
+    }
+
+
+    /**
+     * Set the maximum time a batch of search results waits for more entries before
+     * being written. This parameter is taken into account when the server is started.
+     * @param searchResultBatchLinger A number of milliseconds, a negative value being
+     * transformed to 0
+     */
+    public void setSearchResultBatchLinger( long searchResultBatchLinger )
+    {
+        if ( searchResultBatchLinger < 0 )
+        {
+            searchResultBatchLinger = 0;
+        }
+
+        this.searchResultBatchLinger = searchResultBatchLinger;
+    }
+
+
+    /**
+     * @return The number of scheduled write bytes under which a suspended search
+     * is resumed. It's never above the high-water mark.
+     */
+    public long getSearchWriteLowWaterMark()
+    {
+        if ( searchWriteLowWaterMark > searchWriteHighWaterMark )
+        {
+            return searchWriteHighWaterMark;
+        }
+
+        return searchWriteLowWaterMark;
+    }
+
+
+    /**
+     * Set the number of bytes waiting to be written on a session under which
+     * the suspended searches are resumed.
+     * @param searchWriteLowWaterMark A number of bytes, a negative value being
+     * transformed to 0
+     */
+    public void setSearchWriteLowWaterMark( long searchWriteLowWaterMark )
+    {
+        if ( searchWriteLowWaterMark < 0 )
+        {
+            searchWriteLowWaterMark = 0;
+        }
+
+        this.searchWriteLowWaterMark = searchWriteLowWaterMark;
+    }
+
+
     /**
      * @return the number of seconds pinger thread sleeps between subsequent pings
      */
@@ -25,6 +25,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -93,6 +96,18 @@ public class LdapSession
     /** A map containing all the paged search context */
     private Map<Integer, PagedSearchContext> pagedSearchContexts;
 
+    /** 
+     * The lock the search handlers wait on when the write queue is full. We don't use
+     * a monitor, as it would pin the carrier thread when running on a virtual thread
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /** The condition signaled when some data has been written */
+    private final Condition writable = writeLock.newCondition();
+
+    /** The number of threads waiting for the write queue to drain */
+    private volatile int writeWaiters;
+
 
     /**
      * Creates a new instance of LdapSession associated with the underlying
@@ -483,19 +498,13 @@ public class LdapSession
         if ( oldContext != null )
         {
             // ??? Very unlikely to happen ...
-            Cursor<Entry> cursor = oldContext.getCursor();
+            removeFromCache( oldContext );
+            oldContext.close();
+        }
 
-            if ( cursor != null )
-            {
-                try
-                {
-                    cursor.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_172, e.getLocalizedMessage() ) );
-                }
-            }
+        if ( ldapServer != null )
+        {
+            ldapServer.getPagedSearchContextCache().add( this, context );
         }
     }
 
@@ -508,7 +517,11 @@ public class LdapSession
      */
     public PagedSearchContext removePagedSearchContext( int contextId )
     {
-        return pagedSearchContexts.remove( contextId );
+        PagedSearchContext context = pagedSearchContexts.remove( contextId );
+
+        removeFromCache( context );
+
+        return context;
     }
 
 
@@ -521,17 +534,94 @@ public class LdapSession
     {
         for ( int contextId : pagedSearchContexts.keySet() )
         {
-            PagedSearchContext context = pagedSearchContexts.get( contextId );
+            PagedSearchContext context = pagedSearchContexts.remove( contextId );
+
+            if ( context != null )
+            {
+                removeFromCache( context );
+                context.close();
+            }
+        }
+    }
+
+
+    /**
+     * Removes a context from the server wide cache of paged search contexts
+     */
+    private void removeFromCache( PagedSearchContext context )
+    {
+        if ( ( context != null ) && ( ldapServer != null ) )
+        {
+            ldapServer.getPagedSearchContextCache().remove( context );
+        }
+    }
+
+
+    /**
+     * Waits until the number of bytes scheduled for writing on the underlying
+     * IoSession drops to, or below, the given low-water mark. The wait is
+     * bounded by the given timeout, so that the caller can check if the request
+     * has been abandoned or if the session is closing in the meantime.
+     *
+     * @param lowWaterMark The number of scheduled bytes under which we can resume writing
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return <tt>true</tt> if the write queue has drained enough, <tt>false</tt> if the
+     * timeout expired or if the session is closing
+     * @throws InterruptedException If the waiting thread has been interrupted
+     */
+    public boolean awaitWritable( long lowWaterMark, long timeout ) throws InterruptedException
+    {
+        long remaining = TimeUnit.MILLISECONDS.toNanos( timeout );
+
+        writeLock.lock();
+
+        try
+        {
+            writeWaiters++;
+
+            while ( ioSession.getScheduledWriteBytes() > lowWaterMark )
+            {
+                if ( ( remaining <= 0L ) || ioSession.isClosing() )
+                {
+                    return false;
+                }
+
+                remaining = writable.awaitNanos( remaining );
+            }
+
+            return true;
+        }
+        finally
+        {
+            writeWaiters--;
+            writeLock.unlock();
+        }
+    }
+
 
-            Cursor<Entry> cursor = context.getCursor();
+    /**
+     * Wakes up the threads waiting in {@link #awaitWritable(long, long)}. This
+     * method is called each time a message has been sent, and when the session
+     * is closed. It's cheap when nobody is waiting.
+     */
+    public void signalWritable()
+    {
+        if ( writeWaiters > 0 )
+        {
+            writeLock.lock();
 
-            if ( cursor != null )
+            try
             {
-                cursor.close();
+                writable.signalAll();
+            }
+            finally
+            {
+                writeLock.unlock();
             }
         }
     }
 
+
     /**
      * Get paged search context associated with an ID
      * @param contextId The id for teh context we want to get
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap;
+
+
+import org.apache.directory.api.ldap.model.message.AddRequest;
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.CompareRequest;
+import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+
+
+/**
+ * The classes of requests the {@link RequestScheduler} queues separately. Each class
+ * has its own queue and weight. The other requests (Abandon, Unbind and Extended
+ * requests) are never delayed nor rejected by the scheduler.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum RequestClass
+{
+    /** The BindRequests */
+    BIND,
+
+    /** The CompareRequests */
+    COMPARE,
+
+    /** The SearchRequests */
+    SEARCH,
+
+    /** The Add, Modify, Delete and ModifyDN requests */
+    WRITE;
+
+    /**
+     * Get the class of a received message.
+     *
+     * @param message The received message
+     * @return The message class, or null if the message is not scheduled
+     */
+    public static RequestClass getRequestClass( Object message )
+    {
+        if ( message instanceof SearchRequest )
+        {
+            return SEARCH;
+        }
+        else if ( message instanceof BindRequest )
+        {
+            return BIND;
+        }
+        else if ( message instanceof CompareRequest )
+        {
+            return COMPARE;
+        }
+        else if ( ( message instanceof AddRequest ) || ( message instanceof ModifyRequest )
+            || ( message instanceof DeleteRequest ) || ( message instanceof ModifyDnRequest ) )
+        {
+            return WRITE;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An Executor sitting in front of the request handlers, which limits the number of
+ * requests executed concurrently, and decides which waiting request is executed next.
+ * <br>
+ * The requests are dispatched in one queue per {@link RequestClass}. When a running
+ * request completes, the next one is selected using a smooth weighted round robin
+ * between the non empty queues, so that a flow of expensive searches can't starve
+ * the binds. A request is also kept in its queue while its bound identity already
+ * has the maximum allowed number of running requests (anonymous sessions are not
+ * limited). When a queue is full, the request is rejected with a BUSY result code.
+ * <br>
+ * The other messages are passed directly to the underlying executor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RequestScheduler implements Executor
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( RequestScheduler.class );
+
+    /** The diagnostic message sent back when a request is rejected */
+    private static final String BUSY_MESSAGE = "The server is too busy to process this request, try again later";
+
+    /** The LdapServer, used to get the session's identity */
+    private final LdapServer ldapServer;
+
+    /** The executor running the requests */
+    private final Executor executor;
+
+    /** The maximum number of requests running concurrently */
+    private final int maxConcurrentRequests;
+
+    /** The maximum number of requests running concurrently for a given identity, 0 for no limit */
+    private final int maxRequestsPerIdentity;
+
+    /** The maximum number of waiting requests per request class */
+    private final int queueSize;
+
+    /** The queues, one per request class */
+    private final Map<RequestClass, RequestQueue> queues = new EnumMap<RequestClass, RequestQueue>(
+        RequestClass.class );
+
+    /** The number of running requests for each identity */
+    private final Map<String, Integer> identityRequests = new HashMap<String, Integer>();
+
+    /** The number of running requests */
+    private int running;
+
+
+    /**
+     * Creates a new instance of RequestScheduler, using the LdapServer configuration.
+     *
+     * @param ldapServer The LdapServer
+     * @param executor The executor running the requests
+     */
+    public RequestScheduler( LdapServer ldapServer, Executor executor )
+    {
+        this.ldapServer = ldapServer;
+        this.executor = executor;
+        maxConcurrentRequests = ldapServer.getMaxConcurrentRequests();
+        maxRequestsPerIdentity = ldapServer.getMaxRequestsPerIdentity();
+        queueSize = ldapServer.getRequestQueueSize();
+
+        for ( RequestClass requestClass : RequestClass.values() )
+        {
+            queues.put( requestClass, new RequestQueue( ldapServer.getRequestWeight( requestClass ) ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute( Runnable task )
+    {
+        if ( !( task instanceof IoEvent ) )
+        {
+            executor.execute( task );
+
+            return;
+        }
+
+        IoEvent event = ( IoEvent ) task;
+        RequestClass requestClass = RequestClass.getRequestClass( event.getParameter() );
+
+        if ( requestClass == null )
+        {
+            executor.execute( task );
+
+            return;
+        }
+
+        ScheduledRequest request = new ScheduledRequest( event, requestClass, getIdentity( event.getSession() ) );
+        boolean start = false;
+
+        synchronized ( this )
+        {
+            RequestQueue queue = queues.get( requestClass );
+
+            if ( ( running < maxConcurrentRequests ) && isAllowed( request.identity ) )
+            {
+                acquire( request );
+                start = true;
+            }
+            else if ( queue.requests.size() < queueSize )
+            {
+                queue.requests.add( request );
+
+                return;
+            }
+        }
+
+        if ( start )
+        {
+            start( request );
+        }
+        else
+        {
+            reject( event.getSession(), event.getParameter() );
+        }
+    }
+
+
+    /**
+     * @return The executor running the requests
+     */
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+
+    /**
+     * @return The number of requests currently running
+     */
+    public synchronized int getRunningRequests()
+    {
+        return running;
+    }
+
+
+    /**
+     * @return The number of requests waiting in the given request class queue
+     */
+    public synchronized int getWaitingRequests( RequestClass requestClass )
+    {
+        return queues.get( requestClass ).requests.size();
+    }
+
+
+    /**
+     * Get the bound identity of a session, or null if the session is anonymous
+     */
+    private String getIdentity( IoSession session )
+    {
+        LdapSession ldapSession = ldapServer.getLdapSessionManager().getLdapSession( session );
+
+        if ( ldapSession == null )
+        {
+            return null;
+        }
+
+        CoreSession coreSession = ldapSession.getCoreSession();
+
+        if ( ( coreSession == null ) || coreSession.isAnonymous() )
+        {
+            return null;
+        }
+
+        return coreSession.getAuthenticatedPrincipal().getDn().getNormName();
+    }
+
+
+    /**
+     * Tells if a request for the given identity can be started. Must be called
+     * while holding the scheduler lock.
+     */
+    private boolean isAllowed( String identity )
+    {
+        if ( ( identity == null ) || ( maxRequestsPerIdentity <= 0 ) )
+        {
+            return true;
+        }
+
+        Integer count = identityRequests.get( identity );
+
+        return ( count == null ) || ( count < maxRequestsPerIdentity );
+    }
+
+
+    /**
+     * Accounts for a starting request. Must be called while holding the scheduler lock.
+     */
+    private void acquire( ScheduledRequest request )
+    {
+        running++;
+
+        if ( request.identity != null )
+        {
+            Integer count = identityRequests.get( request.identity );
+            identityRequests.put( request.identity, ( count == null ) ? 1 : count + 1 );
+        }
+    }
+
+
+    /**
+     * Accounts for a completed request, and starts the next waiting requests.
+     */
+    private void release( ScheduledRequest request )
+    {
+        LinkedList<ScheduledRequest> nexts = new LinkedList<ScheduledRequest>();
+
+        synchronized ( this )
+        {
+            running--;
+
+            if ( request.identity != null )
+            {
+                Integer count = identityRequests.get( request.identity );
+
+                if ( ( count == null ) || ( count <= 1 ) )
+                {
+                    identityRequests.remove( request.identity );
+                }
+                else
+                {
+                    identityRequests.put( request.identity, count - 1 );
+                }
+            }
+
+            while ( running < maxConcurrentRequests )
+            {
+                ScheduledRequest next = selectNext();
+
+                if ( next == null )
+                {
+                    break;
+                }
+
+                acquire( next );
+                nexts.add( next );
+            }
+        }
+
+        for ( ScheduledRequest next : nexts )
+        {
+            start( next );
+        }
+    }
+
+
+    /**
+     * Selects and removes the next request to run, using a smooth weighted round
+     * robin between the queues containing a request which can be started. Must be
+     * called while holding the scheduler lock.
+     */
+    private ScheduledRequest selectNext()
+    {
+        RequestQueue selectedQueue = null;
+        ScheduledRequest selected = null;
+        int totalWeight = 0;
+
+        for ( RequestQueue queue : queues.values() )
+        {
+            ScheduledRequest candidate = queue.peekAllowed();
+
+            if ( candidate == null )
+            {
+                continue;
+            }
+
+            queue.current += queue.weight;
+            totalWeight += queue.weight;
+
+            if ( ( selectedQueue == null ) || ( queue.current > selectedQueue.current ) )
+            {
+                selectedQueue = queue;
+                selected = candidate;
+            }
+        }
+
+        if ( selectedQueue != null )
+        {
+            selectedQueue.current -= totalWeight;
+            selectedQueue.requests.remove( selected );
+        }
+
+        return selected;
+    }
+
+
+    /**
+     * Hands a request to the executor
+     */
+    private void start( ScheduledRequest request )
+    {
+        try
+        {
+            executor.execute( request );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            LOG.debug( "The executor has rejected the request, the server is probably stopping" );
+            release( request );
+        }
+        catch ( RuntimeException re )
+        {
+            // The request won't run, it must not hold its slot forever
+            LOG.error( "The executor has failed to start the request {}", request, re );
+            release( request );
+        }
+    }
+
+
+    /**
+     * Sends back a BUSY response for a request which can't be queued
+     */
+    private void reject( IoSession session, Object message )
+    {
+        LOG.debug( "Rejecting the request {}, the queue is full", message );
+
+        if ( message instanceof ResultResponseRequest )
+        {
+            ResultResponse response = ( ( ResultResponseRequest ) message ).getResultResponse();
+            LdapResult result = response.getLdapResult();
+            result.setResultCode( ResultCodeEnum.BUSY );
+            result.setDiagnosticMessage( BUSY_MESSAGE );
+            session.write( response );
+        }
+    }
+
+
+    /**
+     * The waiting requests of a request class
+     */
+    private final class RequestQueue
+    {
+        /** The waiting requests */
+        private final LinkedList<ScheduledRequest> requests = new LinkedList<ScheduledRequest>();
+
+        /** The queue weight */
+        private final int weight;
+
+        /** The current weight, used by the round robin */
+        private int current;
+
+
+        private RequestQueue( int weight )
+        {
+            this.weight = weight;
+        }
+
+
+        /**
+         * @return The first request which identity is allowed to run a new request
+         */
+        private ScheduledRequest peekAllowed()
+        {
+            for ( ScheduledRequest request : requests )
+            {
+                if ( isAllowed( request.identity ) )
+                {
+                    return request;
+                }
+            }
+
+            return null;
+        }
+    }
+
+
+    /**
+     * A request waiting to be executed, or running. It is still an IoEvent, so that the
+     * underlying executor can be a MINA executor or a {@link SessionOrderedExecutor}.
+     */
+    private final class ScheduledRequest extends IoEvent
+    {
+        /** The ExecutorFilter event */
+        private final IoEvent event;
+
+        /** The request class */
+        private final RequestClass requestClass;
+
+        /** The identity the session is bound with, null if anonymous */
+        private final String identity;
+
+
+        private ScheduledRequest( IoEvent event, RequestClass requestClass, String identity )
+        {
+            super( event.getType(), event.getSession(), event.getParameter() );
+            this.event = event;
+            this.requestClass = requestClass;
+            this.identity = identity;
+        }
+
+
+        @Override
+        public void fire()
+        {
+            try
+            {
+                event.fire();
+            }
+            finally
+            {
+                release( this );
+            }
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return requestClass + " request for " + ( ( identity == null ) ? "anonymous" : identity );
+        }
+    }
+}
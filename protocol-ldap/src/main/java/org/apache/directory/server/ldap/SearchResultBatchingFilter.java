@@ -0,0 +1,437 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultReference;
+import org.apache.directory.server.ldap.handlers.sasl.SaslConstants;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.core.write.WriteToClosedSessionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An {@link IoFilterAdapter} sitting between the network and the codec, which packs
+ * the encoded SearchResultEntry and SearchResultReference PDUs into a single buffer,
+ * so that a search returning a lot of small entries does not cost one socket write
+ * per entry. The pending bytes are written :
+ * <ul>
+ *   <li>when they reach the configured batch size</li>
+ *   <li>when any other response (SearchResultDone included) is written</li>
+ *   <li>after a short linger time, if nothing else has been written in the meantime</li>
+ * </ul>
+ * The codec writes an empty buffer after each encoded message, which carries the
+ * original message and is used to generate the messageSent event. Those empty buffers
+ * are kept aside while a batch is pending, and written after it in the same order, so
+ * the handlers still get one messageSent event per message.
+ * <br>
+ * When a SASL security layer is active, the messages are passed through untouched.
+ * When the session is closed, the pending writes fail.
+ * <br>
+ * This filter is not installed by default, see {@link LdapServer#setSearchResultBatchSize(int)}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultBatchingFilter extends IoFilterAdapter
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SearchResultBatchingFilter.class );
+
+    /** The session attribute containing the pending batch */
+    private static final AttributeKey BATCH_KEY = new AttributeKey( SearchResultBatchingFilter.class, "batch" );
+
+    /** The number of bytes above which the pending batch is written */
+    private final int batchSize;
+
+    /** The maximum time a pending batch waits for more entries, in milliseconds */
+    private final long linger;
+
+    /** The timer used to flush the lingering batches */
+    private final ScheduledExecutorService scheduler;
+
+
+    /**
+     * Creates a new instance of SearchResultBatchingFilter.
+     *
+     * @param batchSize The number of bytes above which the pending batch is written
+     * @param linger The maximum time a pending batch waits for more entries, in milliseconds
+     */
+    public SearchResultBatchingFilter( int batchSize, long linger )
+    {
+        this.batchSize = batchSize;
+        this.linger = linger;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "SearchResultBatchingFilter" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+    }
+
+
+    /**
+     * Stops the linger timer. The filter must not be used after this call.
+     */
+    public void dispose()
+    {
+        scheduler.shutdownNow();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void filterWrite( NextFilter nextFilter, IoSession session, WriteRequest writeRequest ) throws Exception
+    {
+        Object message = writeRequest.getMessage();
+        Batch batch = getBatch( session );
+
+        synchronized ( batch )
+        {
+            batch.nextFilter = nextFilter;
+
+            if ( !( message instanceof IoBuffer ) || session.getFilterChain().contains( SaslConstants.SASL_FILTER ) )
+            {
+                // Don't mess with file regions and SASL wrapped buffers
+                flush( session, batch );
+                nextFilter.filterWrite( session, writeRequest );
+
+                return;
+            }
+
+            IoBuffer buffer = ( IoBuffer ) message;
+
+            if ( buffer.hasRemaining() )
+            {
+                if ( batch.isEmpty() && ( buffer.remaining() >= batchSize ) )
+                {
+                    // No need to copy a PDU which is big enough to be written alone
+                    nextFilter.filterWrite( session, writeRequest );
+
+                    return;
+                }
+
+                batch.append( buffer, writeRequest );
+            }
+            else if ( batch.isEmpty() )
+            {
+                // The end of a message which has already been written
+                nextFilter.filterWrite( session, writeRequest );
+
+                return;
+            }
+            else
+            {
+                batch.trailers.add( writeRequest );
+
+                if ( !isSearchResult( writeRequest.getOriginalRequest().getMessage() ) )
+                {
+                    // A SearchResultDone or any other response : don't wait
+                    flush( session, batch );
+
+                    return;
+                }
+            }
+
+            if ( batch.size() >= batchSize )
+            {
+                flush( session, batch );
+            }
+            else if ( batch.lingerTask == null )
+            {
+                batch.lingerTask = scheduler.schedule( new LingerTask( session, batch ), linger,
+                    TimeUnit.MILLISECONDS );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageSent( NextFilter nextFilter, IoSession session, WriteRequest writeRequest ) throws Exception
+    {
+        // The batches we have created are not known by the upper layers
+        if ( writeRequest instanceof BatchWriteRequest )
+        {
+            return;
+        }
+
+        nextFilter.messageSent( session, writeRequest );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sessionClosed( NextFilter nextFilter, IoSession session ) throws Exception
+    {
+        Batch batch = ( Batch ) session.removeAttribute( BATCH_KEY );
+
+        if ( batch != null )
+        {
+            synchronized ( batch )
+            {
+                discard( batch );
+            }
+        }
+
+        nextFilter.sessionClosed( session );
+    }
+
+
+    /**
+     * Tells if the given message can wait for the next ones before being written
+     */
+    private boolean isSearchResult( Object message )
+    {
+        return ( message instanceof SearchResultEntry ) || ( message instanceof SearchResultReference );
+    }
+
+
+    /**
+     * Gets the batch associated with a session, creating it if needed
+     */
+    private Batch getBatch( IoSession session )
+    {
+        Batch batch = ( Batch ) session.getAttribute( BATCH_KEY );
+
+        if ( batch == null )
+        {
+            batch = new Batch();
+            Batch existing = ( Batch ) session.setAttributeIfAbsent( BATCH_KEY, batch );
+
+            if ( existing != null )
+            {
+                batch = existing;
+            }
+        }
+
+        return batch;
+    }
+
+
+    /**
+     * Fails the pending writes of a closed session, and stops its linger task. Must be
+     * called while holding the batch lock.
+     */
+    private void discard( Batch batch )
+    {
+        if ( batch.lingerTask != null )
+        {
+            batch.lingerTask.cancel( false );
+            batch.lingerTask = null;
+        }
+
+        List<WriteRequest> pending = new ArrayList<WriteRequest>( batch.requests );
+        pending.addAll( batch.trailers );
+        batch.clear();
+
+        if ( !pending.isEmpty() )
+        {
+            WriteToClosedSessionException exception = new WriteToClosedSessionException( pending );
+
+            for ( WriteRequest writeRequest : pending )
+            {
+                writeRequest.getFuture().setException( exception );
+            }
+        }
+    }
+
+
+    /**
+     * Writes the pending bytes as a single buffer, followed by the end of message
+     * markers. Must be called while holding the batch lock.
+     */
+    private void flush( IoSession session, Batch batch )
+    {
+        if ( batch.lingerTask != null )
+        {
+            batch.lingerTask.cancel( false );
+            batch.lingerTask = null;
+        }
+
+        if ( batch.isEmpty() )
+        {
+            return;
+        }
+
+        IoBuffer buffer = batch.buffer.flip();
+        final List<WriteRequest> requests = batch.requests;
+        WriteFuture future = new DefaultWriteFuture( session );
+
+        future.addListener( new IoFutureListener<WriteFuture>()
+        {
+            public void operationComplete( WriteFuture batchFuture )
+            {
+                for ( WriteRequest writeRequest : requests )
+                {
+                    if ( batchFuture.isWritten() )
+                    {
+                        writeRequest.getFuture().setWritten();
+                    }
+                    else
+                    {
+                        writeRequest.getFuture().setException( batchFuture.getException() );
+                    }
+                }
+            }
+        } );
+
+        List<WriteRequest> trailers = batch.trailers;
+        NextFilter nextFilter = batch.nextFilter;
+        batch.clear();
+
+        nextFilter.filterWrite( session, new BatchWriteRequest( buffer, future ) );
+
+        for ( WriteRequest trailer : trailers )
+        {
+            nextFilter.filterWrite( session, trailer );
+        }
+    }
+
+
+    /**
+     * The pending encoded PDUs of a session
+     */
+    private static final class Batch
+    {
+        /** The buffer containing the pending PDUs */
+        private IoBuffer buffer;
+
+        /** The buffered write requests */
+        private List<WriteRequest> requests = new ArrayList<WriteRequest>();
+
+        /** The end of message markers to write after the buffer */
+        private List<WriteRequest> trailers = new ArrayList<WriteRequest>();
+
+        /** The next filter in the session's chain */
+        private NextFilter nextFilter;
+
+        /** The task that will flush the batch if nothing else does */
+        private ScheduledFuture<?> lingerTask;
+
+
+        private boolean isEmpty()
+        {
+            return buffer == null;
+        }
+
+
+        private int size()
+        {
+            return ( buffer == null ) ? 0 : buffer.position();
+        }
+
+
+        private void append( IoBuffer pdu, WriteRequest writeRequest )
+        {
+            if ( buffer == null )
+            {
+                buffer = IoBuffer.allocate( pdu.remaining() * 2 );
+                buffer.setAutoExpand( true );
+            }
+
+            buffer.put( pdu );
+            requests.add( writeRequest );
+        }
+
+
+        private void clear()
+        {
+            buffer = null;
+            requests = new ArrayList<WriteRequest>();
+            trailers = new ArrayList<WriteRequest>();
+        }
+    }
+
+
+    /**
+     * The write request used to write a batch
+     */
+    private static final class BatchWriteRequest extends DefaultWriteRequest
+    {
+        private BatchWriteRequest( IoBuffer buffer, WriteFuture future )
+        {
+            super( buffer, future );
+        }
+    }
+
+
+    /**
+     * Flushes a batch when the linger time has expired
+     */
+    private final class LingerTask implements Runnable
+    {
+        private final IoSession session;
+        private final Batch batch;
+
+
+        private LingerTask( IoSession session, Batch batch )
+        {
+            this.session = session;
+            this.batch = batch;
+        }
+
+
+        public void run()
+        {
+            synchronized ( batch )
+            {
+                // The batch may have been flushed while we were waiting for the lock
+                batch.lingerTask = null;
+
+                try
+                {
+                    flush( session, batch );
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Failed to flush the pending search results for session {}", session, e );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequest;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An Executor which executes the events of a given session one after the other, in the
+ * order they have been submitted, using a delegate Executor. Events of different sessions
+ * are executed concurrently. Unlike the MINA OrderedThreadPoolExecutor, this executor
+ * does not own any thread, so it can be used on top of a virtual thread executor.
+ * <br>
+ * The AbandonRequests are not queued : they have to be executed while the request they
+ * abandon is still running.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SessionOrderedExecutor implements Executor
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SessionOrderedExecutor.class );
+
+    /** The session attribute containing the session's pending events */
+    private static final AttributeKey TASKS_KEY = new AttributeKey( SessionOrderedExecutor.class, "tasks" );
+
+    /** The executor running the events */
+    private final Executor executor;
+
+
+    /**
+     * Creates a new instance of SessionOrderedExecutor.
+     *
+     * @param executor The executor running the events
+     */
+    public SessionOrderedExecutor( Executor executor )
+    {
+        this.executor = executor;
+    }
+
+
+    /**
+     * @return The executor running the events
+     */
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute( Runnable task )
+    {
+        if ( !( task instanceof IoEvent ) || ( ( ( IoEvent ) task ).getParameter() instanceof AbandonRequest ) )
+        {
+            executor.execute( task );
+
+            return;
+        }
+
+        SessionTasks sessionTasks = getSessionTasks( ( ( IoEvent ) task ).getSession() );
+        boolean start;
+
+        synchronized ( sessionTasks )
+        {
+            sessionTasks.tasks.offer( task );
+            start = !sessionTasks.running;
+            sessionTasks.running = true;
+        }
+
+        if ( start )
+        {
+            executor.execute( sessionTasks );
+        }
+    }
+
+
+    /**
+     * Gets the pending events of a session, creating the queue if needed
+     */
+    private SessionTasks getSessionTasks( IoSession session )
+    {
+        SessionTasks sessionTasks = ( SessionTasks ) session.getAttribute( TASKS_KEY );
+
+        if ( sessionTasks == null )
+        {
+            sessionTasks = new SessionTasks();
+            SessionTasks existing = ( SessionTasks ) session.setAttributeIfAbsent( TASKS_KEY, sessionTasks );
+
+            if ( existing != null )
+            {
+                sessionTasks = existing;
+            }
+        }
+
+        return sessionTasks;
+    }
+
+
+    /**
+     * The pending events of a session. It runs one event, and submits itself again
+     * if there are more, so that a busy session does not hold a pool thread forever.
+     */
+    private final class SessionTasks implements Runnable
+    {
+        /** The events waiting to be executed */
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+        /** Tells if an event of this session is being executed */
+        private boolean running;
+
+
+        public void run()
+        {
+            Runnable task;
+
+            synchronized ( this )
+            {
+                task = tasks.poll();
+            }
+
+            try
+            {
+                if ( task != null )
+                {
+                    task.run();
+                }
+            }
+            catch ( RuntimeException re )
+            {
+                LOG.error( "Failed to execute a session event", re );
+            }
+            finally
+            {
+                boolean more;
+
+                synchronized ( this )
+                {
+                    more = !tasks.isEmpty();
+                    running = more;
+                }
+
+                if ( more )
+                {
+                    executor.execute( this );
+                }
+            }
+        }
+    }
+}
@@ -24,6 +24,8 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.AbandonListener;
 import org.apache.directory.api.ldap.model.message.AbandonableRequest;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
@@ -35,7 +37,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.entry.ServerEntryUtils;
-import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ChangeOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
@@ -56,13 +58,13 @@ import org.slf4j.LoggerFactory;
  * persistent search implementation which uses the event notification scheme built into
  * the server core.  
  * 
- * This listener is disabled only when a session closes or when an abandon request 
- * cancels it.  Hence time and size limits in normal search operations do not apply
+ * This listener is disabled when a session closes, when an abandon request 
+ * cancels it, or when the client does not read the notifications fast enough.  Hence time and size limits in normal search operations do not apply
  * here.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class PersistentSearchListener implements DirectoryListener, AbandonListener
+public class PersistentSearchListener implements DisconnectableListener, AbandonListener
 {
     private static final Logger LOG = LoggerFactory.getLogger( PersistentSearchListener.class );
     final LdapSession session;
@@ -111,6 +113,23 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
     }
 
 
+    /**
+     * The client did not keep up with the notifications, and the listener has been removed :
+     * we end the persistent search with an adminLimitExceeded result, so that the client
+     * knows it has lost some changes.
+     */
+    @Override
+    public void disconnected()
+    {
+        LdapResult result = req.getResultResponse().getLdapResult();
+        result.setResultCode( ResultCodeEnum.ADMIN_LIMIT_EXCEEDED );
+        result.setDiagnosticMessage( "The persistent search has been ended as the client did not read the "
+            + "notifications fast enough" );
+        session.getIoSession().write( req.getResultResponse() );
+        session.unregisterOutstandingRequest( req );
+    }
+
+
     public void requestAbandoned( AbandonableRequest req )
     {
         try
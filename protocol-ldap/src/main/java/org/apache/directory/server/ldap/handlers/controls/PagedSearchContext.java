@@ -35,6 +35,8 @@ import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.ldap.LdapSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -46,6 +48,9 @@ import org.apache.directory.server.ldap.LdapSession;
  */
 public class PagedSearchContext
 {
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PagedSearchContext.class );
+
     /** The previous search request */
     private SearchRequest previousSearchRequest;
 
@@ -58,9 +63,18 @@ public class PagedSearchContext
     /** The integer value for the cookie */
     private AtomicInteger cookieValue;
 
-    /** The associated cursor for the current search request */
+    /** The associated cursor for the current search request, null if it has been released */
     private Cursor<Entry> cursor;
 
+    /** The Dn of the last returned entry, used to check the position when the search is resumed */
+    private Dn lastEntryDn;
+
+    /** Tells if a page is currently being read */
+    private boolean inUse;
+
+    /** Tells if the context has been evicted from the cache */
+    private boolean evicted;
+
 
     /**
      * Creates a new instance of this class, storing the SearchRequest into it.
@@ -298,9 +312,9 @@ public class PagedSearchContext
 
 
     /**
-     * @return The associated cursor
+     * @return The associated cursor, or null if it has been released
      */
-    public Cursor<Entry> getCursor()
+    public synchronized Cursor<Entry> getCursor()
     {
         return cursor;
     }
@@ -310,12 +324,130 @@ public class PagedSearchContext
      * Set the new cursor for this search request
      * @param cursor The associated cursor
      */
-    public void setCursor( Cursor<Entry> cursor )
+    public synchronized void setCursor( Cursor<Entry> cursor )
     {
         this.cursor = cursor;
     }
 
 
+    /**
+     * @return The Dn of the last returned entry, if any
+     */
+    public synchronized Dn getLastEntryDn()
+    {
+        return lastEntryDn;
+    }
+
+
+    /**
+     * Stores the Dn of the last returned entry.
+     *
+     * @param lastEntryDn The Dn of the last returned entry
+     */
+    public synchronized void setLastEntryDn( Dn lastEntryDn )
+    {
+        this.lastEntryDn = lastEntryDn;
+    }
+
+
+    /**
+     * Marks the context as being used to read a page. A context in use
+     * can't be released nor evicted.
+     *
+     * @return <tt>false</tt> if the context has been evicted, and can't be used anymore
+     */
+    public synchronized boolean acquire()
+    {
+        if ( evicted )
+        {
+            return false;
+        }
+
+        inUse = true;
+
+        return true;
+    }
+
+
+    /**
+     * Marks the context as not being used anymore.
+     */
+    public synchronized void release()
+    {
+        inUse = false;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if a page is currently being read
+     */
+    public synchronized boolean isInUse()
+    {
+        return inUse;
+    }
+
+
+    /**
+     * Closes the cursor, keeping the current position so that the search
+     * can be resumed later. Nothing is done if the context is in use.
+     *
+     * @return <tt>true</tt> if the cursor has been released
+     */
+    public synchronized boolean releaseCursor()
+    {
+        if ( inUse || ( cursor == null ) )
+        {
+            return false;
+        }
+
+        close();
+
+        return true;
+    }
+
+
+    /**
+     * Evicts the context, closing its cursor, unless it is in use. The check and the
+     * close are done atomically, so a page being read is never interrupted. Once
+     * evicted, the context can't be acquired anymore.
+     *
+     * @return <tt>true</tt> if the context has been evicted
+     */
+    public synchronized boolean tryEvict()
+    {
+        if ( inUse )
+        {
+            return false;
+        }
+
+        evicted = true;
+        close();
+
+        return true;
+    }
+
+
+    /**
+     * Closes the cursor, if any.
+     */
+    public synchronized void close()
+    {
+        if ( cursor != null )
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to close the cursor of {}", this, e );
+            }
+
+            cursor = null;
+        }
+    }
+
+
     /**
      * @see Object#toString()
      */
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.server.ldap.LdapSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps track of the outstanding {@link PagedSearchContext}s of all the sessions,
+ * in least recently used order, and bounds the resources they hold :
+ * <ul>
+ *   <li>when there are more contexts with an open cursor than allowed, the cursors of
+ *   the least recently used contexts are closed. Those contexts keep their position,
+ *   and the search is resumed when the next page is requested</li>
+ *   <li>when there are more contexts than allowed, the least recently used contexts
+ *   are removed from their session. The client will get an invalid cookie error</li>
+ * </ul>
+ * The contexts which are currently reading a page are never touched.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchContextCache
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PagedSearchContextCache.class );
+
+    /** The contexts, in access order, with their session */
+    private final Map<PagedSearchContext, LdapSession> contexts = new LinkedHashMap<PagedSearchContext, LdapSession>(
+        16, 0.75f, true );
+
+    /** The maximum number of outstanding contexts */
+    private int maxContexts;
+
+    /** The maximum number of contexts keeping their cursor open between two pages */
+    private int maxOpenCursors;
+
+
+    /**
+     * Creates a new instance of PagedSearchContextCache.
+     *
+     * @param maxContexts The maximum number of outstanding contexts
+     * @param maxOpenCursors The maximum number of contexts keeping their cursor open
+     */
+    public PagedSearchContextCache( int maxContexts, int maxOpenCursors )
+    {
+        this.maxContexts = maxContexts;
+        this.maxOpenCursors = maxOpenCursors;
+    }
+
+
+    /**
+     * Adds a new context.
+     *
+     * @param session The session the context belongs to
+     * @param context The added context
+     */
+    public void add( LdapSession session, PagedSearchContext context )
+    {
+        List<Evicted> evicted;
+
+        synchronized ( this )
+        {
+            contexts.put( context, session );
+            evicted = evict();
+        }
+
+        removeEvicted( evicted );
+    }
+
+
+    /**
+     * Marks a context as the most recently used one, and enforces the limits. This
+     * method has to be called after a page has been read, as a cursor may have been
+     * opened to resume the search.
+     *
+     * @param context The used context
+     */
+    public void update( PagedSearchContext context )
+    {
+        List<Evicted> evicted;
+
+        synchronized ( this )
+        {
+            if ( contexts.get( context ) == null )
+            {
+                return;
+            }
+
+            evicted = evict();
+        }
+
+        removeEvicted( evicted );
+    }
+
+
+    /**
+     * Removes a context. The context is not closed.
+     *
+     * @param context The removed context
+     */
+    public synchronized void remove( PagedSearchContext context )
+    {
+        contexts.remove( context );
+    }
+
+
+    /**
+     * @return The number of outstanding contexts
+     */
+    public synchronized int size()
+    {
+        return contexts.size();
+    }
+
+
+    /**
+     * @return The number of contexts with an open cursor
+     */
+    public synchronized int getOpenCursors()
+    {
+        int openCursors = 0;
+
+        for ( PagedSearchContext context : contexts.keySet() )
+        {
+            if ( context.getCursor() != null )
+            {
+                openCursors++;
+            }
+        }
+
+        return openCursors;
+    }
+
+
+    /**
+     * @param maxContexts The maximum number of outstanding contexts
+     */
+    public synchronized void setMaxContexts( int maxContexts )
+    {
+        this.maxContexts = maxContexts;
+    }
+
+
+    /**
+     * @param maxOpenCursors The maximum number of contexts keeping their cursor open
+     */
+    public synchronized void setMaxOpenCursors( int maxOpenCursors )
+    {
+        this.maxOpenCursors = maxOpenCursors;
+    }
+
+
+    /**
+     * Releases the cursors and removes the contexts above the limits, starting
+     * with the least recently used ones. Must be called while holding the lock.
+     *
+     * @return The removed contexts, which have to be removed from their session
+     */
+    private List<Evicted> evict()
+    {
+        List<Evicted> evicted = new ArrayList<Evicted>();
+        int excess = contexts.size() - maxContexts;
+        int openCursors = getOpenCursors();
+        Iterator<Map.Entry<PagedSearchContext, LdapSession>> iterator = contexts.entrySet().iterator();
+
+        while ( iterator.hasNext() && ( ( excess > 0 ) || ( openCursors > maxOpenCursors ) ) )
+        {
+            Map.Entry<PagedSearchContext, LdapSession> entry = iterator.next();
+            PagedSearchContext context = entry.getKey();
+
+            boolean hasCursor = context.getCursor() != null;
+
+            if ( excess > 0 )
+            {
+                // A context in use is skipped
+                if ( !context.tryEvict() )
+                {
+                    continue;
+                }
+
+                LOG.debug( "Evicted the {}", context );
+                iterator.remove();
+                evicted.add( new Evicted( entry.getValue(), context ) );
+                excess--;
+            }
+            else if ( hasCursor )
+            {
+                if ( !context.releaseCursor() )
+                {
+                    continue;
+                }
+
+                LOG.debug( "Released the cursor of the {}", context );
+            }
+            else
+            {
+                continue;
+            }
+
+            if ( hasCursor )
+            {
+                openCursors--;
+            }
+        }
+
+        return evicted;
+    }
+
+
+    /**
+     * Removes the evicted contexts from their session
+     */
+    private void removeEvicted( List<Evicted> evicted )
+    {
+        for ( Evicted removed : evicted )
+        {
+            removed.session.removePagedSearchContext( removed.context.getCookieValue() );
+        }
+    }
+
+
+    /**
+     * An evicted context and its session
+     */
+    private static final class Evicted
+    {
+        private final LdapSession session;
+        private final PagedSearchContext context;
+
+
+        private Evicted( LdapSession session, PagedSearchContext context )
+        {
+            this.session = session;
+            this.context = context;
+        }
+    }
+}
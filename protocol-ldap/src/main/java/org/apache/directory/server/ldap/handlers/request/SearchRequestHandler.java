@@ -31,6 +31,10 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.directory.api.ldap.codec.controls.search.pagedSearch.PagedResultsDecorator;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncInfoValue.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponseImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorClosedException;
@@ -80,6 +84,7 @@ import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
 import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
 import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
+import org.apache.mina.core.session.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -99,6 +104,9 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
 
+    /** The maximum time we wait for the write queue to drain before checking the request state again (in ms) */
+    private static final long WRITE_SUSPEND_TIMEOUT = 1000L;
+
     /** The replication handler */
     protected ReplicationRequestHandler replicationReqHandler;
 
@@ -372,6 +380,50 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Writes an entry back to the client. If the client does not read the responses
+     * fast enough, and the number of bytes waiting to be written on the session goes
+     * above the configured high-water mark, we stop here until it drops under the
+     * low-water mark (the MINA processor wakes us up on each sent message). This
+     * keeps the memory used by a large search bounded by the client's reading speed
+     * instead of by the size of the result set.
+     */
+    private void writeSearchResult( LdapSession session, SearchRequest req, Entry entry ) throws Exception
+    {
+        IoSession ioSession = session.getIoSession();
+        ioSession.write( generateResponse( session, req, entry ) );
+
+        long highWaterMark = ldapServer.getSearchWriteHighWaterMark();
+
+        if ( ( highWaterMark <= 0 ) || ( ioSession.getScheduledWriteBytes() <= highWaterMark ) )
+        {
+            return;
+        }
+
+        if ( IS_DEBUG )
+        {
+            LOG.debug( "Suspending the search for message {}, {} bytes are waiting to be written",
+                req.getMessageId(), ioSession.getScheduledWriteBytes() );
+        }
+
+        long lowWaterMark = ldapServer.getSearchWriteLowWaterMark();
+
+        while ( !session.awaitWritable( lowWaterMark, WRITE_SUSPEND_TIMEOUT ) )
+        {
+            // The caller checks those conditions before fetching the next entry
+            if ( ioSession.isClosing() || req.isAbandoned() )
+            {
+                return;
+            }
+        }
+
+        if ( IS_DEBUG )
+        {
+            LOG.debug( "Resuming the search for message {}", req.getMessageId() );
+        }
+    }
+
+
     private void writeResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
         Cursor<Entry> cursor, long sizeLimit ) throws Exception
     {
@@ -406,7 +458,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+            writeSearchResult( session, req, entry );
 
             if ( IS_DEBUG )
             {
@@ -461,7 +513,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+            writeSearchResult( session, req, entry );
+            pagedContext.setLastEntryDn( entry.getDn() );
             count++;
             pageCount++;
         }
@@ -484,18 +537,10 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             // If we are here, it means we have returned all the entries
             // We have to remove the cookie from the session
             cookieValue = pagedContext.getCookieValue();
-            PagedSearchContext psCookie = session.removePagedSearchContext( cookieValue );
+            session.removePagedSearchContext( cookieValue );
 
-            // Close the cursor if there is one
-            if ( psCookie != null )
-            {
-                cursor = psCookie.getCursor();
-
-                if ( cursor != null )
-                {
-                    cursor.close();
-                }
-            }
+            // Close the cursor
+            pagedContext.close();
 
             pagedResultsControl = new PagedResultsDecorator( ldapServer.getDirectoryService()
                 .getLdapCodecService() );
@@ -525,12 +570,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 // Return an exception, close the cursor, and clean the session
                 ldapResult.setResultCode( ResultCodeEnum.SIZE_LIMIT_EXCEEDED );
 
-                if ( cursor != null )
-                {
-                    cursor.close();
-                }
-
-                session.removePagedSearchContext( cookieValue );
+                pagedContext.close();
+                session.removePagedSearchContext( pagedContext.getCookieValue() );
 
                 return;
             }
@@ -553,16 +594,14 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             // cursor stored into the session (if any)
             int cookieValue = pagedSearchControl.getCookieValue();
             PagedSearchContext psCookie = session.removePagedSearchContext( cookieValue );
-            pagedSearchControl.setCookie( psCookie.getCookie() );
             pagedSearchControl.setSize( 0 );
             pagedSearchControl.setCritical( true );
 
             // Close the cursor
-            Cursor<Entry> cursor = psCookie.getCursor();
-
-            if ( cursor != null )
+            if ( psCookie != null )
             {
-                cursor.close();
+                pagedSearchControl.setCookie( psCookie.getCookie() );
+                psCookie.close();
             }
         }
         else
@@ -581,6 +620,41 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Creates a new cursor for a paged search which cursor has been released, and moves
+     * it to the position where the previous page has stopped. The entries are counted
+     * until we reach the stored position, unless we meet the last returned entry before,
+     * in which case we know some entries have been removed in the meantime.
+     */
+    private Cursor<Entry> resumePagedSearch( LdapSession session, SearchRequest req, PagedSearchContext pagedContext )
+        throws Exception
+    {
+        Cursor<Entry> cursor = session.getCoreSession().search( req );
+        cursor.beforeFirst();
+
+        int position = pagedContext.getCurrentPosition();
+        Dn lastEntryDn = pagedContext.getLastEntryDn();
+        int skipped = 0;
+
+        while ( ( skipped < position ) && cursor.next() )
+        {
+            skipped++;
+
+            if ( ( lastEntryDn != null ) && lastEntryDn.equals( cursor.get().getDn() ) )
+            {
+                break;
+            }
+        }
+
+        if ( IS_DEBUG )
+        {
+            LOG.debug( "Resumed the {} after {} entries", pagedContext, skipped );
+        }
+
+        return cursor;
+    }
+
+
     /**
      * Remove a cookie instance from the session, if it exists.
      */
@@ -682,6 +756,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             {
                 // Case 2 : create the context
                 pagedContext = new PagedSearchContext( req );
+                pagedContext.acquire();
+                pagedContext.setCursor( cursor );
 
                 session.addPagedSearchContext( pagedContext );
                 cookie = pagedContext.getCookie();
@@ -690,9 +766,6 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 pagedResultsControl.setCookie( cookie );
                 pagedResultsControl.setSize( 0 );
                 pagedResultsControl.setCritical( true );
-
-                // And stores the cursor into the session
-                pagedContext.setCursor( cursor );
             }
         }
         else
@@ -714,9 +787,32 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
             if ( pagedContext.hasSameRequest( req, session ) )
             {
-                // Case 3 : continue the search
+                // Case 3 : continue the search, unless the context has just been evicted
+                if ( !pagedContext.acquire() )
+                {
+                    ldapResult.setDiagnosticMessage( "Invalid cookie for this PagedSearch request." );
+                    ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+
+                    return ( SearchResultDone ) req.getResultResponse();
+                }
+
                 cursor = pagedContext.getCursor();
 
+                if ( cursor == null )
+                {
+                    // The cursor has been released since the previous page
+                    try
+                    {
+                        cursor = resumePagedSearch( session, req, pagedContext );
+                        pagedContext.setCursor( cursor );
+                    }
+                    catch ( Exception e )
+                    {
+                        pagedContext.release();
+                        throw e;
+                    }
+                }
+
                 // get the cookie
                 cookie = pagedContext.getCookie();
                 pagedResultsControl = new PagedResultsDecorator( ldapServer.getDirectoryService()
@@ -729,16 +825,16 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             else
             {
                 // case 2 : create a new cursor
-                // We have to close the cursor
-                cursor = pagedContext.getCursor();
-
-                if ( cursor != null )
-                {
-                    cursor.close();
-                }
+                // We have to close the previous context
+                removeContext( session, pagedContext );
+                pagedContext.close();
 
                 // Now create a new context and stores it into the session
+                cursor = session.getCoreSession().search( req );
+                cursor.beforeFirst();
                 pagedContext = new PagedSearchContext( req );
+                pagedContext.acquire();
+                pagedContext.setCursor( cursor );
 
                 session.addPagedSearchContext( pagedContext );
 
@@ -763,17 +859,15 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         }
         catch ( Exception e )
         {
-            if ( cursor != null )
-            {
-                try
-                {
-                    cursor.close();
-                }
-                catch ( Exception ne )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), ne );
-                }
-            }
+            // The search will be resumed if the next page is requested
+            pagedContext.close();
+        }
+        finally
+        {
+            // Now that the page has been read, this context can be released or evicted
+            // if we have too many of them
+            pagedContext.release();
+            ldapServer.getPagedSearchContextCache().update( pagedContext );
         }
 
         return ( SearchResultDone ) req.getResultResponse();
@@ -798,6 +892,20 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         // Check if we are using the Paged Search Control
         Object control = req.getControls().get( PagedResults.OID );
 
+        if ( ( control != null ) && req.getControls().containsKey( VirtualListViewRequest.OID ) )
+        {
+            // The Virtual List View and the Paged Results controls are mutually exclusive
+            ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+            ldapResult.setDiagnosticMessage(
+                "The Virtual List View and the Paged Results controls can't be used together" );
+
+            VirtualListViewResponse vlvResponse = new VirtualListViewResponseImpl();
+            vlvResponse.setVirtualListViewResult( VirtualListViewResultCode.UNWILLINGTOPERFORM );
+            req.getResultResponse().addControl( vlvResponse );
+
+            return ( SearchResultDone ) req.getResultResponse();
+        }
+
         if ( control != null )
         {
             // Let's deal with the pagedControl
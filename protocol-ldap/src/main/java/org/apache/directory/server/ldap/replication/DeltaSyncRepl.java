@@ -0,0 +1,287 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * Helper methods used to transmit the modifications applied on an entry instead
+ * of the whole modified entry (delta-syncrepl).
+ * <br>
+ * The consumer asks for the delta mode by adding the {@link #DELTA_MODE_MARKER}
+ * pseudo attribute to the list of requested attributes, which is ignored by a
+ * provider that does not support it. A delta entry contains the entry's DN, its
+ * entryUUID and entryCSN, and one attribute per modification, using an attribute
+ * option to carry the modification's position and operation :
+ * <pre>
+ *   member;x-delta-0-add: cn=user1,ou=users,dc=example,dc=com
+ *   description;x-delta-1-delete:
+ *   modifyTimestamp;x-delta-2-replace: 20140101000000.000Z
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class DeltaSyncRepl
+{
+    /** The pseudo attribute a consumer adds to its request to get the modifications */
+    public static final String DELTA_MODE_MARKER = "x-apacheds-delta-syncrepl";
+
+    /** The attribute option prefix used for the modifications */
+    private static final String DELTA_OPTION = ";x-delta-";
+
+    /** The operation names */
+    private static final String ADD = "add";
+    private static final String DELETE = "delete";
+    private static final String REPLACE = "replace";
+
+
+    private DeltaSyncRepl()
+    {
+    }
+
+
+    /**
+     * Tells if a consumer has requested the delta mode
+     *
+     * @param request The consumer's SyncRepl search request
+     * @return true if the consumer wants the modifications instead of the modified entries
+     */
+    public static boolean isDeltaRequested( SearchRequest request )
+    {
+        if ( ( request == null ) || ( request.getAttributes() == null ) )
+        {
+            return false;
+        }
+
+        for ( String attribute : request.getAttributes() )
+        {
+            if ( DELTA_MODE_MARKER.equalsIgnoreCase( attribute ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Creates the entry transmitting the modifications applied on a modified entry
+     *
+     * @param entry The modified entry
+     * @param modifications The modifications applied on the entry
+     * @return The delta entry
+     * @throws LdapException If the delta entry can't be created
+     */
+    public static Entry toDeltaEntry( Entry entry, List<Modification> modifications ) throws LdapException
+    {
+        Entry deltaEntry = new DefaultEntry( entry.getDn() );
+
+        deltaEntry.add( SchemaConstants.ENTRY_UUID_AT, entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+        deltaEntry.add( SchemaConstants.ENTRY_CSN_AT, entry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+        int position = 0;
+
+        for ( Modification modification : modifications )
+        {
+            Attribute attribute = modification.getAttribute();
+            AttributeType attributeType = attribute.getAttributeType();
+            String id = ( attributeType != null ) ? attributeType.getName() : attribute.getId();
+            String operation;
+
+            switch ( modification.getOperation() )
+            {
+                case ADD_ATTRIBUTE:
+                    operation = ADD;
+                    break;
+
+                case REMOVE_ATTRIBUTE:
+                    operation = DELETE;
+                    break;
+
+                default:
+                    operation = REPLACE;
+                    break;
+            }
+
+            Attribute deltaAttribute = new DefaultAttribute( id + DELTA_OPTION + position + '-' + operation );
+
+            for ( Value value : attribute )
+            {
+                if ( value.isHumanReadable() )
+                {
+                    deltaAttribute.add( value.getValue() );
+                }
+                else
+                {
+                    deltaAttribute.add( value.getBytes() );
+                }
+            }
+
+            deltaEntry.add( deltaAttribute );
+            position++;
+        }
+
+        return deltaEntry;
+    }
+
+
+    /**
+     * Tells if a received entry is a delta entry
+     *
+     * @param entry The received, schema agnostic, entry
+     * @return true if the entry transmits modifications
+     */
+    public static boolean isDeltaEntry( Entry entry )
+    {
+        for ( Attribute attribute : entry )
+        {
+            if ( Strings.toLowerCaseAscii( attribute.getUpId() ).contains( DELTA_OPTION ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Creates a schema aware entry containing the DN, the entryUUID and the entryCSN of a delta entry
+     *
+     * @param schemaManager The SchemaManager
+     * @param deltaEntry The received delta entry
+     * @return The base entry
+     * @throws LdapException If the entry can't be created
+     */
+    public static Entry getBaseEntry( SchemaManager schemaManager, Entry deltaEntry ) throws LdapException
+    {
+        Entry entry = new DefaultEntry( schemaManager, deltaEntry.getDn() );
+
+        entry.add( SchemaConstants.ENTRY_UUID_AT, deltaEntry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+        entry.add( SchemaConstants.ENTRY_CSN_AT, deltaEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+        return entry;
+    }
+
+
+    /**
+     * Extracts the ordered list of schema aware modifications transmitted by a delta entry
+     *
+     * @param schemaManager The SchemaManager
+     * @param deltaEntry The received delta entry
+     * @return The modifications, in the order they were applied on the provider
+     * @throws LdapException If one of the modifications is invalid
+     */
+    public static List<Modification> getModifications( SchemaManager schemaManager, Entry deltaEntry )
+        throws LdapException
+    {
+        Map<Integer, Modification> modifications = new TreeMap<Integer, Modification>();
+
+        for ( Attribute deltaAttribute : deltaEntry )
+        {
+            String upId = deltaAttribute.getUpId();
+            int pos = Strings.toLowerCaseAscii( upId ).indexOf( DELTA_OPTION );
+
+            if ( pos < 0 )
+            {
+                continue;
+            }
+
+            String option = Strings.toLowerCaseAscii( upId.substring( pos + DELTA_OPTION.length() ) );
+            int dash = option.indexOf( '-' );
+
+            if ( dash <= 0 )
+            {
+                throw new LdapException( "Invalid delta attribute " + upId );
+            }
+
+            int position;
+
+            try
+            {
+                position = Integer.parseInt( option.substring( 0, dash ) );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                throw new LdapException( "Invalid delta attribute " + upId, nfe );
+            }
+
+            String operation = option.substring( dash + 1 );
+            ModificationOperation modOp;
+
+            if ( ADD.equals( operation ) )
+            {
+                modOp = ModificationOperation.ADD_ATTRIBUTE;
+            }
+            else if ( DELETE.equals( operation ) )
+            {
+                modOp = ModificationOperation.REMOVE_ATTRIBUTE;
+            }
+            else if ( REPLACE.equals( operation ) )
+            {
+                modOp = ModificationOperation.REPLACE_ATTRIBUTE;
+            }
+            else
+            {
+                throw new LdapException( "Invalid delta operation " + upId );
+            }
+
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( upId.substring( 0, pos ) );
+            Attribute attribute = new DefaultAttribute( attributeType );
+
+            for ( Value value : deltaAttribute )
+            {
+                if ( attributeType.isHR() )
+                {
+                    attribute.add( value.getValue() );
+                }
+                else
+                {
+                    attribute.add( value.getBytes() );
+                }
+            }
+
+            modifications.put( position, new DefaultModification( modOp, attribute ) );
+        }
+
+        return new ArrayList<Modification>( modifications.values() );
+    }
+}
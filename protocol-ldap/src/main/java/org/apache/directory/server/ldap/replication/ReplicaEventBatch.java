@@ -0,0 +1,349 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateTypeEnum;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+
+
+/**
+ * Helper methods used to transmit the changes of the refreshAndPersist phase as compressed
+ * batches, instead of one SearchResultEntry per change.
+ * <br>
+ * The consumer asks for compressed batches by adding the {@link #BATCH_MODE_MARKER}
+ * pseudo attribute to the list of requested attributes, which is ignored by a provider
+ * that does not support it. The provider then gathers the consecutive changes, and sends
+ * them in IntermediateResponses named {@link #EVENT_BATCH_OID} once the batch is full, or
+ * after {@link #BATCH_LINGER_MS} milliseconds. A batch is deflated, and has the following
+ * format :
+ * <ul>
+ * <li>int : the number of changes</li>
+ * <li>for each change, the sync state type, the entryUUID and the cookie which would have
+ * been sent in the SyncStateValue control, followed by the serialized DN and the serialized
+ * entry</li>
+ * </ul>
+ * The changes are applied by the consumer in the order they were sent.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class ReplicaEventBatch
+{
+    /** The pseudo attribute a consumer adds to its request to get compressed batches */
+    public static final String BATCH_MODE_MARKER = "x-apacheds-compressed-batch";
+
+    /** The name of the IntermediateResponses carrying a batch of changes */
+    public static final String EVENT_BATCH_OID = "1.3.6.1.4.1.18060.0.1.12";
+
+    /** The maximum number of changes in a batch */
+    public static final int MAX_BATCH_EVENTS = 500;
+
+    /** The size of the serialized changes above which a batch is sent */
+    public static final int MAX_BATCH_SIZE = 256 * 1024;
+
+    /** The delay after which an incomplete batch is sent */
+    public static final long BATCH_LINGER_MS = 20L;
+
+
+    private ReplicaEventBatch()
+    {
+    }
+
+
+    /**
+     * Tells if a consumer has requested compressed batches
+     *
+     * @param request The consumer's SyncRepl search request
+     * @return true if the consumer wants the changes to be sent in batches
+     */
+    public static boolean isBatchRequested( SearchRequest request )
+    {
+        if ( ( request == null ) || ( request.getAttributes() == null ) )
+        {
+            return false;
+        }
+
+        for ( String attribute : request.getAttributes() )
+        {
+            if ( BATCH_MODE_MARKER.equalsIgnoreCase( attribute ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * A change read from a batch
+     */
+    public static class BatchEvent
+    {
+        /** The sync state type */
+        private final SyncStateTypeEnum state;
+
+        /** The entryUUID */
+        private final byte[] entryUuid;
+
+        /** The cookie, may be null */
+        private final byte[] cookie;
+
+        /** The entry */
+        private final Entry entry;
+
+
+        private BatchEvent( SyncStateTypeEnum state, byte[] entryUuid, byte[] cookie, Entry entry )
+        {
+            this.state = state;
+            this.entryUuid = entryUuid;
+            this.cookie = cookie;
+            this.entry = entry;
+        }
+
+
+        /**
+         * @return The sync state type
+         */
+        public SyncStateTypeEnum getState()
+        {
+            return state;
+        }
+
+
+        /**
+         * @return The entryUUID, as bytes
+         */
+        public byte[] getEntryUuid()
+        {
+            return entryUuid;
+        }
+
+
+        /**
+         * @return The cookie, or null
+         */
+        public byte[] getCookie()
+        {
+            return cookie;
+        }
+
+
+        /**
+         * @return The entry
+         */
+        public Entry getEntry()
+        {
+            return entry;
+        }
+    }
+
+
+    /**
+     * A batch of changes being built by the provider
+     */
+    public static class BatchWriter
+    {
+        /** The serialized changes */
+        private ByteArrayOutputStream events = new ByteArrayOutputStream();
+
+        /** The stream used to serialize the changes */
+        private ObjectOutputStream out;
+
+        /** The number of changes in the batch */
+        private int count;
+
+        /** The size of the last encoded batch, before compression */
+        private int rawSize;
+
+
+        /**
+         * Creates a new empty batch
+         *
+         * @throws IOException If the batch can't be created
+         */
+        public BatchWriter() throws IOException
+        {
+            out = new ObjectOutputStream( events );
+        }
+
+
+        /**
+         * Add a change to the batch
+         *
+         * @param state The sync state type
+         * @param entryUuid The entryUUID
+         * @param cookie The cookie, or null
+         * @param entry The entry to send
+         * @throws IOException If the change can't be serialized
+         */
+        public void add( SyncStateTypeEnum state, byte[] entryUuid, byte[] cookie, Entry entry ) throws IOException
+        {
+            if ( entry instanceof ClonedServerEntry )
+            {
+                entry = ( ( ClonedServerEntry ) entry ).getClonedEntry();
+            }
+
+            out.writeUTF( state.name() );
+            out.writeInt( entryUuid.length );
+            out.write( entryUuid );
+
+            if ( cookie == null )
+            {
+                out.writeInt( -1 );
+            }
+            else
+            {
+                out.writeInt( cookie.length );
+                out.write( cookie );
+            }
+
+            entry.getDn().writeExternal( out );
+            entry.writeExternal( out );
+            count++;
+        }
+
+
+        /**
+         * @return true if the batch has to be sent
+         * @throws IOException If the pending changes can't be flushed
+         */
+        public boolean isFull() throws IOException
+        {
+            out.flush();
+
+            return ( count >= MAX_BATCH_EVENTS ) || ( events.size() >= MAX_BATCH_SIZE );
+        }
+
+
+        /**
+         * @return The number of changes in the batch
+         */
+        public int size()
+        {
+            return count;
+        }
+
+
+        /**
+         * @return The size of the last encoded batch, before compression
+         */
+        public int getRawSize()
+        {
+            return rawSize;
+        }
+
+
+        /**
+         * Encode the batch, and reset it so that new changes can be added
+         *
+         * @return The compressed batch
+         * @throws IOException If the batch can't be encoded
+         */
+        public byte[] encode() throws IOException
+        {
+            out.flush();
+
+            rawSize = events.size() + 4;
+            ByteArrayOutputStream batch = new ByteArrayOutputStream( events.size() / 4 + 64 );
+
+            try ( DataOutputStream data = new DataOutputStream( new DeflaterOutputStream( batch ) ) )
+            {
+                data.writeInt( count );
+                events.writeTo( data );
+            }
+
+            events = new ByteArrayOutputStream();
+            out = new ObjectOutputStream( events );
+            count = 0;
+
+            return batch.toByteArray();
+        }
+    }
+
+
+    /**
+     * Decode a batch of changes
+     *
+     * @param schemaManager The SchemaManager
+     * @param batch The compressed batch
+     * @return The changes, in the order they were sent
+     * @throws IOException If the batch can't be decoded
+     */
+    public static List<BatchEvent> decode( SchemaManager schemaManager, byte[] batch ) throws IOException
+    {
+        try ( DataInputStream data = new DataInputStream( new InflaterInputStream(
+            new ByteArrayInputStream( batch ) ) ) )
+        {
+            int count = data.readInt();
+            List<BatchEvent> events = new ArrayList<BatchEvent>( count );
+            ObjectInputStream in = new ObjectInputStream( data );
+
+            for ( int i = 0; i < count; i++ )
+            {
+                SyncStateTypeEnum state = SyncStateTypeEnum.valueOf( in.readUTF() );
+
+                byte[] entryUuid = new byte[in.readInt()];
+                in.readFully( entryUuid );
+
+                byte[] cookie = null;
+                int cookieLength = in.readInt();
+
+                if ( cookieLength >= 0 )
+                {
+                    cookie = new byte[cookieLength];
+                    in.readFully( cookie );
+                }
+
+                Dn entryDn = new Dn( schemaManager );
+                entryDn.readExternal( in );
+
+                Entry entry = new DefaultEntry( schemaManager );
+                entry.readExternal( in );
+                entry.setDn( entryDn );
+
+                events.add( new BatchEvent( state, entryUuid, cookie, entry ) );
+            }
+
+            return events;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+    }
+}
@@ -22,15 +22,21 @@ package org.apache.directory.server.ldap.replication;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import jdbm.helper.Serializer;
 
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -44,8 +50,13 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
  * <li>byte : EventType</li>
  * <li>byte[] : the serialized DN</li>
  * <li>byte[] : the serialized entry</li>
+ * <li>int : the number of modifications, -1 if they are not stored</li>
+ * <li>byte[]* : the serialized modifications</li>
  * </ul>
  * 
+ * The modifications are absent from the messages stored before they were added to the
+ * format, they are then considered as not stored.
+ * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class ReplicaEventMessageSerializer implements Serializer
@@ -91,6 +102,23 @@ public class ReplicaEventMessageSerializer implements Serializer
             // The entry
             entry.writeExternal( out );
 
+            // The modifications, if any
+            List<Modification> modifications = replicaEventMessage.getModifications();
+
+            if ( modifications == null )
+            {
+                out.writeInt( -1 );
+            }
+            else
+            {
+                out.writeInt( modifications.size() );
+
+                for ( Modification modification : modifications )
+                {
+                    modification.writeExternal( out );
+                }
+            }
+
             out.flush();
 
             return baos.toByteArray();
@@ -126,14 +154,57 @@ public class ReplicaEventMessageSerializer implements Serializer
             entry.readExternal( in );
             entry.setDn( entryDn );
 
+            // The modifications
+            List<Modification> modifications = readModifications( in );
+
             // And create a ReplicaEventMessage
-            replicaEventMessage = new ReplicaEventMessage( changeType, entry );
+            replicaEventMessage = new ReplicaEventMessage( changeType, entry, modifications );
         }
         catch ( ClassNotFoundException cnfe )
         {
             // there is nothing we can do here...
         }
+        catch ( LdapException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
 
         return replicaEventMessage;
     }
+
+
+    /**
+     * Read the modifications following the entry, if any
+     */
+    private List<Modification> readModifications( ObjectInputStream in ) throws IOException,
+        ClassNotFoundException, LdapException
+    {
+        int nbModifications;
+
+        try
+        {
+            nbModifications = in.readInt();
+        }
+        catch ( EOFException eofe )
+        {
+            // A message stored before the modifications were serialized
+            return null;
+        }
+
+        if ( nbModifications < 0 )
+        {
+            return null;
+        }
+
+        List<Modification> modifications = new ArrayList<Modification>( nbModifications );
+
+        for ( int i = 0; i < nbModifications; i++ )
+        {
+            DefaultModification modification = new DefaultModification();
+            modification.readExternal( in );
+            modifications.add( new DefaultModification( schemaManager, modification ) );
+        }
+
+        return modifications;
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+
+
+/**
+ * Helper methods used to transmit the initial content of a replica as a stream of
+ * compressed chunks of entries (snapshot refresh), instead of one SearchResultEntry
+ * per entry.
+ * <br>
+ * The consumer asks for a snapshot refresh by adding the {@link #SNAPSHOT_MODE_MARKER}
+ * pseudo attribute to the list of requested attributes, which is ignored by a provider
+ * that does not support it. The provider then sends the entries matching the initial
+ * content search in IntermediateResponses named {@link #SNAPSHOT_CHUNK_OID}, each one
+ * containing a deflated chunk with the following format :
+ * <ul>
+ * <li>int : the number of entries</li>
+ * <li>for each entry, the serialized DN followed by the serialized entry</li>
+ * </ul>
+ * The entries are sent in the initial refresh order, parents first. The rest of the
+ * refresh (the changes done since the snapshot CSN, and the final cookie) is unchanged.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class ReplicaSnapshot
+{
+    /** The pseudo attribute a consumer adds to its request to get a snapshot refresh */
+    public static final String SNAPSHOT_MODE_MARKER = "x-apacheds-snapshot-refresh";
+
+    /** The name of the IntermediateResponses carrying a chunk of entries */
+    public static final String SNAPSHOT_CHUNK_OID = "1.3.6.1.4.1.18060.0.1.11";
+
+    /** The maximum number of entries in a chunk */
+    public static final int MAX_CHUNK_ENTRIES = 1000;
+
+    /** The size of the serialized entries above which a chunk is sent */
+    public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+
+    private ReplicaSnapshot()
+    {
+    }
+
+
+    /**
+     * Tells if a consumer has requested a snapshot refresh
+     *
+     * @param request The consumer's SyncRepl search request
+     * @return true if the consumer wants the entries to be sent in chunks
+     */
+    public static boolean isSnapshotRequested( SearchRequest request )
+    {
+        if ( ( request == null ) || ( request.getAttributes() == null ) )
+        {
+            return false;
+        }
+
+        for ( String attribute : request.getAttributes() )
+        {
+            if ( SNAPSHOT_MODE_MARKER.equalsIgnoreCase( attribute ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * A chunk of entries being built by the provider
+     */
+    public static class ChunkWriter
+    {
+        /** The serialized entries */
+        private ByteArrayOutputStream entries = new ByteArrayOutputStream();
+
+        /** The stream used to serialize the entries */
+        private ObjectOutputStream out;
+
+        /** The number of entries in the chunk */
+        private int count;
+
+
+        /**
+         * Creates a new empty chunk
+         *
+         * @throws IOException If the chunk can't be created
+         */
+        public ChunkWriter() throws IOException
+        {
+            out = new ObjectOutputStream( entries );
+        }
+
+
+        /**
+         * Add an entry to the chunk
+         *
+         * @param entry The entry to add
+         * @throws IOException If the entry can't be serialized
+         */
+        public void add( Entry entry ) throws IOException
+        {
+            if ( entry instanceof ClonedServerEntry )
+            {
+                entry = ( ( ClonedServerEntry ) entry ).getClonedEntry();
+            }
+
+            entry.getDn().writeExternal( out );
+            entry.writeExternal( out );
+            count++;
+        }
+
+
+        /**
+         * @return true if the chunk has to be sent
+         * @throws IOException If the pending entries can't be flushed
+         */
+        public boolean isFull() throws IOException
+        {
+            out.flush();
+
+            return ( count >= MAX_CHUNK_ENTRIES ) || ( entries.size() >= MAX_CHUNK_SIZE );
+        }
+
+
+        /**
+         * @return The number of entries in the chunk
+         */
+        public int size()
+        {
+            return count;
+        }
+
+
+        /**
+         * Encode the chunk, and reset it so that new entries can be added
+         *
+         * @return The compressed chunk
+         * @throws IOException If the chunk can't be encoded
+         */
+        public byte[] encode() throws IOException
+        {
+            out.flush();
+
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream( entries.size() / 4 + 64 );
+
+            try ( DataOutputStream data = new DataOutputStream( new DeflaterOutputStream( chunk ) ) )
+            {
+                data.writeInt( count );
+                entries.writeTo( data );
+            }
+
+            entries = new ByteArrayOutputStream();
+            out = new ObjectOutputStream( entries );
+            count = 0;
+
+            return chunk.toByteArray();
+        }
+    }
+
+
+    /**
+     * Decode a chunk of entries
+     *
+     * @param schemaManager The SchemaManager
+     * @param chunk The compressed chunk
+     * @return The schema aware entries, in the order they were sent
+     * @throws IOException If the chunk can't be decoded
+     */
+    public static List<Entry> decode( SchemaManager schemaManager, byte[] chunk ) throws IOException
+    {
+        try ( DataInputStream data = new DataInputStream( new InflaterInputStream(
+            new ByteArrayInputStream( chunk ) ) ) )
+        {
+            int count = data.readInt();
+            List<Entry> entries = new ArrayList<Entry>( count );
+            ObjectInputStream entriesIn = new ObjectInputStream( data );
+
+            for ( int i = 0; i < count; i++ )
+            {
+                Dn entryDn = new Dn( schemaManager );
+                entryDn.readExternal( entriesIn );
+
+                Entry entry = new DefaultEntry( schemaManager );
+                entry.readExternal( entriesIn );
+                entry.setDn( entryDn );
+
+                entries.add( entry );
+            }
+
+            return entries;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+    }
+}
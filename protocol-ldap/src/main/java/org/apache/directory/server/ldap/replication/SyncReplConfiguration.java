@@ -58,6 +58,11 @@ import org.apache.directory.ldap.client.api.NoVerificationTrustManager;
  *   <li>useTls : the connection uses TLS, defaults to true</li>
  *   <li>strictCertVerification : strictly verify the certificate, defaults to true</li>
  *   <li>trustManager : the trustManager to use, defaults to @link{NoVerificationTrustManager}</li>
+ *   <li>deltaMode : ask the provider for the modifications instead of the whole modified entries, defaults to false</li>
+ *   <li>snapshotRefresh : ask the provider for a bulk transfer of the initial content, defaults to false</li>
+ *   <li>compressedBatches : ask the provider to send the persist phase changes in compressed batches, defaults to false</li>
+ *   <li>applyThreads : the number of threads applying the received updates, defaults to 4</li>
+ *   <li>cookieBatchSize : the number of applied updates after which the cookie is stored, defaults to 1000</li>
  *   <li></li>
  * </ul>
  * 
@@ -133,6 +138,21 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** flag to indicate if the consumer asks for attribute level modifications, default value is false */
+    private boolean deltaMode = false;
+
+    /** flag to indicate if the initial content is bulk loaded from a snapshot, default value is false */
+    private boolean snapshotRefresh = false;
+
+    /** flag to indicate if the changes are received in compressed batches, default value is false */
+    private boolean compressedBatches = false;
+
+    /** the number of threads applying the received updates, default value is 4 */
+    private int applyThreads = 4;
+
+    /** the number of applied updates after which the cookie is stored, default value is 1000 */
+    private int cookieBatchSize = 1000;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -580,6 +600,110 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return true if the consumer receives the modifications instead of the modified entries
+     */
+    public boolean isDeltaMode()
+    {
+        return deltaMode;
+    }
+
+
+    /**
+     * enable/disable the delta replication mode. When enabled, the provider sends the list
+     * of modifications applied on an entry instead of the whole modified entry.
+     *
+     * @param deltaMode
+     */
+    public void setDeltaMode( boolean deltaMode )
+    {
+        this.deltaMode = deltaMode;
+    }
+
+
+    /**
+     * @return true if the initial content is transferred as a snapshot and bulk loaded
+     */
+    public boolean isSnapshotRefresh()
+    {
+        return snapshotRefresh;
+    }
+
+
+    /**
+     * enable/disable the snapshot refresh. When enabled, the provider sends the initial content
+     * by compressed chunks of entries, which are loaded without going through the whole
+     * interceptor chain, and the partition is only synced at the end of the refresh.
+     *
+     * @param snapshotRefresh
+     */
+    public void setSnapshotRefresh( boolean snapshotRefresh )
+    {
+        this.snapshotRefresh = snapshotRefresh;
+    }
+
+
+    /**
+     * @return true if the changes of the persist phase are received in compressed batches
+     */
+    public boolean isCompressedBatches()
+    {
+        return compressedBatches;
+    }
+
+
+    /**
+     * enable/disable the compressed batches. When enabled, the provider gathers the consecutive
+     * changes of the persist phase, and sends them deflated in a single message, which saves
+     * bandwidth at the cost of a small delay.
+     *
+     * @param compressedBatches
+     */
+    public void setCompressedBatches( boolean compressedBatches )
+    {
+        this.compressedBatches = compressedBatches;
+    }
+
+
+    /**
+     * @return the number of threads applying the received updates
+     */
+    public int getApplyThreads()
+    {
+        return applyThreads;
+    }
+
+
+    /**
+     * @param applyThreads the number of threads applying the received updates
+     */
+    public void setApplyThreads( int applyThreads )
+    {
+        this.applyThreads = applyThreads;
+    }
+
+
+    /**
+     * @return the number of applied updates after which the cookie is stored
+     */
+    public int getCookieBatchSize()
+    {
+        return cookieBatchSize;
+    }
+
+
+    /**
+     * Set the number of applied updates after which the cookie is stored. The cookie is also
+     * stored when there are no more updates to apply, and when the refresh phase is done.
+     *
+     * @param cookieBatchSize the number of applied updates after which the cookie is stored
+     */
+    public void setCookieBatchSize( int cookieBatchSize )
+    {
+        this.cookieBatchSize = cookieBatchSize;
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
@@ -633,6 +757,24 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
             sb.append( "MS, " );
         }
 
+        if ( deltaMode )
+        {
+            sb.append( "delta, " );
+        }
+
+        if ( snapshotRefresh )
+        {
+            sb.append( "snapshot, " );
+        }
+
+        if ( compressedBatches )
+        {
+            sb.append( "compressed batches, " );
+        }
+
+        sb.append( "applyThreads:" ).append( applyThreads ).append( ", " );
+        sb.append( "cookieBatchSize:" ).append( cookieBatchSize ).append( ", " );
+
         sb.append( "provider:" ).append( producer ).append( ", " );
         sb.append( "user:'" ).append( replUserDn ).append( "', " );
 
@@ -0,0 +1,391 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The apply stage of the consumer pipeline. The updates received from the provider are
+ * decoded by the thread reading the SyncRepl responses, and submitted to this class, which
+ * applies them using a pool of threads.
+ * <br>
+ * Two updates are applied in the order they were received when they are made on the same
+ * entryUUID, on the same DN, or when the DN of the second one is a descendant of the DN of
+ * the first one (a child can't be added before its parent). Any other update is applied in
+ * parallel.
+ * <br>
+ * The cookie received with an update is only reported to the {@link CookieListener} once this
+ * update and all the previously received ones have been applied, so that a stored cookie never
+ * covers an update which has not been applied. Once an update has failed, no cookie is reported
+ * anymore until {@link #reset()} is called : the consumer has to restart the synchronization
+ * from the last reported cookie.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ReplicationApplier
+{
+    /** A dedicated logger for the consumer */
+    private static final Logger CONSUMER_LOG = LoggerFactory.getLogger( Loggers.CONSUMER_LOG.getName() );
+
+    /**
+     * The listener informed of the cookies covering all the applied updates, and of the failed updates
+     */
+    interface CookieListener
+    {
+        /**
+         * Called when all the updates up to the one associated with the given cookie have been applied
+         *
+         * @param cookie The latest applied cookie
+         * @param idle true if there are no more pending update
+         */
+        void cookieApplied( byte[] cookie, boolean idle );
+
+
+        /**
+         * Called when an update could not be applied : no cookie will be reported until
+         * the applier is reset
+         */
+        void updateFailed();
+    }
+
+    /** The threads applying the updates */
+    private final ThreadPoolExecutor executor;
+
+    /** The maximum number of updates waiting to be applied */
+    private final int maxPending;
+
+    /** The cookie listener */
+    private final CookieListener cookieListener;
+
+    /** The updates not yet committed, ordered by reception */
+    private final TreeMap<Long, Update> pending = new TreeMap<Long, Update>();
+
+    /** The latest pending update for a given entryUUID */
+    private final Map<String, Update> lastByUuid = new HashMap<String, Update>();
+
+    /** The latest pending update for a given DN */
+    private final Map<Dn, Update> lastByDn = new HashMap<Dn, Update>();
+
+    /** The sequence number of the next submitted update */
+    private long nextSequence;
+
+    /** Tells if an update could not be applied since the last reset */
+    private boolean failedSinceReset;
+
+
+    /**
+     * An update waiting to be applied
+     */
+    private final class Update implements Runnable
+    {
+        /** The reception order */
+        private final long sequence;
+
+        /** The entryUUID */
+        private final String uuid;
+
+        /** The entry DN */
+        private final Dn dn;
+
+        /** The cookie received with the update, if any */
+        private final byte[] cookie;
+
+        /** The operation to apply */
+        private final Runnable operation;
+
+        /** The number of previous updates this update is waiting for */
+        private int waitingFor;
+
+        /** The updates waiting for this one */
+        private List<Update> dependents;
+
+        /** Tells if the update has been applied */
+        private boolean done;
+
+        /** Tells if the update could not be applied */
+        private boolean failed;
+
+
+        private Update( long sequence, String uuid, Dn dn, byte[] cookie, Runnable operation )
+        {
+            this.sequence = sequence;
+            this.uuid = uuid;
+            this.dn = dn;
+            this.cookie = cookie;
+            this.operation = operation;
+        }
+
+
+        public void run()
+        {
+            try
+            {
+                operation.run();
+            }
+            catch ( RuntimeException re )
+            {
+                CONSUMER_LOG.error( "Failed to apply the update on entry {}", dn, re );
+                failed = true;
+            }
+            finally
+            {
+                completed( this );
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of ReplicationApplier.
+     *
+     * @param name The name used for the threads
+     * @param nbThreads The number of threads applying the updates
+     * @param maxPending The maximum number of updates waiting to be applied before the reader is blocked
+     * @param cookieListener The listener informed of the applied cookies
+     */
+    ReplicationApplier( final String name, int nbThreads, int maxPending, CookieListener cookieListener )
+    {
+        this.maxPending = Math.max( 1, maxPending );
+        this.cookieListener = cookieListener;
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setName( name + "-" + count.incrementAndGet() );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        int threads = Math.max( 1, nbThreads );
+        executor = new ThreadPoolExecutor( threads, threads, 1000, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory );
+        executor.allowCoreThreadTimeOut( true );
+    }
+
+
+    /**
+     * Submit an update. The calling thread is blocked while there are too many pending updates.
+     *
+     * @param uuid The entryUUID of the updated entry
+     * @param dn The DN of the updated entry
+     * @param cookie The cookie received with the update, or null
+     * @param operation The operation applying the update
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    synchronized void submit( String uuid, Dn dn, byte[] cookie, Runnable operation ) throws InterruptedException
+    {
+        while ( pending.size() >= maxPending )
+        {
+            wait();
+        }
+
+        Update update = new Update( nextSequence++, uuid, dn, cookie, operation );
+        pending.put( update.sequence, update );
+
+        dependsOn( update, lastByUuid.get( uuid ) );
+
+        if ( dn != null )
+        {
+            dependsOn( update, lastByDn.get( dn ) );
+
+            // The parents must exist before their children are updated
+            Dn parent = dn.getParent();
+
+            while ( ( parent != null ) && !parent.isEmpty() )
+            {
+                dependsOn( update, lastByDn.get( parent ) );
+                parent = parent.getParent();
+            }
+
+            lastByDn.put( dn, update );
+        }
+
+        if ( uuid != null )
+        {
+            lastByUuid.put( uuid, update );
+        }
+
+        if ( update.waitingFor == 0 )
+        {
+            executor.execute( update );
+        }
+    }
+
+
+    /**
+     * Wait until all the submitted updates have been applied.
+     *
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    synchronized void drain() throws InterruptedException
+    {
+        while ( !pending.isEmpty() )
+        {
+            wait();
+        }
+    }
+
+
+    /**
+     * @return The number of updates not yet applied
+     */
+    synchronized int getPendingCount()
+    {
+        return pending.size();
+    }
+
+
+    /**
+     * @return true if an update could not be applied since the last reset
+     */
+    synchronized boolean hasFailed()
+    {
+        return failedSinceReset;
+    }
+
+
+    /**
+     * Forget the failed updates, so that the cookies are reported again. Called when the
+     * synchronization is restarted from the last reported cookie.
+     */
+    synchronized void reset()
+    {
+        failedSinceReset = false;
+    }
+
+
+    /**
+     * Stop the threads. The pending updates are still applied.
+     */
+    void shutdown()
+    {
+        executor.shutdown();
+    }
+
+
+    /**
+     * Make an update wait for a previous one, if it's still pending
+     */
+    private void dependsOn( Update update, Update previous )
+    {
+        if ( ( previous == null ) || previous.done || ( previous == update ) )
+        {
+            return;
+        }
+
+        if ( previous.dependents == null )
+        {
+            previous.dependents = new ArrayList<Update>( 2 );
+        }
+        else if ( previous.dependents.contains( update ) )
+        {
+            return;
+        }
+
+        previous.dependents.add( update );
+        update.waitingFor++;
+    }
+
+
+    /**
+     * Called when an update has been applied : release the updates waiting for it,
+     * and report the cookie of the latest update preceded only by applied ones. Nothing
+     * is reported past a failed update.
+     */
+    private synchronized void completed( Update update )
+    {
+        update.done = true;
+
+        if ( ( update.uuid != null ) && ( lastByUuid.get( update.uuid ) == update ) )
+        {
+            lastByUuid.remove( update.uuid );
+        }
+
+        if ( ( update.dn != null ) && ( lastByDn.get( update.dn ) == update ) )
+        {
+            lastByDn.remove( update.dn );
+        }
+
+        if ( update.dependents != null )
+        {
+            for ( Update dependent : update.dependents )
+            {
+                dependent.waitingFor--;
+
+                if ( dependent.waitingFor == 0 )
+                {
+                    executor.execute( dependent );
+                }
+            }
+
+            update.dependents = null;
+        }
+
+        byte[] appliedCookie = null;
+
+        while ( !pending.isEmpty() && pending.firstEntry().getValue().done )
+        {
+            Update applied = pending.pollFirstEntry().getValue();
+
+            if ( applied.failed && !failedSinceReset )
+            {
+                failedSinceReset = true;
+                cookieListener.updateFailed();
+            }
+            else if ( !failedSinceReset && ( applied.cookie != null ) )
+            {
+                appliedCookie = applied.cookie;
+            }
+        }
+
+        if ( appliedCookie != null )
+        {
+            // Called while holding the lock, so that the cookies are reported in order
+            cookieListener.cookieApplied( appliedCookie, pending.isEmpty() );
+        }
+
+        notifyAll();
+    }
+}
@@ -22,9 +22,11 @@ package org.apache.directory.server.ldap.replication.consumer;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.directory.api.ldap.codec.controls.manageDsaIT.ManageDsaITDecorator;
@@ -48,6 +50,7 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapEntryAlreadyExistsException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
@@ -82,6 +85,8 @@ import org.apache.directory.ldap.client.api.future.SearchFuture;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
@@ -90,7 +95,12 @@ import org.apache.directory.server.core.api.interceptor.context.ModifyOperationC
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
+import org.apache.directory.server.ldap.replication.DeltaSyncRepl;
+import org.apache.directory.server.ldap.replication.ReplicaEventBatch;
+import org.apache.directory.server.ldap.replication.ReplicaSnapshot;
 import org.apache.directory.server.ldap.replication.ReplicationConsumerConfig;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
 import org.slf4j.Logger;
@@ -164,6 +174,43 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
     private static final Map<String, Object> UUID_LOCK_MAP = new LRUMap( 1000 );
 
+    /** The pipeline applying the received updates */
+    private ReplicationApplier applier;
+
+    /** The number of updates applied since the cookie was last stored */
+    private int appliedSinceStore;
+
+    /** Tells if the synchronization has been restarted from the last stored cookie after a failed update */
+    private boolean retryingFailedUpdate;
+
+    /** The stored cookie the synchronization has been restarted from after a failed update */
+    private byte[] failedUpdateCookie;
+
+    /** The running synchronization search */
+    private volatile SearchFuture syncSearchFuture;
+
+    /** The interceptors an entry of a snapshot refresh goes through */
+    private List<String> bulkLoadInterceptors;
+
+    /** The partition being bulk loaded, if its writes are not synced during the snapshot refresh */
+    private AbstractBTreePartition bulkLoadPartition;
+
+    /** The syncOnWrite flag of the bulk loaded partition */
+    private boolean bulkLoadSyncOnWrite;
+
+    /**
+     * The interceptors which are not needed for the entries of a snapshot refresh : they
+     * have already been checked and completed by the provider, and their addition is not
+     * a change to be notified, logged, or journaled
+     */
+    private static final Set<String> BULK_LOAD_SKIPPED_INTERCEPTORS = new HashSet<String>( Arrays.asList(
+        InterceptorEnum.EXCEPTION_INTERCEPTOR.getName(),
+        InterceptorEnum.SCHEMA_INTERCEPTOR.getName(),
+        InterceptorEnum.EVENT_INTERCEPTOR.getName(),
+        InterceptorEnum.TRIGGER_INTERCEPTOR.getName(),
+        InterceptorEnum.CHANGE_LOG_INTERCEPTOR.getName(),
+        InterceptorEnum.JOURNAL_INTERCEPTOR.getName() ) );
+
 
     /**
      * @return the config
@@ -195,6 +242,39 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         Attribute ridAttr = new DefaultAttribute( adsDsReplicaIdAT );
         ridMod = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, ridAttr );
 
+        // Apply the updates in parallel, allowing a few batches of updates to be queued
+        int applyThreads = config.getApplyThreads();
+        applier = new ReplicationApplier( "replication-consumer-" + config.getReplicaId(), applyThreads,
+            Math.max( applyThreads * 64, config.getCookieBatchSize() ), new ReplicationApplier.CookieListener()
+            {
+                public void cookieApplied( byte[] cookie, boolean idle )
+                {
+                    ReplicationConsumerImpl.this.cookieApplied( cookie, idle );
+                }
+
+
+                public void updateFailed()
+                {
+                    // Don't wait for the next response to restart the synchronization
+                    SearchFuture future = syncSearchFuture;
+
+                    if ( future != null )
+                    {
+                        future.cancel( true );
+                    }
+                }
+            } );
+
+        bulkLoadInterceptors = new ArrayList<String>();
+
+        for ( String interceptor : directoryService.getInterceptors( OperationEnum.ADD ) )
+        {
+            if ( !BULK_LOAD_SKIPPED_INTERCEPTORS.contains( interceptor ) )
+            {
+                bulkLoadInterceptors.add( interceptor );
+            }
+        }
+
         prepareSyncSearchRequest();
     }
 
@@ -290,6 +370,24 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         searchRequest.addAttributes( config.getAttributes() );
 
+        if ( config.isDeltaMode() )
+        {
+            // Ask the provider for the modifications instead of the modified entries
+            searchRequest.addAttributes( DeltaSyncRepl.DELTA_MODE_MARKER );
+        }
+
+        if ( config.isSnapshotRefresh() )
+        {
+            // Ask the provider for a bulk transfer of the initial content
+            searchRequest.addAttributes( ReplicaSnapshot.SNAPSHOT_MODE_MARKER );
+        }
+
+        if ( config.isCompressedBatches() )
+        {
+            // Ask the provider to batch and compress the changes of the persist phase
+            searchRequest.addAttributes( ReplicaEventBatch.BATCH_MODE_MARKER );
+        }
+
         if ( !config.isChaseReferrals() )
         {
             searchRequest.addControl( new ManageDsaITDecorator( directoryService.getLdapCodecService(),
@@ -308,6 +406,8 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     {
         CONSUMER_LOG.debug( "///////////////// handleSearchDone //////////////////" );
 
+        drainUpdates();
+
         SyncDoneValue ctrl = ( SyncDoneValue ) searchDone.getControls().get( SyncDoneValue.OID );
 
         if ( ( ctrl != null ) && ( ctrl.getCookie() != null ) )
@@ -350,121 +450,342 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         try
         {
-            Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
-            String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
+            submitUpdate( syncStateCtrl.getSyncStateType(), syncResult.getEntry(), syncStateCtrl.getEntryUUID(),
+                syncStateCtrl.getCookie() );
+        }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Interrupted while applying the entry {}", syncResult.getObjectName() );
+            Thread.currentThread().interrupt();
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( e.getMessage(), e );
+        }
+
+        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+    }
+
+
+    /**
+     * Submit an update received from the provider, in a SearchResultEntry or in a batch,
+     * to the {@link ReplicationApplier}
+     */
+    private void submitUpdate( SyncStateTypeEnum state, Entry receivedEntry, byte[] entryUuid, byte[] cookie )
+        throws Exception
+    {
+        Entry remoteEntry;
+        List<Modification> deltaModifications = null;
+
+        if ( DeltaSyncRepl.isDeltaEntry( receivedEntry ) )
+        {
+            // The provider only sent the modifications
+            remoteEntry = DeltaSyncRepl.getBaseEntry( schemaManager, receivedEntry );
+            deltaModifications = DeltaSyncRepl.getModifications( schemaManager, receivedEntry );
+        }
+        else
+        {
+            remoteEntry = new DefaultEntry( schemaManager, receivedEntry );
+        }
+
+        String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
+
+        int rid = -1;
+
+        if ( cookie != null )
+        {
+            rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( cookie ) );
+            CONSUMER_LOG.debug( "received the cookie from sync state value control: {}",
+                Strings.utf8ToString( cookie ) );
+        }
+
+        // check to avoid conversion of UUID from byte[] to String
+        if ( CONSUMER_LOG.isDebugEnabled() )
+        {
+            CONSUMER_LOG.debug( "state name {}", state.name() );
+            CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( entryUuid ) );
+        }
+
+        Runnable update = new EntryUpdate( state, remoteEntry, deltaModifications, uuid,
+            Strings.uuidToString( entryUuid ), rid, false );
+
+        if ( ( state == SyncStateTypeEnum.MODDN ) || ( state == SyncStateTypeEnum.DELETE ) )
+        {
+            // Those operations impact a whole subtree : apply them once all the
+            // previous updates have been applied, and before any other update
+            applier.drain();
+            applier.submit( uuid, remoteEntry.getDn(), cookie, update );
+            applier.drain();
+        }
+        else
+        {
+            applier.submit( uuid, remoteEntry.getDn(), cookie, update );
+        }
+    }
+
+
+    /**
+     * Apply an update received from the provider. This is executed by the {@link ReplicationApplier}
+     * threads.
+     */
+    private final class EntryUpdate implements Runnable
+    {
+        private final SyncStateTypeEnum state;
+        private final Entry remoteEntry;
+        private final List<Modification> deltaModifications;
+        private final String uuid;
+        private final String controlUuid;
+        private final int rid;
+        private final boolean bulkLoad;
+
+
+        private EntryUpdate( SyncStateTypeEnum state, Entry remoteEntry, List<Modification> deltaModifications,
+            String uuid, String controlUuid, int rid, boolean bulkLoad )
+        {
+            this.state = state;
+            this.remoteEntry = remoteEntry;
+            this.deltaModifications = deltaModifications;
+            this.uuid = uuid;
+            this.controlUuid = controlUuid;
+            this.rid = rid;
+            this.bulkLoad = bulkLoad;
+        }
+
+
+        public void run()
+        {
             // lock on UUID to serialize the updates when there are multiple consumers
             // connected to several producers and to the *same* base/partition
             Object lock = getLockFor( uuid );
 
-            synchronized ( lock )
+            try
+            {
+                synchronized ( lock )
+                {
+                    applyUpdate( state, remoteEntry, deltaModifications, controlUuid, rid, bulkLoad );
+                }
+            }
+            catch ( Exception e )
             {
-                int rid = -1;
+                // Let the applier know the update failed, so that its cookie is not stored
+                throw new RuntimeException( e );
+            }
+        }
+    }
 
-                if ( syncStateCtrl.getCookie() != null )
+
+    /**
+     * Apply the operation received from the provider on an entry
+     */
+    private void applyUpdate( SyncStateTypeEnum state, Entry remoteEntry, List<Modification> deltaModifications,
+        String entryUuid, int rid, boolean bulkLoad ) throws Exception
+    {
+        Dn remoteDn = remoteEntry.getDn();
+
+        switch ( state )
+        {
+            case ADD:
+                try
                 {
-                    syncCookie = syncStateCtrl.getCookie();
-                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
-                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
-                        Strings.utf8ToString( syncCookie ) );
+                    CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
+                    CONSUMER_LOG.debug( remoteEntry.toString() );
+                    AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+                    addContext.setReplEvent( true );
+                    addContext.setRid( rid );
+
+                    if ( bulkLoad )
+                    {
+                        addContext.setInterceptors( bulkLoadInterceptors );
+                    }
+
+                    OperationManager operationManager = directoryService.getOperationManager();
+                    operationManager.add( addContext );
+                }
+                catch ( LdapEntryAlreadyExistsException leaee )
+                {
+                    CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
+                    modify( remoteEntry, rid );
                 }
 
-                SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+                break;
 
-                // check to avoid conversion of UUID from byte[] to String
-                if ( CONSUMER_LOG.isDebugEnabled() )
+            case MODIFY:
+                CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+
+                if ( deltaModifications != null )
+                {
+                    applyDelta( remoteEntry, deltaModifications, rid );
+                }
+                else
                 {
-                    CONSUMER_LOG.debug( "state name {}", state.name() );
-                    CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+                    modify( remoteEntry, rid );
                 }
 
-                Dn remoteDn = remoteEntry.getDn();
+                break;
+
+            case MODDN:
+                applyModDnOperation( remoteEntry, entryUuid, rid );
+
+                break;
 
-                switch ( state )
+            case DELETE:
+                CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+
+                if ( !session.exists( remoteDn ) )
+                {
+                    CONSUMER_LOG
+                        .debug(
+                            "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
+                            remoteDn );
+                }
+                else
                 {
-                    case ADD:
-                        boolean remoteDnExist = false;
+                    // incase of a MODDN operation resulting in a branch to be moved out of scope
+                    // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
+                    // so the branch needs to be recursively deleted here
+                    deleteRecursive( remoteEntry.getDn(), rid );
+                }
 
-                        try
-                        {
-                            remoteDnExist = session.exists( remoteDn );
-                        }
-                        catch ( LdapNoSuchObjectException lnsoe )
-                        {
-                            CONSUMER_LOG.error( lnsoe.getMessage() );
-                        }
+                break;
 
-                        if ( !remoteDnExist )
-                        {
-                            CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
-                            CONSUMER_LOG.debug( remoteEntry.toString() );
-                            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
-                            addContext.setReplEvent( true );
-                            addContext.setRid( rid );
-
-                            OperationManager operationManager = directoryService.getOperationManager();
-                            operationManager.add( addContext );
-                        }
-                        else
-                        {
-                            CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
-                            modify( remoteEntry, rid );
-                        }
+            case PRESENT:
+                CONSUMER_LOG.debug( "entry present {}", remoteEntry );
+                break;
 
-                        break;
+            default:
+                throw new IllegalArgumentException( "Unexpected sync state " + state );
+        }
+    }
 
-                    case MODIFY:
-                        CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
-                        modify( remoteEntry, rid );
 
-                        break;
+    /**
+     * Process a chunk of entries of a snapshot refresh : the entries are added in parallel
+     * when they are not parent and child, through a reduced interceptor chain. The partition
+     * is not synced on each write until the end of the refresh.
+     */
+    private void handleSnapshotChunk( IntermediateResponse chunk )
+    {
+        try
+        {
+            List<Entry> entries = ReplicaSnapshot.decode( schemaManager, chunk.getResponseValue() );
 
-                    case MODDN:
-                        String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() ).toString();
-                        applyModDnOperation( remoteEntry, entryUuid, rid );
+            CONSUMER_LOG.debug( "Received a snapshot chunk of {} entries", entries.size() );
 
-                        break;
+            if ( ( bulkLoadPartition == null ) && !entries.isEmpty() )
+            {
+                startBulkLoad( entries.get( 0 ).getDn() );
+            }
 
-                    case DELETE:
-                        CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+            for ( Entry entry : entries )
+            {
+                String uuid = entry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
 
-                        if ( !session.exists( remoteDn ) )
-                        {
-                            CONSUMER_LOG
-                                .debug(
-                                    "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
-                                    remoteDn );
-                        }
-                        else
-                        {
-                            // incase of a MODDN operation resulting in a branch to be moved out of scope
-                            // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
-                            // so the branch needs to be recursively deleted here
-                            deleteRecursive( remoteEntry.getDn(), rid );
-                        }
+                applier.submit( uuid, entry.getDn(), null,
+                    new EntryUpdate( SyncStateTypeEnum.ADD, entry, null, uuid, uuid, -1, true ) );
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Interrupted while loading a snapshot chunk" );
+            Thread.currentThread().interrupt();
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( "Failed to load a snapshot chunk", e );
+        }
+    }
 
-                        break;
 
-                    case PRESENT:
-                        CONSUMER_LOG.debug( "entry present {}", remoteEntry );
-                        break;
+    /**
+     * Process a compressed batch of changes sent during the persist phase : each change is
+     * applied as if it had been received in its own SearchResultEntry.
+     */
+    private void handleEventBatch( IntermediateResponse batch )
+    {
+        try
+        {
+            List<ReplicaEventBatch.BatchEvent> events = ReplicaEventBatch.decode( schemaManager,
+                batch.getResponseValue() );
 
-                    default:
-                        throw new IllegalArgumentException( "Unexpected sync state " + state );
-                }
+            CONSUMER_LOG.debug( "Received a batch of {} changes", events.size() );
 
-                // store the cookie only if the above operation was successful
-                if ( syncStateCtrl.getCookie() != null )
-                {
-                    storeCookie();
-                }
+            for ( ReplicaEventBatch.BatchEvent event : events )
+            {
+                submitUpdate( event.getState(), event.getEntry(), event.getEntryUuid(), event.getCookie() );
             }
         }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Interrupted while applying a batch of changes" );
+            Thread.currentThread().interrupt();
+        }
         catch ( Exception e )
         {
-            CONSUMER_LOG.error( e.getMessage(), e );
+            CONSUMER_LOG.error( "Failed to apply a batch of changes", e );
         }
+    }
 
-        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+
+    /**
+     * Disable the sync on each write of the partition being loaded
+     */
+    private void startBulkLoad( Dn dn ) throws LdapException
+    {
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        if ( partition instanceof AbstractBTreePartition )
+        {
+            bulkLoadPartition = ( AbstractBTreePartition ) partition;
+            bulkLoadSyncOnWrite = bulkLoadPartition.isSyncOnWrite();
+            bulkLoadPartition.setSyncOnWrite( false );
+
+            CONSUMER_LOG.info( "Starting the bulk load of partition {}", partition.getId() );
+        }
+    }
+
+
+    /**
+     * Restore the sync on write flag of the bulk loaded partition, and sync it
+     */
+    private void endBulkLoad()
+    {
+        if ( bulkLoadPartition == null )
+        {
+            return;
+        }
+
+        try
+        {
+            bulkLoadPartition.setSyncOnWrite( bulkLoadSyncOnWrite );
+            bulkLoadPartition.sync();
+
+            CONSUMER_LOG.info( "Bulk load of partition {} done", bulkLoadPartition.getId() );
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( "Failed to sync the partition {}", bulkLoadPartition.getId(), e );
+        }
+        finally
+        {
+            bulkLoadPartition = null;
+        }
+    }
+
+
+    /**
+     * Called by the {@link ReplicationApplier} when all the updates up to the one
+     * associated with the given cookie have been applied. The cookie is stored once
+     * enough updates have been applied, or when there are no more updates to apply.
+     */
+    private synchronized void cookieApplied( byte[] cookie, boolean idle )
+    {
+        syncCookie = cookie;
+        appliedSinceStore++;
+
+        if ( idle || ( appliedSinceStore >= config.getCookieBatchSize() ) )
+        {
+            storeCookie();
+        }
     }
 
 
@@ -477,6 +798,29 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         {
             CONSUMER_LOG.debug( "............... inside handleSyncInfo ..............." );
 
+            if ( ReplicaSnapshot.SNAPSHOT_CHUNK_OID.equals( syncInfoResp.getResponseName() ) )
+            {
+                handleSnapshotChunk( syncInfoResp );
+
+                return;
+            }
+
+            if ( ReplicaEventBatch.EVENT_BATCH_OID.equals( syncInfoResp.getResponseName() ) )
+            {
+                handleEventBatch( syncInfoResp );
+
+                return;
+            }
+
+            // The pending updates must be applied before the deletions and the new cookie
+            drainUpdates();
+
+            if ( applier.hasFailed() )
+            {
+                // The synchronization will be restarted from the last stored cookie
+                return;
+            }
+
             byte[] syncInfoBytes = syncInfoResp.getResponseValue();
 
             if ( syncInfoBytes == null )
@@ -705,6 +1049,11 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         {
             disconnect();
         }
+
+        if ( applier != null )
+        {
+            applier.shutdown();
+        }
     }
 
 
@@ -757,6 +1106,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         // Do the search. We use a searchAsync because we want to get SearchResultDone responses
         SearchFuture sf = connection.searchAsync( searchRequest );
+        syncSearchFuture = sf;
 
         Response resp = sf.get();
 
@@ -764,7 +1114,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         // Now, process the responses. We loop until we have a connection termination or
         // a SearchResultDone (RefreshOnly mode)
-        while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
+        while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected && !applier.hasFailed() )
         {
             if ( resp instanceof SearchResultEntry )
             {
@@ -786,6 +1136,22 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
             CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
         }
 
+        syncSearchFuture = null;
+
+        // Let the received updates be applied before a new synchronization is started
+        drainUpdates();
+
+        if ( applier.hasFailed() )
+        {
+            if ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
+            {
+                // The changes following the failed update will be sent again
+                sf.cancel( true );
+            }
+
+            return handleFailedUpdate();
+        }
+
         if ( sf.isCancelled() )
         {
 
@@ -820,33 +1186,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
             {
                 CONSUMER_LOG.warn( "Full SYNC_REFRESH required from {}", config.getProducer() );
 
-                reload = true;
-
-                try
-                {
-                    CONSUMER_LOG.debug( "Deleting baseDN {}", config.getBaseDn() );
-
-                    // FIXME taking a backup right before deleting might be a good thing, just to be safe.
-                    // the backup file can be deleted after reload completes successfully
-
-                    // the 'rid' value is not taken into consideration when 'reload' is set
-                    // so any dummy value is fine
-                    deleteRecursive( new Dn( config.getBaseDn() ), -1000 );
-                }
-                catch ( Exception e )
-                {
-                    CONSUMER_LOG
-                        .error(
-                            "Failed to delete the replica base as part of handling E_SYNC_REFRESH_REQUIRED, disconnecting the consumer",
-                            e );
-                }
-
-                // Do a full update.
-                removeCookie();
-
-                CONSUMER_LOG.debug( "Re-doing a syncRefresh from producer {}", config.getProducer() );
-
-                return ReplicationStatusEnum.REFRESH_REQUIRED;
+                return refreshRequired();
             }
             else
             {
@@ -858,6 +1198,75 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Delete the replicated content and the cookie, so that the whole content is sent again
+     * by the provider.
+     */
+    private ReplicationStatusEnum refreshRequired()
+    {
+        reload = true;
+
+        try
+        {
+            CONSUMER_LOG.debug( "Deleting baseDN {}", config.getBaseDn() );
+
+            // FIXME taking a backup right before deleting might be a good thing, just to be safe.
+            // the backup file can be deleted after reload completes successfully
+
+            // the 'rid' value is not taken into consideration when 'reload' is set
+            // so any dummy value is fine
+            deleteRecursive( new Dn( config.getBaseDn() ), -1000 );
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( "Failed to delete the replica base before a full refresh", e );
+        }
+
+        // Do a full update.
+        removeCookie();
+
+        CONSUMER_LOG.debug( "Re-doing a syncRefresh from producer {}", config.getProducer() );
+
+        return ReplicationStatusEnum.REFRESH_REQUIRED;
+    }
+
+
+    /**
+     * Called when an update could not be applied : the cookies received after it have not been
+     * stored, so the synchronization is restarted from the last stored cookie and the provider sends
+     * the following changes again. If the updates fail again before the stored cookie has moved,
+     * the whole content is refreshed.
+     */
+    private ReplicationStatusEnum handleFailedUpdate()
+    {
+        applier.reset();
+
+        // Store the cookie covering the updates applied before the failed one
+        storeCookie();
+
+        if ( disconnected )
+        {
+            return ReplicationStatusEnum.DISCONNECTED;
+        }
+
+        if ( retryingFailedUpdate && Arrays.equals( lastSavedCookie, failedUpdateCookie ) )
+        {
+            CONSUMER_LOG.warn( "The updates received from {} failed again, doing a full refresh",
+                config.getProducer() );
+            retryingFailedUpdate = false;
+
+            return refreshRequired();
+        }
+
+        CONSUMER_LOG.warn( "An update received from {} could not be applied, restarting from the last stored cookie",
+            config.getProducer() );
+        retryingFailedUpdate = true;
+        failedUpdateCookie = lastSavedCookie;
+
+        return ReplicationStatusEnum.REFRESH_REQUIRED;
+    }
+
+
     /**
      * Disconnect from the producer
      */
@@ -899,12 +1308,33 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Wait until all the received updates have been applied
+     */
+    private void drainUpdates()
+    {
+        try
+        {
+            applier.drain();
+        }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Interrupted while waiting for the updates to be applied" );
+            Thread.currentThread().interrupt();
+        }
+
+        // A snapshot refresh is always followed by a sync info message or a search done
+        endBulkLoad();
+    }
+
+
     /**
      * stores the cookie.
      */
-    private void storeCookie()
+    private synchronized void storeCookie()
     {
         CONSUMER_LOG.debug( "Storing the cookie '{}'", Strings.utf8ToString( syncCookie ) );
+        appliedSinceStore = 0;
 
         if ( syncCookie == null )
         {
@@ -1196,6 +1626,199 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Apply the modifications sent by the provider in delta mode. Modifications which
+     * have already been applied are skipped, so that a replayed delta is harmless. In
+     * MMR mode, when the local entry is more recent than the remote one, the replace
+     * and whole attribute removal modifications are discarded, as they would overwrite
+     * the local values, while the values additions and removals are still applied as
+     * they don't depend on the order in which they are received.
+     */
+    private void applyDelta( Entry remoteEntry, List<Modification> deltaModifications, int rid ) throws Exception
+    {
+        Dn dn = remoteEntry.getDn();
+        List<String> attributes = new ArrayList<String>();
+        attributes.add( SchemaConstants.ENTRY_CSN_AT );
+
+        for ( Modification modification : deltaModifications )
+        {
+            attributes.add( modification.getAttribute().getAttributeType().getOid() );
+        }
+
+        LookupOperationContext lookupCtx =
+            new LookupOperationContext( session, dn, attributes.toArray( new String[attributes.size()] ) );
+
+        lookupCtx.setSyncreplLookup( true );
+
+        Entry localEntry = session.getDirectoryService().getOperationManager().lookup( lookupCtx );
+
+        if ( localEntry == null )
+        {
+            // A missing entry is a failed update : the cookie is not stored, and the changes are
+            // received again, or the whole content is refreshed
+            throw new LdapNoSuchObjectException( "Cannot apply the modifications on the missing entry " + dn );
+        }
+
+        boolean localIsNewer = false;
+
+        if ( config.isMmrMode() )
+        {
+            Csn localCsn = new Csn( localEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+            Csn remoteCsn = new Csn( remoteEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+            localIsNewer = localCsn.compareTo( remoteCsn ) >= 0;
+        }
+
+        List<Modification> serverModifications = new ArrayList<Modification>( deltaModifications.size() );
+
+        for ( Modification modification : deltaModifications )
+        {
+            Attribute remoteAttr = modification.getAttribute();
+            AttributeType attributeType = remoteAttr.getAttributeType();
+
+            if ( isModIgnored( attributeType ) )
+            {
+                continue;
+            }
+
+            Attribute localAttr = localEntry.get( attributeType );
+
+            switch ( modification.getOperation() )
+            {
+                case ADD_ATTRIBUTE:
+                    Attribute added = new DefaultAttribute( attributeType );
+
+                    for ( Value value : remoteAttr )
+                    {
+                        if ( ( localAttr == null ) || !localAttr.contains( value ) )
+                        {
+                            added.add( value );
+                        }
+                    }
+
+                    if ( added.size() > 0 )
+                    {
+                        serverModifications.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                            added ) );
+                        localEntry.add( added.clone() );
+                    }
+
+                    break;
+
+                case REMOVE_ATTRIBUTE:
+                    if ( localAttr == null )
+                    {
+                        // Nothing to remove
+                        break;
+                    }
+
+                    if ( remoteAttr.size() == 0 )
+                    {
+                        if ( !localIsNewer )
+                        {
+                            serverModifications.add( modification );
+                            localEntry.removeAttributes( attributeType );
+                        }
+
+                        break;
+                    }
+
+                    Attribute removed = new DefaultAttribute( attributeType );
+
+                    for ( Value value : remoteAttr )
+                    {
+                        if ( localAttr.contains( value ) )
+                        {
+                            removed.add( value );
+                        }
+                    }
+
+                    if ( removed.size() > 0 )
+                    {
+                        serverModifications.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+                            removed ) );
+
+                        for ( Value value : removed )
+                        {
+                            localAttr.remove( value );
+                        }
+
+                        if ( localAttr.size() == 0 )
+                        {
+                            localEntry.removeAttributes( attributeType );
+                        }
+                    }
+
+                    break;
+
+                case REPLACE_ATTRIBUTE:
+                    if ( localIsNewer )
+                    {
+                        CONSUMER_LOG.debug( "local modification is latest, discarding the replacement of {} in {}",
+                            attributeType.getName(), dn );
+                        break;
+                    }
+
+                    serverModifications.add( modification );
+
+                    if ( remoteAttr.size() == 0 )
+                    {
+                        localEntry.removeAttributes( attributeType );
+                    }
+                    else
+                    {
+                        localEntry.put( remoteAttr.clone() );
+                    }
+
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected modification " + modification.getOperation() );
+            }
+        }
+
+        if ( serverModifications.isEmpty() )
+        {
+            CONSUMER_LOG.debug( "the modifications have already been applied on the entry {}", dn );
+            return;
+        }
+
+        if ( localIsNewer )
+        {
+            // Keep the local CSN, otherwise a new one would be generated
+            Attribute localCsnAttr = localEntry.get( SchemaConstants.ENTRY_CSN_AT ).clone();
+            serverModifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, localCsnAttr ) );
+        }
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( session, dn, serverModifications );
+        modifyContext.setReplEvent( true );
+        modifyContext.setRid( rid );
+
+        OperationManager operationManager = directoryService.getOperationManager();
+        operationManager.modify( modifyContext );
+    }
+
+
+    /**
+     * Tells if the modifications of the given AttributeType are ignored
+     */
+    private boolean isModIgnored( AttributeType attributeType )
+    {
+        for ( String ignored : MOD_IGNORE_AT )
+        {
+            for ( String name : attributeType.getNames() )
+            {
+                if ( name.equalsIgnoreCase( ignored ) )
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+
     /**
      * Create a new list combining a list and a newly added attribute
      */
@@ -1376,17 +1999,21 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
-    private synchronized Object getLockFor( String uuid )
+    private Object getLockFor( String uuid )
     {
-        Object lock = UUID_LOCK_MAP.get( uuid );
-
-        if ( lock == null )
+        // The map is shared by all the consumers
+        synchronized ( UUID_LOCK_MAP )
         {
-            lock = new Object();
-            UUID_LOCK_MAP.put( uuid, lock );
-        }
+            Object lock = UUID_LOCK_MAP.get( uuid );
+
+            if ( lock == null )
+            {
+                lock = new Object();
+                UUID_LOCK_MAP.put( uuid, lock );
+            }
 
-        return lock;
+            return lock;
+        }
     }
 
 
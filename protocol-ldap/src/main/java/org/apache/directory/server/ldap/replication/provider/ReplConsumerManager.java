@@ -89,6 +89,9 @@ public class ReplConsumerManager
     /** An AdsReplLastSentCsn AT instance */
     private AttributeType adsReplLastSentCsn;
 
+    /** The journal shared by the replica event logs */
+    private ReplicaEventJournal journal;
+
     /** A map containing the last sent CSN for every connected consumer */
     private Map<Integer, Modification> modMap = new ConcurrentHashMap<Integer, Modification>();
 
@@ -97,11 +100,13 @@ public class ReplConsumerManager
      * Create a new instance of the producer replication manager.
      * 
      * @param directoryService The directoryService instance
+     * @param journal The journal shared by the replica event logs
      * @throws Exception if we add an error while creating the configuration
      */
-    public ReplConsumerManager( DirectoryService directoryService ) throws Exception
+    public ReplConsumerManager( DirectoryService directoryService, ReplicaEventJournal journal ) throws Exception
     {
         this.directoryService = directoryService;
+        this.journal = journal;
         adminSession = directoryService.getAdminSession();
         schemaManager = directoryService.getSchemaManager();
         replConsumerDn = directoryService.getDnFactory().create( REPL_CONSUMER_DN_STR );
@@ -294,7 +299,7 @@ public class ReplConsumerManager
     private ReplicaEventLog convertEntryToReplica( Entry entry ) throws Exception
     {
         String id = entry.get( SchemaConstants.ADS_DS_REPLICA_ID ).getString();
-        ReplicaEventLog replica = new ReplicaEventLog( directoryService, Integer.parseInt( id ) );
+        ReplicaEventLog replica = new ReplicaEventLog( directoryService, journal, Integer.parseInt( id ) );
 
         NotificationCriteria searchCriteria = new NotificationCriteria( schemaManager );
 
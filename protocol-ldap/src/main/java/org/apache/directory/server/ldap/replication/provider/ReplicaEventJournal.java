@@ -0,0 +1,795 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The replication journal shared by all the consumers of a provider. Each change is appended
+ * once, whatever the number of consumers, to a sequence of memory mapped segment files. The
+ * consumers only keep the CSN they have reached : the messages they are interested in are
+ * selected when the journal is read (see {@link ReplicaJournalCursor}).<br/>
+ * A record has the following layout :
+ * <pre>
+ * [length (int)][origin replica ID (int)][original DN (UTF)][CSN (UTF)][serialized ReplicaEventMessage]
+ * </pre>
+ * A zero length marks the end of the written part of a segment. Old messages are removed by
+ * dropping whole segments, never by rewriting them : a dropped segment is first marked as purged,
+ * so that it is not loaded again if its file can't be deleted immediately.<br/>
+ * The segments are not flushed on disk after each record, but at most every sync interval, when
+ * a segment is full and when the journal is closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaEventJournal
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( ReplicaEventJournal.class );
+
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The name of the directory containing the segments, under the replication directory */
+    public static final String JOURNAL_DIR_NAME = "REPL_JOURNAL";
+
+    /** The segment files extension */
+    public static final String SEGMENT_EXTENSION = ".seg";
+
+    /** The default segment size : 64Mb */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** The default interval between two flushes of the segment being written, in milliseconds */
+    public static final long DEFAULT_SYNC_INTERVAL = 100L;
+
+    /** The value stored at the beginning of a segment which has been purged */
+    private static final int PURGED = -1;
+
+    /** The value stored for a message which has not been produced by a replicated operation */
+    public static final int NO_ORIGIN = -1;
+
+    /** The number of recently appended messages we remember to avoid storing them twice */
+    private static final int RECENT_KEYS_SIZE = 1024;
+
+    /** The directory containing the segments */
+    private final File journalDir;
+
+    /** The size of a new segment */
+    private final int segmentSize;
+
+    /** The minimum interval between two flushes of the segment being written, in milliseconds */
+    private final long syncInterval;
+
+    /** The time of the last flush */
+    private long lastSync;
+
+    /** The SchemaManager instance */
+    private final SchemaManager schemaManager;
+
+    /** The serializer used to store the messages */
+    private final ReplicaEventMessageSerializer serializer;
+
+    /** The segments, the last one being the one we append to */
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    /** The keys of the last appended messages, as each consumer's listener logs the same change */
+    private final Map<String, Boolean> recentKeys = new LinkedHashMap<String, Boolean>( RECENT_KEYS_SIZE, 0.75f,
+        false )
+    {
+        private static final long serialVersionUID = 1L;
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Boolean> eldest )
+        {
+            return size() > RECENT_KEYS_SIZE;
+        }
+    };
+
+    /** The files of the purged segments which could not be deleted yet */
+    private final List<File> pendingDeletions = new ArrayList<File>();
+
+    /** The total number of messages stored in the segments */
+    private long count;
+
+
+    /**
+     * Creates or opens the journal stored in the given directory, using the default segment size.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param journalDir The directory containing the segments
+     * @throws IOException If the segments can't be opened
+     */
+    public ReplicaEventJournal( SchemaManager schemaManager, File journalDir ) throws IOException
+    {
+        this( schemaManager, journalDir, DEFAULT_SEGMENT_SIZE );
+    }
+
+
+    /**
+     * Creates or opens the journal stored in the given directory, using the default sync interval.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param journalDir The directory containing the segments
+     * @param segmentSize The size of the newly created segments
+     * @throws IOException If the segments can't be opened
+     */
+    public ReplicaEventJournal( SchemaManager schemaManager, File journalDir, int segmentSize ) throws IOException
+    {
+        this( schemaManager, journalDir, segmentSize, DEFAULT_SYNC_INTERVAL );
+    }
+
+
+    /**
+     * Creates or opens the journal stored in the given directory. The messages appended since the
+     * last flush may be lost if the system crashes, they are not if only the server does.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param journalDir The directory containing the segments
+     * @param segmentSize The size of the newly created segments
+     * @param syncInterval The minimum interval between two flushes on disk, in milliseconds. 0 flushes
+     * the segment after each message
+     * @throws IOException If the segments can't be opened
+     */
+    public ReplicaEventJournal( SchemaManager schemaManager, File journalDir, int segmentSize, long syncInterval )
+        throws IOException
+    {
+        this.schemaManager = schemaManager;
+        this.journalDir = journalDir;
+        this.segmentSize = segmentSize;
+        this.syncInterval = syncInterval;
+        this.serializer = new ReplicaEventMessageSerializer( schemaManager );
+
+        if ( !journalDir.exists() && !journalDir.mkdirs() )
+        {
+            throw new IOException( "Cannot create the replication journal directory " + journalDir );
+        }
+
+        File[] files = journalDir.listFiles( new FilenameFilter()
+        {
+            @Override
+            public boolean accept( File dir, String name )
+            {
+                return name.endsWith( SEGMENT_EXTENSION );
+            }
+        } );
+
+        // The segment names are zero padded numbers, so the names order is the creation order
+        Arrays.sort( files );
+
+        for ( File file : files )
+        {
+            Segment segment = new Segment( file, 0L );
+
+            if ( segment.purged )
+            {
+                // A segment purged before the last shutdown, but which could not be deleted
+                delete( segment );
+                continue;
+            }
+
+            segments.add( segment );
+            count += segment.count;
+        }
+
+        PROVIDER_LOG.debug( "Opened the replication journal {} : {} segments, {} messages", journalDir,
+            segments.size(), count );
+    }
+
+
+    /**
+     * Appends a message to the journal. The message is ignored if it has already been appended
+     * while processing the same operation for another consumer.
+     *
+     * @param message The message to store
+     * @param originalDn The entry DN before a MODDN operation, or null
+     * @param originRid The ID of the replica the operation has been received from, or {@link #NO_ORIGIN}
+     * @throws IOException If the message can't be written
+     */
+    public synchronized void append( ReplicaEventMessage message, Dn originalDn, int originRid ) throws IOException
+    {
+        String csn;
+
+        try
+        {
+            csn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
+        }
+        catch ( LdapException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+
+        String key = message.getChangeType() + ":" + csn + ":" + message.getEntry().getDn().getNormName();
+
+        if ( recentKeys.put( key, Boolean.TRUE ) != null )
+        {
+            // Already stored
+            return;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( DataOutputStream out = new DataOutputStream( baos ) )
+        {
+            out.writeInt( originRid );
+            out.writeUTF( originalDn == null ? "" : originalDn.getName() );
+            out.writeUTF( csn );
+            out.write( serializer.serialize( message ) );
+        }
+
+        byte[] record = baos.toByteArray();
+        Segment segment = segments.isEmpty() ? null : segments.get( segments.size() - 1 );
+
+        if ( ( segment == null ) || !segment.hasRoomFor( record.length ) )
+        {
+            if ( segment != null )
+            {
+                // The full segment won't be written anymore
+                segment.force();
+            }
+
+            long number = ( segment == null ) ? 0L : segment.number + 1;
+
+            // A record bigger than the segment size gets a segment of its own
+            int size = Math.max( segmentSize, record.length + 8 );
+            File file = new File( journalDir, String.format( "%020d", number ) + SEGMENT_EXTENSION );
+            segment = new Segment( file, size );
+            segments.add( segment );
+
+            LOG.debug( "Created the replication journal segment {}", file );
+        }
+
+        segment.append( record, csn );
+        count++;
+
+        long now = System.currentTimeMillis();
+
+        if ( now - lastSync >= syncInterval )
+        {
+            segment.force();
+            lastSync = now;
+        }
+    }
+
+
+    /**
+     * Flushes on disk the messages appended since the last flush.
+     */
+    public synchronized void sync()
+    {
+        if ( !segments.isEmpty() )
+        {
+            segments.get( segments.size() - 1 ).force();
+        }
+
+        lastSync = System.currentTimeMillis();
+    }
+
+
+    /**
+     * Tells if the given segment may contain messages more recent than the given CSN.
+     *
+     * @param segment The segment
+     * @param csn The CSN, or null
+     * @return true if the segment has to be read
+     */
+    boolean isNewer( Segment segment, String csn )
+    {
+        return ( csn == null ) || ( segment.maxCsn == null ) || ( segment.maxCsn.compareTo( csn ) > 0 );
+    }
+
+
+    /**
+     * @return A copy of the current segments list
+     */
+    synchronized List<Segment> getSegments()
+    {
+        return new ArrayList<Segment>( segments );
+    }
+
+
+    /**
+     * Reads the record stored at the given position in a segment.
+     *
+     * @param segment The segment
+     * @param position The record position
+     * @return The record, or null if there is no more record in the segment
+     * @throws IOException If the record can't be read
+     */
+    JournalRecord read( Segment segment, int position ) throws IOException
+    {
+        byte[] data = segment.read( position );
+
+        if ( data == null )
+        {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+
+        JournalRecord record = new JournalRecord();
+        record.originRid = in.readInt();
+        record.originalDn = in.readUTF();
+        record.csn = in.readUTF();
+        record.data = data;
+        record.messageOffset = data.length - in.available();
+        record.nextPosition = position + 4 + data.length;
+
+        return record;
+    }
+
+
+    /**
+     * Drops the segments only containing messages older than the given CSN and the given time.
+     * The segment being written is never dropped.
+     *
+     * @param csn The CSN all the consumers have reached, or null if there is no consumer
+     * @param olderThan The time, in milliseconds, before which the messages can be removed
+     * @return The number of removed messages
+     */
+    public synchronized long purge( String csn, long olderThan )
+    {
+        retryDeletions();
+
+        long removed = 0L;
+        Iterator<Segment> iterator = segments.iterator();
+
+        while ( iterator.hasNext() )
+        {
+            Segment segment = iterator.next();
+
+            if ( ( segment == segments.get( segments.size() - 1 ) ) || ( segment.maxCsn == null ) )
+            {
+                break;
+            }
+
+            if ( ( ( csn != null ) && ( segment.maxCsn.compareTo( csn ) >= 0 ) )
+                || ( new Csn( segment.maxCsn ).getTimestamp() >= olderThan ) )
+            {
+                // Messages are appended in CSN order, the next segments are more recent
+                break;
+            }
+
+            segment.markPurged();
+            delete( segment );
+            iterator.remove();
+            count -= segment.count;
+            removed += segment.count;
+
+            LOG.debug( "Removed the replication journal segment {}", segment.file );
+        }
+
+        return removed;
+    }
+
+
+    /**
+     * Releases and deletes the file of a purged segment. The file is kept in the pending deletions
+     * if it can't be deleted, as it happens on Windows when the mapping is still in use.
+     */
+    private void delete( Segment segment )
+    {
+        segment.close();
+
+        if ( !segment.file.delete() && segment.file.exists() )
+        {
+            LOG.info( "Cannot delete the replication journal segment {} yet", segment.file );
+            pendingDeletions.add( segment.file );
+        }
+    }
+
+
+    /**
+     * Deletes the purged segment files which could not be deleted before.
+     */
+    private void retryDeletions()
+    {
+        Iterator<File> iterator = pendingDeletions.iterator();
+
+        while ( iterator.hasNext() )
+        {
+            File file = iterator.next();
+
+            if ( file.delete() || !file.exists() )
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of messages stored in the journal
+     */
+    public synchronized long count()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The SchemaManager instance
+     */
+    public SchemaManager getSchemaManager()
+    {
+        return schemaManager;
+    }
+
+
+    /**
+     * Closes the journal
+     */
+    public synchronized void close()
+    {
+        for ( Segment segment : segments )
+        {
+            segment.force();
+            segment.close();
+        }
+
+        segments.clear();
+        recentKeys.clear();
+
+        retryDeletions();
+
+        for ( File file : pendingDeletions )
+        {
+            // It will be deleted when the journal is opened again, as it is marked as purged
+            LOG.warn( "Cannot delete the replication journal segment {}", file );
+        }
+
+        pendingDeletions.clear();
+    }
+
+
+    /**
+     * A record read from the journal. The message is only deserialized when needed.
+     */
+    class JournalRecord
+    {
+        /** The ID of the replica the change has been received from */
+        int originRid;
+
+        /** The entry DN before a MODDN operation, empty for the other operations */
+        String originalDn;
+
+        /** The message CSN */
+        String csn;
+
+        /** The record content */
+        byte[] data;
+
+        /** The position of the serialized message in the record content */
+        int messageOffset;
+
+        /** The position of the next record in the segment */
+        int nextPosition;
+
+
+        /**
+         * @return The stored message
+         * @throws IOException If the message can't be deserialized
+         */
+        ReplicaEventMessage getMessage() throws IOException
+        {
+            return ( ReplicaEventMessage ) serializer.deserialize( Arrays.copyOfRange( data, messageOffset,
+                data.length ) );
+        }
+    }
+
+
+    /**
+     * Releases the memory mapped by a buffer, instead of waiting for the buffer to be garbage
+     * collected. The buffer must not be used anymore.
+     */
+    private static void unmap( MappedByteBuffer buffer )
+    {
+        try
+        {
+            // Java 9 and above
+            Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+            Method invokeCleaner = unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class );
+            Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+            theUnsafe.setAccessible( true );
+            invokeCleaner.invoke( theUnsafe.get( null ), buffer );
+
+            return;
+        }
+        catch ( NoSuchMethodException nsme )
+        {
+            // Before Java 9, use the buffer cleaner below
+        }
+        catch ( Exception e )
+        {
+            LOG.debug( "Cannot unmap the replication journal segment", e );
+
+            return;
+        }
+
+        try
+        {
+            Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+            cleanerMethod.setAccessible( true );
+            Object cleaner = cleanerMethod.invoke( buffer );
+
+            if ( cleaner != null )
+            {
+                cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.debug( "Cannot unmap the replication journal segment", e );
+        }
+    }
+
+
+    /**
+     * A memory mapped segment file. The records are read without holding the journal lock, the
+     * segment read lock prevents the mapping from being released while a record is copied.
+     */
+    static class Segment
+    {
+        /** The segment file */
+        final File file;
+
+        /** The segment number */
+        final long number;
+
+        /** The mapped file */
+        private volatile MappedByteBuffer buffer;
+
+        /** The size of the mapped file */
+        private final int capacity;
+
+        /** Protects the mapping against its release while it is read */
+        private final ReentrantReadWriteLock mappingLock = new ReentrantReadWriteLock();
+
+        /** Tells if records have been written since the last flush */
+        private boolean dirty;
+
+        /** Tells if the segment has been purged */
+        final boolean purged;
+
+        /** The position of the end of the last record */
+        volatile int writePosition;
+
+        /** The number of records stored in the segment */
+        long count;
+
+        /** The highest CSN stored in the segment */
+        volatile String maxCsn;
+
+
+        /**
+         * Opens a segment, creating it with the given size if it does not exist.
+         */
+        Segment( File file, long size ) throws IOException
+        {
+            this.file = file;
+            String name = file.getName();
+            number = Long.parseLong( name.substring( 0, name.length() - SEGMENT_EXTENSION.length() ) );
+
+            try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+            {
+                if ( raf.length() < size )
+                {
+                    raf.setLength( size );
+                }
+
+                // The mapping remains valid once the file is closed
+                buffer = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, raf.length() );
+            }
+
+            capacity = buffer.capacity();
+            purged = ( capacity >= 4 ) && ( buffer.getInt( 0 ) == PURGED );
+
+            // Find the end of the written part, restoring the segment state
+            int position = 0;
+            byte[] data = readAt( position );
+
+            while ( data != null )
+            {
+                DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+                in.readInt();
+                in.readUTF();
+                updateMaxCsn( in.readUTF() );
+                count++;
+                position += 4 + data.length;
+                data = readAt( position );
+            }
+
+            writePosition = position;
+        }
+
+
+        /**
+         * Tells if a record of the given length can be written in this segment
+         */
+        boolean hasRoomFor( int length )
+        {
+            // keep room for the record length and the end marker
+            return writePosition + 4 + length + 4 <= capacity;
+        }
+
+
+        /**
+         * Writes a record, which is flushed on disk by the next {@link #force()}. The length is
+         * written last, so that a partially written record is never read.
+         */
+        void append( byte[] record, String csn )
+        {
+            int position = writePosition;
+            ByteBuffer target = buffer.duplicate();
+            target.position( position + 4 );
+            target.put( record );
+            buffer.putInt( position, record.length );
+            dirty = true;
+
+            updateMaxCsn( csn );
+            count++;
+            writePosition = position + 4 + record.length;
+        }
+
+
+        /**
+         * Reads the record stored at the given position, if it has been completely appended.
+         *
+         * @return The record content, or null if there is no record at this position
+         */
+        byte[] read( int position )
+        {
+            if ( position >= writePosition )
+            {
+                return null;
+            }
+
+            return readAt( position );
+        }
+
+
+        /**
+         * Reads the record stored at the given position in the mapped file.
+         */
+        private byte[] readAt( int position )
+        {
+            mappingLock.readLock().lock();
+
+            try
+            {
+                MappedByteBuffer mapped = buffer;
+
+                if ( ( mapped == null ) || ( position + 4 > capacity ) )
+                {
+                    return null;
+                }
+
+                int length = mapped.getInt( position );
+
+                if ( ( length <= 0 ) || ( position + 4 + length > capacity ) )
+                {
+                    return null;
+                }
+
+                byte[] data = new byte[length];
+                ByteBuffer source = mapped.duplicate();
+                source.position( position + 4 );
+                source.get( data );
+
+                return data;
+            }
+            finally
+            {
+                mappingLock.readLock().unlock();
+            }
+        }
+
+
+        private void updateMaxCsn( String csn )
+        {
+            if ( ( maxCsn == null ) || ( csn.compareTo( maxCsn ) > 0 ) )
+            {
+                maxCsn = csn;
+            }
+        }
+
+
+        /**
+         * Flushes on disk the records written since the last flush.
+         */
+        void force()
+        {
+            if ( dirty && ( buffer != null ) )
+            {
+                buffer.force();
+                dirty = false;
+            }
+        }
+
+
+        /**
+         * Marks the segment as purged, so that it is ignored if its file is found when the
+         * journal is opened. The segment can't be read anymore.
+         */
+        void markPurged()
+        {
+            if ( ( buffer != null ) && ( capacity >= 4 ) )
+            {
+                buffer.putInt( 0, PURGED );
+                buffer.force();
+            }
+        }
+
+
+        /**
+         * Releases the segment and its mapping, once the pending reads are done.
+         */
+        void close()
+        {
+            mappingLock.writeLock().lock();
+
+            try
+            {
+                MappedByteBuffer mapped = buffer;
+                buffer = null;
+
+                if ( mapped != null )
+                {
+                    unmap( mapped );
+                }
+            }
+            finally
+            {
+                mappingLock.writeLock().unlock();
+            }
+        }
+    }
+}
@@ -21,25 +21,13 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
-import java.io.IOException;
-
-import jdbm.RecordManager;
-import jdbm.recman.BaseRecordManager;
-import jdbm.recman.TransactionManager;
-
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,8 +43,8 @@ import org.slf4j.LoggerFactory;
  * <li>refreshNPersist : a flag indicating that the consumer is processing in Refresh and persist mode</li>
  * <li></li>
  * </ul>
- * A separate log is maintained for each syncrepl consumer.<br/>
- * We also associate a Queue with each structure, which will store the messages to send to the consumer.
+ * The messages are stored once in the {@link ReplicaEventJournal} shared by all the consumers, each
+ * consumer only keeping the last CSN it has received.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -96,14 +84,8 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     private int purgeThresholdCount = DEFAULT_PURGE_THRESHOLD_COUNT;
 
     // fields that won't be serialized
-    /** The Journal of modifications */
-    private JdbmTable<String, ReplicaEventMessage> journal;
-
-    /** the underlying file  */
-    private File journalFile;
-
-    /** The record manager*/
-    private RecordManager recman;
+    /** The Journal of modifications, shared with the other consumers */
+    private ReplicaEventJournal journal;
 
     /** A flag used to indicate that the consumer is not up to date */
     private volatile boolean dirty;
@@ -123,38 +105,40 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      * Creates a new instance of EventLog for a replica
      * 
      * @param directoryService The DirectoryService instance
+     * @param journal The journal shared by all the consumers
      * @param replicaId The replica ID
      */
-    public ReplicaEventLog( DirectoryService directoryService, int replicaId ) throws IOException
+    public ReplicaEventLog( DirectoryService directoryService, ReplicaEventJournal journal, int replicaId )
     {
         PROVIDER_LOG.debug( "Creating the replication queue for replica {}", replicaId );
         SchemaManager schemaManager = directoryService.getSchemaManager();
         this.replicaId = replicaId;
         this.searchCriteria = new NotificationCriteria( schemaManager );
         this.searchCriteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+        this.journal = journal;
+    }
 
-        // Create the journal file, or open if already exists
-        File replDir = directoryService.getInstanceLayout().getReplDirectory();
-        journalFile = new File( replDir, REPLICA_EVENT_LOG_NAME_PREFIX + replicaId );
-        recman = new BaseRecordManager( journalFile.getAbsolutePath() );
-        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
-        transactionManager.setMaximumTransactionsInLog( 200 );
-
-        SerializableComparator<String> comparator = new SerializableComparator<String>(
-            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
-        comparator.setSchemaManager( schemaManager );
 
-        journal = new JdbmTable<String, ReplicaEventMessage>( schemaManager, journalFile.getName(), recman, comparator,
-            StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
+    /**
+     * Stores the given message in the journal
+     *
+     * @param message The message to store
+     */
+    public void log( ReplicaEventMessage message )
+    {
+        log( message, null, ReplicaEventJournal.NO_ORIGIN );
     }
 
 
     /**
-     * Stores the given message in the queue 
+     * Stores the given message in the journal. The message is stored only once if the
+     * other consumers log it too.
      *
      * @param message The message to store
+     * @param originalDn The entry DN before a MODDN operation, or null
+     * @param originRid The ID of the replica the change has been received from
      */
-    public synchronized void log( ReplicaEventMessage message )
+    public void log( ReplicaEventMessage message, Dn originalDn, int originRid )
     {
         try
         {
@@ -163,9 +147,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
             PROVIDER_LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
                 message.getChangeType() );
 
-            String entryCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-            journal.put( entryCsn, message );
-            journal.sync();
+            journal.append( message, originalDn, originRid );
         }
         catch ( Exception e )
         {
@@ -205,20 +187,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     {
         PROVIDER_LOG.debug( "Stopping the EventLog for replicaId {}", replicaId );
 
-        // Close the producer and session, DO NOT close connection 
-        if ( journal != null )
-        {
-            journal.close();
-        }
-
-        journal = null;
-
-        if ( recman != null )
-        {
-            recman.close();
-        }
-
-        recman = null;
+        // The journal is shared with the other consumers, it's closed by the request handler
     }
 
 
@@ -438,7 +407,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public ReplicaJournalCursor getCursor( String consumerCsn ) throws Exception
     {
-        return new ReplicaJournalCursor( journal, consumerCsn );
+        return new ReplicaJournalCursor( journal, this, consumerCsn );
     }
 
 
@@ -447,23 +416,16 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public String getName()
     {
-        return journal.getName();
+        return REPLICA_EVENT_LOG_NAME_PREFIX + replicaId;
     }
 
 
     /**
-     * @return the number of entries present in the replica log
+     * @return the number of entries present in the shared journal
      */
-    public synchronized long count()
+    public long count()
     {
-        try
-        {
-            return journal.count();
-        }
-        catch ( IOException e )
-        {
-            throw new RuntimeException( e );
-        }
+        return journal.count();
     }
 
 
@@ -519,7 +481,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
         return "ReplicaEventLog [hostName=" + hostName + ", searchFilter=" + searchFilter + ", lastSentCsn="
             + lastSentCsn + ", searchCriteria=" + searchCriteria + ", replicaId=" + replicaId
             + ", refreshNPersist=" + refreshNPersist + ", maxInactivePeriod=" + maxIdlePeriod
-            + ", purgeThresholdCount=" + purgeThresholdCount + ", journalFile=" + journalFile
+            + ", purgeThresholdCount=" + purgeThresholdCount
             + ", dirty=" + dirty + ", consumerEntryDn=" + consumerEntryDn + "]";
     }
 }
@@ -20,21 +20,18 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.util.DateUtils;
 import org.apache.directory.server.core.api.DirectoryService;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Deletes old entries from the replication event logs that are configured in refreshNPersist mode.
+ * Deletes the idle replication event logs, and the journal segments all the consumers have received.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -46,6 +43,9 @@ public class ReplicaEventLogJanitor extends Thread
 
     private Map<Integer, ReplicaEventLog> replicaLogMap;
 
+    /** The journal shared by all the replication event logs */
+    private ReplicaEventJournal journal;
+
     private volatile boolean stop = false;
 
     /** A lock used to wait */
@@ -58,12 +58,13 @@ public class ReplicaEventLogJanitor extends Thread
 
 
     public ReplicaEventLogJanitor( final DirectoryService directoryService,
-        final Map<Integer, ReplicaEventLog> replicaLogMap )
+        final Map<Integer, ReplicaEventLog> replicaLogMap, final ReplicaEventJournal journal )
     {
-        // if log is in refreshNpersist mode, has more entries than the log's threshold count then 
-        // all the entries before the last sent CSN and older than 2 hours will be purged
+        // if the journal has more entries than the logs' threshold count then 
+        // all the entries before the oldest last sent CSN and older than 2 hours will be purged
         this.directoryService = directoryService;
         this.replicaLogMap = replicaLogMap;
+        this.journal = journal;
         setDaemon( true );
     }
 
@@ -73,6 +74,13 @@ public class ReplicaEventLogJanitor extends Thread
     {
         while ( !stop )
         {
+            long now = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
+
+            // the oldest CSN sent to a consumer, the journal segments before it can be dropped
+            String purgeCsn = null;
+            boolean canPurge = true;
+            long thresholdCount = Long.MAX_VALUE;
+
             for ( ReplicaEventLog log : replicaLogMap.values() )
             {
                 synchronized ( log ) // lock the log and clean
@@ -84,11 +92,10 @@ public class ReplicaEventLogJanitor extends Thread
                         if ( lastSentCsn == null )
                         {
                             LOG.debug( "last sent CSN is null for the replica {}, skipping cleanup", log.getName() );
-                            return;
+                            canPurge = false;
+                            continue;
                         }
 
-                        long now = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
-
                         long maxIdleTime = log.getMaxIdlePeriod() * 1000L;
 
                         long lastUpdatedTime = new Csn( lastSentCsn ).getTimestamp();
@@ -120,52 +127,37 @@ public class ReplicaEventLogJanitor extends Thread
                             continue;
                         }
 
-                        long thresholdCount = log.getPurgeThresholdCount();
-
-                        if ( log.count() < thresholdCount )
-                        {
-                            continue;
-                        }
-
-                        LOG.debug( "starting to purge the log entries that are older than {} milliseconds",
-                            thresholdTime );
-
-                        long deleteCount = 0;
-
-                        ReplicaJournalCursor cursor = log.getCursor( null ); // pass no CSN
-                        cursor.skipQualifyingWhileFetching();
-
-                        while ( cursor.next() )
+                        if ( ( purgeCsn == null ) || ( lastSentCsn.compareTo( purgeCsn ) < 0 ) )
                         {
-                            ReplicaEventMessage message = cursor.get();
-                            String csnVal = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-
-                            // skip if we reach the lastSentCsn or got past it
-                            if ( csnVal.compareTo( lastSentCsn ) >= 0 )
-                            {
-                                break;
-                            }
-
-                            Csn csn = new Csn( csnVal );
-
-                            if ( ( now - csn.getTimestamp() ) >= thresholdTime )
-                            {
-                                cursor.delete();
-                                deleteCount++;
-                            }
+                            purgeCsn = lastSentCsn;
                         }
 
-                        cursor.close();
-
-                        LOG.debug( "purged {} messages from the log {}", deleteCount, log.getName() );
+                        thresholdCount = Math.min( thresholdCount, log.getPurgeThresholdCount() );
                     }
                     catch ( Exception e )
                     {
-                        LOG.warn( "Failed to purge old entries from the log {}", log.getName(), e );
+                        LOG.warn( "Failed to check the log {}", log.getName(), e );
+                        canPurge = false;
                     }
                 }
             }
 
+            // flush the last appended messages, if no message has been appended since
+            journal.sync();
+
+            // all the entries sent to every consumer and older than 2 hours are purged, once
+            // the journal has more entries than the smallest threshold count. Without any
+            // consumer left, the old entries are useless
+            if ( canPurge && ( ( purgeCsn == null ) || ( journal.count() >= thresholdCount ) ) )
+            {
+                LOG.debug( "starting to purge the journal entries that are older than {} milliseconds",
+                    thresholdTime );
+
+                long deleteCount = journal.purge( purgeCsn, now - thresholdTime );
+
+                LOG.debug( "purged {} messages from the replication journal", deleteCount );
+            }
+
             try
             {
                 synchronized ( lock )
@@ -191,10 +183,8 @@ public class ReplicaEventLogJanitor extends Thread
 
         try
         {
+            // the messages are kept in the shared journal until every consumer got them
             replicaEventLog.stop();
-
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".db" ).delete();
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".lg" ).delete();
             LOG.info( "successfully removed replication event log {}", name );
         }
         catch ( Exception e )
@@ -23,23 +23,30 @@ package org.apache.directory.server.ldap.replication.provider;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
-import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.provider.ReplicaEventJournal.JournalRecord;
+import org.apache.directory.server.ldap.replication.provider.ReplicaEventJournal.Segment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Define a cursor on top of a replication journal.
+ * Define a cursor on top of the replication journal, returning the messages a consumer
+ * has not received yet. As the journal is shared by all the consumers, the messages are
+ * selected using the consumer's search criteria.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -54,28 +61,37 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
 
-    /** the underlying journal's cursor */
-    private Cursor<Tuple<String, ReplicaEventMessage>> tupleCursor;
+    /** the shared journal */
+    private ReplicaEventJournal journal;
 
-    /** the event log journal */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    /** the consumer's event log */
+    private ReplicaEventLog replicaLog;
 
     /** the consumer's CSN based on which messages will be qualified for sending */
     private String consumerCsn;
 
-    private ReplicaEventMessage qualifiedEvtMsg;
+    /** The evaluator used to check the consumer's filter */
+    private Evaluator evaluator;
+
+    /** the segments to read */
+    private List<Segment> segments;
+
+    /** the index of the segment being read */
+    private int segmentIndex;
 
-    /** used while cleaning up the log */
-    private boolean skipQualifying;
+    /** the position of the next record in the current segment */
+    private int position;
+
+    private ReplicaEventMessage qualifiedEvtMsg;
 
 
     /**
      * Creates a cursor on top of the given journal
-     * @param journal the log journal
+     * @param journal the shared journal
+     * @param replicaLog the consumer's event log
      * @param consumerCsn the consumer's CSN taken from cookie
-     * @throws Exception 
      */
-    public ReplicaJournalCursor( JdbmTable<String, ReplicaEventMessage> journal, String consumerCsn ) throws Exception
+    public ReplicaJournalCursor( ReplicaEventJournal journal, ReplicaEventLog replicaLog, String consumerCsn )
     {
         if ( IS_DEBUG )
         {
@@ -83,8 +99,16 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
         }
 
         this.journal = journal;
-        this.tupleCursor = journal.cursor();
+        this.replicaLog = replicaLog;
         this.consumerCsn = consumerCsn;
+        this.evaluator = new ExpressionEvaluator( journal.getSchemaManager() );
+        this.segments = journal.getSegments();
+
+        // skip the segments the consumer has already received
+        while ( ( segmentIndex < segments.size() ) && !journal.isNewer( segments.get( segmentIndex ), consumerCsn ) )
+        {
+            segmentIndex++;
+        }
     }
 
 
@@ -151,34 +175,99 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
 
 
     /**
-     * selects the current queue entry if qualified for sending to the consumer
-     * 
-     * @throws Exception
+     * selects the current journal record if qualified for sending to the consumer, and
+     * returns the message to send
      */
-    private boolean isQualified( String csn, ReplicaEventMessage evtMsg ) throws LdapException
+    private ReplicaEventMessage qualify( JournalRecord record ) throws LdapException, IOException
     {
-        LOG.debug( "ReplicaEventMessage: {}", evtMsg );
+        if ( ( consumerCsn != null ) && ( record.csn.compareTo( consumerCsn ) <= 0 ) )
+        {
+            LOG.debug( "event with CSN {} is not qualified for sending", record.csn );
+
+            return null;
+        }
+
+        if ( record.originRid == replicaLog.getId() )
+        {
+            // Don't send back a change received from this consumer
+            return null;
+        }
+
+        ReplicaEventMessage message = record.getMessage();
 
-        if ( evtMsg.isEventOlderThan( consumerCsn ) )
+        if ( message == null )
         {
-            if ( LOG.isDebugEnabled() )
+            return null;
+        }
+
+        NotificationCriteria criteria = replicaLog.getSearchCriteria();
+        Entry entry = message.getEntry();
+
+        if ( ( message.getChangeType() == ChangeType.MODDN ) && !record.originalDn.isEmpty() )
+        {
+            Dn originalDn = new Dn( journal.getSchemaManager(), record.originalDn );
+
+            if ( !isSelected( criteria, originalDn, entry ) )
             {
-                String evt = "MODDN"; // take this as default cause the event type for MODDN is null
+                return null;
+            }
 
-                ChangeType changeType = evtMsg.getChangeType();
+            if ( ( criteria.getBase() != null ) && !entry.getDn().getParent().isDescendantOf( criteria.getBase() ) )
+            {
+                // The entry has been moved out of the consumer's base
+                Entry deleted = entry.clone();
+                deleted.setDn( originalDn );
 
-                if ( changeType != null )
-                {
-                    evt = changeType.name();
-                }
+                return new ReplicaEventMessage( ChangeType.DELETE, deleted );
+            }
+
+            return message;
+        }
+
+        if ( !isSelected( criteria, entry.getDn(), entry ) )
+        {
+            return null;
+        }
+
+        return message;
+    }
+
+
+    /**
+     * Tells if an entry is in the consumer's scope and matches its filter
+     */
+    private boolean isSelected( NotificationCriteria criteria, Dn dn, Entry entry ) throws LdapException
+    {
+        Dn base = criteria.getBase();
+
+        if ( base != null )
+        {
+            boolean inScope;
 
-                LOG.debug( "event {} for dn {} is not qualified for sending", evt, evtMsg.getEntry().getDn() );
+            switch ( criteria.getScope() )
+            {
+                case OBJECT:
+                    inScope = dn.equals( base );
+                    break;
+
+                case ONELEVEL:
+                    inScope = dn.getParent().equals( base );
+                    break;
+
+                default:
+                    inScope = dn.isDescendantOf( base ) || dn.equals( base );
+                    break;
             }
 
-            return false;
+            if ( !inScope )
+            {
+                return false;
+            }
         }
 
-        return true;
+        ExprNode filter = criteria.getFilter();
+
+        return ( filter == null ) || evaluator.evaluate( filter, dn, entry );
     }
 
 
@@ -196,31 +285,34 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public boolean next() throws LdapException, CursorException
     {
-        while ( tupleCursor.next() )
+        try
         {
-            Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
+            while ( segmentIndex < segments.size() )
+            {
+                JournalRecord record = journal.read( segments.get( segmentIndex ), position );
 
-            String csn = tuple.getKey();
-            ReplicaEventMessage message = tuple.getValue();
+                if ( record == null )
+                {
+                    segmentIndex++;
+                    position = 0;
+                    continue;
+                }
 
-            if ( skipQualifying )
-            {
-                qualifiedEvtMsg = message;
-                return true;
-            }
+                position = record.nextPosition;
 
-            boolean qualified = isQualified( csn, message );
+                ReplicaEventMessage message = qualify( record );
 
-            if ( qualified )
-            {
-                qualifiedEvtMsg = message;
-                return true;
-            }
-            else
-            {
-                journal.remove( csn );
+                if ( message != null )
+                {
+                    qualifiedEvtMsg = message;
+                    return true;
+                }
             }
         }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe.getMessage(), ioe );
+        }
 
         qualifiedEvtMsg = null;
 
@@ -248,7 +340,7 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        segments = null;
         super.close();
     }
 
@@ -264,41 +356,11 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        segments = null;
         super.close( cause );
     }
 
 
-    /**
-     * sets the flag to skip CSN based checking while traversing
-     * used for internal log cleanup ONLY 
-     */
-    protected void skipQualifyingWhileFetching()
-    {
-        skipQualifying = true;
-    }
-
-
-    /**
-     * delete the current message
-     * used for internal log cleanup ONLY
-     */
-    protected void delete()
-    {
-        try
-        {
-            if ( qualifiedEvtMsg != null )
-            {
-                journal.remove( qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
-            }
-        }
-        catch ( Exception e )
-        {
-
-        }
-    }
-
-
     /**
      * {@inheritDoc}
      */
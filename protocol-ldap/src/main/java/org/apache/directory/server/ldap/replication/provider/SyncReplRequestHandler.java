@@ -29,15 +29,17 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import jdbm.RecordManager;
+import jdbm.recman.BaseRecordManager;
+
 import org.apache.directory.api.ldap.extras.controls.SynchronizationModeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncDone.SyncDoneValue;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncInfoValue.SyncInfoValue;
@@ -51,6 +53,7 @@ import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncStateValu
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
@@ -85,6 +88,8 @@ import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.message.controls.SortRequestControlImpl;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.constants.ServerDNConstants;
@@ -97,13 +102,18 @@ import org.apache.directory.server.core.api.interceptor.context.DeleteOperationC
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
+import org.apache.directory.server.ldap.replication.DeltaSyncRepl;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.apache.directory.server.ldap.replication.ReplicaSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -137,6 +147,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
     private File syncReplData;
 
+    /** The journal shared by all the consumers */
+    private ReplicaEventJournal journal;
+
     private AtomicInteger replicaCount = new AtomicInteger( 0 );
 
     private ReplConsumerManager replicaUtil;
@@ -203,12 +216,17 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 }
             }
 
+            // Open the journal, importing the logs written by the previous versions
+            journal = new ReplicaEventJournal( dirService.getSchemaManager(), new File( syncReplData,
+                ReplicaEventJournal.JOURNAL_DIR_NAME ) );
+            importJdbmLogs();
+
             // Create the replication manager
-            replicaUtil = new ReplConsumerManager( dirService );
+            replicaUtil = new ReplConsumerManager( dirService, journal );
 
             loadReplicaInfo();
 
-            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap );
+            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap, journal );
             logJanitor.start();
 
             registerPersistentSearches();
@@ -281,6 +299,8 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         // flush the dirty repos
         storeReplicaInfo();
 
+        journal.close();
+
         initialized = false;
     }
 
@@ -407,6 +427,12 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                         throw new IllegalStateException( I18n.err( I18n.ERR_686 ) );
                 }
 
+                if ( replicaEventMessage.isDelta() && DeltaSyncRepl.isDeltaRequested( req ) )
+                {
+                    // The consumer only needs the modifications
+                    entry = DeltaSyncRepl.toDeltaEntry( entry, replicaEventMessage.getModifications() );
+                }
+
                 sendSearchResultEntry( session, req, entry, syncStateType );
 
                 clientMsgLog.setLastSentCsn( lastSentCsn );
@@ -708,6 +734,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     {
         long count = 0;
 
+        // In snapshot mode, the entries are sent by chunks
+        ReplicaSnapshot.ChunkWriter chunk = null;
+
+        if ( ReplicaSnapshot.isSnapshotRequested( req ) )
+        {
+            PROVIDER_LOG.debug( "Sending a snapshot of the entries for {}", replicaLog );
+            chunk = new ReplicaSnapshot.ChunkWriter();
+        }
+
         while ( ( count < sizeLimit ) && cursor.next() )
         {
             // Handle closed session
@@ -728,7 +763,19 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
             Entry entry = cursor.get();
 
-            sendSearchResultEntry( session, req, entry, SyncStateTypeEnum.ADD );
+            if ( ( chunk != null ) && !isReferral( req, entry ) )
+            {
+                chunk.add( entry );
+
+                if ( chunk.isFull() )
+                {
+                    sendSnapshotChunk( session, req, chunk );
+                }
+            }
+            else
+            {
+                sendSearchResultEntry( session, req, entry, SyncStateTypeEnum.ADD );
+            }
 
             String lastSentCsn = entry.get( csnAT ).getString();
             replicaLog.setLastSentCsn( lastSentCsn );
@@ -736,6 +783,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             count++;
         }
 
+        if ( ( chunk != null ) && ( chunk.size() > 0 ) )
+        {
+            sendSnapshotChunk( session, req, chunk );
+        }
+
         PROVIDER_LOG.debug( "Sent {} entries for {}", count, replicaLog );
 
         // DO NOT WRITE THE RESPONSE - JUST RETURN IT
@@ -753,6 +805,34 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Tells if an entry has to be sent as a referral
+     */
+    private boolean isReferral( SearchRequest req, Entry entry )
+    {
+        return ( entry.get( SchemaConstants.REF_AT ) != null ) && !req.getControls().containsKey( ManageDsaIT.OID );
+    }
+
+
+    /**
+     * Send a chunk of entries of a snapshot refresh, and reset it
+     */
+    private void sendSnapshotChunk( LdapSession session, SearchRequest req, ReplicaSnapshot.ChunkWriter chunk )
+        throws Exception
+    {
+        int nbEntries = chunk.size();
+
+        IntermediateResponse intermResp = new IntermediateResponseImpl( req.getMessageId() );
+        intermResp.setResponseName( ReplicaSnapshot.SNAPSHOT_CHUNK_OID );
+        intermResp.setResponseValue( chunk.encode() );
+
+        PROVIDER_LOG.debug( "Sending a snapshot chunk of {} entries", nbEntries );
+
+        // Wait for the chunk to be written, to avoid queuing the whole partition in memory
+        session.getIoSession().write( intermResp ).awaitUninterruptibly();
+    }
+
+
     /**
      * Prepare and send a search result entry response, with the associated
      * SyncState control.
@@ -1023,7 +1103,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         try
         {
             List<ReplicaEventLog> eventLogs = replicaUtil.getReplicaEventLogs();
-            Set<String> eventLogNames = new HashSet<String>();
 
             if ( !eventLogs.isEmpty() )
             {
@@ -1031,7 +1110,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 {
                     PROVIDER_LOG.debug( "initializing the replica log from {}", replica.getId() );
                     replicaLogMap.put( replica.getId(), replica );
-                    eventLogNames.add( replica.getName() );
 
                     // update the replicaCount's value to assign a correct value to the new replica(s)
                     if ( replicaCount.get() < replica.getId() )
@@ -1044,16 +1122,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             {
                 PROVIDER_LOG.debug( "no replica logs found to initialize" );
             }
-
-            // remove unused logs
-            for ( File f : getAllReplJournalNames() )
-            {
-                if ( !eventLogNames.contains( f.getName() ) )
-                {
-                    f.delete();
-                    PROVIDER_LOG.info( "removed unused replication event log {}", f );
-                }
-            }
         }
         catch ( Exception e )
         {
@@ -1146,7 +1214,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         PROVIDER_LOG.debug( "creating a new event log for the replica with id {}", replicaId );
 
-        ReplicaEventLog replicaLog = new ReplicaEventLog( dirService, replicaId );
+        ReplicaEventLog replicaLog = new ReplicaEventLog( dirService, journal, replicaId );
         replicaLog.setHostName( hostName );
         replicaLog.setSearchFilter( filter );
 
@@ -1195,6 +1263,80 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         return replDir.listFiles( filter );
     }
 
+
+    /**
+     * Store the messages of the per consumer JDBM logs written by the previous versions in
+     * the shared journal, then delete those logs.
+     */
+    private void importJdbmLogs() throws Exception
+    {
+        File[] files = getAllReplJournalNames();
+
+        if ( ( files == null ) || ( files.length == 0 ) )
+        {
+            return;
+        }
+
+        SchemaManager schemaManager = dirService.getSchemaManager();
+
+        // The same message may be stored in many logs : sort them by CSN, removing the duplicates
+        Map<String, ReplicaEventMessage> messages = new TreeMap<String, ReplicaEventMessage>();
+
+        for ( File file : files )
+        {
+            String name = file.getName();
+
+            if ( !name.endsWith( ".db" ) )
+            {
+                continue;
+            }
+
+            name = name.substring( 0, name.length() - 3 );
+            RecordManager recman = new BaseRecordManager( new File( syncReplData, name ).getAbsolutePath() );
+
+            try
+            {
+                SerializableComparator<String> comparator = new SerializableComparator<String>(
+                    SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
+                comparator.setSchemaManager( schemaManager );
+
+                JdbmTable<String, ReplicaEventMessage> table = new JdbmTable<String, ReplicaEventMessage>(
+                    schemaManager, name, recman, comparator, StringSerializer.INSTANCE,
+                    new ReplicaEventMessageSerializer( schemaManager ) );
+
+                Cursor<Tuple<String, ReplicaEventMessage>> cursor = table.cursor();
+
+                while ( cursor.next() )
+                {
+                    Tuple<String, ReplicaEventMessage> tuple = cursor.get();
+                    messages.put( tuple.getKey() + ':' + tuple.getValue().getChangeType(), tuple.getValue() );
+                }
+
+                cursor.close();
+                table.close();
+            }
+            finally
+            {
+                recman.close();
+            }
+        }
+
+        for ( ReplicaEventMessage message : messages.values() )
+        {
+            journal.append( message, null, ReplicaEventJournal.NO_ORIGIN );
+        }
+
+        for ( File file : files )
+        {
+            if ( file.delete() )
+            {
+                PROVIDER_LOG.info( "removed the imported replication event log {}", file );
+            }
+        }
+
+        PROVIDER_LOG.info( "imported {} messages in the replication journal", messages.size() );
+    }
+
     /**
      * an event listener for handling deletions and updates of replication event log entries present under ou=consumers,ou=system
      */
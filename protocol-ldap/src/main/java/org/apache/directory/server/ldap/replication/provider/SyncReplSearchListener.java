@@ -20,14 +20,25 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateTypeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateValue;
 import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncStateValueDecorator;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
 import org.apache.directory.api.ldap.model.message.AbandonListener;
 import org.apache.directory.api.ldap.model.message.AbandonableRequest;
+import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.IntermediateResponseImpl;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
@@ -45,9 +56,12 @@ import org.apache.directory.server.core.api.interceptor.context.ModifyOperationC
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.metrics.DirectoryMetrics;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.replication.DeltaSyncRepl;
+import org.apache.directory.server.ldap.replication.ReplicaEventBatch;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.apache.mina.core.future.WriteFuture;
 import org.slf4j.Logger;
@@ -78,6 +92,37 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
     /** The consumer configuration */
     private final ReplicaEventLog consumerMsgLog;
+
+    /** The changes waiting to be sent in a compressed batch, null if the consumer sends them one by one */
+    private ReplicaEventBatch.BatchWriter batch;
+
+    /** The CSNs of the changes in the pending batch */
+    private final List<String> batchCsns = new ArrayList<String>();
+
+    /** A lock protecting the pending batch */
+    private final Object batchLock = new Object();
+
+    /** The task sending a batch which has not been filled in time */
+    private final Runnable batchFlusher = new Runnable()
+    {
+        public void run()
+        {
+            flushBatch();
+        }
+    };
+
+    /** The thread sending the batches which have not been filled in time, shared by all the consumers */
+    private static final ScheduledExecutorService BATCH_FLUSHER = Executors
+        .newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "syncrepl-batch-flusher" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
     
     private static String replConsumerConfigDn = Strings.toLowerCaseAscii( ServerDNConstants.REPL_CONSUMER_CONFIG_DN );
     private static String schemaDn = Strings.toLowerCaseAscii( SchemaConstants.OU_SCHEMA );
@@ -124,6 +169,34 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         {
             searchRequest.addAbandonListener( this );
         }
+
+        resetBatch();
+    }
+
+
+    /**
+     * Create a new empty batch if the consumer has asked for compressed batches. The pending
+     * changes are dropped : the consumer will get them from the log.
+     */
+    private void resetBatch()
+    {
+        synchronized ( batchLock )
+        {
+            batch = null;
+            batchCsns.clear();
+
+            if ( ReplicaEventBatch.isBatchRequested( searchRequest ) )
+            {
+                try
+                {
+                    batch = new ReplicaEventBatch.BatchWriter();
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.error( "Cannot create the replication batch, the changes will be sent one by one", ioe );
+                }
+            }
+        }
     }
 
 
@@ -192,6 +265,16 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     private void sendResult( SearchResultEntry searchResultEntry, Entry entry, EventType eventType, 
         SyncStateValue syncStateValue )
     {
+        synchronized ( batchLock )
+        {
+            if ( batch != null )
+            {
+                addToBatch( searchResultEntry, entry, syncStateValue );
+
+                return;
+            }
+        }
+
         searchResultEntry.addControl( syncStateValue );
 
         LOG.debug( "sending event {} of entry {}", eventType, entry.getDn() );
@@ -202,6 +285,124 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     }
     
 
+    /**
+     * Add a change to the pending batch, sending the batch if it's full. The first change of
+     * a batch schedules its transmission, so that the changes are not delayed more than
+     * {@link ReplicaEventBatch#BATCH_LINGER_MS} when there is little activity.
+     */
+    private void addToBatch( SearchResultEntry searchResultEntry, Entry entry, SyncStateValue syncStateValue )
+    {
+        try
+        {
+            batch.add( syncStateValue.getSyncStateType(), syncStateValue.getEntryUUID(), syncStateValue.getCookie(),
+                searchResultEntry.getEntry() );
+            batchCsns.add( entry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+            if ( batch.isFull() )
+            {
+                flushBatch();
+            }
+            else if ( batch.size() == 1 )
+            {
+                BATCH_FLUSHER.schedule( batchFlusher, ReplicaEventBatch.BATCH_LINGER_MS, TimeUnit.MILLISECONDS );
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Failed to add the entry {} to the replication batch", entry.getDn(), e );
+
+            // The consumer will get the changes from the log when it comes back
+            pushInRealTime = false;
+            resetBatch();
+        }
+    }
+
+
+    /**
+     * Send the pending batch to the consumer in an IntermediateResponse
+     */
+    private void flushBatch()
+    {
+        synchronized ( batchLock )
+        {
+            if ( ( batch == null ) || ( batch.size() == 0 ) )
+            {
+                return;
+            }
+
+            try
+            {
+                int count = batch.size();
+                byte[] value = batch.encode();
+
+                IntermediateResponse batchResp = new IntermediateResponseImpl( searchRequest.getMessageId() );
+                batchResp.setResponseName( ReplicaEventBatch.EVENT_BATCH_OID );
+                batchResp.setResponseValue( value );
+
+                LOG.debug( "sending a batch of {} events, {} bytes compressed to {}", count, batch.getRawSize(),
+                    value.length );
+
+                WriteFuture future = session.getIoSession().write( batchResp );
+                future.awaitUninterruptibly( 10000L );
+
+                if ( !future.isWritten() )
+                {
+                    LOG.error( "Failed to write a batch of {} events to the consumer {}", count,
+                        consumerMsgLog.getId() );
+                    LOG.error( "", future.getException() );
+
+                    // set realtime push to false, will be set back to true when the client
+                    // comes back and sends another request this flag will be set to true
+                    pushInRealTime = false;
+                }
+                else
+                {
+                    consumerMsgLog.setLastSentCsn( batchCsns.get( batchCsns.size() - 1 ) );
+                    getMetrics().replicationBatchSent( getConsumerName(), batch.getRawSize(), value.length );
+
+                    for ( String csn : batchCsns )
+                    {
+                        recordLag( csn );
+                    }
+                }
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( "Failed to encode a replication batch for the consumer {}", consumerMsgLog.getId(), ioe );
+                pushInRealTime = false;
+                resetBatch();
+            }
+            finally
+            {
+                batchCsns.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Record the delay between a change and its transmission to the consumer
+     */
+    private void recordLag( String csn )
+    {
+        long lag = System.currentTimeMillis() - new Csn( csn ).getTimestamp();
+
+        getMetrics().replicationSent( getConsumerName(), TimeUnit.MILLISECONDS.toNanos( lag ) );
+    }
+
+
+    private DirectoryMetrics getMetrics()
+    {
+        return session.getCoreSession().getDirectoryService().getMetrics();
+    }
+
+
+    private String getConsumerName()
+    {
+        return Integer.toString( consumerMsgLog.getId() );
+    }
+
+
     /**
      * Process a ADD operation. The added entry is pushed to the consumer if it's connected,
      * or stored in the consumer's queue if it's not.
@@ -212,7 +413,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     {
         Entry entry = addContext.getEntry();
         
-        if ( isConfigEntry( entry ) || isNotValidForReplication( addContext ) )
+        if ( isConfigEntry( entry ) || addContext.isGenerateNoReplEvt() )
         {
             return;
         }
@@ -221,10 +422,10 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         {
             //System.out.println( "ADD Listener : log " + entry.getDn() );
             // we log it first
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.ADD, entry ) );
+            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.ADD, entry ), null, getOriginRid( addContext ) );
 
             // We send the added entry directly to the consumer if it's connected
-            if ( pushInRealTime )
+            if ( pushInRealTime && !isMmrConfiguredToReceiver( addContext ) )
             {
                 // Construct a new SearchResultEntry
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -255,12 +456,21 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     {
         Entry entry = deleteContext.getEntry();
         
-        if ( isConfigEntry( entry ) || isNotValidForReplication( deleteContext ) )
+        if ( isConfigEntry( entry ) || deleteContext.isGenerateNoReplEvt() )
         {
             return;
         }
         
-        sendDeletedEntry( ( ( ClonedServerEntry ) entry ).getClonedEntry() );
+        Entry deletedEntry = ( ( ClonedServerEntry ) entry ).getClonedEntry();
+
+        //System.out.println( "DELETE Listener : log " + entry.getDn() );
+        consumerMsgLog.log( new ReplicaEventMessage( ChangeType.DELETE, deletedEntry ), null,
+            getOriginRid( deleteContext ) );
+
+        if ( !isMmrConfiguredToReceiver( deleteContext ) )
+        {
+            sendDeletedEntry( deletedEntry );
+        }
     }
     
 
@@ -271,9 +481,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     {
         try
         {
-            //System.out.println( "DELETE Listener : log " + entry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.DELETE, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -303,7 +510,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     {
         Entry alteredEntry = modifyContext.getAlteredEntry();
 
-        if ( isConfigEntry( alteredEntry ) || isNotValidForReplication( modifyContext ) )
+        if ( isConfigEntry( alteredEntry ) || modifyContext.isGenerateNoReplEvt() )
         {
             return;
         }
@@ -311,14 +518,24 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             //System.out.println( "MODIFY Listener : log " + alteredEntry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry ) );
+            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry,
+                modifyContext.getModItems() ), null, getOriginRid( modifyContext ) );
             
-            if ( pushInRealTime )
+            if ( pushInRealTime && !isMmrConfiguredToReceiver( modifyContext ) )
             {
 
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
                 resultEntry.setObjectName( modifyContext.getDn() );
-                resultEntry.setEntry( alteredEntry );
+
+                if ( DeltaSyncRepl.isDeltaRequested( searchRequest ) )
+                {
+                    // Only send the modifications
+                    resultEntry.setEntry( DeltaSyncRepl.toDeltaEntry( alteredEntry, modifyContext.getModItems() ) );
+                }
+                else
+                {
+                    resultEntry.setEntry( alteredEntry );
+                }
 
                 SyncStateValue syncModify = createControl( session.getCoreSession().getDirectoryService(), SyncStateTypeEnum.MODIFY, alteredEntry );
 
@@ -343,22 +560,29 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         // should always send the modified entry cause the consumer perform the modDn operation locally
         Entry entry = moveContext.getModifiedEntry();
 
-        if ( isConfigEntry( entry ) || isNotValidForReplication( moveContext ) )
+        if ( isConfigEntry( entry ) || moveContext.isGenerateNoReplEvt() )
         {
             return;
         }
 
         try
         {
+            //System.out.println( "MOVE Listener : log " + moveContext.getDn() + " moved to " + moveContext.getNewSuperior() );
+            // The journal is shared, the consumers moved out of their base get a delete when reading it
+            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ), moveContext.getDn(),
+                getOriginRid( moveContext ) );
+
+            if ( isMmrConfiguredToReceiver( moveContext ) )
+            {
+                return;
+            }
+
             if ( !moveContext.getNewSuperior().isDescendantOf( consumerMsgLog.getSearchCriteria().getBase() ) )
             {
                 sendDeletedEntry( moveContext.getOriginalEntry() );
                 return;
             }
 
-            //System.out.println( "MOVE Listener : log " + moveContext.getDn() + " moved to " + moveContext.getNewSuperior() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -388,24 +612,29 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         // should always send the modified entry cause the consumer perform the modDn operation locally
         Entry entry = moveAndRenameContext.getModifiedEntry();
 
-        if ( isConfigEntry( entry ) || isNotValidForReplication( moveAndRenameContext ) )
+        if ( isConfigEntry( entry ) || moveAndRenameContext.isGenerateNoReplEvt() )
         {
             return;
         }
 
         try
         {
+            //System.out.println( "MOVE AND RENAME Listener : log " + moveAndRenameContext.getDn() + 
+            //    " moved to " + moveAndRenameContext.getNewSuperiorDn() + " renamed to " + moveAndRenameContext.getNewRdn() );
+            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ), moveAndRenameContext.getDn(),
+                getOriginRid( moveAndRenameContext ) );
+
+            if ( isMmrConfiguredToReceiver( moveAndRenameContext ) )
+            {
+                return;
+            }
+
             if ( !moveAndRenameContext.getNewSuperiorDn().isDescendantOf( consumerMsgLog.getSearchCriteria().getBase() ) )
             {
                 sendDeletedEntry( entry );
                 return;
             }
 
-
-            //System.out.println( "MOVE AND RENAME Listener : log " + moveAndRenameContext.getDn() + 
-            //    " moved to " + moveAndRenameContext.getNewSuperiorDn() + " renamed to " + moveAndRenameContext.getNewRdn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -435,7 +664,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         // should always send the modified entry cause the consumer perform the modDn operation locally
         Entry entry = renameContext.getModifiedEntry();
 
-        if ( isConfigEntry( entry ) || isNotValidForReplication( renameContext ) )
+        if ( isConfigEntry( entry ) || renameContext.isGenerateNoReplEvt() )
         {
             return;
         }
@@ -444,9 +673,10 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         {
             // should always send the original entry cause the consumer perform the modDn operation there
             //System.out.println( "RENAME Listener : log " + renameContext.getDn() + " renamed to " + renameContext.getNewRdn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
+            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ), renameContext.getDn(),
+                getOriginRid( renameContext ) );
             
-            if ( pushInRealTime )
+            if ( pushInRealTime && !isMmrConfiguredToReceiver( renameContext ) )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
                 resultEntry.setObjectName( entry.getDn() );
@@ -521,7 +751,9 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
             try
             {
                 // if successful update the last sent CSN
-                consumerMsgLog.setLastSentCsn( entry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+                String csn = entry.get( SchemaConstants.ENTRY_CSN_AT ).getString();
+                consumerMsgLog.setLastSentCsn( csn );
+                recordLag( csn );
             }
             catch ( Exception e )
             {
@@ -563,14 +795,18 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     }
     
     
-    private boolean isNotValidForReplication( AbstractChangeOperationContext ctx )
+    /**
+     * @return the ID of the replica the operation has been received from, stored in the
+     * journal so that the change is not sent back to this replica
+     */
+    private int getOriginRid( AbstractChangeOperationContext ctx )
     {
-        if ( ctx.isGenerateNoReplEvt() )
+        if ( ctx.isReplEvent() )
         {
-            return true;
+            return ctx.getRid();
         }
-        
-        return isMmrConfiguredToReceiver( ctx );
+
+        return ReplicaEventJournal.NO_ORIGIN;
     }
     
 
@@ -91,4 +91,41 @@ public class LdapServerSettingsTest
         server.removeSaslMechanismHandler( SupportedSaslMechanisms.PLAIN );
         assertNull( server.getMechanismHandler( SupportedSaslMechanisms.PLAIN ) );
     }
+
+
+    @Test
+    public void testSearchWriteWaterMarks()
+    {
+        LdapServer server = new LdapServer();
+        server.setSearchWriteHighWaterMark( 8192L );
+        server.setSearchWriteLowWaterMark( 2048L );
+        assertEquals( 8192L, server.getSearchWriteHighWaterMark() );
+        assertEquals( 2048L, server.getSearchWriteLowWaterMark() );
+
+        // The low-water mark can't be above the high-water mark
+        server.setSearchWriteLowWaterMark( 16384L );
+        assertEquals( 8192L, server.getSearchWriteLowWaterMark() );
+
+        // A negative low-water mark is set to 0
+        server.setSearchWriteLowWaterMark( -1L );
+        assertEquals( 0L, server.getSearchWriteLowWaterMark() );
+    }
+
+
+    @Test
+    public void testExecutionMode()
+    {
+        LdapServer server = new LdapServer();
+        assertEquals( ExecutionMode.THREAD_POOL, server.getExecutionMode() );
+
+        server.setExecutionMode( ExecutionMode.getExecutionMode( "ordered_virtual_threads" ) );
+        assertEquals( ExecutionMode.ORDERED_VIRTUAL_THREADS, server.getExecutionMode() );
+        assertTrue( server.getExecutionMode().isVirtual() );
+        assertTrue( server.getExecutionMode().isOrdered() );
+
+        // An unknown mode is not accepted, and null goes back to the default mode
+        assertNull( ExecutionMode.getExecutionMode( "fibers" ) );
+        server.setExecutionMode( null );
+        assertEquals( ExecutionMode.THREAD_POOL, server.getExecutionMode() );
+    }
 }
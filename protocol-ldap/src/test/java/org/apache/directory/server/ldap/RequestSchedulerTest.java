@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequestImpl;
+import org.apache.directory.api.ldap.model.message.BindRequestImpl;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+
+/**
+ * Tests the RequestScheduler dispatching.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class RequestSchedulerTest
+{
+    /**
+     * An executor which keeps the tasks until we decide to run them
+     */
+    private static class ManualExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+
+        public void execute( Runnable task )
+        {
+            tasks.add( task );
+        }
+
+
+        private void runNext()
+        {
+            tasks.remove( 0 ).run();
+        }
+    }
+
+
+    /**
+     * An event recording the executed messages instead of firing them in the session chain
+     */
+    private static class RecordingEvent extends IoEvent
+    {
+        private final List<Object> executed;
+
+
+        private RecordingEvent( IoSession session, Object message, List<Object> executed )
+        {
+            super( IoEventType.MESSAGE_RECEIVED, session, message );
+            this.executed = executed;
+        }
+
+
+        @Override
+        public void fire()
+        {
+            executed.add( getParameter() );
+        }
+    }
+
+
+    private static SearchRequestImpl search( int messageId )
+    {
+        SearchRequestImpl request = new SearchRequestImpl();
+        request.setMessageId( messageId );
+
+        return request;
+    }
+
+
+    private static BindRequestImpl bind( int messageId )
+    {
+        BindRequestImpl request = new BindRequestImpl();
+        request.setMessageId( messageId );
+
+        return request;
+    }
+
+
+    @Test
+    public void testWeightedDispatch()
+    {
+        LdapServer server = new LdapServer();
+        server.setMaxConcurrentRequests( 1 );
+        ManualExecutor executor = new ManualExecutor();
+        RequestScheduler scheduler = new RequestScheduler( server, executor );
+        IoSession session = new DummySession();
+        List<Object> executed = new ArrayList<Object>();
+
+        Object[] requests = new Object[]
+            { search( 1 ), search( 2 ), search( 3 ), search( 4 ), bind( 5 ), bind( 6 ), bind( 7 ) };
+
+        for ( Object request : requests )
+        {
+            scheduler.execute( new RecordingEvent( session, request, executed ) );
+        }
+
+        // Only the first search is running
+        assertEquals( 1, executor.tasks.size() );
+        assertEquals( 3, scheduler.getWaitingRequests( RequestClass.SEARCH ) );
+        assertEquals( 3, scheduler.getWaitingRequests( RequestClass.BIND ) );
+
+        while ( !executor.tasks.isEmpty() )
+        {
+            executor.runNext();
+        }
+
+        // The binds have overtaken the waiting searches
+        assertEquals( Arrays.asList( requests[0], requests[4], requests[5], requests[6], requests[1], requests[2],
+            requests[3] ), executed );
+        assertEquals( 0, scheduler.getRunningRequests() );
+    }
+
+
+    @Test
+    public void testBusyWhenQueueIsFull()
+    {
+        LdapServer server = new LdapServer();
+        server.setMaxConcurrentRequests( 1 );
+        server.setRequestQueueSize( 1 );
+        ManualExecutor executor = new ManualExecutor();
+        RequestScheduler scheduler = new RequestScheduler( server, executor );
+        IoSession session = new DummySession();
+        final List<Object> written = new ArrayList<Object>();
+
+        session.getFilterChain().addLast( "capture", new IoFilterAdapter()
+        {
+            public void filterWrite( NextFilter nextFilter, IoSession session, WriteRequest writeRequest )
+            {
+                written.add( writeRequest.getMessage() );
+            }
+        } );
+
+        List<Object> executed = new ArrayList<Object>();
+        scheduler.execute( new RecordingEvent( session, search( 1 ), executed ) );
+        scheduler.execute( new RecordingEvent( session, search( 2 ), executed ) );
+        scheduler.execute( new RecordingEvent( session, search( 3 ), executed ) );
+
+        // The third search has been rejected
+        assertEquals( 1, written.size() );
+        assertTrue( written.get( 0 ) instanceof SearchResultDone );
+        SearchResultDone done = ( SearchResultDone ) written.get( 0 );
+        assertEquals( 3, done.getMessageId() );
+        assertEquals( ResultCodeEnum.BUSY, done.getLdapResult().getResultCode() );
+
+        // The abandon requests are never queued
+        AbandonRequestImpl abandon = new AbandonRequestImpl( 1 );
+        scheduler.execute( new RecordingEvent( session, abandon, executed ) );
+        assertEquals( 2, executor.tasks.size() );
+
+        while ( !executor.tasks.isEmpty() )
+        {
+            executor.runNext();
+        }
+
+        assertEquals( 3, executed.size() );
+    }
+
+
+    @Test
+    public void testScheduledRequestsRunOnTheServerExecutor() throws Exception
+    {
+        LdapServer server = new LdapServer();
+        server.setMaxConcurrentRequests( 2 );
+        Executor executor = server.createRequestExecutor( new TcpTransport( 10389, 4 ) );
+        assertTrue( executor instanceof RequestScheduler );
+        RequestScheduler scheduler = ( RequestScheduler ) executor;
+
+        try
+        {
+            int nbRequests = 100;
+            IoSession session = new DummySession();
+            final List<Object> executed = Collections.synchronizedList( new ArrayList<Object>() );
+            final CountDownLatch done = new CountDownLatch( nbRequests );
+
+            for ( int i = 1; i <= nbRequests; i++ )
+            {
+                Object request = ( i % 2 == 0 ) ? search( i ) : bind( i );
+
+                scheduler.execute( new IoEvent( IoEventType.MESSAGE_RECEIVED, session, request )
+                {
+                    @Override
+                    public void fire()
+                    {
+                        executed.add( getParameter() );
+                        done.countDown();
+                    }
+                } );
+            }
+
+            assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+            assertEquals( nbRequests, executed.size() );
+
+            // The requests are released once they have been executed
+            long end = System.currentTimeMillis() + 10000L;
+
+            while ( ( scheduler.getRunningRequests() > 0 ) && ( System.currentTimeMillis() < end ) )
+            {
+                Thread.sleep( 10L );
+            }
+
+            assertEquals( 0, scheduler.getRunningRequests() );
+        }
+        finally
+        {
+            ( ( ExecutorService ) scheduler.getExecutor() ).shutdown();
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.SearchResultDoneImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.core.write.WriteToClosedSessionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the SearchResultBatchingFilter : when the batches are written, and in which order.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultBatchingFilterTest
+{
+    /** A next filter recording the written requests */
+    private static class RecordingNextFilter implements NextFilter
+    {
+        private final List<WriteRequest> written = Collections.synchronizedList( new ArrayList<WriteRequest>() );
+        private final CountDownLatch firstWrite = new CountDownLatch( 1 );
+        private boolean closed;
+
+
+        @Override
+        public void filterWrite( IoSession session, WriteRequest writeRequest )
+        {
+            written.add( writeRequest );
+            writeRequest.getFuture().setWritten();
+            firstWrite.countDown();
+        }
+
+
+        @Override
+        public void sessionClosed( IoSession session )
+        {
+            closed = true;
+        }
+
+
+        @Override
+        public void sessionCreated( IoSession session )
+        {
+        }
+
+
+        @Override
+        public void sessionOpened( IoSession session )
+        {
+        }
+
+
+        @Override
+        public void sessionIdle( IoSession session, IdleStatus status )
+        {
+        }
+
+
+        @Override
+        public void exceptionCaught( IoSession session, Throwable cause )
+        {
+        }
+
+
+        @Override
+        public void inputClosed( IoSession session )
+        {
+        }
+
+
+        @Override
+        public void messageReceived( IoSession session, Object message )
+        {
+        }
+
+
+        @Override
+        public void messageSent( IoSession session, WriteRequest writeRequest )
+        {
+        }
+
+
+        @Override
+        public void filterClose( IoSession session )
+        {
+        }
+    }
+
+    private IoSession session;
+    private RecordingNextFilter nextFilter;
+    private SearchResultBatchingFilter filter;
+
+
+    @Before
+    public void setUp()
+    {
+        session = new DummySession();
+        nextFilter = new RecordingNextFilter();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        if ( filter != null )
+        {
+            filter.dispose();
+        }
+    }
+
+
+    /**
+     * Creates the write request of an encoded PDU
+     */
+    private WriteRequest pdu( int... bytes )
+    {
+        byte[] pdu = new byte[bytes.length];
+
+        for ( int i = 0; i < bytes.length; i++ )
+        {
+            pdu[i] = ( byte ) bytes[i];
+        }
+
+        return new DefaultWriteRequest( IoBuffer.wrap( pdu ), new DefaultWriteFuture( session ) );
+    }
+
+
+    /**
+     * Creates the empty buffer written by the codec at the end of a message
+     */
+    private WriteRequest endOf( Object message )
+    {
+        final WriteRequest original = new DefaultWriteRequest( message );
+
+        return new DefaultWriteRequest( IoBuffer.allocate( 0 ), new DefaultWriteFuture( session ) )
+        {
+            @Override
+            public WriteRequest getOriginalRequest()
+            {
+                return original;
+            }
+        };
+    }
+
+
+    private static SearchResultEntryImpl entry( int messageId )
+    {
+        return new SearchResultEntryImpl( messageId );
+    }
+
+
+    private void write( WriteRequest writeRequest ) throws Exception
+    {
+        filter.filterWrite( nextFilter, session, writeRequest );
+    }
+
+
+    private static byte[] bytesOf( WriteRequest writeRequest )
+    {
+        IoBuffer buffer = ( IoBuffer ) writeRequest.getMessage();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get( bytes );
+
+        return bytes;
+    }
+
+
+    @Test
+    public void testFlushOnSize() throws Exception
+    {
+        filter = new SearchResultBatchingFilter( 10, 60000L );
+
+        WriteRequest pdu1 = pdu( 1, 2, 3, 4 );
+        WriteRequest end1 = endOf( entry( 1 ) );
+        WriteRequest pdu2 = pdu( 5, 6, 7, 8 );
+        WriteRequest end2 = endOf( entry( 1 ) );
+        WriteRequest pdu3 = pdu( 9, 10, 11, 12 );
+        WriteRequest end3 = endOf( entry( 1 ) );
+
+        write( pdu1 );
+        write( end1 );
+        write( pdu2 );
+        write( end2 );
+
+        // Below the batch size : nothing written yet
+        assertTrue( nextFilter.written.isEmpty() );
+        assertFalse( pdu1.getFuture().isWritten() );
+
+        write( pdu3 );
+        write( end3 );
+
+        // One buffer, then the end of messages in order
+        assertEquals( 4, nextFilter.written.size() );
+        assertArrayEquals( new byte[]
+            { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }, bytesOf( nextFilter.written.get( 0 ) ) );
+        assertSame( end1, nextFilter.written.get( 1 ) );
+        assertSame( end2, nextFilter.written.get( 2 ) );
+        assertSame( end3, nextFilter.written.get( 3 ) );
+
+        // The batched writes are completed along with the batch
+        assertTrue( pdu1.getFuture().isWritten() );
+        assertTrue( pdu2.getFuture().isWritten() );
+        assertTrue( pdu3.getFuture().isWritten() );
+    }
+
+
+    @Test
+    public void testBigPduIsWrittenAlone() throws Exception
+    {
+        filter = new SearchResultBatchingFilter( 4, 60000L );
+
+        WriteRequest pdu = pdu( 1, 2, 3, 4, 5 );
+        write( pdu );
+
+        assertEquals( 1, nextFilter.written.size() );
+        assertSame( pdu, nextFilter.written.get( 0 ) );
+    }
+
+
+    @Test
+    public void testFlushOnLinger() throws Exception
+    {
+        filter = new SearchResultBatchingFilter( 1024, 20L );
+
+        WriteRequest pdu = pdu( 1, 2, 3 );
+        WriteRequest end = endOf( entry( 1 ) );
+        write( pdu );
+        write( end );
+
+        assertTrue( nextFilter.firstWrite.await( 10, TimeUnit.SECONDS ) );
+
+        // The linger task writes the batch before the end of message
+        Thread.sleep( 50L );
+        assertEquals( 2, nextFilter.written.size() );
+        assertArrayEquals( new byte[]
+            { 1, 2, 3 }, bytesOf( nextFilter.written.get( 0 ) ) );
+        assertSame( end, nextFilter.written.get( 1 ) );
+        assertTrue( pdu.getFuture().isWritten() );
+    }
+
+
+    @Test
+    public void testSearchResultDoneFlushesTheBatch() throws Exception
+    {
+        filter = new SearchResultBatchingFilter( 1024, 60000L );
+
+        WriteRequest entryPdu = pdu( 1, 2 );
+        WriteRequest endOfEntry = endOf( entry( 1 ) );
+        WriteRequest donePdu = pdu( 3, 4 );
+        WriteRequest endOfDone = endOf( new SearchResultDoneImpl( 1 ) );
+
+        write( entryPdu );
+        write( endOfEntry );
+        assertTrue( nextFilter.written.isEmpty() );
+
+        write( donePdu );
+        write( endOfDone );
+
+        // The SearchResultDone comes after the entries, and is not delayed
+        assertEquals( 3, nextFilter.written.size() );
+        assertArrayEquals( new byte[]
+            { 1, 2, 3, 4 }, bytesOf( nextFilter.written.get( 0 ) ) );
+        assertSame( endOfEntry, nextFilter.written.get( 1 ) );
+        assertSame( endOfDone, nextFilter.written.get( 2 ) );
+    }
+
+
+    @Test
+    public void testOtherMessagesPassThrough() throws Exception
+    {
+        filter = new SearchResultBatchingFilter( 1024, 60000L );
+
+        WriteRequest entryPdu = pdu( 1, 2 );
+        WriteRequest endOfEntry = endOf( entry( 1 ) );
+        WriteRequest other = new DefaultWriteRequest( "not a buffer", new DefaultWriteFuture( session ) );
+
+        write( entryPdu );
+        write( endOfEntry );
+        write( other );
+
+        // The pending batch is written first
+        assertEquals( 3, nextFilter.written.size() );
+        assertSame( endOfEntry, nextFilter.written.get( 1 ) );
+        assertSame( other, nextFilter.written.get( 2 ) );
+    }
+
+
+    @Test
+    public void testSessionClosed() throws Exception
+    {
+        filter = new SearchResultBatchingFilter( 1024, 20L );
+
+        WriteRequest pdu = pdu( 1, 2, 3 );
+        WriteRequest end = endOf( entry( 1 ) );
+        write( pdu );
+        write( end );
+
+        filter.sessionClosed( nextFilter, session );
+
+        assertTrue( nextFilter.closed );
+        assertTrue( pdu.getFuture().isDone() );
+        assertFalse( pdu.getFuture().isWritten() );
+        assertTrue( pdu.getFuture().getException() instanceof WriteToClosedSessionException );
+        assertTrue( end.getFuture().getException() instanceof WriteToClosedSessionException );
+
+        // The linger task does not write anything after the close
+        Thread.sleep( 100L );
+        assertTrue( nextFilter.written.isEmpty() );
+    }
+}
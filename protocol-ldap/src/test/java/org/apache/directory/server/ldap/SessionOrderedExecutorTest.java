@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Test;
+
+
+/**
+ * Tests the SessionOrderedExecutor, on top of the executor created by the LdapServer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SessionOrderedExecutorTest
+{
+    /**
+     * An event recording the executed messages instead of firing them in the session chain
+     */
+    private static class RecordingEvent extends IoEvent
+    {
+        private final List<Object> executed;
+        private final CountDownLatch done;
+
+
+        private RecordingEvent( IoSession session, Object message, List<Object> executed, CountDownLatch done )
+        {
+            super( IoEventType.MESSAGE_RECEIVED, session, message );
+            this.executed = executed;
+            this.done = done;
+        }
+
+
+        @Override
+        public void fire()
+        {
+            executed.add( getParameter() );
+            done.countDown();
+        }
+    }
+
+
+    private static SearchRequestImpl search( int messageId )
+    {
+        SearchRequestImpl request = new SearchRequestImpl();
+        request.setMessageId( messageId );
+
+        return request;
+    }
+
+
+    private static Executor createExecutor()
+    {
+        LdapServer server = new LdapServer();
+        server.setExecutionMode( ExecutionMode.ORDERED_THREAD_POOL );
+
+        return server.createRequestExecutor( new TcpTransport( 10389, 4 ) );
+    }
+
+
+    private static void shutdown( Executor executor )
+    {
+        ( ( ExecutorService ) ( ( SessionOrderedExecutor ) executor ).getExecutor() ).shutdown();
+    }
+
+
+    @Test
+    public void testSessionEventsAreExecutedInOrder() throws Exception
+    {
+        Executor executor = createExecutor();
+
+        try
+        {
+            int nbEvents = 200;
+            IoSession session1 = new DummySession();
+            IoSession session2 = new DummySession();
+            List<Object> executed1 = Collections.synchronizedList( new ArrayList<Object>() );
+            List<Object> executed2 = Collections.synchronizedList( new ArrayList<Object>() );
+            List<Object> expected1 = new ArrayList<Object>();
+            List<Object> expected2 = new ArrayList<Object>();
+            CountDownLatch done = new CountDownLatch( 2 * nbEvents );
+
+            for ( int i = 1; i <= nbEvents; i++ )
+            {
+                SearchRequestImpl request1 = search( i );
+                SearchRequestImpl request2 = search( i );
+                expected1.add( request1 );
+                expected2.add( request2 );
+                executor.execute( new RecordingEvent( session1, request1, executed1, done ) );
+                executor.execute( new RecordingEvent( session2, request2, executed2, done ) );
+            }
+
+            assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+            assertEquals( expected1, executed1 );
+            assertEquals( expected2, executed2 );
+        }
+        finally
+        {
+            shutdown( executor );
+        }
+    }
+
+
+    @Test
+    public void testAbandonIsNotQueued() throws Exception
+    {
+        Executor executor = createExecutor();
+
+        try
+        {
+            IoSession session = new DummySession();
+            final CountDownLatch blocked = new CountDownLatch( 1 );
+            final CountDownLatch abandoned = new CountDownLatch( 1 );
+            final List<Object> executed = Collections.synchronizedList( new ArrayList<Object>() );
+
+            // A search waiting for the abandon request to be executed
+            executor.execute( new IoEvent( IoEventType.MESSAGE_RECEIVED, session, search( 1 ) )
+            {
+                @Override
+                public void fire()
+                {
+                    blocked.countDown();
+
+                    try
+                    {
+                        executed.add( Boolean.valueOf( abandoned.await( 10, TimeUnit.SECONDS ) ) );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        executed.add( Boolean.FALSE );
+                    }
+                }
+            } );
+
+            assertTrue( blocked.await( 10, TimeUnit.SECONDS ) );
+
+            CountDownLatch done = new CountDownLatch( 1 );
+            executor.execute( new RecordingEvent( session, new AbandonRequestImpl( 1 ), executed, done ) );
+            assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+            abandoned.countDown();
+
+            // The search has seen the abandon request while running
+            CountDownLatch next = new CountDownLatch( 1 );
+            executor.execute( new RecordingEvent( session, search( 3 ), executed, next ) );
+            assertTrue( next.await( 10, TimeUnit.SECONDS ) );
+            assertEquals( 3, executed.size() );
+            assertEquals( Boolean.TRUE, executed.get( 1 ) );
+        }
+        finally
+        {
+            shutdown( executor );
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+
+/**
+ * Tests the eviction of the paged search contexts.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class PagedSearchContextCacheTest
+{
+    private static PagedSearchContext createContext( LdapSession session, PagedSearchContextCache cache,
+        int messageId ) throws Exception
+    {
+        SearchRequestImpl request = new SearchRequestImpl();
+        request.setMessageId( messageId );
+        PagedSearchContext context = new PagedSearchContext( request );
+        context.setCursor( new ListCursor<Entry>( new ArrayList<Entry>() ) );
+        session.addPagedSearchContext( context );
+        cache.add( session, context );
+
+        return context;
+    }
+
+
+    @Test
+    public void testReleaseCursors() throws Exception
+    {
+        PagedSearchContextCache cache = new PagedSearchContextCache( 10, 2 );
+        LdapSession session = new LdapSession( new DummySession() );
+
+        PagedSearchContext context1 = createContext( session, cache, 1 );
+        PagedSearchContext context2 = createContext( session, cache, 2 );
+        PagedSearchContext context3 = createContext( session, cache, 3 );
+
+        // The least recently used context has lost its cursor, but is still there
+        assertEquals( 3, cache.size() );
+        assertEquals( 2, cache.getOpenCursors() );
+        assertNull( context1.getCursor() );
+        assertNotNull( context2.getCursor() );
+        assertNotNull( context3.getCursor() );
+        assertNotNull( session.getPagedSearchContext( context1.getCookieValue() ) );
+
+        // A context in use is never released
+        context2.acquire();
+        context1.setCursor( new ListCursor<Entry>( new ArrayList<Entry>() ) );
+        cache.update( context1 );
+        assertNotNull( context2.getCursor() );
+        assertNull( context3.getCursor() );
+        assertNotNull( context1.getCursor() );
+    }
+
+
+    @Test
+    public void testEvictContexts() throws Exception
+    {
+        PagedSearchContextCache cache = new PagedSearchContextCache( 2, 2 );
+        LdapSession session = new LdapSession( new DummySession() );
+
+        PagedSearchContext context1 = createContext( session, cache, 1 );
+        PagedSearchContext context2 = createContext( session, cache, 2 );
+
+        // Use the first context, the second one is now the least recently used
+        cache.update( context1 );
+        PagedSearchContext context3 = createContext( session, cache, 3 );
+
+        assertEquals( 2, cache.size() );
+        assertNull( context2.getCursor() );
+        assertNull( session.getPagedSearchContext( context2.getCookieValue() ) );
+        assertNotNull( session.getPagedSearchContext( context1.getCookieValue() ) );
+        assertNotNull( session.getPagedSearchContext( context3.getCookieValue() ) );
+
+        cache.remove( context1 );
+        assertEquals( 1, cache.size() );
+    }
+
+
+    @Test
+    public void testContextInUseIsNotEvicted() throws Exception
+    {
+        PagedSearchContextCache cache = new PagedSearchContextCache( 1, 2 );
+        LdapSession session = new LdapSession( new DummySession() );
+
+        PagedSearchContext context1 = createContext( session, cache, 1 );
+        assertTrue( context1.acquire() );
+        PagedSearchContext context2 = createContext( session, cache, 2 );
+
+        // The page being read keeps its cursor open, the other context is evicted instead
+        assertFalse( context1.tryEvict() );
+        assertNotNull( context1.getCursor() );
+        assertNotNull( session.getPagedSearchContext( context1.getCookieValue() ) );
+        assertNull( session.getPagedSearchContext( context2.getCookieValue() ) );
+
+        // An evicted context can't be used anymore
+        assertFalse( context2.acquire() );
+        assertNull( context2.getCursor() );
+
+        context1.release();
+        assertTrue( context1.tryEvict() );
+        assertNull( context1.getCursor() );
+        assertFalse( context1.acquire() );
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests for the delta-syncrepl encoding of the modifications.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DeltaSyncReplTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+
+    /**
+     * Load the SchemaManager
+     */
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = DeltaSyncReplTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    private Entry createEntry() throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=group,ou=system",
+            "ObjectClass: top",
+            "ObjectClass: groupOfNames",
+            "cn: group",
+            "member: cn=user2,ou=system",
+            "entryUUID", "f1d9e5b6-9b0b-4f4d-9a46-4f2b1f7c8a10",
+            "entryCSN", csnFactory.newInstance().toString() );
+    }
+
+
+    private List<Modification> createModifications() throws Exception
+    {
+        List<Modification> modifications = new ArrayList<Modification>();
+
+        modifications.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "member" ), "cn=user1,ou=system" ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "member" ), "cn=user2,ou=system" ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "description" ) ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "userPassword" ), new byte[]
+                { 0x01, 0x02 } ) ) );
+
+        return modifications;
+    }
+
+
+    @Test
+    public void testDeltaRequested()
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.addAttributes( SchemaConstants.ALL_USER_ATTRIBUTES );
+
+        assertFalse( DeltaSyncRepl.isDeltaRequested( request ) );
+
+        request.addAttributes( DeltaSyncRepl.DELTA_MODE_MARKER );
+
+        assertTrue( DeltaSyncRepl.isDeltaRequested( request ) );
+    }
+
+
+    @Test
+    public void testDeltaEntryRoundTrip() throws Exception
+    {
+        Entry entry = createEntry();
+        List<Modification> modifications = createModifications();
+
+        Entry deltaEntry = DeltaSyncRepl.toDeltaEntry( entry, modifications );
+
+        assertTrue( DeltaSyncRepl.isDeltaEntry( deltaEntry ) );
+        assertFalse( DeltaSyncRepl.isDeltaEntry( entry ) );
+
+        Entry baseEntry = DeltaSyncRepl.getBaseEntry( schemaManager, deltaEntry );
+
+        assertEquals( entry.getDn(), baseEntry.getDn() );
+        assertEquals( entry.get( SchemaConstants.ENTRY_CSN_AT ), baseEntry.get( SchemaConstants.ENTRY_CSN_AT ) );
+        assertEquals( entry.get( SchemaConstants.ENTRY_UUID_AT ), baseEntry.get( SchemaConstants.ENTRY_UUID_AT ) );
+
+        List<Modification> decoded = DeltaSyncRepl.getModifications( schemaManager, deltaEntry );
+
+        assertEquals( modifications, decoded );
+    }
+
+
+    @Test
+    public void testSerializeModifications() throws Exception
+    {
+        ReplicaEventMessageSerializer serializer = new ReplicaEventMessageSerializer( schemaManager );
+        List<Modification> modifications = createModifications();
+
+        ReplicaEventMessage message = new ReplicaEventMessage( ChangeType.MODIFY, createEntry(), modifications );
+        ReplicaEventMessage read = ( ReplicaEventMessage ) serializer.deserialize( serializer.serialize( message ) );
+
+        assertTrue( read.isDelta() );
+        assertEquals( modifications, read.getModifications() );
+
+        message = new ReplicaEventMessage( ChangeType.ADD, createEntry() );
+        read = ( ReplicaEventMessage ) serializer.deserialize( serializer.serialize( message ) );
+
+        assertFalse( read.isDelta() );
+        assertNull( read.getModifications() );
+    }
+}
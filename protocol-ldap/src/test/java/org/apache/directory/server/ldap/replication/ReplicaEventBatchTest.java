@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateTypeEnum;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests for the encoding of the compressed batches of changes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaEventBatchTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+
+    /**
+     * Load the SchemaManager
+     */
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicaEventBatchTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Test
+    public void testBatchRoundTrip() throws Exception
+    {
+        ReplicaEventBatch.BatchWriter batch = new ReplicaEventBatch.BatchWriter();
+        SyncStateTypeEnum[] states =
+            { SyncStateTypeEnum.ADD, SyncStateTypeEnum.MODIFY, SyncStateTypeEnum.MODDN, SyncStateTypeEnum.DELETE };
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            byte[] cookie = ( i == 0 ) ? null : Strings.getBytesUtf8( "rid=001,csn=" + i );
+
+            batch.add( states[i % 4], Strings.uuidToBytes( "f1d7d4a4-0b5e-4d0c-9d3e-0000000000" + ( 10 + i % 90 ) ),
+                cookie, new DefaultEntry( schemaManager, "ou=test" + i + ",ou=system",
+                    "ObjectClass: top",
+                    "ObjectClass: organizationalUnit",
+                    "description: a description which is the same for all the entries",
+                    "ou", "test" + i ) );
+        }
+
+        assertEquals( 100, batch.size() );
+        assertFalse( batch.isFull() );
+
+        byte[] encoded = batch.encode();
+
+        // The batch has been reset, and the similar entries are well compressed
+        assertEquals( 0, batch.size() );
+        assertTrue( encoded.length * 4 < batch.getRawSize() );
+
+        List<ReplicaEventBatch.BatchEvent> events = ReplicaEventBatch.decode( schemaManager, encoded );
+
+        assertEquals( 100, events.size() );
+        assertNull( events.get( 0 ).getCookie() );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            ReplicaEventBatch.BatchEvent event = events.get( i );
+
+            assertEquals( states[i % 4], event.getState() );
+            assertEquals( "ou=test" + i + ",ou=system", event.getEntry().getDn().getName() );
+            assertTrue( event.getEntry().contains( "ou", "test" + i ) );
+            assertArrayEquals( Strings.uuidToBytes( "f1d7d4a4-0b5e-4d0c-9d3e-0000000000" + ( 10 + i % 90 ) ),
+                event.getEntryUuid() );
+
+            if ( i > 0 )
+            {
+                assertEquals( "rid=001,csn=" + i, Strings.utf8ToString( event.getCookie() ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the ReplicationApplier : the order in which the updates are applied, the cookies
+ * reported and the back-pressure on the reader.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicationApplierTest
+{
+    /** A cookie listener recording the reported cookies */
+    private class RecordingCookieListener implements ReplicationApplier.CookieListener
+    {
+        private final List<String> cookies = new ArrayList<String>();
+        private final List<Boolean> idles = new ArrayList<Boolean>();
+        private int failedUpdates;
+
+
+        @Override
+        public synchronized void cookieApplied( byte[] cookie, boolean idle )
+        {
+            String reported = Strings.utf8ToString( cookie );
+
+            // A cookie must never cover an update which has not been applied
+            int last = Integer.parseInt( reported.substring( 1 ) );
+
+            for ( int i = 0; i <= last; i++ )
+            {
+                if ( !applied.contains( "u" + i ) )
+                {
+                    failures.add( reported + " reported before u" + i + " has been applied" );
+                }
+            }
+
+            cookies.add( reported );
+            idles.add( idle );
+        }
+
+
+        @Override
+        public synchronized void updateFailed()
+        {
+            failedUpdates++;
+        }
+    }
+
+    /** The applied updates, in the order they were applied */
+    private final List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+
+    /** The errors seen by the cookie listener */
+    private final List<String> failures = Collections.synchronizedList( new ArrayList<String>() );
+
+    private RecordingCookieListener cookieListener;
+    private ReplicationApplier applier;
+
+
+    @Before
+    public void setUp()
+    {
+        applied.clear();
+        failures.clear();
+        cookieListener = new RecordingCookieListener();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        if ( applier != null )
+        {
+            applier.shutdown();
+        }
+    }
+
+
+    /**
+     * An update recording it has been applied
+     */
+    private Runnable update( final String name )
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                applied.add( name );
+            }
+        };
+    }
+
+
+    /**
+     * An update recording it has been applied, then signaling it
+     */
+    private Runnable update( final String name, final CountDownLatch done )
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                applied.add( name );
+                done.countDown();
+            }
+        };
+    }
+
+
+    /**
+     * An update waiting to be released before recording it has been applied
+     */
+    private Runnable blockingUpdate( final String name, final CountDownLatch started, final CountDownLatch release )
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+
+                try
+                {
+                    release.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+
+                applied.add( name );
+            }
+        };
+    }
+
+
+    private static byte[] cookie( String cookie )
+    {
+        return Strings.getBytesUtf8( cookie );
+    }
+
+
+    @Test
+    public void testParentIsAppliedBeforeItsChildren() throws Exception
+    {
+        applier = new ReplicationApplier( "test", 4, 100, cookieListener );
+
+        CountDownLatch parentStarted = new CountDownLatch( 1 );
+        CountDownLatch releaseParent = new CountDownLatch( 1 );
+        CountDownLatch otherDone = new CountDownLatch( 1 );
+
+        applier.submit( "uuid-parent", new Dn( "ou=parent,dc=example,dc=com" ), null,
+            blockingUpdate( "parent", parentStarted, releaseParent ) );
+        applier.submit( "uuid-child", new Dn( "cn=child,ou=parent,dc=example,dc=com" ), null, update( "child" ) );
+        applier.submit( "uuid-grandchild", new Dn( "cn=grandchild,cn=child,ou=parent,dc=example,dc=com" ), null,
+            update( "grandchild" ) );
+
+        // An unrelated update is applied while the parent is being applied
+        applier.submit( "uuid-other", new Dn( "ou=other,dc=example,dc=com" ), null, update( "other", otherDone ) );
+
+        assertTrue( parentStarted.await( 10, TimeUnit.SECONDS ) );
+        assertTrue( otherDone.await( 10, TimeUnit.SECONDS ) );
+        Thread.sleep( 100L );
+
+        assertEquals( Arrays.asList( "other" ), applied );
+        assertEquals( 4, applier.getPendingCount() );
+
+        releaseParent.countDown();
+        applier.drain();
+
+        assertEquals( Arrays.asList( "other", "parent", "child", "grandchild" ), applied );
+        assertEquals( 0, applier.getPendingCount() );
+    }
+
+
+    @Test
+    public void testSameEntryUpdatesAreAppliedInOrder() throws Exception
+    {
+        applier = new ReplicationApplier( "test", 4, 100, cookieListener );
+
+        CountDownLatch firstStarted = new CountDownLatch( 1 );
+        CountDownLatch releaseFirst = new CountDownLatch( 1 );
+        CountDownLatch otherDone = new CountDownLatch( 1 );
+
+        applier.submit( "uuid-1", new Dn( "cn=old,dc=example,dc=com" ), null,
+            blockingUpdate( "first", firstStarted, releaseFirst ) );
+
+        // The same entry, renamed
+        applier.submit( "uuid-1", new Dn( "cn=new,dc=example,dc=com" ), null, update( "renamed" ) );
+
+        // Another entry, reusing the old DN
+        applier.submit( "uuid-2", new Dn( "cn=old,dc=example,dc=com" ), null, update( "sameDn" ) );
+
+        applier.submit( "uuid-3", new Dn( "cn=other,dc=example,dc=com" ), null, update( "other", otherDone ) );
+
+        assertTrue( firstStarted.await( 10, TimeUnit.SECONDS ) );
+        assertTrue( otherDone.await( 10, TimeUnit.SECONDS ) );
+        Thread.sleep( 100L );
+
+        assertEquals( Arrays.asList( "other" ), applied );
+
+        releaseFirst.countDown();
+        applier.drain();
+
+        assertEquals( 4, applied.size() );
+        assertTrue( applied.indexOf( "first" ) < applied.indexOf( "renamed" ) );
+        assertTrue( applied.indexOf( "first" ) < applied.indexOf( "sameDn" ) );
+    }
+
+
+    @Test
+    public void testCookieIsNotReportedBeforeThePreviousUpdates() throws Exception
+    {
+        applier = new ReplicationApplier( "test", 2, 100, cookieListener );
+
+        CountDownLatch u0Started = new CountDownLatch( 1 );
+        CountDownLatch releaseU0 = new CountDownLatch( 1 );
+        CountDownLatch u1Done = new CountDownLatch( 1 );
+
+        applier.submit( "uuid-0", new Dn( "cn=u0,dc=example,dc=com" ), cookie( "c0" ),
+            blockingUpdate( "u0", u0Started, releaseU0 ) );
+        applier.submit( "uuid-1", new Dn( "cn=u1,dc=example,dc=com" ), cookie( "c1" ), update( "u1", u1Done ) );
+
+        assertTrue( u0Started.await( 10, TimeUnit.SECONDS ) );
+        assertTrue( u1Done.await( 10, TimeUnit.SECONDS ) );
+        Thread.sleep( 100L );
+
+        // u1 has been applied, but not u0 : c1 must not be stored yet
+        synchronized ( cookieListener )
+        {
+            assertTrue( cookieListener.cookies.isEmpty() );
+        }
+
+        assertEquals( 2, applier.getPendingCount() );
+
+        releaseU0.countDown();
+        applier.drain();
+
+        // Both updates are now covered by the last cookie
+        synchronized ( cookieListener )
+        {
+            assertEquals( Arrays.asList( "c1" ), cookieListener.cookies );
+            assertEquals( Arrays.asList( true ), cookieListener.idles );
+        }
+
+        assertTrue( failures.toString(), failures.isEmpty() );
+    }
+
+
+    @Test
+    public void testCookiesAreReportedInOrder() throws Exception
+    {
+        applier = new ReplicationApplier( "test", 4, 8, cookieListener );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            // A few updates on the same entries, the others independent
+            applier.submit( "uuid-" + ( i % 10 ), new Dn( "cn=u" + ( i % 10 ) + ",dc=example,dc=com" ),
+                cookie( "c" + i ), update( "u" + i ) );
+        }
+
+        applier.drain();
+
+        assertEquals( 100, applied.size() );
+        assertTrue( failures.toString(), failures.isEmpty() );
+
+        synchronized ( cookieListener )
+        {
+            int previous = -1;
+
+            for ( String cookie : cookieListener.cookies )
+            {
+                int current = Integer.parseInt( cookie.substring( 1 ) );
+                assertTrue( current > previous );
+                previous = current;
+            }
+
+            assertEquals( 99, previous );
+            assertTrue( cookieListener.idles.get( cookieListener.idles.size() - 1 ) );
+        }
+    }
+
+
+    @Test
+    public void testBackPressure() throws Exception
+    {
+        applier = new ReplicationApplier( "test", 2, 2, cookieListener );
+
+        CountDownLatch started = new CountDownLatch( 2 );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        applier.submit( "uuid-0", new Dn( "cn=u0,dc=example,dc=com" ), null, blockingUpdate( "u0", started, release ) );
+        applier.submit( "uuid-1", new Dn( "cn=u1,dc=example,dc=com" ), null, blockingUpdate( "u1", started, release ) );
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+
+        // The reader is blocked while there are too many pending updates
+        final AtomicBoolean submitted = new AtomicBoolean();
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    applier.submit( "uuid-2", new Dn( "cn=u2,dc=example,dc=com" ), null, update( "u2" ) );
+                    submitted.set( true );
+                }
+                catch ( Exception e )
+                {
+                    failures.add( e.toString() );
+                }
+            }
+        };
+
+        reader.start();
+        Thread.sleep( 100L );
+
+        assertFalse( submitted.get() );
+        assertTrue( reader.isAlive() );
+
+        release.countDown();
+        reader.join( 10000L );
+
+        assertTrue( submitted.get() );
+        applier.drain();
+        assertEquals( 3, applied.size() );
+        assertTrue( failures.toString(), failures.isEmpty() );
+    }
+
+
+    @Test
+    public void testFailedUpdateStopsTheCookies() throws Exception
+    {
+        applier = new ReplicationApplier( "test", 2, 100, cookieListener );
+
+        applier.submit( "uuid-0", new Dn( "cn=u0,dc=example,dc=com" ), cookie( "c0" ), update( "u0" ) );
+        applier.submit( "uuid-0", new Dn( "cn=u0,dc=example,dc=com" ), cookie( "c1" ), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                applied.add( "u1" );
+                throw new IllegalStateException( "Expected failure" );
+            }
+        } );
+        applier.submit( "uuid-0", new Dn( "cn=u0,dc=example,dc=com" ), cookie( "c2" ), update( "u2" ) );
+
+        applier.drain();
+
+        // The updates depending on the failed one are still applied...
+        assertEquals( Arrays.asList( "u0", "u1", "u2" ), applied );
+        assertTrue( applier.hasFailed() );
+
+        // ... but the cookie does not advance past the failed update
+        synchronized ( cookieListener )
+        {
+            assertEquals( Arrays.asList( "c0" ), cookieListener.cookies );
+            assertEquals( 1, cookieListener.failedUpdates );
+        }
+
+        // Once the synchronization is restarted, the cookies are reported again
+        applier.reset();
+        assertFalse( applier.hasFailed() );
+
+        applier.submit( "uuid-0", new Dn( "cn=u0,dc=example,dc=com" ), cookie( "c3" ), update( "u3" ) );
+        applier.drain();
+
+        synchronized ( cookieListener )
+        {
+            assertEquals( Arrays.asList( "c0", "c3" ), cookieListener.cookies );
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.provider.ReplicaEventJournal.JournalRecord;
+import org.apache.directory.server.ldap.replication.provider.ReplicaEventJournal.Segment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests for the segmented journal shared by the replication consumers.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaEventJournalTest
+{
+    /** A small segment size, so that the messages are spread on many segments */
+    private static final int SEGMENT_SIZE = 8 * 1024;
+
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+    /** The journal directory */
+    private File journalDir;
+
+    /** The journal */
+    private ReplicaEventJournal journal;
+
+
+    /**
+     * Load the SchemaManager
+     */
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicaEventJournalTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    @Before
+    public void createJournal() throws Exception
+    {
+        journalDir = File.createTempFile( getClass().getSimpleName(), "" );
+        journalDir.delete();
+        journal = new ReplicaEventJournal( schemaManager, journalDir, SEGMENT_SIZE );
+    }
+
+
+    @After
+    public void deleteJournal() throws Exception
+    {
+        journal.close();
+
+        File[] files = journalDir.listFiles();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                file.delete();
+            }
+        }
+
+        journalDir.delete();
+    }
+
+
+    private List<String> appendMessages( int count ) throws Exception
+    {
+        List<String> csns = new ArrayList<String>();
+
+        for ( int i = 0; i < count; i++ )
+        {
+            String csn = csnFactory.newInstance().toString();
+            csns.add( csn );
+
+            Entry entry = new DefaultEntry( schemaManager, "ou=test" + i + ",ou=system",
+                "ObjectClass: top",
+                "ObjectClass: organizationalUnit",
+                "ou", "test" + i,
+                "entryCsn", csn );
+
+            journal.append( new ReplicaEventMessage( ChangeType.ADD, entry ), null, i % 3 );
+        }
+
+        return csns;
+    }
+
+
+    private List<JournalRecord> readAll() throws Exception
+    {
+        List<JournalRecord> records = new ArrayList<JournalRecord>();
+
+        for ( Segment segment : journal.getSegments() )
+        {
+            JournalRecord record = journal.read( segment, 0 );
+
+            while ( record != null )
+            {
+                records.add( record );
+                record = journal.read( segment, record.nextPosition );
+            }
+        }
+
+        return records;
+    }
+
+
+    @Test
+    public void testAppendAndRead() throws Exception
+    {
+        List<String> csns = appendMessages( 100 );
+
+        assertEquals( 100, journal.count() );
+        assertTrue( journal.getSegments().size() > 1 );
+
+        List<JournalRecord> records = readAll();
+        assertEquals( 100, records.size() );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            JournalRecord record = records.get( i );
+            assertEquals( csns.get( i ), record.csn );
+            assertEquals( i % 3, record.originRid );
+            assertEquals( "", record.originalDn );
+
+            ReplicaEventMessage message = record.getMessage();
+            assertEquals( ChangeType.ADD, message.getChangeType() );
+            assertEquals( "test" + i, message.getEntry().get( "ou" ).getString() );
+        }
+    }
+
+
+    @Test
+    public void testDuplicateIgnored() throws Exception
+    {
+        String csn = csnFactory.newInstance().toString();
+
+        Entry entry = new DefaultEntry( schemaManager, "ou=test,ou=system",
+            "ObjectClass: top",
+            "ObjectClass: organizationalUnit",
+            "ou", "test",
+            "entryCsn", csn );
+
+        // Every consumer's listener logs the same change
+        for ( int i = 0; i < 20; i++ )
+        {
+            journal.append( new ReplicaEventMessage( ChangeType.ADD, entry ), null, ReplicaEventJournal.NO_ORIGIN );
+        }
+
+        assertEquals( 1, journal.count() );
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        List<String> csns = appendMessages( 50 );
+        int segmentCount = journal.getSegments().size();
+        journal.close();
+
+        journal = new ReplicaEventJournal( schemaManager, journalDir, SEGMENT_SIZE );
+
+        assertEquals( 50, journal.count() );
+        assertEquals( segmentCount, journal.getSegments().size() );
+
+        List<JournalRecord> records = readAll();
+        assertEquals( csns.get( 49 ), records.get( 49 ).csn );
+
+        // We can still append to the last segment
+        appendMessages( 1 );
+        assertEquals( 51, journal.count() );
+        assertEquals( 51, readAll().size() );
+    }
+
+
+    @Test
+    public void testPurge() throws Exception
+    {
+        List<String> csns = appendMessages( 100 );
+        List<Segment> segments = journal.getSegments();
+        String maxCsn = segments.get( 1 ).maxCsn;
+
+        // Nothing is removed if the messages are too recent
+        assertEquals( 0, journal.purge( csns.get( 99 ), 0L ) );
+
+        // Only the segments older than the CSN are removed
+        long removed = journal.purge( csns.get( csns.indexOf( maxCsn ) + 1 ), Long.MAX_VALUE );
+
+        assertEquals( segments.get( 0 ).count + segments.get( 1 ).count, removed );
+        assertEquals( 100 - removed, journal.count() );
+        assertEquals( segments.size() - 2, journal.getSegments().size() );
+        assertEquals( 100 - removed, readAll().size() );
+
+        // The last segment is never removed
+        journal.purge( null, Long.MAX_VALUE );
+        assertEquals( 1, journal.getSegments().size() );
+        assertNull( journal.read( journal.getSegments().get( 0 ), journal.getSegments().get( 0 ).writePosition ) );
+    }
+
+
+    @Test
+    public void testPurgedSegmentsAreDeleted() throws Exception
+    {
+        List<String> csns = appendMessages( 100 );
+        List<Segment> segments = journal.getSegments();
+        String maxCsn = segments.get( 0 ).maxCsn;
+
+        journal.purge( csns.get( csns.indexOf( maxCsn ) + 1 ), Long.MAX_VALUE );
+
+        assertFalse( segments.get( 0 ).file.exists() );
+        assertEquals( segments.size() - 1, journalDir.list().length );
+
+        // The purged segment can't be read anymore
+        assertNull( journal.read( segments.get( 0 ), 0 ) );
+    }
+
+
+    @Test
+    public void testPurgedSegmentIsNotReloaded() throws Exception
+    {
+        appendMessages( 100 );
+        List<Segment> segments = journal.getSegments();
+        File purgedFile = segments.get( 0 ).file;
+        long purgedCount = segments.get( 0 ).count;
+        journal.close();
+
+        // A segment purged, but which could not be deleted before the shutdown
+        try ( RandomAccessFile raf = new RandomAccessFile( purgedFile, "rw" ) )
+        {
+            raf.writeInt( -1 );
+        }
+
+        journal = new ReplicaEventJournal( schemaManager, journalDir, SEGMENT_SIZE );
+
+        assertEquals( 100 - purgedCount, journal.count() );
+        assertEquals( segments.size() - 1, journal.getSegments().size() );
+        assertFalse( purgedFile.exists() );
+        assertEquals( 100 - purgedCount, readAll().size() );
+    }
+}
@@ -33,12 +33,14 @@ import java.util.Set;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.ObjectClass;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
@@ -438,10 +440,59 @@ public class ConfigWriter
                 // Moving to the upper class in the class hierarchy
                 beanClass = beanClass.getSuperclass();
             }
+
+            addAuxiliaryObjectClasses( schemaManager, entry );
         }
     }
 
 
+    /**
+     * Adds the auxiliary object classes allowing the attributes of the entry which
+     * are not allowed by the bean's object classes.
+     *
+     * @param schemaManager
+     *      the schema manager
+     * @param entry
+     *      the entry
+     * @throws LdapException
+     */
+    private void addAuxiliaryObjectClasses( SchemaManager schemaManager, LdifEntry entry ) throws LdapException
+    {
+        Set<AttributeType> allowedAttributeTypes = new HashSet<AttributeType>();
+
+        for ( Value objectClassValue : entry.get( SchemaConstants.OBJECT_CLASS_AT ) )
+        {
+            ObjectClass objectClass = schemaManager.lookupObjectClassRegistry( objectClassValue.getValue() );
+            allowedAttributeTypes.addAll( objectClass.getMustAttributeTypes() );
+            allowedAttributeTypes.addAll( objectClass.getMayAttributeTypes() );
+        }
+
+        Set<String> auxiliaryObjectClasses = new HashSet<String>();
+
+        for ( Attribute attribute : entry.getEntry() )
+        {
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( attribute.getUpId() );
+
+            if ( allowedAttributeTypes.contains( attributeType ) )
+            {
+                continue;
+            }
+
+            for ( ObjectClass objectClass : schemaManager.getObjectClassRegistry() )
+            {
+                if ( objectClass.isAuxiliary() && objectClass.getMayAttributeTypes().contains( attributeType ) )
+                {
+                    auxiliaryObjectClasses.add( objectClass.getName() );
+                    allowedAttributeTypes.addAll( objectClass.getMayAttributeTypes() );
+                    break;
+                }
+            }
+        }
+
+        addAttributeTypeValues( SchemaConstants.OBJECT_CLASS_AT, auxiliaryObjectClasses, entry );
+    }
+
+
     /**
      * Gets the name of the object class to use for the given bean class.
      *
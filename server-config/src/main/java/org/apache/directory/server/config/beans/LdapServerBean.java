@@ -94,6 +94,38 @@ public class LdapServerBean extends DSBasedServerBean
     @ConfigurationElement(attributeType = "ads-replPingerSleep")
     private int replPingerSleep;
 
+    /** The way the requests are executed (THREAD_POOL, ORDERED_THREAD_POOL, VIRTUAL_THREADS or ORDERED_VIRTUAL_THREADS) */
+    @ConfigurationElement(attributeType = "ads-ldapServerExecutionMode", isOptional = true)
+    private String ldapServerExecutionMode;
+
+    /** The maximum number of requests executed concurrently, 0 to disable the request scheduling */
+    @ConfigurationElement(attributeType = "ads-ldapServerMaxConcurrentRequests", isOptional = true, defaultValue = "0")
+    private int ldapServerMaxConcurrentRequests = 0;
+
+    /** The maximum number of requests executed concurrently for a bound identity, 0 for no limit */
+    @ConfigurationElement(attributeType = "ads-ldapServerMaxRequestsPerIdentity", isOptional = true, defaultValue = "0")
+    private int ldapServerMaxRequestsPerIdentity = 0;
+
+    /** The maximum number of waiting requests per request class */
+    @ConfigurationElement(attributeType = "ads-ldapServerRequestQueueSize", isOptional = true, defaultValue = "1000")
+    private int ldapServerRequestQueueSize = 1000;
+
+    /** The weight of the bind requests */
+    @ConfigurationElement(attributeType = "ads-ldapServerBindWeight", isOptional = true, defaultValue = "8")
+    private int ldapServerBindWeight = 8;
+
+    /** The weight of the compare requests */
+    @ConfigurationElement(attributeType = "ads-ldapServerCompareWeight", isOptional = true, defaultValue = "4")
+    private int ldapServerCompareWeight = 4;
+
+    /** The weight of the add, modify, delete and modifyDN requests */
+    @ConfigurationElement(attributeType = "ads-ldapServerWriteWeight", isOptional = true, defaultValue = "2")
+    private int ldapServerWriteWeight = 2;
+
+    /** The weight of the search requests */
+    @ConfigurationElement(attributeType = "ads-ldapServerSearchWeight", isOptional = true, defaultValue = "1")
+    private int ldapServerSearchWeight = 1;
+
 
     /**
      * Create a new LdapServerBean instance
@@ -389,6 +421,150 @@ public class LdapServerBean extends DSBasedServerBean
     }
 
 
+    /**
+     * @return the ldapServerExecutionMode
+     */
+    public String getLdapServerExecutionMode()
+    {
+        return ldapServerExecutionMode;
+    }
+
+
+    /**
+     * @param ldapServerExecutionMode the ldapServerExecutionMode to set
+     */
+    public void setLdapServerExecutionMode( String ldapServerExecutionMode )
+    {
+        this.ldapServerExecutionMode = ldapServerExecutionMode;
+    }
+
+
+    /**
+     * @return the ldapServerMaxConcurrentRequests
+     */
+    public int getLdapServerMaxConcurrentRequests()
+    {
+        return ldapServerMaxConcurrentRequests;
+    }
+
+
+    /**
+     * @param ldapServerMaxConcurrentRequests the ldapServerMaxConcurrentRequests to set
+     */
+    public void setLdapServerMaxConcurrentRequests( int ldapServerMaxConcurrentRequests )
+    {
+        this.ldapServerMaxConcurrentRequests = ldapServerMaxConcurrentRequests;
+    }
+
+
+    /**
+     * @return the ldapServerMaxRequestsPerIdentity
+     */
+    public int getLdapServerMaxRequestsPerIdentity()
+    {
+        return ldapServerMaxRequestsPerIdentity;
+    }
+
+
+    /**
+     * @param ldapServerMaxRequestsPerIdentity the ldapServerMaxRequestsPerIdentity to set
+     */
+    public void setLdapServerMaxRequestsPerIdentity( int ldapServerMaxRequestsPerIdentity )
+    {
+        this.ldapServerMaxRequestsPerIdentity = ldapServerMaxRequestsPerIdentity;
+    }
+
+
+    /**
+     * @return the ldapServerRequestQueueSize
+     */
+    public int getLdapServerRequestQueueSize()
+    {
+        return ldapServerRequestQueueSize;
+    }
+
+
+    /**
+     * @param ldapServerRequestQueueSize the ldapServerRequestQueueSize to set
+     */
+    public void setLdapServerRequestQueueSize( int ldapServerRequestQueueSize )
+    {
+        this.ldapServerRequestQueueSize = ldapServerRequestQueueSize;
+    }
+
+
+    /**
+     * @return the ldapServerBindWeight
+     */
+    public int getLdapServerBindWeight()
+    {
+        return ldapServerBindWeight;
+    }
+
+
+    /**
+     * @param ldapServerBindWeight the ldapServerBindWeight to set
+     */
+    public void setLdapServerBindWeight( int ldapServerBindWeight )
+    {
+        this.ldapServerBindWeight = ldapServerBindWeight;
+    }
+
+
+    /**
+     * @return the ldapServerCompareWeight
+     */
+    public int getLdapServerCompareWeight()
+    {
+        return ldapServerCompareWeight;
+    }
+
+
+    /**
+     * @param ldapServerCompareWeight the ldapServerCompareWeight to set
+     */
+    public void setLdapServerCompareWeight( int ldapServerCompareWeight )
+    {
+        this.ldapServerCompareWeight = ldapServerCompareWeight;
+    }
+
+
+    /**
+     * @return the ldapServerWriteWeight
+     */
+    public int getLdapServerWriteWeight()
+    {
+        return ldapServerWriteWeight;
+    }
+
+
+    /**
+     * @param ldapServerWriteWeight the ldapServerWriteWeight to set
+     */
+    public void setLdapServerWriteWeight( int ldapServerWriteWeight )
+    {
+        this.ldapServerWriteWeight = ldapServerWriteWeight;
+    }
+
+
+    /**
+     * @return the ldapServerSearchWeight
+     */
+    public int getLdapServerSearchWeight()
+    {
+        return ldapServerSearchWeight;
+    }
+
+
+    /**
+     * @param ldapServerSearchWeight the ldapServerSearchWeight to set
+     */
+    public void setLdapServerSearchWeight( int ldapServerSearchWeight )
+    {
+        this.ldapServerSearchWeight = ldapServerSearchWeight;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -408,6 +584,12 @@ public class LdapServerBean extends DSBasedServerBean
         sb.append( toString( tabs, "  confidentiality required", confidentialityRequired ) );
         sb.append( toString( tabs, "  enable replication provider", replReqHandler ) );
         sb.append( toString( tabs, "  Pinger thread sleep time(in sec.)", replPingerSleep ) );
+        sb.append( toString( tabs, "  execution mode", ldapServerExecutionMode ) );
+        sb.append( toString( tabs, "  max concurrent requests", ldapServerMaxConcurrentRequests ) );
+        sb.append( toString( tabs, "  max requests per identity", ldapServerMaxRequestsPerIdentity ) );
+        sb.append( toString( tabs, "  request queue size", ldapServerRequestQueueSize ) );
+        sb.append( toString( tabs, "  bind/compare/write/search weights", ldapServerBindWeight + "/"
+            + ldapServerCompareWeight + "/" + ldapServerWriteWeight + "/" + ldapServerSearchWeight ) );
 
         if ( ( extendedOpHandlers != null ) && ( extendedOpHandlers.size() > 0 ) )
         {
@@ -21,6 +21,7 @@
 package org.apache.directory.server.config;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.File;
@@ -128,6 +129,40 @@ public class LdapServerConfigReaderTest
         assertNotNull( configBean );
         LdapServerBean ldapServerBean = ( LdapServerBean ) configBean.getDirectoryServiceBeans().get( 0 );
         assertNotNull( ldapServerBean );
+        assertEquals( "ORDERED_THREAD_POOL", ldapServerBean.getLdapServerExecutionMode() );
+
+        configPartition.destroy();
+    }
+
+
+    @Test
+    public void testLdapServerRequestScheduling() throws Exception
+    {
+        File configDir = new File( workDir, "ldapServerScheduling" );
+        String configFile = LdifConfigExtractor.extractSingleFileConfig( configDir, "ldapServer.ldif", true );
+
+        SingleFileLdifPartition configPartition = new SingleFileLdifPartition( schemaManager, dnFactory );
+        configPartition.setId( "config" );
+        configPartition.setPartitionPath( new File( configFile ).toURI() );
+        configPartition.setSuffixDn( new Dn( schemaManager, "ou=config" ) );
+        configPartition.setSchemaManager( schemaManager );
+
+        configPartition.setCacheService( cacheService );
+        configPartition.initialize();
+        ConfigPartitionReader cpReader = new ConfigPartitionReader( configPartition );
+
+        ConfigBean configBean = cpReader.readConfig( new Dn( schemaManager,
+            "ou=servers,ads-directoryServiceId=default,ou=config" ), ConfigSchemaConstants.ADS_LDAP_SERVER_OC
+            .getValue() );
+
+        LdapServerBean ldapServerBean = ( LdapServerBean ) configBean.getDirectoryServiceBeans().get( 0 );
+        assertEquals( 64, ldapServerBean.getLdapServerMaxConcurrentRequests() );
+        assertEquals( 8, ldapServerBean.getLdapServerMaxRequestsPerIdentity() );
+        assertEquals( 500, ldapServerBean.getLdapServerRequestQueueSize() );
+        assertEquals( 10, ldapServerBean.getLdapServerBindWeight() );
+        assertEquals( 5, ldapServerBean.getLdapServerCompareWeight() );
+        assertEquals( 3, ldapServerBean.getLdapServerWriteWeight() );
+        assertEquals( 2, ldapServerBean.getLdapServerSearchWeight() );
 
         configPartition.destroy();
     }
@@ -285,6 +285,57 @@ public class SortedSearchIT extends AbstractLdapTestUnit
             assertEquals( expectedOrder.get( i ), actualOrder.get( expectedCount - i ) );
         }
     }
+
+
+    /**
+     * The server keeps one more sorted entry than the size limit, to tell that the limit
+     * has been exceeded
+     */
+    @Test
+    public void testSortWithSizeLimit() throws Exception
+    {
+        sk.setAttributeTypeDesc( "sn" );
+        req.setSizeLimit( 4 );
+        SearchCursor cursor = con.search( req );
+
+        List<String> actualOrder = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actualOrder.add( se.getEntry().getDn().getName() );
+        }
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+        cursor.close();
+
+        List<String> expectedOrder = new ArrayList<String>();
+        expectedOrder.add( "uid=person1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person2,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person3,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user0,ou=parent,ou=system" );
+
+        assertEquals( expectedOrder, actualOrder );
+        assertEquals( ResultCodeEnum.SIZE_LIMIT_EXCEEDED, sd.getLdapResult().getResultCode() );
+
+        // The limit is not exceeded when all the entries are returned
+        req.setSizeLimit( 14 );
+        cursor = con.search( req );
+        int count = 0;
+
+        while ( cursor.next() )
+        {
+            cursor.get();
+            count++;
+        }
+
+        sd = cursor.getSearchResultDone();
+        cursor.close();
+
+        assertEquals( 14, count );
+        assertEquals( ResultCodeEnum.SUCCESS, sd.getLdapResult().getResultCode() );
+    }
+
     
     // though "sn" is also multi-valued, the test data has only one value for "sn" in each entry
     // so using "cn" for this test
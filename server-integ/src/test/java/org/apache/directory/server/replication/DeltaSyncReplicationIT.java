@@ -0,0 +1,359 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.replication;
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.annotations.CreateConsumer;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.factory.DSAnnotationProcessor;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.factory.ServerAnnotationProcessor;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumerImpl;
+import org.apache.directory.server.ldap.replication.provider.SyncReplRequestHandler;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the replication of the modifications to a consumer in delta mode.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DeltaSyncReplicationIT
+{
+    private static LdapServer providerServer;
+
+    private static LdapServer consumerServer;
+
+    private static SchemaManager schemaManager;
+
+    private static CoreSession providerSession;
+
+    private static CoreSession consumerSession;
+
+    private static AtomicInteger entryCount = new AtomicInteger();
+
+
+    @BeforeClass
+    public static void setUp() throws Exception
+    {
+        Class.forName( FrameworkRunner.class.getName() );
+        CountDownLatch counter = new CountDownLatch( 2 );
+
+        startProvider( counter );
+        startConsumer( counter );
+
+        // Wait for the two servers to be up and running
+        counter.await();
+    }
+
+
+    @AfterClass
+    public static void tearDown() throws Exception
+    {
+        consumerServer.stop();
+        consumerServer.getDirectoryService().shutdown();
+        providerServer.stop();
+        providerServer.getDirectoryService().shutdown();
+    }
+
+
+    /**
+     * Wait up to 10 seconds, by 100ms steps, until the entry exists on the consumer with the
+     * given description.
+     */
+    private boolean checkDescriptionReplicated( Dn entryDn, String description ) throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( consumerSession.exists( entryDn ) )
+            {
+                Entry consumerEntry = consumerSession.lookup( entryDn, "description" );
+
+                if ( ( consumerEntry != null ) && consumerEntry.contains( "description", description ) )
+                {
+                    return true;
+                }
+            }
+
+            Thread.sleep( 100 );
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Wait up to 10 seconds, by 100ms steps, until the entry exists on the consumer.
+     */
+    private boolean checkEntryReplicated( Dn entryDn ) throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( consumerSession.exists( entryDn ) )
+            {
+                return true;
+            }
+
+            Thread.sleep( 100 );
+        }
+
+        return false;
+    }
+
+
+    private Entry createEntry() throws Exception
+    {
+        String user = "delta" + entryCount.incrementAndGet();
+
+        String dn = "cn=" + user + ",dc=example,dc=com";
+
+        DefaultEntry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass", "person",
+            "cn", user,
+            "sn", user );
+
+        return entry;
+    }
+
+
+    private void addDescription( Dn dn, String description ) throws Exception
+    {
+        ModifyRequest modReq = new ModifyRequestImpl();
+        modReq.setName( dn );
+        modReq.add( "description", description );
+
+        providerSession.modify( modReq );
+    }
+
+
+    @Test
+    public void testModify() throws Exception
+    {
+        Entry provUser = createEntry();
+
+        providerSession.add( provUser );
+        assertTrue( checkEntryReplicated( provUser.getDn() ) );
+
+        addDescription( provUser.getDn(), "delta" );
+
+        assertTrue( checkDescriptionReplicated( provUser.getDn(), "delta" ) );
+    }
+
+
+    /**
+     * The entry is missing on the consumer when its modifications are received : they must
+     * not be discarded. The consumer restarts from its last stored cookie, then refreshes its
+     * whole content when the modifications fail again, which restores the entry.
+     */
+    @Test
+    public void testModifyMissingEntry() throws Exception
+    {
+        Entry provUser = createEntry();
+        Dn userDn = provUser.getDn();
+
+        providerSession.add( provUser );
+        assertTrue( checkEntryReplicated( userDn ) );
+
+        // Remove the entry from the consumer only
+        consumerSession.delete( userDn );
+        assertFalse( consumerSession.exists( userDn ) );
+
+        addDescription( userDn, "missing" );
+
+        assertTrue( checkDescriptionReplicated( userDn, "missing" ) );
+    }
+
+
+    @CreateDS(
+        allowAnonAccess = true,
+        name = "delta-provider-replication",
+        enableChangeLog = false,
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example"))
+        })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = 16100, protocol = "LDAP") })
+    public static void startProvider( final CountDownLatch counter ) throws Exception
+    {
+        DirectoryService provDirService = DSAnnotationProcessor.getDirectoryService();
+
+        providerServer = ServerAnnotationProcessor.getLdapServer( provDirService );
+        providerServer.setReplicationReqHandler( new SyncReplRequestHandler() );
+        providerServer.startReplicationProducer();
+
+        Runnable r = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    schemaManager = providerServer.getDirectoryService().getSchemaManager();
+                    providerSession = providerServer.getDirectoryService().getAdminSession();
+                    counter.countDown();
+                }
+                catch ( Exception e )
+                {
+                    e.printStackTrace();
+                }
+            }
+        };
+
+        Thread t = new Thread( r );
+        t.setDaemon( true );
+        t.start();
+        t.join();
+    }
+
+
+    @CreateDS(
+        allowAnonAccess = true,
+        enableChangeLog = false,
+        name = "delta-consumer-replication",
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example"))
+        })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = 17100, protocol = "LDAP") })
+    @CreateConsumer
+        (
+            remotePort = 16100,
+            replUserDn = "uid=admin,ou=system",
+            replUserPassword = "secret",
+            useTls = false,
+            baseDn = "dc=example,dc=com",
+            refreshInterval = 1000,
+            replicaId = 1
+        )
+        public static void startConsumer( final CountDownLatch counter ) throws Exception
+    {
+        DirectoryService provDirService = DSAnnotationProcessor.getDirectoryService();
+        consumerServer = ServerAnnotationProcessor.getLdapServer( provDirService );
+
+        final ReplicationConsumerImpl consumer = ( ReplicationConsumerImpl ) ServerAnnotationProcessor.createConsumer();
+
+        // Receive the modifications instead of the modified entries
+        consumer.getConfig().setDeltaMode( true );
+
+        List<ReplicationConsumer> replConsumers = new ArrayList<ReplicationConsumer>();
+        replConsumers.add( consumer );
+
+        consumerServer.setReplConsumers( replConsumers );
+
+        Runnable r = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    DirectoryService ds = consumerServer.getDirectoryService();
+
+                    Dn configDn = new Dn( ds.getSchemaManager(), "ads-replConsumerId=localhost,ou=system" );
+                    consumer.getConfig().setConfigEntryDn( configDn );
+
+                    Entry provConfigEntry = new DefaultEntry( ds.getSchemaManager(), configDn,
+                        "objectClass: ads-replConsumer",
+                        "ads-replConsumerId: localhost",
+                        "ads-searchBaseDN", consumer.getConfig().getBaseDn(),
+                        "ads-replProvHostName", consumer.getConfig().getRemoteHost(),
+                        "ads-replProvPort", String.valueOf( consumer.getConfig().getRemotePort() ),
+                        "ads-replRefreshInterval", String.valueOf( consumer.getConfig().getRefreshInterval() ),
+                        "ads-replRefreshNPersist", String.valueOf( consumer.getConfig().isRefreshNPersist() ),
+                        "ads-replSearchScope", consumer.getConfig().getSearchScope().getLdapUrlValue(),
+                        "ads-replSearchFilter", consumer.getConfig().getFilter(),
+                        "ads-replSearchSizeLimit", String.valueOf( consumer.getConfig().getSearchSizeLimit() ),
+                        "ads-replSearchTimeOut", String.valueOf( consumer.getConfig().getSearchTimeout() ),
+                        "ads-replUserDn", consumer.getConfig().getReplUserDn(),
+                        "ads-replUserPassword", consumer.getConfig().getReplUserPassword() );
+
+                    provConfigEntry.put( "ads-replAliasDerefMode", consumer.getConfig().getAliasDerefMode()
+                        .getJndiValue() );
+                    provConfigEntry.put( "ads-replAttributes", consumer.getConfig().getAttributes() );
+
+                    consumerSession = consumerServer.getDirectoryService().getAdminSession();
+                    consumerSession.add( provConfigEntry );
+                    counter.countDown();
+                }
+                catch ( Exception e )
+                {
+                    e.printStackTrace();
+                }
+            }
+        };
+
+        Thread t = new Thread( r );
+        t.setDaemon( true );
+        t.start();
+        t.join();
+
+        consumerServer.startReplicationConsumers();
+    }
+}
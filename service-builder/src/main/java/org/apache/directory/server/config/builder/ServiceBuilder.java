@@ -109,8 +109,10 @@ import org.apache.directory.server.kerberos.ChangePasswordConfig;
 import org.apache.directory.server.kerberos.KerberosConfig;
 import org.apache.directory.server.kerberos.changepwd.ChangePasswordServer;
 import org.apache.directory.server.kerberos.kdc.KdcServer;
+import org.apache.directory.server.ldap.ExecutionMode;
 import org.apache.directory.server.ldap.ExtendedOperationHandler;
 import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.RequestClass;
 import org.apache.directory.server.ldap.handlers.sasl.MechanismHandler;
 import org.apache.directory.server.ldap.handlers.sasl.ntlm.NtlmMechanismHandler;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
@@ -1058,6 +1060,32 @@ public final class ServiceBuilder
         // Relplication pinger thread sleep time
         ldapServer.setReplPingerSleepTime( ldapServerBean.getReplPingerSleep() );
 
+        // Execution mode
+        String executionMode = ldapServerBean.getLdapServerExecutionMode();
+
+        if ( executionMode != null )
+        {
+            ExecutionMode mode = ExecutionMode.getExecutionMode( executionMode );
+
+            if ( mode == null )
+            {
+                String message = "Unknown LdapServer execution mode : " + executionMode;
+                LOG.error( message );
+                throw new ConfigurationException( message );
+            }
+
+            ldapServer.setExecutionMode( mode );
+        }
+
+        // Request scheduling
+        ldapServer.setMaxConcurrentRequests( ldapServerBean.getLdapServerMaxConcurrentRequests() );
+        ldapServer.setMaxRequestsPerIdentity( ldapServerBean.getLdapServerMaxRequestsPerIdentity() );
+        ldapServer.setRequestQueueSize( ldapServerBean.getLdapServerRequestQueueSize() );
+        ldapServer.setRequestWeight( RequestClass.BIND, ldapServerBean.getLdapServerBindWeight() );
+        ldapServer.setRequestWeight( RequestClass.COMPARE, ldapServerBean.getLdapServerCompareWeight() );
+        ldapServer.setRequestWeight( RequestClass.WRITE, ldapServerBean.getLdapServerWriteWeight() );
+        ldapServer.setRequestWeight( RequestClass.SEARCH, ldapServerBean.getLdapServerSearchWeight() );
+
         // The transports
         Transport[] transports = createTransports( ldapServerBean.getTransports() );
         ldapServer.setTransports( transports );
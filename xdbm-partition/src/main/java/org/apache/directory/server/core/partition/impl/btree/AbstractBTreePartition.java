@@ -20,10 +20,18 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -40,6 +48,9 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.store.LruPolicy;
 
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponseImpl;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -58,6 +69,10 @@ import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
 import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.Subentries;
 import org.apache.directory.api.ldap.model.name.Ava;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
@@ -68,6 +83,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -88,8 +104,10 @@ import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.Subordinates;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.MasterTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
@@ -120,6 +138,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** Tells if the Optimizer is enabled */
     protected boolean optimizerEnabled = true;
 
+    /** Tells if statistics are maintained on the user indices for the optimizer */
+    protected boolean indexStatisticsEnabled = true;
+
+    /** The number of bytes used to cache the serialized entries out of the heap, 0 to disable it */
+    protected long entryCacheOffHeapSize = 0L;
+
+    /** The extension of the files storing the index statistics */
+    private static final String STATISTICS_FILE_EXTENSION = ".stats";
+
     /** The default cache size is set to 10 000 objects */
     public static final int DEFAULT_CACHE_SIZE = 10000;
 
@@ -198,11 +225,21 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     protected static final boolean ADD_CHILD = true;
     protected static final boolean REMOVE_CHILD = false;
 
-    /** A lock to protect the backend from concurrent reads/writes */
-    private ReadWriteLock rwLock;
+    /**
+     * A lock protecting this partition's indexes and master table. A write holds it
+     * exclusively while it updates the indexes and the master table, the readers hold it
+     * while they read them. It is owned by the partition : a write done on another
+     * partition never blocks the readers of this one. It is not used when the backend
+     * reads from snapshots (see {@link #hasSnapshotReads()}).
+     */
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
 
     /** a cache to hold <entryUUID, Dn> pairs, this is used for speeding up the buildEntryDn() method */
     private Cache entryDnCache;
+
+    /** The subtrees renamed or moved recently, used to invalidate the cached entry DNs */
+    private final DnCacheInvalidations dnCacheInvalidations = new DnCacheInvalidations(
+        DnCacheInvalidations.DEFAULT_CAPACITY );
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
@@ -322,6 +359,53 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Tells if statistics are maintained on the user indices
+     * @return true if the index statistics are enabled
+     */
+    public boolean isIndexStatisticsEnabled()
+    {
+        return indexStatisticsEnabled;
+    }
+
+
+    /**
+     * Enables or disables the index statistics. When enabled, each user index maintains
+     * a histogram of its keys and its most common keys, which are used by the optimizer
+     * to estimate the scan counts. The statistics are saved in the partition directory.
+     *
+     * @param indexStatisticsEnabled The flag
+     */
+    public void setIndexStatisticsEnabled( boolean indexStatisticsEnabled )
+    {
+        checkInitialized( "indexStatisticsEnabled" );
+        this.indexStatisticsEnabled = indexStatisticsEnabled;
+    }
+
+
+    /**
+     * @return The number of bytes used to cache the serialized entries out of the heap
+     */
+    public long getEntryCacheOffHeapSize()
+    {
+        return entryCacheOffHeapSize;
+    }
+
+
+    /**
+     * Sets the number of bytes used to cache the entries out of the heap. When greater
+     * than 0, the entries are cached in their serialized form in direct memory instead of
+     * being kept as objects on the heap, and are deserialized on each cache hit.
+     *
+     * @param entryCacheOffHeapSize The off-heap cache size in bytes, 0 to disable it
+     */
+    public void setEntryCacheOffHeapSize( long entryCacheOffHeapSize )
+    {
+        checkInitialized( "entryCacheOffHeapSize" );
+        this.entryCacheOffHeapSize = entryCacheOffHeapSize;
+    }
+
+
     /**
      * Sets the path in which this Partition stores data. This may be an URL to
      * a file or directory, or an JDBC URL.
@@ -477,6 +561,141 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Attaches statistics to the user indices. The statistics saved in the partition
+     * directory are reused if they are consistent with the index, otherwise they are
+     * built by scanning the index.
+     *
+     * @throws Exception If an index can't be read
+     */
+    protected void setupIndexStatistics() throws Exception
+    {
+        for ( Index<?, String> index : userIndices.values() )
+        {
+            if ( !( index instanceof AbstractIndex ) )
+            {
+                continue;
+            }
+
+            Comparator<Object> comparator = getStatisticsComparator( index );
+            IndexStatistics statistics = readIndexStatistics( index, comparator );
+
+            if ( ( statistics == null ) || statistics.isStale() || ( statistics.getCount() != index.count() ) )
+            {
+                LOG.debug( "Building the statistics for the {} index", index.getAttributeId() );
+                statistics = IndexStatistics.build( index, comparator );
+            }
+
+            ( ( AbstractIndex<?, String> ) index ).setStatistics( statistics );
+        }
+    }
+
+
+    /**
+     * Rebuilds the stale index statistics, and saves them in the partition directory.
+     *
+     * @throws Exception If an index can't be read or the statistics can't be written
+     */
+    public void updateIndexStatistics() throws Exception
+    {
+        for ( Index<?, String> index : userIndices.values() )
+        {
+            IndexStatistics statistics = index.getStatistics();
+
+            if ( statistics == null )
+            {
+                continue;
+            }
+
+            if ( statistics.isStale() )
+            {
+                LOG.debug( "Rebuilding the stale statistics for the {} index", index.getAttributeId() );
+                statistics = IndexStatistics.build( index, getStatisticsComparator( index ) );
+                ( ( AbstractIndex<?, String> ) index ).setStatistics( statistics );
+            }
+
+            writeIndexStatistics( index, statistics );
+        }
+    }
+
+
+    /**
+     * The index statistics use the equality matching rule comparator, which orders the index keys
+     */
+    @SuppressWarnings("unchecked")
+    private Comparator<Object> getStatisticsComparator( Index<?, String> index )
+    {
+        return ( Comparator<Object> ) index.getAttribute().getEquality().getLdapComparator();
+    }
+
+
+    /**
+     * @return The file storing the statistics of an index, or null for an in-memory partition
+     */
+    private File getStatisticsFile( Index<?, String> index )
+    {
+        if ( partitionPath == null )
+        {
+            return null;
+        }
+
+        return new File( new File( partitionPath ), index.getAttribute().getOid() + STATISTICS_FILE_EXTENSION );
+    }
+
+
+    private IndexStatistics readIndexStatistics( Index<?, String> index, Comparator<Object> comparator )
+    {
+        File file = getStatisticsFile( index );
+
+        if ( ( file == null ) || !file.exists() )
+        {
+            return null;
+        }
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            return IndexStatistics.read( in, comparator );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot read the statistics for the {} index, they will be rebuilt", index.getAttributeId(),
+                ioe );
+
+            return null;
+        }
+    }
+
+
+    private void writeIndexStatistics( Index<?, String> index, IndexStatistics statistics ) throws IOException
+    {
+        File file = getStatisticsFile( index );
+
+        if ( file == null )
+        {
+            return;
+        }
+
+        // Write a temporary file first, so that we never read partially written statistics
+        File tmpFile = new File( file.getPath() + ".tmp" );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+            new FileOutputStream( tmpFile ) ) ) )
+        {
+            statistics.write( out );
+        }
+
+        if ( file.exists() && !file.delete() )
+        {
+            throw new IOException( "Cannot replace the statistics file " + file );
+        }
+
+        if ( !tmpFile.renameTo( file ) )
+        {
+            throw new IOException( "Cannot rename the statistics file " + tmpFile );
+        }
+    }
+
+
     /**
      * Gets the DefaultSearchEngine used by this ContextPartition to search the
      * Database.
@@ -537,6 +756,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
+        try
+        {
+            updateIndexStatistics();
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( "Cannot save the index statistics for {} partition", suffixDn, t );
+            errors.addThrowable( t );
+        }
+
         for ( Index<?, String> index : userIndices.values() )
         {
             try
@@ -613,6 +842,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setupSystemIndices();
         setupUserIndices();
 
+        if ( indexStatisticsEnabled )
+        {
+            setupIndexStatistics();
+        }
+
         if ( cacheService != null )
         {
             aliasCache = cacheService.getCache( "alias" );
@@ -720,9 +954,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public void add( AddOperationContext addContext ) throws LdapException
     {
 //System.out.println( "Add: " + addContext.getDn() );
+        lockWrite();
+
         try
         {
-            setRWLock( addContext );
             Entry entry = ( ( ClonedServerEntry ) addContext.getEntry() ).getClonedEntry();
 
             Dn entryDn = entry.getDn();
@@ -923,6 +1158,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapException( e );
         }
+        finally
+        {
+            unlockWrite();
+        }
     }
 
 
@@ -936,9 +1175,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
 //System.out.println( "Delete: " + deleteContext.getDn() );
+        lockWrite();
+
         try
         {
-            setRWLock( deleteContext );
             Dn dn = deleteContext.getDn();
             String id = null;
 
@@ -981,6 +1221,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage() );
         }
+        finally
+        {
+            unlockWrite();
+        }
     }
 
 
@@ -1044,6 +1288,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     @Override
     public Entry delete( String id ) throws LdapException
     {
+        lockWrite();
+
         try
         {
             // First get the entry
@@ -1165,6 +1411,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
         }
+        finally
+        {
+            unlockWrite();
+        }
     }
 
 
@@ -1179,7 +1429,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         try
         {
-            setRWLock( searchContext );
 
             if ( ctxCsnChanged && getSuffixDn().equals( searchContext.getDn() ) )
             {
@@ -1198,9 +1447,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
             }
             
-            PartitionSearchResult searchResult = searchEngine.computeResult( schemaManager, searchContext );
+            Cursor<Entry> result;
+
+            // The indexes must not be updated while the candidates are computed
+            lockRead();
 
-            Cursor<Entry> result = new EntryCursorAdaptor( this, searchResult );
+            try
+            {
+                result = searchEntries( searchContext );
+            }
+            finally
+            {
+                unlockRead();
+            }
 
             return new EntryFilteringCursorImpl( result, searchContext, schemaManager );
         }
@@ -1216,6 +1475,115 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Computes the candidates of a search, and creates the cursor returning the matching
+     * entries. A backend can override it to tie the resources the cursor reads from to
+     * the cursor life.
+     *
+     * @param searchContext The search context
+     * @return The cursor on the matching entries
+     * @throws Exception If the candidates can't be computed
+     */
+    protected Cursor<Entry> searchEntries( SearchOperationContext searchContext ) throws Exception
+    {
+        // A Virtual List View sorted on an indexed attribute is read from the index
+        PartitionSearchResult searchResult = computeVirtualListView( searchContext );
+
+        if ( searchResult == null )
+        {
+            searchResult = searchEngine.computeResult( schemaManager, searchContext );
+        }
+
+        return new EntryCursorAdaptor( this, searchResult );
+    }
+
+
+    /**
+     * Computes the Virtual List View window requested by a search, when it can be read from
+     * the user index of the sort attribute : the search must be sorted on a single, human
+     * readable and indexed attribute, in ascending order, using its ordering matching rule.
+     * The VLV response control is added to the search context.
+     * <br>
+     * The window is only read from the index when the interceptors won't filter the returned
+     * entries, as the window would then be short, and the positions and the content count
+     * would reveal the entries the user can't read.
+     *
+     * @param searchContext The search context
+     * @return The entries in the window, or null if the window can't be read from an index
+     * @throws Exception If the window can't be computed
+     */
+    private PartitionSearchResult computeVirtualListView( SearchOperationContext searchContext ) throws Exception
+    {
+        VirtualListViewRequest vlvRequest = ( VirtualListViewRequest ) searchContext
+            .getRequestControl( VirtualListViewRequest.OID );
+        SortRequest sortRequest = ( SortRequest ) searchContext.getRequestControl( SortRequest.OID );
+
+        if ( ( vlvRequest == null ) || ( sortRequest == null ) || ( sortRequest.getSortKeys().size() != 1 )
+            || ( searchContext.getScope() == SearchScope.OBJECT ) )
+        {
+            return null;
+        }
+
+        if ( !isUnfilteredSearch( searchContext ) )
+        {
+            return null;
+        }
+
+        SortKey sortKey = sortRequest.getSortKeys().get( 0 );
+        AttributeType attributeType = schemaManager.getAttributeType( sortKey.getAttributeTypeDesc() );
+
+        if ( ( attributeType == null ) || sortKey.isReverseOrder() || ( attributeType.getEquality() == null )
+            || !attributeType.getSyntax().isHumanReadable() || !hasUserIndexOn( attributeType ) )
+        {
+            return null;
+        }
+
+        String mrOid = sortKey.getMatchingRuleId();
+
+        if ( ( mrOid != null )
+            && ( ( attributeType.getOrdering() == null ) || !mrOid.equals( attributeType.getOrdering().getOid() ) ) )
+        {
+            return null;
+        }
+
+        Index<?, String> sortIndex = getUserIndex( attributeType );
+
+        if ( !attributeType.isSingleValued() && !sortIndex.hasReverse() )
+        {
+            // We need the reverse index to find the value an entry is sorted on
+            return null;
+        }
+
+        VirtualListViewResponse vlvResponse = new VirtualListViewResponseImpl();
+
+        PartitionSearchResult searchResult = searchEngine.computeWindow( schemaManager, searchContext, sortIndex,
+            vlvRequest, vlvResponse );
+
+        searchContext.addResponseControl( vlvResponse );
+
+        return searchResult;
+    }
+
+
+    /**
+     * Tells if the entries returned by a search are passed as is to the user. The access control
+     * and the default authorization interceptors don't filter the entries returned to the
+     * administrator, and the subentry interceptor only hides the subentries.
+     */
+    private boolean isUnfilteredSearch( SearchOperationContext searchContext ) throws Exception
+    {
+        CoreSession session = searchContext.getSession();
+
+        if ( ( session == null ) || !session.isAdministrator() || searchContext.hasRequestControl( Subentries.OID ) )
+        {
+            return false;
+        }
+
+        return ( objectClassIdx.count( objectClassNormalizer.normalize( SchemaConstants.SUBENTRY_OC ) ) == 0 )
+            && ( objectClassIdx.count( SchemaConstants.SUBENTRY_OC_OID ) == 0 );
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Lookup operation
     //---------------------------------------------------------------------------------------------
@@ -1225,7 +1593,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     @Override
     public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
     {
-        setRWLock( lookupContext );
         String id = getEntryId( lookupContext.getDn() );
 
         if ( id == null )
@@ -1368,7 +1735,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         try
         {
-            setRWLock( modifyContext );
 
             Entry modifiedEntry = modify( modifyContext.getDn(),
                 modifyContext.getModItems().toArray( new Modification[]
@@ -1390,6 +1756,24 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     @Override
     public final synchronized Entry modify( Dn dn, Modification... mods ) throws Exception
+    {
+        lockWrite();
+
+        try
+        {
+            return modifyEntry( dn, mods );
+        }
+        finally
+        {
+            unlockWrite();
+        }
+    }
+
+
+    /**
+     * Applies the modifications to an entry and updates the indexes, under the write lock
+     */
+    private Entry modifyEntry( Dn dn, Modification... mods ) throws Exception
     {
         String id = getEntryId( dn );
         Entry entry = master.get( id );
@@ -1860,7 +2244,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         try
         {
-            setRWLock( moveContext );
             Dn oldDn = moveContext.getDn();
             Dn newSuperior = moveContext.getNewSuperior();
             Dn newDn = moveContext.getNewDn();
@@ -1883,6 +2266,24 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public final synchronized void move( Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
         throws Exception
     {
+        lockWrite();
+
+        try
+        {
+            moveEntry( oldDn, newSuperiorDn, newDn, modifiedEntry );
+        }
+        finally
+        {
+            unlockWrite();
+        }
+    }
+
+
+    /**
+     * Moves an entry and updates the indexes, under the write lock
+     */
+    private void moveEntry( Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry ) throws Exception
+    {
 //System.out.println( "Move: " + oldDn + " to:" + newDn );
         // Check that the parent Dn exists
         String newParentId = getEntryId( newSuperiorDn );
@@ -1970,7 +2371,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Remove the EntryDN
         modifiedEntry.removeAttributes( entryDnAT );
 
-        entryDnCache.removeAll();
+        invalidateDnCache( entryId, oldDn );
         
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
@@ -2001,7 +2402,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         try
         {
-            setRWLock( moveAndRenameContext );
             Dn oldDn = moveAndRenameContext.getDn();
             Dn newSuperiorDn = moveAndRenameContext.getNewSuperiorDn();
             Rdn newRdn = moveAndRenameContext.getNewRdn();
@@ -2075,7 +2475,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         //Rdn oldRdn = oldDn.getRdn();
         moveAndRename( oldDn, oldId, newSuperiorDn, newRdn, modifiedEntry );
 
-        entryDnCache.removeAll();
+        invalidateDnCache( oldId, oldDn );
         
         if ( isSyncOnWrite.get() )
         {
@@ -2101,6 +2501,25 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public void moveAndRename( Dn oldDn, Dn newSuperiorDn, Rdn newRdn, Map<String, List<ModDnAva>> modAvas, 
         Entry modifiedEntry ) throws Exception
+    {
+        lockWrite();
+
+        try
+        {
+            moveAndRenameEntry( oldDn, newSuperiorDn, newRdn, modAvas, modifiedEntry );
+        }
+        finally
+        {
+            unlockWrite();
+        }
+    }
+
+
+    /**
+     * Moves and renames an entry and updates the indexes, under the write lock
+     */
+    private void moveAndRenameEntry( Dn oldDn, Dn newSuperiorDn, Rdn newRdn, Map<String, List<ModDnAva>> modAvas,
+        Entry modifiedEntry ) throws Exception
     {
         // Get the child and the new parent to be entries and Ids
         Attribute entryIdAt = modifiedEntry.get( SchemaConstants.ENTRY_UUID_AT );
@@ -2194,8 +2613,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         modifiedEntry.removeAttributes( ApacheSchemaConstants.ENTRY_PARENT_ID_OID );
         modifiedEntry.add( ApacheSchemaConstants.ENTRY_PARENT_ID_OID, newParentId );
         
-        // Doom the DN cache now
-        entryDnCache.removeAll();
+        // Invalidate the DNs of the moved subtree
+        invalidateDnCache( entryId, oldDn );
 
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
@@ -2275,7 +2694,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 //System.out.println( "Rename from :" + renameContext.getDn() + " to " + renameContext.getNewDn() + ", deletOldRdn:" + renameContext.getDeleteOldRdn() );
         try
         {
-            setRWLock( renameContext );
             Dn oldDn = renameContext.getDn();
             Rdn newRdn = renameContext.getNewRdn();
             boolean deleteOldRdn = renameContext.getDeleteOldRdn();
@@ -2480,9 +2898,27 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
     public final synchronized void rename( Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
+    {
+        lockWrite();
+
+        try
+        {
+            renameEntry( dn, newRdn, deleteOldRdn, entry );
+        }
+        finally
+        {
+            unlockWrite();
+        }
+    }
+
+
+    /**
+     * Renames an entry and updates the indexes, under the write lock
+     */
+    @SuppressWarnings("unchecked")
+    private void renameEntry( Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
     {
         String oldId = getEntryId( dn );
 
@@ -2508,7 +2944,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         rdnIdx.add( parentIdAndRdn, oldId );
 
-        entryDnCache.removeAll();
+        invalidateDnCache( oldId, dn );
         
         if ( isSyncOnWrite.get() )
         {
@@ -2540,7 +2976,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         try
         {
-            setRWLock( entryContext );
 
             String id = getEntryId( entryContext.getDn() );
 
@@ -2576,6 +3011,32 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     // ------------------------------------------------------------------------
     // Index and master table Operations
     // ------------------------------------------------------------------------
+    /**
+     * Invalidates the cached DNs of a renamed or moved subtree. The other cached DNs
+     * are kept.
+     *
+     * @param id The subtree root id
+     * @param oldDn The subtree root Dn, before the rename or move
+     * @throws LdapException If the Dn can't be normalized
+     */
+    private void invalidateDnCache( String id, Dn oldDn ) throws LdapException
+    {
+        if ( !oldDn.isSchemaAware() )
+        {
+            oldDn = new Dn( schemaManager, oldDn );
+        }
+
+        if ( piarCache != null )
+        {
+            // The ParentIdAndRdn of the subtree root has been replaced
+            piarCache.remove( id );
+        }
+
+        dnCacheInvalidations.invalidate( oldDn );
+        entryDnCache.remove( id );
+    }
+
+
     /**
      * builds the Dn of the entry identified by the given id
      *
@@ -2598,11 +3059,25 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             rwLock.readLock().lock();
 
+            long epoch = dnCacheInvalidations.getEpoch();
             Element el = entryDnCache.get( id );
             
             if ( el != null )
             {
-                return ( Dn ) el.getObjectValue();
+                Dn cachedDn = ( Dn ) el.getObjectValue();
+
+                if ( el.getVersion() == epoch )
+                {
+                    return cachedDn;
+                }
+
+                if ( dnCacheInvalidations.isValid( cachedDn, el.getVersion() ) )
+                {
+                    // Not impacted by the last renames and moves
+                    entryDnCache.put( new Element( id, cachedDn, epoch ) );
+
+                    return cachedDn;
+                }
             }
             
             do
@@ -2660,7 +3135,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             dn = new Dn( schemaManager, Arrays.copyOf( rdnArray, pos ) );
             
-            entryDnCache.put( new Element( id, dn ) );
+            entryDnCache.put( new Element( id, dn, epoch ) );
             return dn;
         }
         finally
@@ -3410,21 +3885,41 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Tells if the backend reads its indexes and master table from snapshots, isolated
+     * from the concurrent writes. The readers then don't wait for the writers. The JDBM
+     * and AVL backends don't : a write excludes the readers while it updates the
+     * indexes and the master table.
+     *
+     * @return true if the readers don't need to be protected from the writers
+     */
+    protected boolean hasSnapshotReads()
+    {
+        return false;
+    }
+
+
     /**
      * Acquire a Read lock
      */
-    private void lockRead()
+    void lockRead()
     {
-        rwLock.readLock().lock();
+        if ( !hasSnapshotReads() )
+        {
+            rwLock.readLock().lock();
+        }
     }
 
 
     /**
      * Release a Read lock
      */
-    private void unlockRead()
+    void unlockRead()
     {
-        rwLock.readLock().unlock();
+        if ( !hasSnapshotReads() )
+        {
+            rwLock.readLock().unlock();
+        }
     }
 
 
@@ -3433,7 +3928,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     private void lockWrite()
     {
-        rwLock.writeLock().lock();
+        if ( !hasSnapshotReads() )
+        {
+            rwLock.writeLock().lock();
+        }
     }
 
 
@@ -3442,7 +3940,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     private void unlockWrite()
     {
-        rwLock.writeLock().unlock();
+        if ( !hasSnapshotReads() )
+        {
+            rwLock.writeLock().unlock();
+        }
     }
 
 
@@ -3510,28 +4011,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
-    /**
-     * Set and return the ReadWrite lock we use to protect the backend against concurrent modifications
-     * 
-     * @param operationContext The OperationContext which contain the reference to the OperationManager
-     */
-    private void setRWLock( OperationContext operationContext )
-    {
-        if ( operationContext.getSession() != null )
-        {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
-        }
-        else
-        {
-            if ( rwLock == null )
-            {
-                // Create a ReadWrite lock from scratch
-                rwLock = new ReentrantReadWriteLock();
-            }
-        }
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -3573,12 +4052,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         try
         {
-            if ( rwLock == null )
-            {
-                // Create a ReadWrite lock from scratch
-                rwLock = new ReentrantReadWriteLock();
-            }
-
             // load the last stored valid CSN value
             String contextEntryId = getEntryId( getSuffixDn() );
             
@@ -3624,6 +4097,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             return;
         }
         
+        lockWrite();
+
         try
         {
             // we don't need to use the ctxCsnSemaphore here cause
@@ -3655,6 +4130,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
         }
+        finally
+        {
+            unlockWrite();
+        }
     }
     
     
@@ -0,0 +1,115 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import org.apache.directory.api.ldap.model.name.Dn;
+
+
+/**
+ * Keeps track of the last renamed or moved subtrees, so that the cached entry DNs can be
+ * lazily invalidated : each cached DN is associated with the epoch at which it was computed,
+ * and is still valid if none of the subtrees renamed or moved since then contains it.
+ * <br>
+ * Only the last subtrees are kept. A DN computed before the oldest of them is considered
+ * stale.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DnCacheInvalidations
+{
+    /** The default number of subtrees kept */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /** The renamed or moved subtrees, as a circular buffer indexed by epoch */
+    private final Dn[] subtrees;
+
+    /** The current epoch, incremented on each invalidation */
+    private long epoch;
+
+
+    /**
+     * Creates a new DnCacheInvalidations instance
+     *
+     * @param capacity The number of subtrees to keep
+     */
+    public DnCacheInvalidations( int capacity )
+    {
+        subtrees = new Dn[capacity];
+    }
+
+
+    /**
+     * @return The current epoch
+     */
+    public synchronized long getEpoch()
+    {
+        return epoch;
+    }
+
+
+    /**
+     * Records a renamed or moved subtree.
+     *
+     * @param oldDn The Dn of the subtree root, before it was renamed or moved
+     * @return The new epoch
+     */
+    public synchronized long invalidate( Dn oldDn )
+    {
+        subtrees[( int ) ( epoch % subtrees.length )] = oldDn;
+        epoch++;
+
+        return epoch;
+    }
+
+
+    /**
+     * Tells if a DN computed at a given epoch is still valid.
+     *
+     * @param dn The computed DN
+     * @param dnEpoch The epoch at which the DN was computed
+     * @return true if no subtree containing this DN has been renamed or moved since then
+     */
+    public synchronized boolean isValid( Dn dn, long dnEpoch )
+    {
+        if ( dnEpoch == epoch )
+        {
+            return true;
+        }
+
+        if ( ( dnEpoch > epoch ) || ( epoch - dnEpoch > subtrees.length ) )
+        {
+            // Computed before the oldest subtree we know about
+            return false;
+        }
+
+        for ( long i = dnEpoch; i < epoch; i++ )
+        {
+            Dn subtree = subtrees[( int ) ( i % subtrees.length )];
+
+            if ( dn.equals( subtree ) || dn.isDescendantOf( subtree ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -53,6 +53,9 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** The partition, which indexes are read when a candidate is evaluated */
+    private final AbstractBTreePartition db;
+
 
     public EntryCursorAdaptor( AbstractBTreePartition db, PartitionSearchResult searchResult )
     {
@@ -61,6 +64,7 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Creating EntryCursorAdaptor {}", this );
         }
 
+        this.db = db;
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
     }
@@ -164,6 +168,8 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     {
         IndexEntry<String, String> indexEntry = indexCursor.get();
 
+        db.lockRead();
+
         try
         {
             if ( evaluator.evaluate( indexEntry ) )
@@ -184,6 +190,10 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         {
             throw new CursorException( e.getMessage(), e );
         }
+        finally
+        {
+            db.unlockRead();
+        }
     }
 
 
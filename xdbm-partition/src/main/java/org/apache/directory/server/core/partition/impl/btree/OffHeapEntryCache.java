@@ -0,0 +1,395 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+
+
+/**
+ * An entry cache storing the serialized entries out of the Java heap, in direct memory
+ * segments. The entries are deserialized on each hit, so the cached entries don't cost
+ * anything to the garbage collector, and the cache size is only limited by its byte budget.
+ * <br>
+ * The segments are filled one after the other. When they are all full, the oldest segment
+ * is recycled, dropping all the entries it contains. An entry found in the segment which
+ * is the next one to be recycled is copied into the current segment, so that the frequently
+ * used entries stay in the cache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCache
+{
+    /** The default size of a memory segment, 1Mb */
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * Converts the entries from and to their serialized form.
+     */
+    public interface EntryCodec
+    {
+        /**
+         * @param entry The entry to serialize
+         * @return The serialized entry
+         * @throws IOException If the entry can't be serialized
+         */
+        byte[] encode( Entry entry ) throws IOException;
+
+
+        /**
+         * @param bytes The serialized entry
+         * @return The deserialized entry
+         * @throws IOException If the entry can't be deserialized
+         */
+        Entry decode( byte[] bytes ) throws IOException;
+    }
+
+    /**
+     * The location of a serialized entry.
+     */
+    private static final class Slot
+    {
+        private final int segment;
+        private final int offset;
+        private final int length;
+
+
+        private Slot( int segment, int offset, int length )
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** The codec used to serialize the entries */
+    private final EntryCodec codec;
+
+    /** The size of each segment */
+    private final int segmentSize;
+
+    /** The memory segments, allocated when first used */
+    private final ByteBuffer[] segments;
+
+    /** The IDs of the entries written in each segment */
+    private final List<List<String>> segmentIds;
+
+    /** The location of each cached entry */
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    /** The segment being filled */
+    private int current;
+
+    /** The write position in the current segment */
+    private int position;
+
+    /** Protects the segments : the readers can copy the entries while no segment is recycled */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** The number of hits and misses */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * Creates a new OffHeapEntryCache instance
+     *
+     * @param maxSize The maximum number of bytes used to store the entries
+     * @param codec The codec used to serialize the entries
+     */
+    public OffHeapEntryCache( long maxSize, EntryCodec codec )
+    {
+        this( maxSize, DEFAULT_SEGMENT_SIZE, codec );
+    }
+
+
+    /**
+     * Creates a new OffHeapEntryCache instance
+     *
+     * @param maxSize The maximum number of bytes used to store the entries
+     * @param segmentSize The size of each memory segment
+     * @param codec The codec used to serialize the entries
+     */
+    public OffHeapEntryCache( long maxSize, int segmentSize, EntryCodec codec )
+    {
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+
+        // We need at least two segments : one being filled, one being recycled
+        int nbSegments = ( int ) Math.max( 2L, Math.min( Integer.MAX_VALUE, maxSize / segmentSize ) );
+        segments = new ByteBuffer[nbSegments];
+        segmentIds = new ArrayList<>( nbSegments );
+
+        for ( int i = 0; i < nbSegments; i++ )
+        {
+            segmentIds.add( new ArrayList<String>() );
+        }
+    }
+
+
+    /**
+     * Gets a copy of a cached entry
+     *
+     * @param id The entry ID
+     * @return The deserialized entry, or null if it's not cached
+     * @throws IOException If the entry can't be deserialized
+     */
+    public Entry get( String id ) throws IOException
+    {
+        byte[] bytes;
+        Slot slot;
+        boolean promote;
+
+        lock.readLock().lock();
+
+        try
+        {
+            slot = slots.get( id );
+
+            if ( slot == null )
+            {
+                misses.incrementAndGet();
+
+                return null;
+            }
+
+            bytes = new byte[slot.length];
+            ByteBuffer buffer = segments[slot.segment].duplicate();
+            buffer.position( slot.offset );
+            buffer.get( bytes );
+
+            promote = slot.segment == ( current + 1 ) % segments.length;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        hits.incrementAndGet();
+
+        if ( promote )
+        {
+            // This entry is about to be dropped, move it to the current segment
+            promote( id, slot, bytes );
+        }
+
+        return codec.decode( bytes );
+    }
+
+
+    /**
+     * Moves an entry found in the segment which is the next one to be recycled into the
+     * current segment. Nothing is done if the entry has been replaced or removed since
+     * it has been read, as the read bytes are then stale.
+     */
+    private void promote( String id, Slot slot, byte[] bytes )
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            Slot latest = slots.get( id );
+
+            if ( ( latest == null ) || ( latest.segment != slot.segment ) || ( latest.offset != slot.offset ) )
+            {
+                return;
+            }
+
+            // The write lock is reentrant
+            store( id, bytes );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Adds an entry into the cache, replacing the previously cached version if any.
+     *
+     * @param id The entry ID
+     * @param entry The entry
+     * @throws IOException If the entry can't be serialized
+     */
+    public void put( String id, Entry entry ) throws IOException
+    {
+        store( id, codec.encode( entry ) );
+    }
+
+
+    /**
+     * Removes an entry from the cache. The memory it uses is only reused when
+     * its segment is recycled.
+     *
+     * @param id The entry ID
+     */
+    public void remove( String id )
+    {
+        slots.remove( id );
+    }
+
+
+    /**
+     * Removes all the entries from the cache. The memory segments are kept.
+     */
+    public void clear()
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            slots.clear();
+
+            for ( List<String> ids : segmentIds )
+            {
+                ids.clear();
+            }
+
+            current = 0;
+            position = 0;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The number of cached entries
+     */
+    public int size()
+    {
+        return slots.size();
+    }
+
+
+    /**
+     * @return The maximum number of bytes used to store the entries
+     */
+    public long getMaxSize()
+    {
+        return ( long ) segments.length * segmentSize;
+    }
+
+
+    /**
+     * @return The number of lookups which found the entry
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * @return The number of lookups which did not find the entry
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+
+    private void store( String id, byte[] bytes )
+    {
+        if ( bytes.length > segmentSize )
+        {
+            // Too big to be cached
+            slots.remove( id );
+
+            return;
+        }
+
+        lock.writeLock().lock();
+
+        try
+        {
+            if ( position + bytes.length > segmentSize )
+            {
+                recycleNextSegment();
+            }
+
+            if ( segments[current] == null )
+            {
+                segments[current] = ByteBuffer.allocateDirect( segmentSize );
+            }
+
+            ByteBuffer buffer = segments[current].duplicate();
+            buffer.position( position );
+            buffer.put( bytes );
+
+            slots.put( id, new Slot( current, position, bytes.length ) );
+            segmentIds.get( current ).add( id );
+            position += bytes.length;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Makes the next segment the current one, dropping the entries it contains.
+     */
+    private void recycleNextSegment()
+    {
+        current = ( current + 1 ) % segments.length;
+        position = 0;
+
+        List<String> ids = segmentIds.get( current );
+
+        for ( String id : ids )
+        {
+            Slot slot = slots.get( id );
+
+            // The entry may have been updated since then, and be stored in another segment
+            if ( ( slot != null ) && ( slot.segment == current ) )
+            {
+                slots.remove( id );
+            }
+        }
+
+        ids.clear();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "OffHeapEntryCache[entries=" + slots.size() + ", maxSize=" + getMaxSize() + ", hits=" + hits.get()
+            + ", misses=" + misses.get() + "]";
+    }
+}
@@ -52,6 +52,9 @@ public abstract class AbstractIndex<K, ID> implements Index<K, ID>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** The statistics maintained on the keys, if any */
+    protected volatile IndexStatistics statistics;
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -163,4 +166,56 @@ public abstract class AbstractIndex<K, ID> implements Index<K, ID>
     {
         return withReverse;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+
+    /**
+     * Sets the statistics to maintain when keys are added or dropped.
+     *
+     * @param statistics The statistics, or null
+     */
+    public void setStatistics( IndexStatistics statistics )
+    {
+        this.statistics = statistics;
+    }
+
+
+    /**
+     * Updates the statistics, if any, for an added key/ID pair.
+     *
+     * @param key The added key
+     */
+    protected void keyAdded( K key )
+    {
+        IndexStatistics stats = statistics;
+
+        if ( stats != null )
+        {
+            stats.keyAdded( key );
+        }
+    }
+
+
+    /**
+     * Updates the statistics, if any, for a removed key/ID pair.
+     *
+     * @param key The removed key
+     */
+    protected void keyDropped( K key )
+    {
+        IndexStatistics stats = statistics;
+
+        if ( stats != null )
+        {
+            stats.keyDropped( key );
+        }
+    }
 }
@@ -132,6 +132,15 @@ public interface Index<K, ID>
     long count( K attrVal ) throws Exception;
 
 
+    /**
+     * Gets the statistics maintained on the keys of this index, used to estimate
+     * scan counts without accessing the index.
+     *
+     * @return the statistics, or null if they are not maintained
+     */
+    IndexStatistics getStatistics();
+
+
     long greaterThanCount( K attrVal ) throws Exception;
 
 
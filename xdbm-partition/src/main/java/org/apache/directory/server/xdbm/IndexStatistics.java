@@ -0,0 +1,771 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+
+
+/**
+ * The statistics gathered on the keys of an {@link Index}, used by the optimizer to estimate
+ * the number of candidates selected by a filter without probing the index. They contain :
+ * <ul>
+ * <li>the number of key/ID pairs and the number of distinct keys</li>
+ * <li>an equi-depth histogram : the keys are split in buckets holding about the same
+ * number of pairs, each bucket being bounded by its greatest key</li>
+ * <li>the most common keys, with their number of pairs</li>
+ * </ul>
+ * The statistics are built by scanning the index, then maintained incrementally when keys are
+ * added or dropped. The number of distinct keys, the histogram bounds and the most common keys
+ * are only computed by a scan, so the statistics get stale after many modifications and should
+ * then be rebuilt.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The default number of buckets in the histogram */
+    public static final int DEFAULT_BUCKETS = 64;
+
+    /** The default number of most common keys */
+    public static final int DEFAULT_MOST_COMMON = 32;
+
+    /** The minimal number of modifications for the statistics to be stale */
+    private static final long MIN_STALE_MODIFICATIONS = 1000L;
+
+    /** The serialization format version */
+    private static final int VERSION = 1;
+
+    /** The key types in the serialized form */
+    private static final byte STRING_KEY = 0;
+    private static final byte BYTES_KEY = 1;
+
+    /** The comparator used to order the keys in the index */
+    private final Comparator<Object> comparator;
+
+    /** The number of key/ID pairs */
+    private long count;
+
+    /** The number of distinct keys, when the statistics were built */
+    private long distinctKeys;
+
+    /** The number of key/ID pairs, when the statistics were built */
+    private long builtCount;
+
+    /** The number of modifications since the statistics were built */
+    private long modifications;
+
+    /** The greatest key of each bucket */
+    private Object[] bounds;
+
+    /** The number of key/ID pairs in each bucket */
+    private long[] bucketCounts;
+
+    /** The most common keys and their number of key/ID pairs */
+    private Map<Object, Long> mostCommon;
+
+    /** The number of key/ID pairs for the most common keys */
+    private long mostCommonCount;
+
+
+    /**
+     * Creates an empty IndexStatistics instance
+     *
+     * @param comparator The comparator used to order the keys in the index
+     */
+    public IndexStatistics( Comparator<Object> comparator )
+    {
+        this.comparator = comparator;
+        bounds = new Object[0];
+        bucketCounts = new long[0];
+        mostCommon = new HashMap<>();
+    }
+
+
+    /**
+     * Builds the statistics by scanning the keys of an index.
+     *
+     * @param index The index to scan
+     * @param comparator The comparator used to order the keys in the index
+     * @return The statistics for this index
+     * @throws Exception If the index can't be read
+     */
+    public static IndexStatistics build( Index<?, String> index, Comparator<Object> comparator ) throws Exception
+    {
+        Builder builder = new Builder( comparator, index.count(), DEFAULT_BUCKETS, DEFAULT_MOST_COMMON );
+        Cursor<? extends IndexEntry<?, String>> cursor = index.forwardCursor();
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                builder.addKey( cursor.get().getKey() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return builder.build();
+    }
+
+
+    /**
+     * Accounts for a key/ID pair added into the index.
+     *
+     * @param key The added key
+     */
+    public synchronized void keyAdded( Object key )
+    {
+        count++;
+        modifications++;
+
+        if ( bounds.length == 0 )
+        {
+            bounds = new Object[]
+                { key };
+            bucketCounts = new long[1];
+            distinctKeys = 1L;
+        }
+        else if ( comparator.compare( key, bounds[bounds.length - 1] ) > 0 )
+        {
+            // The key is above the last bound : extend the last bucket
+            bounds[bounds.length - 1] = key;
+        }
+
+        bucketCounts[findBucket( key )]++;
+
+        Long keyCount = mostCommon.get( key );
+
+        if ( keyCount != null )
+        {
+            mostCommon.put( key, keyCount + 1 );
+            mostCommonCount++;
+        }
+    }
+
+
+    /**
+     * Accounts for a key/ID pair removed from the index.
+     *
+     * @param key The removed key
+     */
+    public synchronized void keyDropped( Object key )
+    {
+        if ( count == 0L )
+        {
+            return;
+        }
+
+        count--;
+        modifications++;
+
+        if ( bounds.length > 0 )
+        {
+            int bucket = findBucket( key );
+
+            if ( bucketCounts[bucket] > 0L )
+            {
+                bucketCounts[bucket]--;
+            }
+        }
+
+        Long keyCount = mostCommon.get( key );
+
+        if ( ( keyCount != null ) && ( keyCount > 0L ) )
+        {
+            mostCommon.put( key, keyCount - 1 );
+            mostCommonCount--;
+        }
+    }
+
+
+    /**
+     * @return The number of key/ID pairs in the index
+     */
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The number of distinct keys when the statistics were built
+     */
+    public synchronized long getDistinctKeys()
+    {
+        return distinctKeys;
+    }
+
+
+    /**
+     * Tells if the statistics have been modified too many times since they were built,
+     * and should be rebuilt.
+     *
+     * @return true if the statistics should be rebuilt
+     */
+    public synchronized boolean isStale()
+    {
+        return modifications > Math.max( MIN_STALE_MODIFICATIONS, builtCount / 5 );
+    }
+
+
+    /**
+     * Estimates the number of key/ID pairs having a given key. The estimate is never 0,
+     * as the statistics may be stale : only the index can tell that no pair matches.
+     *
+     * @param key The key
+     * @return The estimated number of pairs, at least 1
+     */
+    public synchronized long estimateEquals( Object key )
+    {
+        Long keyCount = mostCommon.get( key );
+
+        if ( keyCount != null )
+        {
+            return keyCount;
+        }
+
+        if ( count == 0L )
+        {
+            return 1L;
+        }
+
+        // The other keys are supposed to be evenly distributed
+        long otherKeys = distinctKeys - mostCommon.size();
+        long otherCount = count - mostCommonCount;
+
+        if ( ( otherKeys <= 0L ) || ( otherCount <= 0L ) )
+        {
+            return 1L;
+        }
+
+        return Math.max( 1L, otherCount / otherKeys );
+    }
+
+
+    /**
+     * Estimates the number of key/ID pairs having a key greater or equal to a given key.
+     *
+     * @param key The lower bound
+     * @return The estimated number of pairs, at least 1
+     */
+    public synchronized long estimateGreaterOrEqual( Object key )
+    {
+        return estimateRange( key, null );
+    }
+
+
+    /**
+     * Estimates the number of key/ID pairs having a key lower or equal to a given key.
+     *
+     * @param key The upper bound
+     * @return The estimated number of pairs, at least 1
+     */
+    public synchronized long estimateLessOrEqual( Object key )
+    {
+        return estimateRange( null, key );
+    }
+
+
+    /**
+     * Estimates the number of key/ID pairs having a key in a range. The buckets
+     * containing a bound are supposed to be half selected. As for {@link #estimateEquals(Object)},
+     * the estimate is never 0.
+     *
+     * @param from The lower bound, or null
+     * @param to The upper bound, or null
+     * @return The estimated number of pairs, at least 1
+     */
+    public synchronized long estimateRange( Object from, Object to )
+    {
+        if ( bounds.length == 0 )
+        {
+            return 1L;
+        }
+
+        int first = ( from == null ) ? 0 : findBucket( from );
+        int last = ( to == null ) ? bounds.length - 1 : findBucket( to );
+
+        if ( ( from != null ) && ( comparator.compare( from, bounds[bounds.length - 1] ) > 0 ) )
+        {
+            // Above the greatest key
+            return 1L;
+        }
+
+        if ( first > last )
+        {
+            return 1L;
+        }
+
+        long total = 0L;
+
+        for ( int i = first; i <= last; i++ )
+        {
+            total += bucketCounts[i];
+        }
+
+        if ( from != null )
+        {
+            total -= bucketCounts[first] / 2;
+        }
+
+        if ( to != null )
+        {
+            total -= bucketCounts[last] / 2;
+        }
+
+        return Math.max( total, 1L );
+    }
+
+
+    /**
+     * Estimates the position of the first key/ID pair having a key greater or equal
+     * to a given key, that is the number of pairs having a lower key. The bucket
+     * containing the key is supposed to be half selected.
+     *
+     * @param key The key
+     * @return The estimated position, starting at 0
+     */
+    public synchronized long estimatePosition( Object key )
+    {
+        if ( bounds.length == 0 )
+        {
+            return 0L;
+        }
+
+        int bucket = findBucket( key );
+        long position = 0L;
+
+        for ( int i = 0; i < bucket; i++ )
+        {
+            position += bucketCounts[i];
+        }
+
+        if ( comparator.compare( key, bounds[bucket] ) > 0 )
+        {
+            // Above the greatest key
+            return position + bucketCounts[bucket];
+        }
+
+        return position + bucketCounts[bucket] / 2;
+    }
+
+
+    /**
+     * Finds the bucket containing the key/ID pair at a given position, so that the index
+     * can be read from the beginning of this bucket instead of from its first key.
+     *
+     * @param position The position of a key/ID pair, starting at 0
+     * @return The bound of the previous bucket, and the position of the first pair above this bound
+     */
+    public synchronized SeekPoint seek( long position )
+    {
+        long start = 0L;
+
+        for ( int i = 0; i < bounds.length; i++ )
+        {
+            if ( ( start + bucketCounts[i] > position ) || ( i == bounds.length - 1 ) )
+            {
+                return new SeekPoint( ( i == 0 ) ? null : bounds[i - 1], start );
+            }
+
+            start += bucketCounts[i];
+        }
+
+        return new SeekPoint( null, 0L );
+    }
+
+
+    /**
+     * Finds the first bucket whose bound is greater or equal to a key. The last bucket is
+     * returned if the key is greater than all the bounds.
+     */
+    private int findBucket( Object key )
+    {
+        int low = 0;
+        int high = bounds.length - 1;
+
+        while ( low < high )
+        {
+            int middle = ( low + high ) >>> 1;
+
+            if ( comparator.compare( bounds[middle], key ) < 0 )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+
+    /**
+     * Writes the statistics. Only String and byte[] keys are supported.
+     *
+     * @param out The output to write to
+     * @throws IOException If the statistics can't be written
+     */
+    public synchronized void write( DataOutput out ) throws IOException
+    {
+        out.writeInt( VERSION );
+        out.writeLong( count );
+        out.writeLong( distinctKeys );
+        out.writeLong( builtCount );
+        out.writeLong( modifications );
+
+        out.writeInt( bounds.length );
+
+        for ( int i = 0; i < bounds.length; i++ )
+        {
+            writeKey( out, bounds[i] );
+            out.writeLong( bucketCounts[i] );
+        }
+
+        out.writeInt( mostCommon.size() );
+
+        for ( Map.Entry<Object, Long> entry : mostCommon.entrySet() )
+        {
+            writeKey( out, entry.getKey() );
+            out.writeLong( entry.getValue() );
+        }
+    }
+
+
+    /**
+     * Reads statistics written by {@link #write(DataOutput)}.
+     *
+     * @param in The input to read from
+     * @param comparator The comparator used to order the keys in the index
+     * @return The read statistics
+     * @throws IOException If the statistics can't be read
+     */
+    public static IndexStatistics read( DataInput in, Comparator<Object> comparator ) throws IOException
+    {
+        int version = in.readInt();
+
+        if ( version != VERSION )
+        {
+            throw new IOException( "Unsupported index statistics version : " + version );
+        }
+
+        IndexStatistics statistics = new IndexStatistics( comparator );
+        statistics.count = in.readLong();
+        statistics.distinctKeys = in.readLong();
+        statistics.builtCount = in.readLong();
+        statistics.modifications = in.readLong();
+
+        int nbBuckets = in.readInt();
+        statistics.bounds = new Object[nbBuckets];
+        statistics.bucketCounts = new long[nbBuckets];
+
+        for ( int i = 0; i < nbBuckets; i++ )
+        {
+            statistics.bounds[i] = readKey( in );
+            statistics.bucketCounts[i] = in.readLong();
+        }
+
+        int nbMostCommon = in.readInt();
+
+        for ( int i = 0; i < nbMostCommon; i++ )
+        {
+            Object key = readKey( in );
+            long keyCount = in.readLong();
+            statistics.mostCommon.put( key, keyCount );
+            statistics.mostCommonCount += keyCount;
+        }
+
+        return statistics;
+    }
+
+
+    private static void writeKey( DataOutput out, Object key ) throws IOException
+    {
+        byte[] bytes;
+
+        if ( key instanceof byte[] )
+        {
+            out.writeByte( BYTES_KEY );
+            bytes = ( byte[] ) key;
+        }
+        else if ( key instanceof String )
+        {
+            out.writeByte( STRING_KEY );
+            bytes = ( ( String ) key ).getBytes( StandardCharsets.UTF_8 );
+        }
+        else
+        {
+            throw new IOException( "Unsupported index key type : " + key.getClass().getName() );
+        }
+
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    private static Object readKey( DataInput in ) throws IOException
+    {
+        byte type = in.readByte();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        switch ( type )
+        {
+            case STRING_KEY:
+                return new String( bytes, StandardCharsets.UTF_8 );
+
+            case BYTES_KEY:
+                return bytes;
+
+            default:
+                throw new IOException( "Unknown index key type : " + type );
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "IndexStatistics[count=" + count + ", distinctKeys=" + distinctKeys + ", buckets=" + bounds.length
+            + ", mostCommon=" + mostCommon.size() + ", modifications=" + modifications + "]";
+    }
+
+
+    /**
+     * Builds the statistics from the keys of an index, read in the index order.
+     */
+    public static class Builder
+    {
+        private final Comparator<Object> comparator;
+
+        /** The expected number of key/ID pairs in each bucket */
+        private final long depth;
+
+        /** The maximum number of most common keys */
+        private final int maxMostCommon;
+
+        private final List<Object> bounds = new ArrayList<>();
+        private final List<Long> bucketCounts = new ArrayList<>();
+
+        /** The most common keys seen so far, the least common being on top */
+        private final PriorityQueue<KeyCount> mostCommon;
+
+        private long count;
+        private long distinctKeys;
+        private long bucketCount;
+        private Object currentKey;
+        private long currentKeyCount;
+
+
+        /**
+         * Creates a new Builder instance
+         *
+         * @param comparator The comparator used to order the keys in the index
+         * @param expectedCount The expected number of key/ID pairs
+         * @param nbBuckets The number of buckets in the histogram
+         * @param maxMostCommon The number of most common keys to keep
+         */
+        public Builder( Comparator<Object> comparator, long expectedCount, int nbBuckets, int maxMostCommon )
+        {
+            this.comparator = comparator;
+            this.depth = Math.max( 1L, expectedCount / nbBuckets );
+            this.maxMostCommon = maxMostCommon;
+            mostCommon = new PriorityQueue<>( maxMostCommon + 1 );
+        }
+
+
+        /**
+         * Adds a key. The keys must be added in the index order, once per key/ID pair.
+         *
+         * @param key The key
+         */
+        public void addKey( Object key )
+        {
+            if ( ( currentKey != null ) && ( comparator.compare( currentKey, key ) == 0 ) )
+            {
+                currentKeyCount++;
+            }
+            else
+            {
+                endKey();
+                currentKey = key;
+                currentKeyCount = 1L;
+            }
+
+            count++;
+        }
+
+
+        /**
+         * Closes the current key : a bucket is only closed on a key boundary.
+         */
+        private void endKey()
+        {
+            if ( currentKey == null )
+            {
+                return;
+            }
+
+            distinctKeys++;
+            bucketCount += currentKeyCount;
+
+            // Binary keys can't be looked up in a Map, they don't have most common keys
+            if ( !( currentKey instanceof byte[] ) )
+            {
+                mostCommon.add( new KeyCount( currentKey, currentKeyCount ) );
+
+                if ( mostCommon.size() > maxMostCommon )
+                {
+                    mostCommon.poll();
+                }
+            }
+
+            if ( bucketCount >= depth )
+            {
+                bounds.add( currentKey );
+                bucketCounts.add( bucketCount );
+                bucketCount = 0L;
+            }
+        }
+
+
+        /**
+         * @return The statistics for the added keys
+         */
+        public IndexStatistics build()
+        {
+            Object lastKey = currentKey;
+            endKey();
+            currentKey = null;
+
+            if ( bucketCount > 0L )
+            {
+                bounds.add( lastKey );
+                bucketCounts.add( bucketCount );
+                bucketCount = 0L;
+            }
+
+            IndexStatistics statistics = new IndexStatistics( comparator );
+            statistics.count = count;
+            statistics.builtCount = count;
+            statistics.distinctKeys = distinctKeys;
+            statistics.bounds = bounds.toArray();
+            statistics.bucketCounts = new long[bucketCounts.size()];
+
+            for ( int i = 0; i < statistics.bucketCounts.length; i++ )
+            {
+                statistics.bucketCounts[i] = bucketCounts.get( i );
+            }
+
+            for ( KeyCount keyCount : mostCommon )
+            {
+                // Don't keep keys which are not more common than the average
+                if ( keyCount.count * distinctKeys > count )
+                {
+                    statistics.mostCommon.put( keyCount.key, keyCount.count );
+                    statistics.mostCommonCount += keyCount.count;
+                }
+            }
+
+            return statistics;
+        }
+    }
+
+
+    /**
+     * A position in the index, found using the histogram : the key/ID pairs above the key
+     * start at the given position. A null key stands for the first pair of the index.
+     */
+    public static final class SeekPoint
+    {
+        private final Object key;
+        private final long position;
+
+
+        private SeekPoint( Object key, long position )
+        {
+            this.key = key;
+            this.position = position;
+        }
+
+
+        /**
+         * @return The key after which the index must be read, or null to read it from its first key
+         */
+        public Object getKey()
+        {
+            return key;
+        }
+
+
+        /**
+         * @return The estimated position of the first key/ID pair above the key
+         */
+        public long getPosition()
+        {
+            return position;
+        }
+    }
+
+
+    /**
+     * A key and its number of key/ID pairs, ordered by number of pairs
+     */
+    private static final class KeyCount implements Comparable<KeyCount>
+    {
+        private final Object key;
+        private final long count;
+
+
+        private KeyCount( Object key, long count )
+        {
+            this.key = key;
+            this.count = count;
+        }
+
+
+        @Override
+        public int compareTo( KeyCount that )
+        {
+            return ( count < that.count ) ? -1 : ( ( count == that.count ) ? 0 : 1 );
+        }
+    }
+}
@@ -455,7 +455,7 @@ public interface Store
 
 
     /**
-     * @return The ReadWrite lock used to protect the server against concurrent read and writes
+     * @return The ReadWrite lock used to protect this partition against concurrent read and writes
      */
     ReadWriteLock getReadWriteLock();
     
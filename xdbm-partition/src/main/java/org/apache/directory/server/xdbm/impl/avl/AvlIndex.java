@@ -124,6 +124,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
     public void add( K attrVal, String id ) throws Exception
     {
         forward.put( attrVal, id );
+        keyAdded( attrVal );
 
         if ( withReverse )
         {
@@ -182,6 +183,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
                 {
                     Tuple<String, K> tuple = cursor.get();
                     forward.remove( tuple.getValue(), id );
+                    keyDropped( tuple.getValue() );
                 }
 
                 cursor.close();
@@ -191,6 +193,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
             {
                 K key = reverse.get( id );
                 forward.remove( key );
+                keyDropped( key );
             }
 
             reverse.remove( id );
@@ -204,6 +207,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
     public void drop( K attrVal, String id ) throws Exception
     {
         forward.remove( attrVal, id );
+        keyDropped( attrVal );
 
         if ( withReverse )
         {
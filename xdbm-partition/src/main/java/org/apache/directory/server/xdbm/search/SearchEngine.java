@@ -20,10 +20,13 @@
 package org.apache.directory.server.xdbm.search;
 
 
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
 import org.apache.directory.api.ldap.model.constants.JndiPropertyConstants;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.xdbm.Index;
 
 
 /**
@@ -82,6 +85,25 @@ public interface SearchEngine
         throws Exception;
 
 
+    /**
+     * Computes a Virtual List View window of the search result, sorted on an attribute
+     * having a user index, by reading the index around the target instead of sorting all
+     * the entries. The VLV response control is updated with the target position and the
+     * content count.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param searchContext the search context
+     * @param sortIndex The index of the sort attribute
+     * @param vlvRequest The VLV request control
+     * @param vlvResponse The VLV response control to update
+     * @return The entries in the window, in the sort order
+     * @throws Exception if the search fails
+     */
+    PartitionSearchResult computeWindow( SchemaManager schemaManager, SearchOperationContext searchContext,
+        Index<?, String> sortIndex, VirtualListViewRequest vlvRequest, VirtualListViewResponse vlvResponse )
+        throws Exception;
+
+
     /**
      * Builds an Evaluator for a filter expression.
      * 
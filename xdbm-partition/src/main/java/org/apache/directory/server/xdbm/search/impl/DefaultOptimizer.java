@@ -60,7 +60,7 @@ public class DefaultOptimizer<E> implements Optimizer
     static final String CANDIDATES_ANNOTATION_KEY = "candidates";
 
     /** the database this optimizer operates on */
-    private final Store db;
+    protected final Store db;
     private String contextEntryId;
 
 
@@ -299,23 +299,13 @@ public class DefaultOptimizer<E> implements Optimizer
      * @throws Exception if there is an error accessing an index
      */
     @SuppressWarnings("unchecked")
-    private <V> long getEqualityScan( SimpleNode<V> node ) throws Exception
+    protected <V> long getEqualityScan( SimpleNode<V> node ) throws Exception
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
 
-            String normalizedKey;
-            
-            if ( node.getValue().isSchemaAware() )
-            {
-                normalizedKey = node.getValue().getNormalized();
-            }
-            else
-            {
-                normalizedKey = node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getValue() );
-            }
-            
+            String normalizedKey = getNormalizedValue( node );
             Cursor<String> result = idx.forwardValueCursor( ( V ) normalizedKey );
             Set<String> values = new HashSet<String>();
             int nbFound = 0;
@@ -355,6 +345,26 @@ public class DefaultOptimizer<E> implements Optimizer
     }
 
 
+    /**
+     * Gets the normalized form of the value of a node, as it's stored in the index.
+     *
+     * @param node the node
+     * @return the normalized value
+     * @throws Exception if the value can't be normalized
+     */
+    protected String getNormalizedValue( SimpleNode<?> node ) throws Exception
+    {
+        if ( node.getValue().isSchemaAware() )
+        {
+            return node.getValue().getNormalized();
+        }
+        else
+        {
+            return node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getValue() );
+        }
+    }
+
+
     /**
      * Gets a scan count of the nodes that satisfy the greater or less than test
      * specified by the node.
@@ -365,7 +375,7 @@ public class DefaultOptimizer<E> implements Optimizer
      * @throws Exception if there is an error accessing an index
      */
     @SuppressWarnings("unchecked")
-    private <V> long getGreaterLessScan( SimpleNode<V> node, boolean isGreaterThan ) throws Exception
+    protected <V> long getGreaterLessScan( SimpleNode<V> node, boolean isGreaterThan ) throws Exception
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
@@ -396,7 +406,7 @@ public class DefaultOptimizer<E> implements Optimizer
      * @return The number of candidates
      * @throws Exception If there is an error accessing an index
      */
-    private long getSubstringScan( SubstringNode node ) throws Exception
+    protected long getSubstringScan( SubstringNode node ) throws Exception
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
@@ -20,26 +20,38 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import net.sf.ehcache.Element;
 
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
 import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
@@ -74,6 +86,9 @@ public class DefaultSearchEngine implements SearchEngine
     /** creates evaluators which check to see if candidates satisfy a filter expression */
     private final EvaluatorBuilder evaluatorBuilder;
 
+    /** The scan counts computed by the optimizer, per filter shape */
+    private final SearchPlanCache planCache;
+
 
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -94,6 +109,7 @@ public class DefaultSearchEngine implements SearchEngine
         this.optimizer = optimizer;
         this.cursorBuilder = cursorBuilder;
         this.evaluatorBuilder = evaluatorBuilder;
+        planCache = new SearchPlanCache( db, SearchPlanCache.DEFAULT_MAX_SIZE );
     }
 
 
@@ -109,6 +125,47 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * Gets the cache of the search plans used by this DefaultSearchEngine.
+     *
+     * @return the plan cache
+     */
+    public SearchPlanCache getPlanCache()
+    {
+        return planCache;
+    }
+
+
+    /**
+     * Annotates a filter, reusing the scan counts computed for a filter of the same shape
+     * if any.
+     *
+     * @param filter the filter to annotate
+     * @param scope the search scope
+     * @param schemaManager the current SchemaManager
+     * @return the filter scan count
+     * @throws Exception if the indices can't be accessed
+     */
+    private long annotate( ExprNode filter, SearchScope scope, SchemaManager schemaManager ) throws Exception
+    {
+        String shape = planCache.getShape( filter, scope, schemaManager );
+
+        if ( ( shape != null ) && planCache.apply( shape, filter ) )
+        {
+            return ( Long ) filter.get( "count" );
+        }
+
+        long count = optimizer.annotate( filter );
+
+        if ( shape != null )
+        {
+            planCache.store( shape, filter );
+        }
+
+        return count;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -145,47 +202,9 @@ public class DefaultSearchEngine implements SearchEngine
             }
         }
 
-        // --------------------------------------------------------------------
-        // Determine the effective base with aliases
-        // --------------------------------------------------------------------
-        Dn aliasedBase = null;
-
-
-        if ( db.getAliasCache() != null )
-        {
-            Element aliasBaseElement = db.getAliasCache().get( baseId );
-
-            if ( aliasBaseElement != null )
-            {
-                aliasedBase = ( Dn ) ( aliasBaseElement ).getObjectValue();
-            }
-        }
-        else
-        {
-            aliasedBase = db.getAliasIndex().reverseLookup( baseId );
-        }
-
-        Dn effectiveBase = baseDn;
-        String effectiveBaseId = baseId;
-
-        if ( ( aliasedBase != null ) && aliasDerefMode.isDerefFindingBase() )
-        {
-            /*
-             * If the base is an alias and alias dereferencing does occur on
-             * finding the base, or always then we set the effective base to the alias target
-             * got from the alias index.
-             */
-            if ( !aliasedBase.isSchemaAware() )
-            {
-                effectiveBase = new Dn( schemaManager, aliasedBase );
-            }
-            else
-            {
-                effectiveBase = aliasedBase;
-            }
-            
-            effectiveBaseId = db.getEntryId( effectiveBase );
-        }
+        ScopeNode scopeNode = createScopeNode( baseDn, baseId, aliasDerefMode, scope, schemaManager );
+        Dn effectiveBase = scopeNode.getBaseDn();
+        String effectiveBaseId = scopeNode.getBaseId();
 
         // --------------------------------------------------------------------
         // Specifically Handle Object Level Scope
@@ -202,19 +221,17 @@ public class DefaultSearchEngine implements SearchEngine
 
             if ( filter instanceof ObjectClassNode )
             {
-                ScopeNode node = new ScopeNode( aliasDerefMode, effectiveBase, effectiveBaseId, scope );
-                evaluator = new BaseLevelScopeEvaluator<>( db, node );
+                evaluator = new BaseLevelScopeEvaluator<>( db, scopeNode );
             }
             else
             {
-                optimizer.annotate( filter );
+                annotate( filter, scope, schemaManager );
                 evaluator = evaluatorBuilder.build( filter );
 
                 // Special case if the filter selects no candidate
                 if ( evaluator == null )
                 {
-                    ScopeNode node = new ScopeNode( aliasDerefMode, effectiveBase, effectiveBaseId, scope );
-                    evaluator = new BaseLevelScopeEvaluator<>( db, node );
+                    evaluator = new BaseLevelScopeEvaluator<>( db, scopeNode );
                 }
             }
 
@@ -232,24 +249,254 @@ public class DefaultSearchEngine implements SearchEngine
         // Add the scope node using the effective base to the filter
         ExprNode root;
 
+        // Annotate the node with the optimizer and return search enumeration.
         if ( filter instanceof ObjectClassNode )
         {
-            root = new ScopeNode( aliasDerefMode, effectiveBase, effectiveBaseId, scope );
+            root = scopeNode;
+            optimizer.annotate( root );
         }
         else
         {
             root = new AndNode();
             ( ( AndNode ) root ).getChildren().add( filter );
-            ExprNode node = new ScopeNode( aliasDerefMode, effectiveBase, effectiveBaseId, scope );
-            ( ( AndNode ) root ).getChildren().add( node );
+            ( ( AndNode ) root ).getChildren().add( scopeNode );
+
+            // The scope count depends on the base, it's not part of the plan
+            long count = annotate( filter, scope, schemaManager );
+
+            if ( count != 0L )
+            {
+                count = Math.min( count, optimizer.annotate( scopeNode ) );
+            }
+
+            root.set( "count", count );
         }
 
-        // Annotate the node with the optimizer and return search enumeration.
-        optimizer.annotate( root );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
 
-        Set<String> uuidSet = new HashSet<>();
         searchResult.setAliasDerefMode( aliasDerefMode );
+        computeCandidates( root, searchResult, resultSet );
+
+        searchResult.setEvaluator( evaluator );
+        searchResult.setResultSet( resultSet );
+
+        return searchResult;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionSearchResult computeWindow( final SchemaManager schemaManager, SearchOperationContext searchContext,
+        Index<?, String> sortIndex, VirtualListViewRequest vlvRequest, VirtualListViewResponse vlvResponse )
+        throws Exception
+    {
+        SearchScope scope = searchContext.getScope();
+        Dn baseDn = searchContext.getDn();
+        AliasDerefMode aliasDerefMode = searchContext.getAliasDerefMode();
+        final ExprNode filter = searchContext.getFilter();
+
+        String baseId = db.getEntryId( baseDn );
+
+        // The window is returned in the sort order
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        Set<IndexEntry<String, String>> resultSet = new LinkedHashSet<>();
+        searchResult.setAliasDerefMode( aliasDerefMode );
+        searchResult.setResultSet( resultSet );
+
+        if ( baseId == null )
+        {
+            if ( ( ( Partition ) db ).getSuffixDn().equals( baseDn ) )
+            {
+                // The context entry is not created yet, return an empty result
+                vlvResponse.setVirtualListViewResult( VirtualListViewResultCode.SUCCESS );
+
+                return searchResult;
+            }
+            else
+            {
+                // The search base doesn't exist
+                throw new LdapNoSuchObjectException( I18n.err( I18n.ERR_648, baseDn ) );
+            }
+        }
+
+        if ( vlvRequest.hasOffset() && ( ( vlvRequest.getOffset() < 1 ) || ( vlvRequest.getContentCount() < 0 ) ) )
+        {
+            vlvResponse.setVirtualListViewResult( VirtualListViewResultCode.OFFSETRANGEERROR );
+
+            return searchResult;
+        }
+
+        final ScopeNode scopeNode = createScopeNode( baseDn, baseId, aliasDerefMode, scope, schemaManager );
+        ExprNode root;
+
+        if ( filter instanceof ObjectClassNode )
+        {
+            root = scopeNode;
+            optimizer.annotate( root );
+        }
+        else
+        {
+            root = new AndNode();
+            ( ( AndNode ) root ).getChildren().add( filter );
+            ( ( AndNode ) root ).getChildren().add( scopeNode );
+            optimizer.annotate( root );
+        }
+
+        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
+
+        if ( evaluator == null )
+        {
+            // The filter selects no candidate
+            vlvResponse.setVirtualListViewResult( VirtualListViewResultCode.SUCCESS );
+
+            return searchResult;
+        }
+
+        final AttributeType sortType = sortIndex.getAttribute();
+
+        // The selected entries which don't have the sort attribute are not in the index
+        Callable<List<IndexEntry<String, String>>> missingEntries = new Callable<List<IndexEntry<String, String>>>()
+        {
+            @Override
+            public List<IndexEntry<String, String>> call() throws Exception
+            {
+                AndNode missingRoot = new AndNode();
+
+                if ( !( filter instanceof ObjectClassNode ) )
+                {
+                    missingRoot.getChildren().add( filter );
+                }
+
+                missingRoot.getChildren().add( scopeNode );
+                missingRoot.getChildren().add( new NotNode( new PresenceNode( sortType ) ) );
+                optimizer.annotate( missingRoot );
+
+                PartitionSearchResult missingResult = new PartitionSearchResult( schemaManager );
+                Set<IndexEntry<String, String>> candidates = new HashSet<>();
+                computeCandidates( missingRoot, missingResult, candidates );
+
+                Evaluator<? extends ExprNode> missingEvaluator = evaluatorBuilder.build( missingRoot );
+                List<IndexEntry<String, String>> missing = new ArrayList<>();
+
+                if ( missingEvaluator == null )
+                {
+                    return missing;
+                }
+
+                for ( IndexEntry<String, String> candidate : candidates )
+                {
+                    if ( missingEvaluator.evaluate( candidate ) )
+                    {
+                        missing.add( candidate );
+                    }
+                }
+
+                return missing;
+            }
+        };
+
+        @SuppressWarnings("unchecked")
+        VirtualListViewWindow window = new VirtualListViewWindow( ( Index<Object, String> ) sortIndex, evaluator,
+            !sortType.isSingleValued(), missingEntries, vlvRequest.getBeforeCount(), vlvRequest.getAfterCount() );
+
+        if ( vlvRequest.hasOffset() )
+        {
+            window.positionOnOffset( vlvRequest.getOffset(), vlvRequest.getContentCount() );
+        }
+        else
+        {
+            String assertion = Strings.utf8ToString( vlvRequest.getAssertionValue() );
+            window.positionOnKey( sortType.getEquality().getNormalizer().normalize( assertion ) );
+        }
+
+        window.compute();
+
+        LOG.debug( "VLV window of {} entries at position {} in {} for filter : {}", window.getEntries().size(),
+            window.getTargetPosition(), window.getContentCount(), root );
+
+        resultSet.addAll( window.getEntries() );
+        searchResult.setEvaluator( evaluator );
+
+        vlvResponse.setTargetPosition( ( int ) Math.min( window.getTargetPosition(), Integer.MAX_VALUE ) );
+        vlvResponse.setContentCount( ( int ) Math.min( window.getContentCount(), Integer.MAX_VALUE ) );
+        vlvResponse.setVirtualListViewResult( VirtualListViewResultCode.SUCCESS );
+
+        return searchResult;
+    }
+
+
+    /**
+     * Creates the scope node of a search, using the effective base : if the base is an
+     * alias and aliases are dereferenced when finding the base, the alias target.
+     *
+     * @param baseDn The search base
+     * @param baseId The search base UUID
+     * @param aliasDerefMode The alias dereferencing mode
+     * @param scope The search scope
+     * @param schemaManager The SchemaManager instance
+     * @return The scope node
+     * @throws Exception If the alias index can't be read
+     */
+    private ScopeNode createScopeNode( Dn baseDn, String baseId, AliasDerefMode aliasDerefMode, SearchScope scope,
+        SchemaManager schemaManager ) throws Exception
+    {
+        Dn aliasedBase = null;
+
+        if ( db.getAliasCache() != null )
+        {
+            Element aliasBaseElement = db.getAliasCache().get( baseId );
+
+            if ( aliasBaseElement != null )
+            {
+                aliasedBase = ( Dn ) ( aliasBaseElement ).getObjectValue();
+            }
+        }
+        else
+        {
+            aliasedBase = db.getAliasIndex().reverseLookup( baseId );
+        }
+
+        Dn effectiveBase = baseDn;
+        String effectiveBaseId = baseId;
+
+        if ( ( aliasedBase != null ) && aliasDerefMode.isDerefFindingBase() )
+        {
+            /*
+             * If the base is an alias and alias dereferencing does occur on
+             * finding the base, or always then we set the effective base to the alias target
+             * got from the alias index.
+             */
+            if ( !aliasedBase.isSchemaAware() )
+            {
+                effectiveBase = new Dn( schemaManager, aliasedBase );
+            }
+            else
+            {
+                effectiveBase = aliasedBase;
+            }
+
+            effectiveBaseId = db.getEntryId( effectiveBase );
+        }
+
+
+        return new ScopeNode( aliasDerefMode, effectiveBase, effectiveBaseId, scope );
+    }
+
+
+    /**
+     * Computes the candidates selected by a filter, and stores them into the result set.
+     *
+     * @param root The filter, including the scope node
+     * @param searchResult The search result
+     * @param resultSet The Set receiving the candidates
+     * @throws Exception If the indexes can't be read
+     */
+    private void computeCandidates( ExprNode root, PartitionSearchResult searchResult,
+        Set<IndexEntry<String, String>> resultSet ) throws Exception
+    {
+        Set<String> uuidSet = new HashSet<>();
         searchResult.setCandidateSet( uuidSet );
 
         long nbResults = cursorBuilder.build( root, searchResult );
@@ -283,11 +530,6 @@ public class DefaultSearchEngine implements SearchEngine
                 resultSet.add( forwardIndexEntry );
             }
         }
-
-        searchResult.setEvaluator( evaluator );
-        searchResult.setResultSet( resultSet );
-
-        return searchResult;
     }
 
 
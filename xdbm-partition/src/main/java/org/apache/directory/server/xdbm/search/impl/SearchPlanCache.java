@@ -0,0 +1,343 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.registries.Registries;
+import org.apache.directory.server.xdbm.Store;
+
+
+/**
+ * A cache of the scan counts computed by the optimizer, keyed by the shape of the filter :
+ * its structure, the attributes and the indices it uses, and the search scope, the asserted
+ * values being ignored (except for objectClass, as the selectivity of the objectClass values
+ * are very different). Each Store has its own search engine, hence its own cache.
+ * <br>
+ * When a search uses a filter whose shape is cached, the counts of the first evaluated filter
+ * are reused, so the indices are not probed again, and the search engine drives the search
+ * using the same index order. A cached count is never 0, so a plan may only make a search
+ * slower, never wrong.
+ * <br>
+ * The cache is cleared when the schema is modified. As the presence of an index is part of the
+ * shape, adding or removing an index also invalidates the related plans.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchPlanCache
+{
+    /** The default maximum number of cached plans */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    /** the database the plans are computed for */
+    private final Store db;
+
+    /** The cached counts, in the filter nodes prefix order, the least recently used first */
+    private final Map<String, long[]> plans;
+
+    /** The schema the plans were computed with */
+    private Registries registries;
+
+    /** The number of searches using a cached plan */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of searches with no cached plan */
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * Creates a new SearchPlanCache instance
+     *
+     * @param db the database the plans are computed for
+     * @param maxSize the maximum number of cached plans
+     */
+    public SearchPlanCache( Store db, final int maxSize )
+    {
+        this.db = db;
+
+        plans = new LinkedHashMap<String, long[]>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, long[]> eldest )
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+
+    /**
+     * Computes the shape of a filter, used as the plan key.
+     *
+     * @param filter the filter
+     * @param scope the search scope
+     * @param schemaManager the current SchemaManager
+     * @return the filter shape, or null if the plan of this filter can't be cached
+     * @throws Exception if the Store can't be accessed
+     */
+    public String getShape( ExprNode filter, SearchScope scope, SchemaManager schemaManager ) throws Exception
+    {
+        checkSchema( schemaManager );
+
+        StringBuilder sb = new StringBuilder();
+        sb.append( scope.name() ).append( ':' );
+
+        if ( !appendShape( sb, filter ) )
+        {
+            return null;
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Annotates a filter with the counts of its cached plan
+     *
+     * @param shape the filter shape
+     * @param filter the filter
+     * @return true if a plan was found
+     */
+    public boolean apply( String shape, ExprNode filter )
+    {
+        long[] counts;
+
+        synchronized ( plans )
+        {
+            counts = plans.get( shape );
+        }
+
+        if ( counts == null )
+        {
+            misses.incrementAndGet();
+
+            return false;
+        }
+
+        List<ExprNode> nodes = new ArrayList<>( counts.length );
+        collectNodes( filter, nodes );
+
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            nodes.get( i ).set( "count", counts[i] );
+        }
+
+        hits.incrementAndGet();
+
+        return true;
+    }
+
+
+    /**
+     * Stores the counts of an annotated filter as the plan for its shape
+     *
+     * @param shape the filter shape
+     * @param filter the annotated filter
+     */
+    public void store( String shape, ExprNode filter )
+    {
+        List<ExprNode> nodes = new ArrayList<>();
+        collectNodes( filter, nodes );
+        long[] counts = new long[nodes.size()];
+
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            Object count = nodes.get( i ).get( "count" );
+
+            if ( count == null )
+            {
+                counts[i] = Long.MAX_VALUE;
+            }
+            else
+            {
+                // Another value may select some candidates : never skip a node
+                counts[i] = Math.max( 1L, ( Long ) count );
+            }
+        }
+
+        synchronized ( plans )
+        {
+            plans.put( shape, counts );
+        }
+    }
+
+
+    /**
+     * Removes all the cached plans
+     */
+    public void clear()
+    {
+        synchronized ( plans )
+        {
+            plans.clear();
+        }
+    }
+
+
+    /**
+     * @return the number of cached plans
+     */
+    public int size()
+    {
+        synchronized ( plans )
+        {
+            return plans.size();
+        }
+    }
+
+
+    /**
+     * @return the number of searches which used a cached plan
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * @return the number of searches which had no cached plan
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+
+    /**
+     * The SchemaManager replaces its Registries when the schema is modified
+     */
+    private void checkSchema( SchemaManager schemaManager )
+    {
+        Registries current = ( schemaManager == null ) ? null : schemaManager.getRegistries();
+
+        synchronized ( plans )
+        {
+            if ( current != registries )
+            {
+                plans.clear();
+                registries = current;
+            }
+        }
+    }
+
+
+    private void collectNodes( ExprNode node, List<ExprNode> nodes )
+    {
+        nodes.add( node );
+
+        if ( node instanceof BranchNode )
+        {
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                collectNodes( child, nodes );
+            }
+        }
+    }
+
+
+    private boolean appendShape( StringBuilder sb, ExprNode node ) throws Exception
+    {
+        if ( node instanceof BranchNode )
+        {
+            sb.append( node.getAssertionType().name() ).append( '(' );
+
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                if ( !appendShape( sb, child ) )
+                {
+                    return false;
+                }
+            }
+
+            sb.append( ')' );
+
+            return true;
+        }
+
+        if ( node instanceof ObjectClassNode )
+        {
+            sb.append( "OC;" );
+
+            return true;
+        }
+
+        if ( node instanceof ExtensibleNode )
+        {
+            ExtensibleNode extensibleNode = ( ExtensibleNode ) node;
+            sb.append( "EXTENSIBLE:" ).append( extensibleNode.getMatchingRuleId() ).append( ':' );
+            AttributeType attributeType = extensibleNode.getAttributeType();
+
+            if ( attributeType != null )
+            {
+                sb.append( attributeType.getOid() );
+            }
+
+            sb.append( ';' );
+
+            return true;
+        }
+
+        if ( !( node instanceof LeafNode ) || ( ( ( LeafNode ) node ).getAttributeType() == null ) )
+        {
+            // Assertion and scope nodes depend on the search
+            return false;
+        }
+
+        AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
+        sb.append( node.getAssertionType().name() ).append( ':' ).append( attributeType.getOid() );
+        sb.append( db.hasIndexOn( attributeType ) ? "+" : "-" );
+
+        if ( node instanceof SubstringNode )
+        {
+            SubstringNode substringNode = ( SubstringNode ) node;
+            sb.append( substringNode.getInitial() != null ? 'i' : '*' );
+            sb.append( substringNode.getFinal() != null ? 'f' : '*' );
+        }
+        else if ( ( node instanceof EqualityNode )
+            && SchemaConstants.OBJECT_CLASS_AT_OID.equals( attributeType.getOid() ) )
+        {
+            sb.append( '=' ).append( ( ( EqualityNode<?> ) node ).getValue().getNormalized() );
+        }
+
+        sb.append( ';' );
+
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.PrepareString;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.Store;
+
+
+/**
+ * Optimizer that annotates the filter using the statistics maintained on the indices,
+ * instead of probing them. The scan counts are estimated using the most common keys and
+ * the histogram of each index. When an index has no statistics, the index is probed as
+ * the {@link DefaultOptimizer} does.
+ * <br>
+ * The equality filters which are expected to select a few candidates are still evaluated
+ * on the index, as their candidates are then directly used by the search engine.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StatisticsOptimizer<E> extends DefaultOptimizer<E>
+{
+    /** The estimated count under which the equality candidates are fetched from the index */
+    private static final long FETCH_CANDIDATES_THRESHOLD = 100L;
+
+
+    /**
+     * Creates an optimizer on a database.
+     *
+     * @param db the database this optimizer works for.
+     */
+    public StatisticsOptimizer( Store db ) throws Exception
+    {
+        super( db );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected <V> long getEqualityScan( SimpleNode<V> node ) throws Exception
+    {
+        IndexStatistics statistics = getStatistics( node );
+
+        if ( statistics == null )
+        {
+            return super.getEqualityScan( node );
+        }
+
+        long count = statistics.estimateEquals( getNormalizedValue( node ) );
+
+        if ( count < FETCH_CANDIDATES_THRESHOLD )
+        {
+            // Cheap enough : get the exact count and the candidates
+            return super.getEqualityScan( node );
+        }
+
+        node.set( CANDIDATES_ANNOTATION_KEY, null );
+
+        return count;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected <V> long getGreaterLessScan( SimpleNode<V> node, boolean isGreaterThan ) throws Exception
+    {
+        IndexStatistics statistics = getStatistics( node );
+
+        if ( statistics == null )
+        {
+            return super.getGreaterLessScan( node, isGreaterThan );
+        }
+
+        String normalizedValue = getNormalizedValue( node );
+
+        if ( isGreaterThan )
+        {
+            return statistics.estimateGreaterOrEqual( normalizedValue );
+        }
+        else
+        {
+            return statistics.estimateLessOrEqual( normalizedValue );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected long getSubstringScan( SubstringNode node ) throws Exception
+    {
+        IndexStatistics statistics = getStatistics( node );
+        String initial = node.getInitial();
+
+        if ( ( statistics == null ) || Strings.isEmpty( initial ) )
+        {
+            return super.getSubstringScan( node );
+        }
+
+        // The candidates are the keys starting with the initial part, normalized as the
+        // SubstringCursor does before positioning itself on the index
+        String normalizedInitial = node.getAttributeType().getEquality().getNormalizer().normalize( initial,
+            PrepareString.AssertionType.SUBSTRING_INITIAL );
+
+        return statistics.estimateRange( normalizedInitial, normalizedInitial + Character.MAX_VALUE );
+    }
+
+
+    /**
+     * @return The statistics of the index on the node attribute, or null if there is none
+     */
+    private IndexStatistics getStatistics( LeafNode node ) throws Exception
+    {
+        if ( !db.hasIndexOn( node.getAttributeType() ) )
+        {
+            return null;
+        }
+
+        Index<?, String> index = db.getIndex( node.getAttributeType() );
+
+        return index.getStatistics();
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.search.Evaluator;
+
+
+/**
+ * Computes a Virtual List View window by reading the user index of the sort attribute,
+ * instead of sorting the whole search result. The target is found by seeking the index,
+ * either to the assertion value, or to the requested offset using the index histogram,
+ * and the index is then read in both directions, keeping the entries selected by the
+ * search filter and scope, until the before and after counts are reached.
+ * <br>
+ * The positions and the content count are expressed in key/ID pairs of the index, so
+ * they are estimates when the filter doesn't select all the entries having the sort
+ * attribute, as allowed by the VLV specification. The entries which don't have the sort
+ * attribute are sorted last, and are only computed when the window reaches the end of
+ * the index.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class VirtualListViewWindow
+{
+    /** The index of the sort attribute */
+    private final Index<Object, String> index;
+
+    /** The evaluator for the search filter and scope */
+    private final Evaluator<? extends ExprNode> evaluator;
+
+    /** Tells if the sort attribute can have more than one value */
+    private final boolean multiValued;
+
+    /** Computes the selected entries which don't have the sort attribute */
+    private final Callable<List<IndexEntry<String, String>>> missingEntries;
+
+    /** The number of entries requested before the target */
+    private final int beforeCount;
+
+    /** The number of entries requested after the target */
+    private final int afterCount;
+
+    /** The key from which the index is read, null to read it from its first key */
+    private Object seekKey;
+
+    /** Tells if the pairs having the seek key are read (assertion) or skipped (histogram bound) */
+    private boolean seekIncluded;
+
+    /** The estimated position of the first pair read after seeking */
+    private long seekPosition;
+
+    /** The number of pairs to skip after seeking to reach the target */
+    private long skip;
+
+    /** The entries in the window */
+    private List<IndexEntry<String, String>> entries;
+
+    /** The position of the target entry, starting at 1 */
+    private long targetPosition;
+
+    /** The estimated number of entries in the list */
+    private long contentCount;
+
+
+    /**
+     * Creates a new instance of VirtualListViewWindow.
+     *
+     * @param index The index of the sort attribute
+     * @param evaluator The evaluator for the search filter and scope
+     * @param multiValued Tells if the sort attribute can have more than one value
+     * @param missingEntries Computes the selected entries which don't have the sort attribute
+     * @param beforeCount The number of entries requested before the target
+     * @param afterCount The number of entries requested after the target
+     */
+    VirtualListViewWindow( Index<Object, String> index, Evaluator<? extends ExprNode> evaluator,
+        boolean multiValued, Callable<List<IndexEntry<String, String>>> missingEntries, int beforeCount,
+        int afterCount )
+    {
+        this.index = index;
+        this.evaluator = evaluator;
+        this.multiValued = multiValued;
+        this.missingEntries = missingEntries;
+        this.beforeCount = Math.max( 0, beforeCount );
+        this.afterCount = Math.max( 0, afterCount );
+    }
+
+
+    /**
+     * Positions the window on an offset. The offset is scaled when the client's content
+     * count differs from the index count.
+     *
+     * @param offset The offset of the target, starting at 1
+     * @param clientCount The content count known by the client, 0 if it doesn't know it
+     * @throws Exception If the index can't be read
+     */
+    void positionOnOffset( long offset, long clientCount ) throws Exception
+    {
+        long count = index.count();
+        long target = getTargetPosition( offset, clientCount, count ) - 1L;
+
+        IndexStatistics statistics = index.getStatistics();
+
+        seekIncluded = false;
+
+        if ( ( statistics != null ) && ( statistics.getCount() > 0L ) )
+        {
+            IndexStatistics.SeekPoint seekPoint = statistics.seek( target );
+            seekKey = seekPoint.getKey();
+            seekPosition = ( seekKey == null ) ? 0L : seekPoint.getPosition();
+        }
+        else
+        {
+            seekKey = null;
+            seekPosition = 0L;
+        }
+
+        skip = Math.max( 0L, target - seekPosition );
+    }
+
+
+    /**
+     * Positions the window on the first entry whose sort value is greater or equal to
+     * a normalized assertion value.
+     *
+     * @param key The normalized assertion value
+     * @throws Exception If the index can't be read
+     */
+    void positionOnKey( Object key ) throws Exception
+    {
+        IndexStatistics statistics = index.getStatistics();
+
+        seekKey = key;
+        seekIncluded = true;
+        skip = 0L;
+
+        if ( statistics != null )
+        {
+            seekPosition = statistics.estimatePosition( key );
+        }
+        else
+        {
+            seekPosition = Math.max( 0L, index.count() - index.greaterThanCount( key ) );
+        }
+    }
+
+
+    /**
+     * Computes the position of the target from an offset, as per the VLV specification :
+     * the first and last offsets of the client's list are mapped to the first and last entries
+     * of the server's list.
+     *
+     * @param offset The offset of the target, starting at 1
+     * @param clientCount The content count known by the client, 0 if it doesn't know it
+     * @param count The number of entries in the list
+     * @return The position of the target, starting at 1, count + 1 if it's after the last entry
+     */
+    static long getTargetPosition( long offset, long clientCount, long count )
+    {
+        if ( ( clientCount == 0L ) || ( offset > clientCount ) )
+        {
+            return Math.min( offset, count + 1L );
+        }
+
+        if ( clientCount == 1L )
+        {
+            return 1L;
+        }
+
+        return 1L + ( offset - 1L ) * Math.max( 0L, count - 1L ) / ( clientCount - 1L );
+    }
+
+
+    /**
+     * Reads the window from the index.
+     *
+     * @throws Exception If the index or the entries can't be read
+     */
+    void compute() throws Exception
+    {
+        long count = index.count();
+        entries = new ArrayList<>();
+        contentCount = count;
+
+        // Read the target and the entries after it
+        long read = 0L;
+        long beforeTarget = -1L;
+        boolean exhausted = false;
+
+        try ( Cursor<IndexEntry<Object, String>> cursor = open() )
+        {
+            while ( read < skip )
+            {
+                if ( !cursor.next() )
+                {
+                    exhausted = true;
+                    break;
+                }
+
+                read++;
+            }
+
+            while ( !exhausted && ( entries.size() <= afterCount ) )
+            {
+                if ( !cursor.next() )
+                {
+                    exhausted = true;
+                    break;
+                }
+
+                IndexEntry<String, String> candidate = accept( cursor.get() );
+
+                if ( candidate != null )
+                {
+                    if ( entries.isEmpty() )
+                    {
+                        beforeTarget = read;
+                    }
+
+                    entries.add( candidate );
+                }
+
+                read++;
+            }
+        }
+
+        List<IndexEntry<String, String>> missing = Collections.emptyList();
+
+        if ( exhausted )
+        {
+            // The entries without the sort attribute come after the index
+            missing = missingEntries.call();
+            contentCount = count + missing.size();
+        }
+
+        List<IndexEntry<String, String>> before;
+
+        if ( beforeTarget >= 0L )
+        {
+            targetPosition = seekPosition + beforeTarget + 1L;
+            before = readBefore( beforeTarget, beforeCount );
+
+            for ( int i = 0; ( i < missing.size() ) && ( entries.size() <= afterCount ); i++ )
+            {
+                entries.add( missing.get( i ) );
+            }
+        }
+        else
+        {
+            // The target is not in the index
+            int target = 0;
+
+            if ( !seekIncluded )
+            {
+                target = ( int ) Math.max( 0L, Math.min( missing.size(), seekPosition + skip - count ) );
+            }
+
+            for ( int i = target; ( i < missing.size() ) && ( entries.size() <= afterCount ); i++ )
+            {
+                entries.add( missing.get( i ) );
+            }
+
+            targetPosition = count + target + 1L;
+            before = new ArrayList<>( missing.subList( Math.max( 0, target - beforeCount ), target ) );
+
+            if ( before.size() < beforeCount )
+            {
+                before.addAll( 0, readBefore( -1L, beforeCount - before.size() ) );
+            }
+        }
+
+        entries.addAll( 0, before );
+    }
+
+
+    /**
+     * Reads the entries before the target, walking the index backward.
+     *
+     * @param beforeTarget The number of pairs read after seeking before the target, -1 to read from the end
+     * @param maxEntries The maximum number of entries to read
+     * @return The entries, in the index order
+     */
+    private List<IndexEntry<String, String>> readBefore( long beforeTarget, int maxEntries ) throws Exception
+    {
+        List<IndexEntry<String, String>> before = new ArrayList<>();
+
+        if ( maxEntries == 0 )
+        {
+            return before;
+        }
+
+        try ( Cursor<IndexEntry<Object, String>> cursor = ( beforeTarget < 0L ) ? index.forwardCursor() : open() )
+        {
+            boolean positioned = false;
+
+            if ( beforeTarget < 0L )
+            {
+                cursor.afterLast();
+            }
+            else
+            {
+                // Move on the pair just before the target
+                for ( long i = 0L; i < beforeTarget; i++ )
+                {
+                    cursor.next();
+                    positioned = true;
+                }
+            }
+
+            while ( before.size() < maxEntries )
+            {
+                if ( !positioned && !cursor.previous() )
+                {
+                    break;
+                }
+
+                positioned = false;
+
+                IndexEntry<String, String> candidate = accept( cursor.get() );
+
+                if ( candidate != null )
+                {
+                    before.add( candidate );
+                }
+            }
+        }
+
+        Collections.reverse( before );
+
+        return before;
+    }
+
+
+    /**
+     * Opens a cursor on the index, positioned on the seek key
+     */
+    private Cursor<IndexEntry<Object, String>> open() throws Exception
+    {
+        Cursor<IndexEntry<Object, String>> cursor = index.forwardCursor();
+
+        if ( seekKey == null )
+        {
+            cursor.beforeFirst();
+        }
+        else
+        {
+            IndexEntry<Object, String> indexEntry = new IndexEntry<>();
+            indexEntry.setKey( seekKey );
+
+            if ( seekIncluded )
+            {
+                cursor.before( indexEntry );
+            }
+            else
+            {
+                cursor.after( indexEntry );
+            }
+        }
+
+        return cursor;
+    }
+
+
+    /**
+     * Checks that an index pair belongs to the window : its entry must be selected by the
+     * filter and the scope, and, for a multi-valued attribute, the pair must hold the entry's
+     * least value, which is the one the entry is sorted on.
+     *
+     * @return The candidate, with its entry, or null if the pair is not part of the window
+     */
+    private IndexEntry<String, String> accept( IndexEntry<Object, String> pair ) throws Exception
+    {
+        String id = pair.getId();
+
+        if ( multiValued && !isSameKey( index.reverseLookup( id ), pair.getKey() ) )
+        {
+            return null;
+        }
+
+        IndexEntry<String, String> candidate = new IndexEntry<>();
+        candidate.setId( id );
+
+        if ( evaluator.evaluate( candidate ) )
+        {
+            return candidate;
+        }
+
+        return null;
+    }
+
+
+    private static boolean isSameKey( Object key1, Object key2 )
+    {
+        if ( ( key1 instanceof byte[] ) && ( key2 instanceof byte[] ) )
+        {
+            return Arrays.equals( ( byte[] ) key1, ( byte[] ) key2 );
+        }
+
+        return ( key1 != null ) && key1.equals( key2 );
+    }
+
+
+    /**
+     * @return The entries in the window, in the sort order
+     */
+    List<IndexEntry<String, String>> getEntries()
+    {
+        return entries;
+    }
+
+
+    /**
+     * @return The position of the target entry, starting at 1
+     */
+    long getTargetPosition()
+    {
+        return targetPosition;
+    }
+
+
+    /**
+     * @return The estimated number of entries in the list
+     */
+    long getContentCount()
+    {
+        return contentCount;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link DnCacheInvalidations} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DnCacheInvalidationsTest
+{
+    @Test
+    public void testSubtreeInvalidation() throws Exception
+    {
+        DnCacheInvalidations invalidations = new DnCacheInvalidations( 4 );
+        Dn people = new Dn( "ou=people,dc=example,dc=com" );
+        Dn user = new Dn( "uid=jdoe,ou=people,dc=example,dc=com" );
+        Dn group = new Dn( "cn=admins,ou=groups,dc=example,dc=com" );
+
+        long epoch = invalidations.getEpoch();
+
+        assertTrue( invalidations.isValid( user, epoch ) );
+
+        assertEquals( epoch + 1, invalidations.invalidate( people ) );
+
+        // The renamed entry and its descendants are invalidated, not the other entries
+        assertFalse( invalidations.isValid( people, epoch ) );
+        assertFalse( invalidations.isValid( user, epoch ) );
+        assertTrue( invalidations.isValid( group, epoch ) );
+
+        // The DNs computed after the rename are valid
+        assertTrue( invalidations.isValid( user, epoch + 1 ) );
+    }
+
+
+    @Test
+    public void testOldEpochs() throws Exception
+    {
+        DnCacheInvalidations invalidations = new DnCacheInvalidations( 2 );
+        Dn group = new Dn( "cn=admins,ou=groups,dc=example,dc=com" );
+
+        invalidations.invalidate( new Dn( "ou=a,dc=example,dc=com" ) );
+        invalidations.invalidate( new Dn( "ou=b,dc=example,dc=com" ) );
+
+        assertTrue( invalidations.isValid( group, 0L ) );
+
+        invalidations.invalidate( new Dn( "ou=c,dc=example,dc=com" ) );
+
+        // We don't know anymore what was renamed at epoch 0
+        assertFalse( invalidations.isValid( group, 0L ) );
+        assertTrue( invalidations.isValid( group, 1L ) );
+    }
+}
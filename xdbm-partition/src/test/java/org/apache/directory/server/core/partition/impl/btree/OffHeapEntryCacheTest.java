@@ -0,0 +1,146 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link OffHeapEntryCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCacheTest
+{
+    /** A codec only storing the entry DN, padded to 100 bytes */
+    private static final OffHeapEntryCache.EntryCodec CODEC = new OffHeapEntryCache.EntryCodec()
+    {
+        public byte[] encode( Entry entry ) throws IOException
+        {
+            byte[] dn = entry.getDn().getName().getBytes( StandardCharsets.UTF_8 );
+            byte[] bytes = new byte[100];
+            bytes[0] = ( byte ) dn.length;
+            System.arraycopy( dn, 0, bytes, 1, dn.length );
+
+            return bytes;
+        }
+
+
+        public Entry decode( byte[] bytes ) throws IOException
+        {
+            try
+            {
+                return new DefaultEntry( new String( bytes, 1, bytes[0], StandardCharsets.UTF_8 ) );
+            }
+            catch ( LdapException le )
+            {
+                throw new IOException( le );
+            }
+        }
+    };
+
+
+    private static Entry entry( int i ) throws LdapException
+    {
+        return new DefaultEntry( "cn=e" + i + ",dc=test" );
+    }
+
+
+    @Test
+    public void testPutGetRemove() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( 2048, 1024, CODEC );
+
+        assertNull( cache.get( "1" ) );
+
+        cache.put( "1", entry( 1 ) );
+        cache.put( "2", entry( 2 ) );
+
+        assertEquals( "cn=e1,dc=test", cache.get( "1" ).getDn().getName() );
+        assertEquals( "cn=e2,dc=test", cache.get( "2" ).getDn().getName() );
+
+        // Replacing an entry
+        cache.put( "1", entry( 3 ) );
+        assertEquals( "cn=e3,dc=test", cache.get( "1" ).getDn().getName() );
+        assertEquals( 2, cache.size() );
+
+        cache.remove( "1" );
+        assertNull( cache.get( "1" ) );
+        assertEquals( 2, cache.getMisses() );
+
+        cache.clear();
+        assertNull( cache.get( "2" ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testEvictionWithinBudget() throws Exception
+    {
+        // 4 segments of 10 entries each
+        OffHeapEntryCache cache = new OffHeapEntryCache( 4000, 1000, CODEC );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( Integer.toString( i ), entry( i ) );
+        }
+
+        // Only the last segments are kept
+        assertEquals( 4000, cache.getMaxSize() );
+        assertEquals( 40, cache.size() );
+        assertNull( cache.get( "0" ) );
+        assertNull( cache.get( "59" ) );
+        assertNotNull( cache.get( "99" ) );
+    }
+
+
+    @Test
+    public void testHitPromotesEntryAboutToBeEvicted() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( 2000, 1000, CODEC );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            cache.put( Integer.toString( i ), entry( i ) );
+        }
+
+        // The first segment is the next one to be recycled : entry 0 is moved to the current one
+        assertNotNull( cache.get( "0" ) );
+
+        for ( int i = 20; i < 29; i++ )
+        {
+            cache.put( Integer.toString( i ), entry( i ) );
+        }
+
+        assertNotNull( cache.get( "0" ) );
+        assertNull( cache.get( "1" ) );
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Comparator;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link IndexStatistics} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsTest
+{
+    private static final Comparator<Object> COMPARATOR = new Comparator<Object>()
+    {
+        @Override
+        public int compare( Object key1, Object key2 )
+        {
+            return ( ( String ) key1 ).compareTo( ( String ) key2 );
+        }
+    };
+
+
+    /**
+     * Creates statistics on 10 000 pairs : the keys k0000 to k8999 once each, and the key
+     * "common" 1000 times.
+     */
+    private static IndexStatistics createStatistics()
+    {
+        IndexStatistics.Builder builder = new IndexStatistics.Builder( COMPARATOR, 10000L,
+            IndexStatistics.DEFAULT_BUCKETS, IndexStatistics.DEFAULT_MOST_COMMON );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            builder.addKey( "common" );
+        }
+
+        for ( int i = 0; i < 9000; i++ )
+        {
+            builder.addKey( String.format( "k%04d", i ) );
+        }
+
+        return builder.build();
+    }
+
+
+    @Test
+    public void testEmpty()
+    {
+        IndexStatistics statistics = new IndexStatistics( COMPARATOR );
+
+        assertEquals( 0L, statistics.getCount() );
+        // The statistics may be stale : an estimate is never 0
+        assertEquals( 1L, statistics.estimateEquals( "a" ) );
+        assertEquals( 1L, statistics.estimateGreaterOrEqual( "a" ) );
+        assertEquals( 1L, statistics.estimateLessOrEqual( "a" ) );
+        assertFalse( statistics.isStale() );
+    }
+
+
+    @Test
+    public void testEstimates()
+    {
+        IndexStatistics statistics = createStatistics();
+
+        assertEquals( 10000L, statistics.getCount() );
+        assertEquals( 9001L, statistics.getDistinctKeys() );
+
+        // The most common key is exact, the others are averaged
+        assertEquals( 1000L, statistics.estimateEquals( "common" ) );
+        assertEquals( 1L, statistics.estimateEquals( "k0042" ) );
+
+        // Ranges are precise up to a bucket
+        long bucket = 10000L / IndexStatistics.DEFAULT_BUCKETS;
+        assertTrue( Math.abs( statistics.estimateGreaterOrEqual( "k4500" ) - 4500L ) <= bucket );
+        assertTrue( Math.abs( statistics.estimateLessOrEqual( "k4500" ) - 5500L ) <= bucket );
+        assertTrue( Math.abs( statistics.estimateRange( "k1", "k1" + Character.MAX_VALUE ) - 1000L ) <= 2 * bucket );
+        assertEquals( 1L, statistics.estimateGreaterOrEqual( "z" ) );
+        assertEquals( 1L, statistics.estimateRange( "k5", "k4" ) );
+    }
+
+
+    @Test
+    public void testPositions()
+    {
+        IndexStatistics statistics = createStatistics();
+        long bucket = 10000L / IndexStatistics.DEFAULT_BUCKETS;
+
+        // The first bucket is read from the beginning of the index
+        IndexStatistics.SeekPoint seekPoint = statistics.seek( 0L );
+        assertEquals( null, seekPoint.getKey() );
+        assertEquals( 0L, seekPoint.getPosition() );
+
+        // The "common" key is first, then k0000 is at the position 1000
+        seekPoint = statistics.seek( 5000L );
+        long position = seekPoint.getPosition();
+        assertTrue( ( position <= 5000L ) && ( 5000L - position <= 2 * bucket ) );
+        assertEquals( String.format( "k%04d", position - 1001L ), seekPoint.getKey() );
+
+        // Beyond the last pair, the last bucket is returned
+        assertTrue( statistics.seek( 20000L ).getPosition() < 10000L );
+
+        assertTrue( Math.abs( statistics.estimatePosition( "k4000" ) - 5000L ) <= bucket );
+        assertEquals( 10000L, statistics.estimatePosition( "z" ) );
+        assertEquals( 0L, new IndexStatistics( COMPARATOR ).estimatePosition( "a" ) );
+    }
+
+
+    @Test
+    public void testIncrementalUpdates()
+    {
+        IndexStatistics statistics = createStatistics();
+
+        statistics.keyAdded( "common" );
+        statistics.keyAdded( "zzz" );
+        statistics.keyDropped( "k0000" );
+
+        assertEquals( 10001L, statistics.getCount() );
+        assertEquals( 1001L, statistics.estimateEquals( "common" ) );
+        assertTrue( statistics.estimateGreaterOrEqual( "zzz" ) > 0L );
+        assertFalse( statistics.isStale() );
+
+        for ( int i = 0; i < 2000; i++ )
+        {
+            statistics.keyAdded( "common" );
+        }
+
+        assertTrue( statistics.isStale() );
+    }
+
+
+    @Test
+    public void testSerialization() throws Exception
+    {
+        IndexStatistics statistics = createStatistics();
+        statistics.keyAdded( "common" );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        statistics.write( new DataOutputStream( baos ) );
+
+        IndexStatistics read = IndexStatistics.read( new DataInputStream( new ByteArrayInputStream(
+            baos.toByteArray() ) ), COMPARATOR );
+
+        assertEquals( statistics.getCount(), read.getCount() );
+        assertEquals( statistics.getDistinctKeys(), read.getDistinctKeys() );
+        assertEquals( statistics.estimateEquals( "common" ), read.estimateEquals( "common" ) );
+        assertEquals( statistics.estimateGreaterOrEqual( "k4500" ), read.estimateGreaterOrEqual( "k4500" ) );
+        assertEquals( statistics.toString(), read.toString() );
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ * 
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link SearchPlanCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchPlanCacheTest
+{
+    private static SchemaManager schemaManager;
+    private static CacheService cacheService;
+
+    private File wkdir;
+    private Store store;
+    private DefaultOptimizer<?> optimizer;
+    private SearchPlanCache planCache;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SearchPlanCacheTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        MockDirectoryService directoryService = new MockDirectoryService();
+
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        AvlPartition partition = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        partition.setId( "example" );
+        partition.setCacheSize( 10 );
+        partition.setPartitionPath( wkdir.toURI() );
+        partition.setSyncOnWrite( false );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+        store = partition;
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        optimizer = new DefaultOptimizer<>( store );
+        planCache = new SearchPlanCache( store, 2 );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy();
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    private ExprNode parse( String filter ) throws Exception
+    {
+        return FilterParser.parse( schemaManager, filter );
+    }
+
+
+    @Test
+    public void testShape() throws Exception
+    {
+        String shape = planCache.getShape( parse( "(&(cn=J*)(ou=Sales))" ), SearchScope.SUBTREE, schemaManager );
+
+        assertNotNull( shape );
+
+        // The values are not part of the shape
+        assertEquals( shape,
+            planCache.getShape( parse( "(&(cn=W*)(ou=apache))" ), SearchScope.SUBTREE, schemaManager ) );
+
+        // The scope, the structure and the attributes are
+        assertFalse( shape.equals(
+            planCache.getShape( parse( "(&(cn=J*)(ou=Sales))" ), SearchScope.ONELEVEL, schemaManager ) ) );
+        assertFalse( shape.equals(
+            planCache.getShape( parse( "(|(cn=J*)(ou=Sales))" ), SearchScope.SUBTREE, schemaManager ) ) );
+        assertFalse( shape.equals(
+            planCache.getShape( parse( "(&(cn=J*)(sn=Sales))" ), SearchScope.SUBTREE, schemaManager ) ) );
+
+        // Except for objectClass
+        assertFalse( planCache.getShape( parse( "(objectClass=person)" ), SearchScope.SUBTREE, schemaManager )
+            .equals( planCache.getShape( parse( "(objectClass=organizationalUnit)" ), SearchScope.SUBTREE,
+                schemaManager ) ) );
+    }
+
+
+    @Test
+    public void testApply() throws Exception
+    {
+        ExprNode first = parse( "(&(ou=Sales)(cn=unknown))" );
+        String shape = planCache.getShape( first, SearchScope.SUBTREE, schemaManager );
+
+        assertFalse( planCache.apply( shape, first ) );
+        assertEquals( 1L, planCache.getMisses() );
+
+        optimizer.annotate( first );
+        planCache.store( shape, first );
+
+        ExprNode second = parse( "(&(ou=Engineering)(cn=Jim Bean))" );
+
+        assertTrue( planCache.apply( shape, second ) );
+        assertEquals( 1L, planCache.getHits() );
+
+        // The counts are reused, but a node is never skipped
+        ExprNode cnNode = ( ( AndNode ) second ).getChildren().get( 1 );
+        assertEquals( 0L, ( ( Long ) first.get( "count" ) ).longValue() );
+        assertEquals( 1L, ( ( Long ) cnNode.get( "count" ) ).longValue() );
+        assertEquals( 1L, ( ( Long ) second.get( "count" ) ).longValue() );
+    }
+
+
+    @Test
+    public void testEviction() throws Exception
+    {
+        String[] filters =
+            { "(ou=a)", "(cn=a)", "(sn=a)" };
+
+        for ( String filter : filters )
+        {
+            ExprNode node = parse( filter );
+            optimizer.annotate( node );
+            planCache.store( planCache.getShape( node, SearchScope.SUBTREE, schemaManager ), node );
+        }
+
+        assertEquals( 2, planCache.size() );
+
+        ExprNode node = parse( "(ou=b)" );
+        assertFalse( planCache.apply( planCache.getShape( node, SearchScope.SUBTREE, schemaManager ), node ) );
+
+        planCache.clear();
+        assertEquals( 0, planCache.size() );
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link VirtualListViewWindow} target positions.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class VirtualListViewWindowTest
+{
+    @Test
+    public void testTargetPositionWithoutClientCount()
+    {
+        // The offset is used as is
+        assertEquals( 1L, VirtualListViewWindow.getTargetPosition( 1L, 0L, 100L ) );
+        assertEquals( 42L, VirtualListViewWindow.getTargetPosition( 42L, 0L, 100L ) );
+
+        // After the last entry
+        assertEquals( 101L, VirtualListViewWindow.getTargetPosition( 500L, 0L, 100L ) );
+    }
+
+
+    @Test
+    public void testTargetPositionWithClientCount()
+    {
+        // The first and last offsets are mapped to the first and last entries
+        assertEquals( 1L, VirtualListViewWindow.getTargetPosition( 1L, 10L, 100L ) );
+        assertEquals( 100L, VirtualListViewWindow.getTargetPosition( 10L, 10L, 100L ) );
+
+        // The offsets in between are scaled
+        assertEquals( 50L, VirtualListViewWindow.getTargetPosition( 500L, 1000L, 100L ) );
+        assertEquals( 1L, VirtualListViewWindow.getTargetPosition( 1L, 1L, 100L ) );
+
+        // An offset greater than the client count is after the last entry
+        assertEquals( 101L, VirtualListViewWindow.getTargetPosition( 11L, 10L, 100L ) );
+    }
+
+
+    @Test
+    public void testTargetPositionInEmptyList()
+    {
+        assertEquals( 1L, VirtualListViewWindow.getTargetPosition( 1L, 10L, 0L ) );
+        assertEquals( 1L, VirtualListViewWindow.getTargetPosition( 5L, 0L, 0L ) );
+    }
+}